@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel;
+
+import java.util.List;
+
+
+/**
+ * A ChildRowSource creates the child rows of a RowData the first
+ * time somebody asks for them.  (See RowData.setChildRowSource().)
+ *
+ * This lets a big tree, (e.g. a machine generated query with tens
+ * of thousands of rows), be turned into RowData objects a level at
+ * a time, only as far down as somebody actually looks.
+ */
+public interface ChildRowSource {
+
+    /**
+     * Create the child rows of the passed in parent row.
+     * The rows that are returned must not have a parent yet.
+     * The parent row adds them as its children, without firing
+     * any events, because creating them is not a change to the
+     * tree.
+     *
+     * This may be called more than once, (e.g. for a copy of
+     * the parent row), so it must create new rows every time.
+     */
+    public List<RowData> createChildRows(RowData parent);
+}
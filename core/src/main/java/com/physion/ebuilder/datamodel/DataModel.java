@@ -233,47 +233,47 @@ public class DataModel {
         /**
          * Initialize values of the EntityBase class.
          */
-        attribute = new Attribute("owner", "Owner",
-                                  Type.REFERENCE,
-                                  userCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("owner", "Owner",
+                                      Type.REFERENCE,
+                                      userCD, Cardinality.TO_ONE);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("uuid", "UUID",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("uuid", "UUID",
+                                      Type.UTF_8_STRING);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("incomplete", "Incomplete",
-                                  Type.BOOLEAN);
+        attribute = Attribute.valueOf("incomplete", "Incomplete",
+                                      Type.BOOLEAN);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("myproperties", "My Property",
-                                  Type.PER_USER_PARAMETERS_MAP,
-                                  null, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("myproperties", "My Property",
+                                      Type.PER_USER_PARAMETERS_MAP,
+                                      null, Cardinality.TO_MANY);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("properties", "Any Property",
-                                  Type.PER_USER_PARAMETERS_MAP,
-                                  null, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("properties", "Any Property",
+                                      Type.PER_USER_PARAMETERS_MAP,
+                                      null, Cardinality.TO_MANY);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("resources", "Resources",
-                                  Type.REFERENCE,
-                                  resourceCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("resources", "Resources",
+                                      Type.REFERENCE,
+                                      resourceCD, Cardinality.TO_MANY);
         entityBaseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the TaggableEntityBase class.
          */
-        attribute = new Attribute("mykeywords", "My Keywords",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  keywordTagCD,
-                                  Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("mykeywords", "My Keywords",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      keywordTagCD,
+                                      Cardinality.TO_MANY);
         taggableEntityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("keywords", "All Keywords",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  keywordTagCD,
-                                  Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("keywords", "All Keywords",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      keywordTagCD,
+                                      Cardinality.TO_MANY);
         taggableEntityBaseCD.addAttribute(attribute);
 
 
@@ -281,420 +281,427 @@ public class DataModel {
          * Initialize values of the AnnotatableEntityBase class
          */
 
-        attribute = new Attribute("notes", "All Notes", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                noteCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("notes", "All Notes", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                    noteCD, Cardinality.TO_MANY);
         annotatableEntityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("mynotes", "My Notes", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                noteCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("mynotes", "My Notes", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                    noteCD, Cardinality.TO_MANY);
         annotatableEntityBaseCD.addAttribute(attribute);
 
         /**
          * Initialize values for the Annotation class
          */
 
-        attribute = new Attribute("text", "Text",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("text", "Text",
+                                      Type.UTF_8_STRING);
         annotationCD.addAttribute(attribute);
 
         /**
          * Initialize values for the TimelineAnnotation class
          */
 
-        attribute = new Attribute("startTime", "Start Time",
-                                  Type.DATE_TIME);
+        attribute = Attribute.valueOf("startTime", "Start Time",
+                                      Type.DATE_TIME);
         timelineAnnotationCD.addAttribute(attribute);
 
-        attribute = new Attribute("endTime", "End Time",
-                                  Type.DATE_TIME);
+        attribute = Attribute.valueOf("endTime", "End Time",
+                                      Type.DATE_TIME);
         timelineAnnotationCD.addAttribute(attribute);
 
-        attribute = new Attribute("startTimeZone", "Start Timezone",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("startTimeZone", "Start Timezone",
+                                      Type.UTF_8_STRING);
         timelineAnnotationCD.addAttribute(attribute);
 
-        attribute = new Attribute("endTimeZone", "End Timezone",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("endTimeZone", "End Timezone",
+                                      Type.UTF_8_STRING);
         timelineAnnotationCD.addAttribute(attribute);
 
         /**
          * Initialize values of the TimelineElement class.
          */
-        attribute = new Attribute("startTime", "Start Time",
-                                  Type.DATE_TIME);
+        attribute = Attribute.valueOf("startTime", "Start Time",
+                                      Type.DATE_TIME);
         timelineElementCD.addAttribute(attribute);
 
-        attribute = new Attribute("endTime", "End Time",
-                                  Type.DATE_TIME);
+        attribute = Attribute.valueOf("endTime", "End Time",
+                                      Type.DATE_TIME);
         timelineElementCD.addAttribute(attribute);
 
-        attribute = new Attribute("startTimeZone", "Start Timezone",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("startTimeZone", "Start Timezone",
+                                      Type.UTF_8_STRING);
         timelineElementCD.addAttribute(attribute);
 
-        attribute = new Attribute("endTimeZone", "End Timezone",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("endTimeZone", "End Timezone",
+                                      Type.UTF_8_STRING);
         timelineElementCD.addAttribute(attribute);
 
-        attribute = new Attribute("timelineannotations", "All Timeline Annotations", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                timelineAnnotationCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("timelineannotations", "All Timeline Annotations", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                    timelineAnnotationCD, Cardinality.TO_MANY);
         timelineElementCD.addAttribute(attribute);
 
-        attribute = new Attribute("mytimelineannotations", "My Timeline Annotations", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                timelineAnnotationCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("mytimelineannotations", "My Timeline Annotations", Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                    timelineAnnotationCD, Cardinality.TO_MANY);
         timelineElementCD.addAttribute(attribute);
 
         /**
          * Initialize values of the PurposeAndNotesEntity class.
          */
-        attribute = new Attribute("purpose", "Purpose",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("purpose", "Purpose",
+                                      Type.UTF_8_STRING);
         purposeAndNotesEntityCD.addAttribute(attribute);
 
-        attribute = new Attribute("notes", "Notes",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("notes", "Notes",
+                                      Type.UTF_8_STRING);
         purposeAndNotesEntityCD.addAttribute(attribute);
 
         /**
          * Initialize values of the IOBase class.
          */
-        attribute = new Attribute("units", "Units",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("units", "Units",
+                                      Type.UTF_8_STRING);
         iOBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("externalDevice", "External Device",
-                                  Type.REFERENCE,
-            externalDeviceCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("externalDevice", "External Device",
+                                      Type.REFERENCE,
+                externalDeviceCD, Cardinality.TO_ONE);
         iOBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("externalDeviceParameters", "External Device Parameters",
-                                  Type.PARAMETERS_MAP, null, Cardinality.N_A);
+        attribute = Attribute.valueOf("externalDeviceParameters", "External Device Parameters",
+                                      Type.PARAMETERS_MAP, null, Cardinality.N_A);
         iOBaseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the ResponseBase class.
          */
-        attribute = new Attribute("dateType", "Data Type",
-                                  Type.INT_16);
+        attribute = Attribute.valueOf("dateType", "Data Type",
+                                      Type.INT_16);
         responseBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("byteOrder", "Byte Order",
-                                  Type.INT_16);
+        attribute = Attribute.valueOf("byteOrder", "Byte Order",
+                                      Type.INT_16);
         responseBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("sampleBytes", "Sample Size (bytes)",
-                                  Type.INT_16);
+        attribute = Attribute.valueOf("sampleBytes", "Sample Size (bytes)",
+                                      Type.INT_16);
         responseBaseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Project class.
          */
-        attribute = new Attribute("name", "Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("name", "Name",
+                                      Type.UTF_8_STRING);
         projectCD.addAttribute(attribute);
 
-        attribute = new Attribute("experiments", "Experiments",
-                                  Type.REFERENCE,
-            experimentCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("experiments", "Experiments",
+                                      Type.REFERENCE,
+                experimentCD, Cardinality.TO_MANY);
         projectCD.addAttribute(attribute);
 
-        attribute = new Attribute("myanalysisRecords", "My AnalysisRecords",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  analysisRecordCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("myanalysisRecords", "My AnalysisRecords",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      analysisRecordCD, Cardinality.TO_MANY);
         projectCD.addAttribute(attribute);
 
-        attribute = new Attribute("analysisRecords", "All AnalysisRecords",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  analysisRecordCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("analysisRecords", "All AnalysisRecords",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      analysisRecordCD, Cardinality.TO_MANY);
         projectCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Experiment class.
          */
-        attribute = new Attribute("project", "Project",
-                                  Type.REFERENCE,
-            projectCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("project", "Project",
+                                      Type.REFERENCE,
+                projectCD, Cardinality.TO_MANY);
         experimentCD.addAttribute(attribute);
 
-        attribute = new Attribute("sources", "Sources",
-                                  Type.REFERENCE,
-            sourceCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("sources", "Sources",
+                                      Type.REFERENCE,
+                sourceCD, Cardinality.TO_MANY);
         experimentCD.addAttribute(attribute);
 
-        attribute = new Attribute("externalDevices", "External Devices",
-                                  Type.REFERENCE,
-            externalDeviceCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("externalDevices", "External Devices",
+                                      Type.REFERENCE,
+                externalDeviceCD, Cardinality.TO_MANY);
         experimentCD.addAttribute(attribute);
 
-        attribute = new Attribute("epochGroups", "Epoch Groups",
-                                  Type.REFERENCE,
-            epochGroupCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("epochGroups", "Epoch Groups",
+                                      Type.REFERENCE,
+                epochGroupCD, Cardinality.TO_MANY);
         experimentCD.addAttribute(attribute);
 
-        attribute = new Attribute("curated", "Curated",
-                                  Type.BOOLEAN);
+        attribute = Attribute.valueOf("curated", "Curated",
+                                      Type.BOOLEAN);
         experimentCD.addAttribute(attribute);
 
         /**
          * Initialize values of the ExternalDevice class.
          */
-        attribute = new Attribute("name", "Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("name", "Name",
+                                      Type.UTF_8_STRING);
         externalDeviceCD.addAttribute(attribute);
 
-        attribute = new Attribute("manufacturer", "Manufacturer",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("manufacturer", "Manufacturer",
+                                      Type.UTF_8_STRING);
         externalDeviceCD.addAttribute(attribute);
 
-        attribute = new Attribute("experiments", "Experiments",
-                                  Type.REFERENCE,
-            experimentCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("experiments", "Experiments",
+                                      Type.REFERENCE,
+                experimentCD, Cardinality.TO_MANY);
         externalDeviceCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Source class.
          */
-        attribute = new Attribute("label", "Label",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("label", "Label",
+                                      Type.UTF_8_STRING);
         sourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("experiments", "Experiments",
-                                  Type.REFERENCE,
-            experimentCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("experiments", "Experiments",
+                                      Type.REFERENCE,
+                experimentCD, Cardinality.TO_MANY);
         sourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("parent", "Parent",
-                                  Type.REFERENCE,
-                                  sourceCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("parent", "Parent",
+                                      Type.REFERENCE,
+                                      sourceCD, Cardinality.TO_ONE);
         sourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("children", "Children",
-                                  Type.REFERENCE,
-                                  sourceCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("children", "Children",
+                                      Type.REFERENCE,
+                                      sourceCD, Cardinality.TO_MANY);
         sourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("epochGroups", "Epoch Groups",
-                                  Type.REFERENCE,
-            epochGroupCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("epochGroups", "Epoch Groups",
+                                      Type.REFERENCE,
+                epochGroupCD, Cardinality.TO_MANY);
         sourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("containing_experiments", "Containing Experiments",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  experimentCD,
-                                  Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("containing_experiments", "Containing Experiments",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      experimentCD,
+                                      Cardinality.TO_MANY);
         sourceCD.addAttribute(attribute);
 
         /**
          * Initialize values of the EpochGroup class.
          */
-        attribute = new Attribute("label", "Label",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("label", "Label",
+                                      Type.UTF_8_STRING);
         epochGroupCD.addAttribute(attribute);
 
-        attribute = new Attribute("experiment", "Experiment",
-                                  Type.REFERENCE,
-                                  experimentCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("experiment", "Experiment",
+                                      Type.REFERENCE,
+                                      experimentCD, Cardinality.TO_ONE);
         epochGroupCD.addAttribute(attribute);
 
-        attribute = new Attribute("source", "Source",
-                                  Type.REFERENCE,
-                                  sourceCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("source", "Source",
+                                      Type.REFERENCE,
+                                      sourceCD, Cardinality.TO_ONE);
         epochGroupCD.addAttribute(attribute);
 
-        attribute = new Attribute("epochs", "Epochs",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("epochs", "Epochs",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_MANY);
         epochGroupCD.addAttribute(attribute);
 
-        attribute = new Attribute("parent", "Parent",
-                                  Type.REFERENCE,
-                                  epochGroupCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("parent", "Parent",
+                                      Type.REFERENCE,
+                                      epochGroupCD, Cardinality.TO_ONE);
         epochGroupCD.addAttribute(attribute);
 
-        attribute = new Attribute("children", "Children",
-                                  Type.REFERENCE,
-                                  epochGroupCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("children", "Children",
+                                      Type.REFERENCE,
+                                      epochGroupCD, Cardinality.TO_MANY);
         epochGroupCD.addAttribute(attribute);
 
-        attribute = new Attribute("eg_containing_experiments", "Containing Experiments",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  experimentCD,
-                                  Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("eg_containing_experiments", "Containing Experiments",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      experimentCD,
+                                      Cardinality.TO_MANY);
         epochGroupCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Epoch class.
          */
-        attribute = new Attribute("protocolID", "Protocol ID",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("protocolID", "Protocol ID",
+                                      Type.UTF_8_STRING);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("protocolParameters", "Protocol Parameters",
-                                  Type.PARAMETERS_MAP,
-                                  null, Cardinality.N_A);
+        attribute = Attribute.valueOf("protocolParameters", "Protocol Parameters",
+                                      Type.PARAMETERS_MAP,
+                                      null, Cardinality.N_A);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("excludeFromAnalysis", "Exclude from Analysis",
-                                  Type.BOOLEAN);
+        attribute = Attribute.valueOf("excludeFromAnalysis", "Exclude from Analysis",
+                                      Type.BOOLEAN);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("stimuli", "Stimuli",
-                                  Type.REFERENCE,
-                                  stimulusCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("stimuli", "Stimuli",
+                                      Type.REFERENCE,
+                                      stimulusCD, Cardinality.TO_MANY);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("responses", "Responses",
-                                  Type.REFERENCE,
-                                  responseCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("responses", "Responses",
+                                      Type.REFERENCE,
+                                      responseCD, Cardinality.TO_MANY);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("myderivedResponses", "My DerivedResponses",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  derivedResponseCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("myderivedResponses", "My DerivedResponses",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      derivedResponseCD, Cardinality.TO_MANY);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("derivedResponses", "All DerivedResponses",
-                                  Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
-                                  derivedResponseCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("derivedResponses", "All DerivedResponses",
+                                      Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR,
+                                      derivedResponseCD, Cardinality.TO_MANY);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("epochGroup", "Epoch Group",
-                                  Type.REFERENCE,
-                                  epochGroupCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("epochGroup", "Epoch Group",
+                                      Type.REFERENCE,
+                                      epochGroupCD, Cardinality.TO_ONE);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("analysisRecords", "Analysis Records",
-                                  Type.REFERENCE,
-                                  analysisRecordCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("analysisRecords", "Analysis Records",
+                                      Type.REFERENCE,
+                                      analysisRecordCD, Cardinality.TO_MANY);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("nextEpoch", "Next Epoch",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("nextEpoch", "Next Epoch",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_ONE);
         epochCD.addAttribute(attribute);
 
-        attribute = new Attribute("previousEpoch", "Previous Epoch",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("previousEpoch", "Previous Epoch",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_ONE);
         epochCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Stimulus class.
          */
-        attribute = new Attribute("epoch", "Epoch",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("epoch", "Epoch",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_ONE);
         stimulusCD.addAttribute(attribute);
 
-        attribute = new Attribute("pluginID", "Plugin ID",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("pluginID", "Plugin ID",
+                                      Type.UTF_8_STRING);
         stimulusCD.addAttribute(attribute);
 
-        attribute = new Attribute("stimulusParameters", "Stimulus Parameters",
-                                  Type.PARAMETERS_MAP, null, Cardinality.N_A);
+        attribute = Attribute.valueOf("stimulusParameters", "Stimulus Parameters",
+                                      Type.PARAMETERS_MAP, null, Cardinality.N_A);
         stimulusCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Response class.
          */
-        attribute = new Attribute("epoch", "Epoch",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("epoch", "Epoch",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_ONE);
         responseCD.addAttribute(attribute);
 
-        attribute = new Attribute("samplingRate", "Sampling Rate",
-                                  Type.FLOAT_64);
+        attribute = Attribute.valueOf("samplingRate", "Sampling Rate",
+                                      Type.FLOAT_64);
         responseCD.addAttribute(attribute);
 
-        attribute = new Attribute("samplingUnits", "Sampling Rate Units",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("samplingUnits", "Sampling Rate Units",
+                                      Type.UTF_8_STRING);
         responseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the DerivedResponse class.
          */
-        attribute = new Attribute("epoch", "Epoch",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("epoch", "Epoch",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_ONE);
         derivedResponseCD.addAttribute(attribute);
 
-        attribute = new Attribute("description", "Description",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("description", "Description",
+                                      Type.UTF_8_STRING);
         derivedResponseCD.addAttribute(attribute);
 
-        attribute = new Attribute("name", "Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("name", "Name",
+                                      Type.UTF_8_STRING);
         derivedResponseCD.addAttribute(attribute);
 
-        attribute = new Attribute("derivationParameters", "Derivation Parameters",
-                                  Type.PARAMETERS_MAP, null, Cardinality.N_A);
+        attribute = Attribute.valueOf("derivationParameters", "Derivation Parameters",
+                                      Type.PARAMETERS_MAP, null, Cardinality.N_A);
         derivedResponseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the KeywordTag class.
          */
-        attribute = new Attribute("tag", "Keyword Tag",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("tag", "Keyword Tag",
+                                      Type.UTF_8_STRING);
         keywordTagCD.addAttribute(attribute);
 
         /**
          * Initialize values of the Resource class.
          */
-        attribute = new Attribute("uti", "UTI",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("uti", "UTI",
+                                      Type.UTF_8_STRING);
         resourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("notes", "Notes",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("notes", "Notes",
+                                      Type.UTF_8_STRING);
         resourceCD.addAttribute(attribute);
 
-        attribute = new Attribute("name", "Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("name", "Name",
+                                      Type.UTF_8_STRING);
         resourceCD.addAttribute(attribute);
 
         /**
          * Initialize values of the User class.
          */
-        attribute = new Attribute("userName", "User Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("userName", "User Name",
+                                      Type.UTF_8_STRING);
         userCD.addAttribute(attribute);
 
         /**
          * Initialize values of the AnalysisRecord class.
          */
-        attribute = new Attribute("name", "Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("name", "Name",
+                                      Type.UTF_8_STRING);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("notes", "Notes",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("notes", "Notes",
+                                      Type.UTF_8_STRING);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("scmRevision", "Source Code Revision",
-                                  Type.INT_32);
+        attribute = Attribute.valueOf("scmRevision", "Source Code Revision",
+                                      Type.INT_32);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("scmURL", "Source Code Repository URL",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("scmURL", "Source Code Repository URL",
+                                      Type.UTF_8_STRING);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("entryFunctionName", "Entry Function Name",
-                                  Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("entryFunctionName", "Entry Function Name",
+                                      Type.UTF_8_STRING);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("analysisParameters", "Analysis Parameters",
-                                  Type.PARAMETERS_MAP, null, Cardinality.N_A);
+        attribute = Attribute.valueOf("analysisParameters", "Analysis Parameters",
+                                      Type.PARAMETERS_MAP, null, Cardinality.N_A);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("epochs", "Epochs",
-                                  Type.REFERENCE,
-                                  epochCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("epochs", "Epochs",
+                                      Type.REFERENCE,
+                                      epochCD, Cardinality.TO_MANY);
         analysisRecordCD.addAttribute(attribute);
 
-        attribute = new Attribute("project", "Project",
-                                  Type.REFERENCE,
-                                  projectCD, Cardinality.TO_ONE);
+        attribute = Attribute.valueOf("project", "Project",
+                                      Type.REFERENCE,
+                                      projectCD, Cardinality.TO_ONE);
         analysisRecordCD.addAttribute(attribute);
+
+        /**
+         * The class hierarchy is finished, so number it.
+         * That lets ClassDescription.isSubclassOf() compare two
+         * numbers instead of walking up the parent classes.
+         */
+        ClassDescription.numberHierarchy(allClassDescriptions);
     }
 
 
@@ -768,8 +775,9 @@ public class DataModel {
 
 
     /**
-     * Get a COPY of the Attribute with the passed in name
+     * Get the Attribute with the passed in name
      * from ANY ClassDescription that contains it.
+     * Attributes are immutable and shared, so this is not a copy.
      *
      * @param queryName The name used in the PQL expressions.
      * Not necessarily the same as the string used in the GUI.
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel;
+
+
+/**
+ * This checks whether a string is a number that
+ * RowData.setAttributeValueUsingString() can convert to a FLOAT_64
+ * value.  The GUI uses it to color a row while the user is typing,
+ * before the text is committed to the RowData.
+ *
+ * The common cases, e.g. "12", "-1.5", ".5e-3", "2d", "Infinity",
+ * with leading and trailing whitespace, are recognized by a little
+ * state machine that looks at one character at a time.  A caller
+ * can feed it characters straight out of a Document, (see
+ * nextState()), so checking what the user has typed does not
+ * create any objects.
+ *
+ * Anything the state machine does not recognize is handed to
+ * Double.valueOf(), so in the end we accept exactly what
+ * Double.valueOf() accepts.  E.g. "NaN" and hexadecimal numbers
+ * such as "0x1.8p1".  They are rare enough that it does not
+ * matter that they are slower to check.
+ */
+public final class Float64Syntax {
+
+    /**
+     * The states of the state machine.
+     *
+     * INFINITY+n means we have seen the first n characters
+     * of "Infinity".
+     */
+    private static final int ILLEGAL = -1;
+    public static final int START = 0;
+    private static final int SIGN = 1;
+    private static final int INTEGER = 2;
+    private static final int POINT = 3;
+    private static final int LEADING_POINT = 4;
+    private static final int FRACTION = 5;
+    private static final int EXPONENT = 6;
+    private static final int EXPONENT_SIGN = 7;
+    private static final int EXPONENT_DIGITS = 8;
+    private static final int SUFFIX = 9;
+    private static final int TRAILING_SPACE = 10;
+    private static final int INFINITY = 11;
+    private static final String INFINITY_STRING = "Infinity";
+
+
+    private Float64Syntax() {
+    }
+
+
+    /**
+     * Returns true if Double.valueOf() would accept the passed
+     * in text.
+     */
+    public static boolean isNumber(CharSequence text) {
+
+        if (isNumber(run(text))) {
+            return(true);
+        }
+
+        try {
+            Double.valueOf(text.toString());
+            return(true);
+        }
+        catch (NumberFormatException e) {
+            return(false);
+        }
+    }
+
+
+    /**
+     * Returns true if the passed in text will be a legal FLOAT_64
+     * value once it is committed to a RowData.  This is the same as
+     * isNumber(), except for "NaN", because RowData uses NaN to mean
+     * the user typed something that is not a number.
+     * (See RowData.containsLegalValue().)
+     */
+    public static boolean isLegalValue(CharSequence text) {
+
+        /**
+         * The state machine never accepts NaN.
+         */
+        if (isNumber(run(text))) {
+            return(true);
+        }
+
+        try {
+            return(!Double.isNaN(Double.valueOf(text.toString())));
+        }
+        catch (NumberFormatException e) {
+            return(false);
+        }
+    }
+
+
+    /**
+     * Run the state machine over all the characters of the
+     * passed in text, and return the state it ends up in.
+     */
+    private static int run(CharSequence text) {
+
+        int state = START;
+        int length = text.length();
+        for (int index = 0; (index < length) && (state != ILLEGAL);
+             index++) {
+            state = nextState(state, text.charAt(index));
+        }
+        return(state);
+    }
+
+
+    /**
+     * Returns true if the state machine, having read every
+     * character of a string, ended up in the passed in state
+     * and so recognized the string as a number.
+     *
+     * If this returns false, the string might still be a number
+     * the state machine doesn't know about.  Pass the whole string
+     * to isNumber() or isLegalValue() to find out.
+     */
+    public static boolean isNumber(int state) {
+
+        return((state == INTEGER) || (state == POINT) ||
+               (state == FRACTION) || (state == EXPONENT_DIGITS) ||
+               (state == SUFFIX) || (state == TRAILING_SPACE) ||
+               (state == INFINITY+INFINITY_STRING.length()));
+    }
+
+
+    /**
+     * Get the state the state machine moves to when it is in
+     * the passed in state and reads the passed in character.
+     * Start with START.
+     *
+     * Once the state machine has read something it doesn't
+     * recognize, it stays in a state for which isNumber()
+     * returns false.
+     */
+    public static int nextState(int state, char c) {
+
+        boolean digit = (c >= '0') && (c <= '9');
+
+        if (c <= ' ') {
+            if (state == START) {
+                return(START);
+            }
+            if (isNumber(state)) {
+                return(TRAILING_SPACE);
+            }
+            return(ILLEGAL);
+        }
+
+        switch (state) {
+            case START:
+                if ((c == '+') || (c == '-')) {
+                    return(SIGN);
+                }
+                // Fall through.
+            case SIGN:
+                if (digit) {
+                    return(INTEGER);
+                }
+                if (c == '.') {
+                    return(LEADING_POINT);
+                }
+                if (c == INFINITY_STRING.charAt(0)) {
+                    return(INFINITY+1);
+                }
+                return(ILLEGAL);
+
+            case INTEGER:
+                if (digit) {
+                    return(INTEGER);
+                }
+                if (c == '.') {
+                    return(POINT);
+                }
+                // Fall through.
+            case POINT:
+            case FRACTION:
+                if (digit) {
+                    return(FRACTION);
+                }
+                if ((c == 'e') || (c == 'E')) {
+                    return(EXPONENT);
+                }
+                // Fall through.
+            case EXPONENT_DIGITS:
+                if (digit) {
+                    return(EXPONENT_DIGITS);
+                }
+                if ((c == 'f') || (c == 'F') || (c == 'd') || (c == 'D')) {
+                    return(SUFFIX);
+                }
+                return(ILLEGAL);
+
+            case LEADING_POINT:
+                return(digit ? FRACTION : ILLEGAL);
+
+            case EXPONENT:
+                if ((c == '+') || (c == '-')) {
+                    return(EXPONENT_SIGN);
+                }
+                // Fall through.
+            case EXPONENT_SIGN:
+                return(digit ? EXPONENT_DIGITS : ILLEGAL);
+
+            default:
+                if ((state > INFINITY) &&
+                    (state < INFINITY+INFINITY_STRING.length()) &&
+                    (c == INFINITY_STRING.charAt(state-INFINITY))) {
+                    return(state+1);
+                }
+                return(ILLEGAL);
+        }
+    }
+}
@@ -5,17 +5,25 @@
 package com.physion.ebuilder.datamodel;
 
 import com.physion.ebuilder.datatypes.*;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.swing.event.EventListenerList;
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 
 /**
@@ -65,6 +73,41 @@ public class RowData
     public static final CollectionOperator DEFAULT_COLLECTION_OPERATOR2 =
         CollectionOperator.ANY;
 
+    /**
+     * Metrics about how many RowDataEvents we send.
+     *
+     * Because each row listens to its children, one change to
+     * a row causes an event to be sent by that row and by every
+     * one of its ancestors.  EVENTS_PER_EDIT records how many
+     * events were sent, in total, because of one "original" change.
+     */
+    private static final Counter EVENTS_SENT =
+        Metrics.counter("rowData.events");
+    private static final Counter LISTENERS_INVOKED =
+        Metrics.counter("rowData.listenersInvoked");
+    private static final Histogram EVENTS_PER_EDIT =
+        Metrics.histogram("rowData.eventsPerEdit");
+    private static final Histogram LISTENERS_PER_EVENT =
+        Metrics.histogram("rowData.listenersPerEvent");
+    private static final Histogram BYTES_WRITTEN =
+        Metrics.histogram("rowData.serializedBytesWritten");
+    private static final Histogram BYTES_READ =
+        Metrics.histogram("rowData.serializedBytesRead");
+
+    /**
+     * These are used to compute EVENTS_PER_EDIT.
+     * eventNesting is how deep we are in nested calls to
+     * fireRowDataEvent(RowDataEvent), (across ALL RowData objects),
+     * and eventsThisEdit is how many events have been sent since
+     * the outermost call started.
+     *
+     * They are static and not synchronized because, like the
+     * rest of this class, they are only touched by the Swing
+     * event dispatch thread.
+     */
+    private static int eventNesting;
+    private static int eventsThisEdit;
+
     /**
      * This is the "topmost", or "root" class that is the ancestor
      * of ALL other rows.
@@ -130,9 +173,42 @@ public class RowData
      *
      * For example, if the attributePath is:  epochGroup.source.label
      * then attributeValue might be the String object "Test 21".
+     *
+     * Please note, if the value was set using one of the primitive
+     * setters, (e.g. setAttributeValueInt32()), this is null, and
+     * the value is only in primitiveValue.  getAttributeValue()
+     * returns a boxed copy of it, and writeObject() sets this to
+     * the boxed copy before the row is written out.  So, inside
+     * this class, always use getAttributeValue() instead of looking
+     * at this member data directly.
      */
     private Object attributeValue;
 
+    /**
+     * If the attributeValue is a number or an instant in time, this
+     * says what kind of number it is: Type.INT_16, Type.INT_32,
+     * Type.FLOAT_64, or Type.DATE_TIME.  The value itself is stored
+     * in primitiveValue.  For any other kind of attributeValue,
+     * (e.g. a String, or null), this is null.
+     *
+     * This lets evaluators and translators read a row's value with
+     * getAttributeValueAsInt(), getAttributeValueAsDouble(), and
+     * getAttributeValueAsEpochMillis() without unboxing or casting,
+     * and lets the GUI's spinners set a value without boxing it.
+     *
+     * These are transient because the boxed attributeValue is always
+     * written out, and readObject() rebuilds them from it.
+     */
+    private transient Type primitiveValueType;
+
+    /**
+     * The bits of the attributeValue if primitiveValueType is not null.
+     * For INT_16 and INT_32 this is the integer value.  For FLOAT_64
+     * it is Double.doubleToRawLongBits() of the value.  For DATE_TIME
+     * it is the milliseconds since the epoch.
+     */
+    private transient long primitiveValue;
+
     /**
      * If the user is specifying a "keyed" "My Property" or "Any Property"
      * attribute, the propName member data will be set to the "key"
@@ -172,10 +248,50 @@ public class RowData
      */
     private List<RowData> childRows;
 
+    /**
+     * If this is not null, this row has children that have not been
+     * created yet.  They are created, (and added after any children
+     * that are already in childRows), the first time somebody asks
+     * for this row's children.  See setChildRowSource().
+     *
+     * This is transient because writeObject() creates the children
+     * before this row is written out.
+     */
+    private transient ChildRowSource childRowSource;
+
+    /**
+     * A shared empty array of listeners, so a RowData that nobody
+     * is listening to does not need an array of its own.
+     */
+    private static final RowDataListener[] NO_LISTENERS =
+        new RowDataListener[0];
+
     /**
      * This is the list of listeners to changes in this RowData.
+     *
+     * This array is never modified.  Adding or removing a listener
+     * replaces it with a new array.  (Listeners are added and removed
+     * rarely, but events are fired all the time.)  So,
+     * fireRowDataEvent() can loop over the array without
+     * copying it first, and a listener that adds or removes
+     * listeners while it is being notified won't confuse the loop.
+     *
+     * We used to use a javax.swing.event.EventListenerList, but
+     * that dragged Swing, (and AWT), into code that has nothing
+     * to do with the GUI, such as server side query translation.
+     *
+     * This is transient because the listeners are GUI objects
+     * and parent RowData objects.  The only listeners that matter
+     * after a RowData is read back in are the parent rows, and
+     * readObject() adds those back.
+     *
+     * Please note, this is null while a RowData is being read in,
+     * until its readObject() is finished.  But its parent's
+     * readObject() can run before then, (the parentRow field is
+     * serialized too), and add the parent as a listener.  So the
+     * methods that use this treat null as no listeners.
      */
-    private EventListenerList rowDataListenerList;
+    private transient RowDataListener[] rowDataListeners;
 
     /**
      * This counter is used to avoid sending multiple change
@@ -207,10 +323,12 @@ public class RowData
 
         attributePath = new ArrayList<Attribute>();
         childRows = new ArrayList<RowData>();
-        rowDataListenerList = new EventListenerList();
+        rowDataListeners = NO_LISTENERS;
         parentRow = null;
         attributeOperator = null;
         attributeValue = null;
+        primitiveValueType = null;
+        primitiveValue = 0;
         propName = null;
         propType = null;
         collectionOperator = null;
@@ -240,18 +358,32 @@ public class RowData
         this.parentRow = other.parentRow;
         this.attributeOperator = other.attributeOperator;
         this.attributeValue = other.attributeValue;
+        this.primitiveValueType = other.primitiveValueType;
+        this.primitiveValue = other.primitiveValue;
         this.propName = other.propName;
         this.propType = other.propType;
         this.collectionOperator = other.collectionOperator;
         this.collectionOperator2 = other.collectionOperator2;
 
+        /**
+         * Attributes are immutable and shared, so we copy the
+         * references, not the Attributes.
+         */
         for (Attribute attribute : other.getAttributePath()) {
-            this.addAttribute(new Attribute(attribute));
+            this.addAttribute(attribute);
         }
 
-        for (RowData childRow : other.getChildRows()) {
-            this.addChildRow(new RowData(childRow));
+        /**
+         * If the other row's children haven't been created yet,
+         * don't create them just to copy them.  Our copy of
+         * them will be created when somebody asks for them.
+         */
+        if (other.childRows != null) {
+            for (RowData childRow : other.childRows) {
+                this.addChildRow(new RowData(childRow));
+            }
         }
+        this.childRowSource = other.childRowSource;
     }
 
 
@@ -320,7 +452,7 @@ public class RowData
         if (index == 0)
             return(this);
 
-        for (RowData childRow : childRows) {
+        for (RowData childRow : getChildRows()) {
 
             index--;
             RowData rd = childRow.getChild(index);
@@ -380,6 +512,68 @@ public class RowData
     }
 
 
+    /**
+     * Get an Iterator over this RowData and all its descendents,
+     * in the same order as getRows() returns them.
+     *
+     * Unlike getRows(), this does not walk the whole tree up front.
+     * A row's children are only asked for when the Iterator reaches
+     * that row, so if the tree was created lazily, (see
+     * ExpressionTreeToRowData.translateLazily()), only the rows
+     * that have been iterated over, and their children, are created.
+     * That lets the GUI start showing the first rows of a huge tree
+     * without waiting for the rest of it.
+     *
+     * Do not change the tree while iterating over it.  Start a new
+     * Iterator after the tree changes.
+     */
+    public Iterator<RowData> getRowIterator() {
+
+        final RowData firstRow = this;
+        return(new Iterator<RowData>() {
+
+            /**
+             * The children we have not reached yet, for each level
+             * of the tree between firstRow and nextRow.
+             */
+            private final ArrayDeque<Iterator<RowData>> levels =
+                new ArrayDeque<Iterator<RowData>>();
+            private RowData nextRow = firstRow;
+
+            @Override
+            public boolean hasNext() {
+                return(nextRow != null);
+            }
+
+            @Override
+            public RowData next() {
+
+                if (nextRow == null) {
+                    throw(new NoSuchElementException());
+                }
+
+                RowData row = nextRow;
+                nextRow = null;
+                levels.push(row.getChildRows().iterator());
+                while (!levels.isEmpty()) {
+                    if (levels.peek().hasNext()) {
+                        nextRow = levels.peek().next();
+                        break;
+                    }
+                    levels.pop();
+                }
+                return(row);
+            }
+
+            @Override
+            public void remove() {
+                throw(new UnsupportedOperationException(
+                    "Remove a row with removeChildRow()."));
+            }
+        });
+    }
+
+
     /**
      * Add a listener to this RowData.
      * The listener will be notified when anything in this RowData
@@ -390,15 +584,60 @@ public class RowData
      * RowData object that was changed.
      */
     public void addRowDataListener(RowDataListener listener) {
-        rowDataListenerList.add(RowDataListener.class, listener);
+
+        /**
+         * EventListenerList silently ignored null listeners,
+         * so we do too.
+         */
+        if (listener == null) {
+            return;
+        }
+
+        RowDataListener[] listeners = getRowDataListeners();
+        RowDataListener[] newListeners = Arrays.copyOf(
+            listeners, listeners.length+1);
+        newListeners[listeners.length] = listener;
+        rowDataListeners = newListeners;
     }
 
 
     /**
      * Remove a listener from this RowData.
+     * If the listener was added more than once, the most recently
+     * added occurrence is removed, which is what EventListenerList
+     * used to do.
      */
     public void removeRowDataListener(RowDataListener listener) {
-        rowDataListenerList.remove(RowDataListener.class, listener);
+
+        RowDataListener[] listeners = getRowDataListeners();
+        for (int index = listeners.length-1; index >= 0; index--) {
+
+            if (listeners[index] == listener) {
+
+                if (listeners.length == 1) {
+                    rowDataListeners = NO_LISTENERS;
+                    return;
+                }
+
+                RowDataListener[] newListeners =
+                    new RowDataListener[listeners.length-1];
+                System.arraycopy(listeners, 0, newListeners, 0, index);
+                System.arraycopy(listeners, index+1, newListeners, index,
+                                 listeners.length-index-1);
+                rowDataListeners = newListeners;
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Get the array of listeners, which is never null.
+     * See rowDataListeners.
+     */
+    private RowDataListener[] getRowDataListeners() {
+        return((rowDataListeners == null) ? NO_LISTENERS :
+               rowDataListeners);
     }
 
 
@@ -433,6 +672,29 @@ public class RowData
      */
     private void fireRowDataEvent(RowDataEvent rowDataEvent) {
 
+        eventNesting++;
+        try {
+            fireRowDataEventProtected(rowDataEvent);
+        }
+        finally {
+            eventNesting--;
+            if (eventNesting == 0) {
+                if (eventsThisEdit > 0) {
+                    EVENTS_PER_EDIT.update(eventsThisEdit);
+                }
+                eventsThisEdit = 0;
+            }
+        }
+    }
+
+
+    /**
+     * This does the real work for fireRowDataEvent(RowDataEvent).
+     * It is separate so the caller can keep track of how many
+     * events one change causes to be sent.
+     */
+    private void fireRowDataEventProtected(RowDataEvent rowDataEvent) {
+
         if (rowDataEvent.getTiming() == RowDataEvent.TIMING_AFTER)
             changeLevel--;
 
@@ -463,8 +725,16 @@ public class RowData
             //System.out.println("Send RowDataEvent("+timing+", "+changeType+
             //    ") for this: "+this.getRowString());
 
-            RowDataListener listenerList[] =
-                rowDataListenerList.getListeners(RowDataListener.class);
+            /**
+             * The array is never modified, so we don't need a copy.
+             */
+            RowDataListener listenerList[] = getRowDataListeners();
+
+            EVENTS_SENT.increment();
+            LISTENERS_INVOKED.add(listenerList.length);
+            LISTENERS_PER_EVENT.update(listenerList.length);
+            eventsThisEdit++;
+
             for (RowDataListener listener : listenerList) {
 
                 /**
@@ -524,7 +794,7 @@ public class RowData
         fireRowDataEvent(RowDataEvent.TIMING_BEFORE,
                          RowDataEvent.TYPE_CHILD_DELETE,
                          childRow);
-        childRows.remove(childRow);
+        getChildRows().remove(childRow);
         childRow.removeRowDataListener(this);
         fireRowDataEvent(RowDataEvent.TIMING_AFTER,
                          RowDataEvent.TYPE_CHILD_DELETE,
@@ -776,7 +1046,7 @@ public class RowData
      * Get the RowData object that is the parent of this RowData object.
      * If this is the root row, this will be null.
      */
-    private RowData getParentRow() {
+    RowData getParentRow() {
         return(parentRow);
     }
 
@@ -829,7 +1099,7 @@ public class RowData
              * collectionOperator is being set to COUNT.
              */
             setAttributeOperator(Operator.OPERATORS_ARITHMATIC[0]);
-            setAttributeValue(new Integer(0));
+            setAttributeValueInt32(0);
 
             setCollectionOperator2(null);
 
@@ -941,11 +1211,11 @@ public class RowData
          */
 
         if ((attributeOperator != Operator.IS_NULL) &&
-            Attribute.IS_NULL.equals(childmost)) {
+            (childmost == Attribute.IS_NULL)) {
             attributePath.remove(attributePath.size()-1);
         }
         if ((attributeOperator != Operator.IS_NOT_NULL) &&
-            Attribute.IS_NOT_NULL.equals(childmost)) {
+            (childmost == Attribute.IS_NOT_NULL)) {
             attributePath.remove(attributePath.size()-1);
         }
 
@@ -959,11 +1229,11 @@ public class RowData
              * attributePath if it is not already there.
              */
             if ((attributeOperator == Operator.IS_NULL) &&
-                !Attribute.IS_NULL.equals(childmost)) {
+                (childmost != Attribute.IS_NULL)) {
                 addAttribute(Attribute.IS_NULL);
             }
             else if ((attributeOperator == Operator.IS_NOT_NULL) &&
-                     !Attribute.IS_NOT_NULL.equals(childmost)) {
+                     (childmost != Attribute.IS_NOT_NULL)) {
                 addAttribute(Attribute.IS_NOT_NULL);
             }
         }
@@ -1016,9 +1286,6 @@ public class RowData
             if (currentValue == attribute) {
                 return;
             }
-            if ((currentValue != null) && currentValue.equals(attribute)) {
-                return;
-            }
         }
 
         fireRowDataEvent(RowDataEvent.TIMING_BEFORE,
@@ -1135,14 +1402,14 @@ public class RowData
          * Also make sure the attributeValue contains a value of
          * the appropriate type.
          */
-        if (childmost.equals(Attribute.SELECT_ATTRIBUTE)) {
+        if (childmost == Attribute.SELECT_ATTRIBUTE) {
             setCollectionOperator(null);
             setCollectionOperator2(null);
             setAttributeOperator(null);
             setAttributeValue(null);
         }
-        else if (childmost.equals(Attribute.IS_NULL) ||
-                 childmost.equals(Attribute.IS_NOT_NULL)) {
+        else if ((childmost == Attribute.IS_NULL) ||
+                 (childmost == Attribute.IS_NOT_NULL)) {
 
             /**
              * The selectedAttribute is one of our special
@@ -1159,7 +1426,7 @@ public class RowData
             setPropType(Type.INT_32);
             setAttributeOperator(Operator.OPERATORS_ARITHMATIC[0]);
             setPropName(null);
-            setAttributeValue(new Integer(0));
+            setAttributeValueInt32(0);
         }
         else if (childmost.isPrimitive()) {
 
@@ -1331,11 +1598,11 @@ public class RowData
                          RowDataEvent.TYPE_ATTRIBUTE_PATH);
         attributePath.add(attribute);
 
-        if (attribute.equals(Attribute.IS_NULL) &&
+        if ((attribute == Attribute.IS_NULL) &&
             (attributeOperator != Operator.IS_NULL)) {
             setAttributeOperator(Operator.IS_NULL);
         }
-        else if (attribute.equals(Attribute.IS_NOT_NULL) &&
+        else if ((attribute == Attribute.IS_NOT_NULL) &&
                  (attributeOperator != Operator.IS_NOT_NULL)) {
             setAttributeOperator(Operator.IS_NOT_NULL);
         }
@@ -1345,12 +1612,11 @@ public class RowData
 
 
     /**
-     * This returns a COPY of the Attribute at the specified index.
-     * So, any changes you make to it will have no effect on this
-     * RowData's attributePath.
+     * This returns the Attribute at the specified index.
+     * Attributes are immutable and shared, so this is not a copy.
      */
     public Attribute getAttribute(int index) {
-        return(new Attribute(getAttributePath().get(index)));
+        return(getAttributePath().get(index));
     }
 
 
@@ -1398,32 +1664,31 @@ public class RowData
      */
     public String getAttributePathString(boolean debugVersion) {
 
-        String string = "";
-
+        StringBuilder string = new StringBuilder();
 
         boolean first = true;
         for (Attribute attribute : attributePath) {
 
             if (attribute != null) {
-                if ((!attribute.equals(Attribute.SELECT_ATTRIBUTE) &&
-                     !attribute.equals(Attribute.IS_NULL) &&
-                     !attribute.equals(Attribute.IS_NOT_NULL)) ||
+                if (((attribute != Attribute.SELECT_ATTRIBUTE) &&
+                     (attribute != Attribute.IS_NULL) &&
+                     (attribute != Attribute.IS_NOT_NULL)) ||
                     (debugVersion == true)) {
                     /**
                      * Put a dot between each attribute on the path.
                      */
                     if (first) {
-                        string += " ";
+                        string.append(' ');
                         first = false;
                     }
                     else {
-                        string += ".";
+                        string.append('.');
                     }
 
                     if (debugVersion)
-                        string += attribute.getDisplayName();
+                        string.append(attribute.getDisplayName());
                     else
-                        string += attribute.getQueryName();
+                        string.append(attribute.getQueryName());
 
                 }
                 else {
@@ -1438,11 +1703,11 @@ public class RowData
                  * Perhaps throw an IllegalArgumentException?
                  */
                 System.err.println("ERROR:  null Attribute in attributePath.");
-                string += "ERROR: attribute == null";
+                string.append("ERROR: attribute == null");
             }
         }
 
-        return(string);
+        return(string.toString());
     }
 
 
@@ -1470,11 +1735,185 @@ public class RowData
         fireRowDataEvent(RowDataEvent.TIMING_BEFORE,
                          RowDataEvent.TYPE_ATTRIBUTE_VALUE);
         this.attributeValue = attributeValue;
+        setPrimitiveValue(attributeValue);
+        fireRowDataEvent(RowDataEvent.TIMING_AFTER,
+                         RowDataEvent.TYPE_ATTRIBUTE_VALUE);
+    }
+
+
+    /**
+     * Set the attributeValue for this row to a short value.
+     * This is the same as calling setAttributeValue() with a
+     * Short object, except no Short object is created unless
+     * somebody calls getAttributeValue().
+     */
+    public void setAttributeValueInt16(short value) {
+        setPrimitiveAttributeValue(Type.INT_16, value);
+    }
+
+
+    /**
+     * Set the attributeValue for this row to an int value.
+     * This is the same as calling setAttributeValue() with an
+     * Integer object, except no Integer object is created unless
+     * somebody calls getAttributeValue().
+     */
+    public void setAttributeValueInt32(int value) {
+        setPrimitiveAttributeValue(Type.INT_32, value);
+    }
+
+
+    /**
+     * Set the attributeValue for this row to a double value.
+     * This is the same as calling setAttributeValue() with a
+     * Double object, except no Double object is created unless
+     * somebody calls getAttributeValue().
+     */
+    public void setAttributeValueFloat64(double value) {
+        setPrimitiveAttributeValue(Type.FLOAT_64,
+                                   Double.doubleToRawLongBits(value));
+    }
+
+
+    /**
+     * Set the primitive attributeValue slot and throw away
+     * any boxed version of the old value.
+     */
+    private void setPrimitiveAttributeValue(Type type, long bits) {
+
+        fireRowDataEvent(RowDataEvent.TIMING_BEFORE,
+                         RowDataEvent.TYPE_ATTRIBUTE_VALUE);
+        this.attributeValue = null;
+        this.primitiveValueType = type;
+        this.primitiveValue = bits;
         fireRowDataEvent(RowDataEvent.TIMING_AFTER,
                          RowDataEvent.TYPE_ATTRIBUTE_VALUE);
     }
 
 
+    /**
+     * Set the primitiveValueType and primitiveValue member data
+     * from the passed in boxed attributeValue.  If the value is
+     * not a kind of value we keep a primitive copy of, the
+     * primitiveValueType is set to null.
+     */
+    private void setPrimitiveValue(Object value) {
+
+        if (value instanceof Short) {
+            primitiveValueType = Type.INT_16;
+            primitiveValue = ((Short)value).shortValue();
+        }
+        else if (value instanceof Integer) {
+            primitiveValueType = Type.INT_32;
+            primitiveValue = ((Integer)value).intValue();
+        }
+        else if (value instanceof Double) {
+            primitiveValueType = Type.FLOAT_64;
+            primitiveValue = Double.doubleToRawLongBits(
+                ((Double)value).doubleValue());
+        }
+        else if (value instanceof DateTime) {
+            primitiveValueType = Type.DATE_TIME;
+            primitiveValue = ((DateTime)value).getMillis();
+        }
+        else {
+            primitiveValueType = null;
+            primitiveValue = 0;
+        }
+    }
+
+
+    /**
+     * Get the Type of the value in the primitive attributeValue slot:
+     * Type.INT_16, Type.INT_32, Type.FLOAT_64, or Type.DATE_TIME.
+     * Returns null if the attributeValue is not one of those,
+     * (e.g. it is a String or it is null).
+     */
+    public Type getAttributeValueType() {
+        return(primitiveValueType);
+    }
+
+
+    /**
+     * Returns true if the attributeValue is a short, int, or double
+     * that can be read with getAttributeValueAsInt() or
+     * getAttributeValueAsDouble().
+     */
+    public boolean isAttributeValueNumber() {
+        return((primitiveValueType == Type.INT_16) ||
+               (primitiveValueType == Type.INT_32) ||
+               (primitiveValueType == Type.FLOAT_64));
+    }
+
+
+    /**
+     * Get the attributeValue as an int without creating an object.
+     * A FLOAT_64 value is truncated the same way Number.intValue()
+     * would truncate it.
+     *
+     * @throws IllegalStateException if the attributeValue is not a
+     * number.  Call getAttributeValueType() first if you are not sure.
+     */
+    public int getAttributeValueAsInt() {
+
+        if ((primitiveValueType == Type.INT_16) ||
+            (primitiveValueType == Type.INT_32)) {
+            return((int)primitiveValue);
+        }
+        else if (primitiveValueType == Type.FLOAT_64) {
+            return((int)Double.longBitsToDouble(primitiveValue));
+        }
+        else if (getAttributeValue() instanceof Number) {
+            return(((Number)getAttributeValue()).intValue());
+        }
+
+        throw(new IllegalStateException("The attributeValue is not a "+
+            "number: "+getAttributeValue()));
+    }
+
+
+    /**
+     * Get the attributeValue as a double without creating an object.
+     *
+     * @throws IllegalStateException if the attributeValue is not a
+     * number.  Call getAttributeValueType() first if you are not sure.
+     */
+    public double getAttributeValueAsDouble() {
+
+        if ((primitiveValueType == Type.INT_16) ||
+            (primitiveValueType == Type.INT_32)) {
+            return((double)primitiveValue);
+        }
+        else if (primitiveValueType == Type.FLOAT_64) {
+            return(Double.longBitsToDouble(primitiveValue));
+        }
+        else if (getAttributeValue() instanceof Number) {
+            return(((Number)getAttributeValue()).doubleValue());
+        }
+
+        throw(new IllegalStateException("The attributeValue is not a "+
+            "number: "+getAttributeValue()));
+    }
+
+
+    /**
+     * Get the attributeValue as the number of milliseconds since
+     * 1970-01-01T00:00:00Z without creating an object.
+     *
+     * @throws IllegalStateException if the attributeValue is not
+     * a DateTime.
+     */
+    public long getAttributeValueAsEpochMillis() {
+
+        if (primitiveValueType == Type.DATE_TIME) {
+            return(primitiveValue);
+        }
+
+        throw(new IllegalStateException("The attributeValue is not a "+
+            "DateTime: "+getAttributeValue()));
+    }
+
+
     private transient Logger logger = LoggerFactory.getLogger(getClass().getCanonicalName());
     /**
      * Set the value of attributeValue using a String.
@@ -1523,7 +1962,7 @@ public class RowData
                  */
                 if ((attribute.getType() == Type.FLOAT_64) ||
                     (propType == Type.FLOAT_64)) {
-                    setAttributeValue(Double.NaN);
+                    setAttributeValueFloat64(Double.NaN);
                 }
             }
             catch (Exception e) {
@@ -1602,9 +2041,35 @@ public class RowData
      * needs to look at other information about the RowData to know
      * what type of object it is.  For example, use getPropType() if
      * the row is a parameters map type of value.
+     *
+     * Please note, if the value was set with one of the primitive
+     * setters, (e.g. setAttributeValueFloat64()), this returns a new
+     * boxed copy of it every time it is called, and does not change
+     * the row.  Code that reads a lot of values should use
+     * getAttributeValueAsInt(), getAttributeValueAsDouble(), or
+     * getAttributeValueAsEpochMillis() instead.
      */
     public Object getAttributeValue() {
-        return(attributeValue);
+
+        if ((attributeValue != null) || (primitiveValueType == null)) {
+            return(attributeValue);
+        }
+
+        switch (primitiveValueType) {
+            case INT_16:
+                return(Short.valueOf((short)primitiveValue));
+            case INT_32:
+                return(Integer.valueOf((int)primitiveValue));
+            case FLOAT_64:
+                return(Double.valueOf(Double.longBitsToDouble(
+                    primitiveValue)));
+            default:
+                /**
+                 * DATE_TIME values are only ever set using a
+                 * DateTime object, so attributeValue can't be null.
+                 */
+                return(attributeValue);
+        }
     }
 
 
@@ -1719,22 +2184,22 @@ public class RowData
                      */
                     setAttributeOperator(Operator.OPERATORS_ARITHMATIC[0]);
                 }
-                if (!(getAttributeValue() instanceof Short))
-                    setAttributeValue(new Short((short)0));
+                if (primitiveValueType != Type.INT_16)
+                    setAttributeValueInt16((short)0);
             break;
             case INT_32:
                 if (!Operator.isOperatorArithmatic(attributeOperator)) {
                     setAttributeOperator(Operator.OPERATORS_ARITHMATIC[0]);
                 }
-                if (!(getAttributeValue() instanceof Integer))
-                    setAttributeValue(new Integer(0));
+                if (primitiveValueType != Type.INT_32)
+                    setAttributeValueInt32(0);
             break;
             case FLOAT_64:
                 if (!Operator.isOperatorArithmatic(attributeOperator)) {
                     setAttributeOperator(Operator.OPERATORS_ARITHMATIC[0]);
                 }
-                if (!(getAttributeValue() instanceof Double))
-                    setAttributeValue(new Double((double)0.0));
+                if (primitiveValueType != Type.FLOAT_64)
+                    setAttributeValueFloat64(0.0);
             break;
             case DATE_TIME:
                 if (!Operator.isOperatorDateTime(attributeOperator)) {
@@ -1759,10 +2224,54 @@ public class RowData
 
         if (childRows == null)
             childRows = new ArrayList<RowData>();
+        if (childRowSource != null)
+            createPendingChildRows();
         return(childRows);
     }
 
 
+    /**
+     * Set the object that will create this row's children the
+     * first time somebody asks for them, (e.g. by calling
+     * getChildRows(), getChild(), or getDescendentCount()).
+     * Until then, the row does not have them.
+     *
+     * This does not fire any events, because it is part of
+     * building the tree, not a change to it.
+     * ExpressionTreeToRowData.translateLazily() uses this.
+     */
+    public void setChildRowSource(ChildRowSource childRowSource) {
+
+        if (this.childRowSource != null)
+            createPendingChildRows();
+        this.childRowSource = childRowSource;
+    }
+
+
+    /**
+     * Returns true if this row has children that have not been
+     * created yet.  Calling this does not create them.
+     */
+    public boolean hasPendingChildRows() {
+        return(childRowSource != null);
+    }
+
+
+    /**
+     * Create the children the childRowSource describes.
+     */
+    private void createPendingChildRows() {
+
+        ChildRowSource source = childRowSource;
+        childRowSource = null;
+        for (RowData childRow : source.createChildRows(this)) {
+            childRow.setParentRow(this);
+            childRows.add(childRow);
+            childRow.addRowDataListener(this);
+        }
+    }
+
+
     /**
      * Add a child RowData object to this RowData's list of children.
      * Note that this method automatically sets the childRow's parent
@@ -1774,7 +2283,7 @@ public class RowData
                          RowDataEvent.TYPE_CHILD_ADD,
                          childRow);
         childRow.setParentRow(this);
-        childRows.add(childRow);
+        getChildRows().add(childRow);
 
         childRow.addRowDataListener(this);
         fireRowDataEvent(RowDataEvent.TIMING_AFTER,
@@ -1794,6 +2303,62 @@ public class RowData
     }
 
 
+    /**
+     * Set all of this row's own values at once, without firing any
+     * events, and without adjusting any other values the way the
+     * public set methods do.  If clearChildRows is true, this row's
+     * children are thrown away too.
+     *
+     * RowDataJournal uses this to put a row back exactly the way
+     * it was recorded.  Nothing else should need it.
+     */
+    void restoreValues(ClassDescription classUnderQualification,
+                       List<Attribute> attributePath,
+                       Operator attributeOperator, Object attributeValue,
+                       String propName, Type propType,
+                       CollectionOperator collectionOperator,
+                       CollectionOperator collectionOperator2,
+                       boolean clearChildRows) {
+
+        this.classUnderQualification = classUnderQualification;
+        this.attributePath = new ArrayList<Attribute>(attributePath);
+        this.attributeOperator = attributeOperator;
+        this.attributeValue = attributeValue;
+        setPrimitiveValue(attributeValue);
+        this.propName = propName;
+        this.propType = propType;
+        this.collectionOperator = collectionOperator;
+        this.collectionOperator2 = collectionOperator2;
+        if (clearChildRows) {
+            clearChildRows();
+        }
+    }
+
+
+    /**
+     * Insert the passed in row into this row's list of children
+     * at the passed in index, without firing any events.
+     * See restoreValues().
+     */
+    void restoreChildRow(int index, RowData childRow) {
+
+        childRow.parentRow = this;
+        getChildRows().add(index, childRow);
+        childRow.addRowDataListener(this);
+    }
+
+
+    /**
+     * Remove the child row at the passed in index, without firing
+     * any events.  See restoreValues().
+     */
+    void restoreChildRowRemoval(int index) {
+
+        RowData childRow = getChildRows().remove(index);
+        childRow.removeRowDataListener(this);
+    }
+
+
     /**
      * Clear the list of child rows.
      *
@@ -1805,6 +2370,7 @@ public class RowData
      */
     private void clearChildRows() {
         childRows = new ArrayList<RowData>();
+        childRowSource = null;
     }
 
 
@@ -1870,7 +2436,7 @@ public class RowData
 
         String string = getRowString(debugVersion, indent);
 
-        for (RowData childRow : childRows) {
+        for (RowData childRow : getChildRows()) {
             /**
              * I am currently using two spaces as the indent level for
              * string debug output, but you can change this below.
@@ -1945,8 +2511,8 @@ public class RowData
         if (attributeOperator != null)
             string += " "+attributeOperator;
 
-        if (attributeValue != null) {
-            string += " \""+attributeValue+"\"";
+        if (getAttributeValue() != null) {
+            string += " \""+getAttributeValue()+"\"";
         }
 
         return(string);
@@ -1963,7 +2529,7 @@ public class RowData
             return(null);
         }
         else
-            return(new Attribute(attributePath.get(attributePath.size()-1)));
+            return(attributePath.get(attributePath.size()-1));
     }
 
 
@@ -2101,8 +2667,8 @@ public class RowData
          * attributeValue is "Not A Number".
          */
 
-        if ((attributeValue instanceof Double) &&
-            ((Double)attributeValue).isNaN())
+        if ((primitiveValueType == Type.FLOAT_64) &&
+            Double.isNaN(Double.longBitsToDouble(primitiveValue)))
             return(false);
 
         if ((attributeValue instanceof Float) &&
@@ -2155,7 +2721,7 @@ public class RowData
     private boolean attributePathIsLegal() {
 
         for (Attribute attribute : getAttributePath()) {
-            if (attribute.equals(Attribute.SELECT_ATTRIBUTE)) {
+            if (attribute == Attribute.SELECT_ATTRIBUTE) {
                 //System.out.println("Illegal:  attributePath ends with "+
                 //                   "\"Select Attribute\".  "+
                 //                   "rowData: "+getRowString());
@@ -2337,6 +2903,58 @@ public class RowData
     }
 
 
+    /**
+     * Java serialization calls this when writing a RowData.
+     * The primitive attributeValue slot is transient, so the boxed
+     * attributeValue is set from it here, before it is written out.
+     * That does not change the row's value.  (readObject() sets
+     * the primitive slot from it again.)
+     *
+     * The childRowSource is transient too, so if this row's children
+     * have not been created yet, (see ChildRowSource), they are
+     * created here, so they are written out with the row.
+     */
+    private void writeObject(ObjectOutputStream outputStream)
+        throws IOException {
+
+        attributeValue = getAttributeValue();
+        getChildRows();
+        outputStream.defaultWriteObject();
+    }
+
+
+    /**
+     * Java serialization calls this when reading a RowData.
+     * Rebuild the transient primitive attributeValue slot from the
+     * boxed attributeValue that was read in, and the transient
+     * list of listeners.
+     */
+    private void readObject(ObjectInputStream inputStream)
+        throws IOException, ClassNotFoundException {
+
+        inputStream.defaultReadObject();
+        setPrimitiveValue(attributeValue);
+
+        /**
+         * Listeners are not written out, so a parent row needs
+         * to start listening to its children again.
+         * (addChildRow() does the same thing.)
+         *
+         * If our parent was read in while we were being read, it
+         * has already added itself as our listener, so only set
+         * the array if nobody has.
+         */
+        if (rowDataListeners == null) {
+            rowDataListeners = NO_LISTENERS;
+        }
+        if (childRows != null) {
+            for (RowData childRow : childRows) {
+                childRow.addRowDataListener(this);
+            }
+        }
+    }
+
+
     /**
      * Write out this RowData to the passed in file.
      * This method is only being used for development/testing
@@ -2348,10 +2966,13 @@ public class RowData
     public void writeRowData(String fileName) {
 
         try {
-            FileOutputStream outputFile = new FileOutputStream(fileName);
+            CountingOutputStream outputFile = new CountingOutputStream(
+                new FileOutputStream(fileName));
             ObjectOutputStream outputStream = new ObjectOutputStream(
                 outputFile);
             writeRowData(outputStream);
+            outputStream.close();
+            BYTES_WRITTEN.update(outputFile.getCount());
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -2380,6 +3001,15 @@ public class RowData
     public static RowData readRowData(ObjectInputStream inputStream)
         throws IOException, ClassNotFoundException {
 
+        /**
+         * Make sure the DataModel has created its canonical Attributes
+         * BEFORE we read any in.  Each Attribute we read in is replaced
+         * by the canonical Attribute with the same values, (see
+         * Attribute.readResolve()), and we want those to be the ones
+         * that belong to the DataModel's ClassDescriptions.
+         */
+        DataModel.getInstance();
+
         Object obj = null;
         try {
             obj = inputStream.readObject();
@@ -2426,9 +3056,13 @@ public class RowData
     public static RowData readRowData(String fileName) {
 
         try {
-            FileInputStream inputFile = new FileInputStream(fileName);
+            CountingInputStream inputFile = new CountingInputStream(
+                new FileInputStream(fileName));
             ObjectInputStream inputStream = new ObjectInputStream(inputFile);
-            return(readRowData(inputStream));
+            RowData rowData = readRowData(inputStream);
+            inputStream.close();
+            BYTES_READ.update(inputFile.getCount());
+            return(rowData);
         }
         catch (FileNotFoundException e) {
             /**
@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel;
+
+import com.physion.ebuilder.datatypes.*;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This writes and reads the values of RowData objects in the compact
+ * binary form RowDataJournal uses for its journal and checkpoint files.
+ *
+ * Things are written as small numbers wherever possible:
+ *
+ *      An Attribute is written as its index in the list of attributes
+ *      of the class it belongs to, (i.e. the class of the Attribute
+ *      to its left, or the row's parent class).  The special
+ *      SELECT_ATTRIBUTE, IS_NULL and IS_NOT_NULL Attributes have
+ *      their own numbers.
+ *
+ *      Enums are written as their ordinal, plus one, in one byte.
+ *      (0 is null.)
+ *
+ *      A String is written in full the first time, and as a number
+ *      after that.  So a property name or string value that is used
+ *      in many rows costs a few bytes for each row.
+ *
+ * Because of the last point, a RowDataCodec remembers what it has
+ * written (or read), so a file must be read by a single RowDataCodec,
+ * in the same order it was written by a single RowDataCodec.
+ */
+final class RowDataCodec {
+
+    private static final int ATTRIBUTE_SELECT = 0;
+    private static final int ATTRIBUTE_IS_NULL = 1;
+    private static final int ATTRIBUTE_IS_NOT_NULL = 2;
+    private static final int FIRST_CLASS_ATTRIBUTE = 3;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_SHORT = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_DOUBLE = 4;
+    private static final int VALUE_BOOLEAN = 5;
+    private static final int VALUE_DATE_TIME = 6;
+
+    private static final Operator[] OPERATORS = Operator.values();
+    private static final Type[] TYPES = Type.values();
+    private static final CollectionOperator[] COLLECTION_OPERATORS =
+        CollectionOperator.values();
+
+    /**
+     * The Strings we have written or read, and the number
+     * each one is written as after the first time.
+     */
+    private final Map<String,Integer> stringIds =
+        new HashMap<String,Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * ClassDescription.getAllAttributes() builds a new list every
+     * time it is called, so we keep the ones we have asked for.
+     */
+    private final Map<ClassDescription,List<Attribute>> classAttributes =
+        new IdentityHashMap<ClassDescription,List<Attribute>>();
+
+
+    /**
+     * Write the passed in non-negative number in as few bytes as
+     * possible, seven bits at a time.  Numbers less than 128 take
+     * one byte.
+     */
+    static void writeVarInt(DataOutput out, int value)
+        throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+
+    static int readVarInt(DataInput in)
+        throws IOException {
+
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return(value);
+            }
+        }
+        throw(new IOException("Malformed variable length number."));
+    }
+
+
+    void writeString(DataOutput out, String string)
+        throws IOException {
+
+        if (string == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        Integer id = stringIds.get(string);
+        if (id != null) {
+            writeVarInt(out, id.intValue()+2);
+        }
+        else {
+            writeVarInt(out, 1);
+            out.writeUTF(string);
+            stringIds.put(string, Integer.valueOf(strings.size()));
+            strings.add(string);
+        }
+    }
+
+
+    String readString(DataInput in)
+        throws IOException {
+
+        int id = readVarInt(in);
+        if (id == 0) {
+            return(null);
+        }
+        if (id == 1) {
+            String string = in.readUTF();
+            stringIds.put(string, Integer.valueOf(strings.size()));
+            strings.add(string);
+            return(string);
+        }
+        if (id-2 >= strings.size()) {
+            throw(new IOException("Unknown string number: "+(id-2)));
+        }
+        return(strings.get(id-2));
+    }
+
+
+    private static void writeEnum(DataOutput out, Enum<?> value)
+        throws IOException {
+        out.writeByte((value == null) ? 0 : value.ordinal()+1);
+    }
+
+
+    private static <E extends Enum<E>> E readEnum(DataInput in, E[] values)
+        throws IOException {
+
+        int ordinal = in.readUnsignedByte();
+        if (ordinal == 0) {
+            return(null);
+        }
+        if (ordinal > values.length) {
+            throw(new IOException("Unknown "+
+                values[0].getDeclaringClass().getSimpleName()+
+                " number: "+(ordinal-1)));
+        }
+        return(values[ordinal-1]);
+    }
+
+
+    /**
+     * Write the passed in row's own values.  I.e. everything
+     * except its children.  The row must already be in its tree,
+     * because its Attributes are written relative to its parent
+     * class.
+     */
+    void writeValues(DataOutput out, RowData rowData)
+        throws IOException {
+
+        if (rowData.getParentRow() == null) {
+            writeClassUnderQualification(out,
+                rowData.getClassUnderQualification());
+        }
+
+        List<Attribute> attributePath = rowData.getAttributePath();
+        writeVarInt(out, attributePath.size());
+        ClassDescription classDescription = rowData.getParentClass();
+        for (Attribute attribute : attributePath) {
+            writeVarInt(out, getAttributeNumber(classDescription, attribute));
+            if (attribute != null) {
+                classDescription = attribute.getClassDescription();
+            }
+        }
+
+        writeEnum(out, rowData.getAttributeOperator());
+        writeValue(out, rowData.getAttributeValue());
+        writeString(out, rowData.getPropName());
+        writeEnum(out, rowData.getPropType());
+        writeEnum(out, rowData.getCollectionOperator());
+        writeEnum(out, rowData.getCollectionOperator2());
+    }
+
+
+    /**
+     * Read the values writeValues() wrote, and set them in the passed
+     * in row.  The row must already be in its tree.
+     *
+     * @param clearChildRows If true, the row's children are thrown away.
+     */
+    void readValues(DataInput in, RowData rowData, boolean clearChildRows)
+        throws IOException {
+
+        ClassDescription cuq = null;
+        if (rowData.getParentRow() == null) {
+            cuq = readClassUnderQualification(in);
+        }
+
+        int count = readVarInt(in);
+        List<Attribute> attributePath = new ArrayList<Attribute>(count);
+        ClassDescription classDescription = (cuq != null) ? cuq :
+            rowData.getParentClass();
+        for (int index = 0; index < count; index++) {
+            Attribute attribute = getAttribute(classDescription,
+                                               readVarInt(in));
+            attributePath.add(attribute);
+            classDescription = attribute.getClassDescription();
+        }
+
+        Operator attributeOperator = readEnum(in, OPERATORS);
+        Object attributeValue = readValue(in);
+        String propName = readString(in);
+        Type propType = readEnum(in, TYPES);
+        CollectionOperator collectionOperator =
+            readEnum(in, COLLECTION_OPERATORS);
+        CollectionOperator collectionOperator2 =
+            readEnum(in, COLLECTION_OPERATORS);
+
+        rowData.restoreValues(cuq, attributePath, attributeOperator,
+                              attributeValue, propName, propType,
+                              collectionOperator, collectionOperator2,
+                              clearChildRows);
+    }
+
+
+    /**
+     * Write the passed in row's values, and then, recursively,
+     * all of its children.
+     */
+    void writeTree(DataOutput out, RowData rowData)
+        throws IOException {
+
+        writeValues(out, rowData);
+        List<RowData> childRows = rowData.getChildRows();
+        writeVarInt(out, childRows.size());
+        for (RowData childRow : childRows) {
+            writeTree(out, childRow);
+        }
+    }
+
+
+    /**
+     * Read a tree writeTree() wrote.
+     *
+     * @param parentRow The row the tree's root becomes a child of,
+     * or null if the tree is a whole expression tree.
+     * @param index The index at which it is inserted in the
+     * parentRow's children.
+     *
+     * @return The root of the tree that was read.
+     */
+    RowData readTree(DataInput in, RowData parentRow, int index)
+        throws IOException {
+
+        RowData rowData = new RowData();
+        if (parentRow != null) {
+            parentRow.restoreChildRow(index, rowData);
+        }
+        readTreeInto(in, rowData);
+        return(rowData);
+    }
+
+
+    /**
+     * Read a tree writeTree() wrote into the passed in row, replacing
+     * the row's values and all of its children.  The row must
+     * already be in its tree.
+     */
+    void readTreeInto(DataInput in, RowData rowData)
+        throws IOException {
+
+        readValues(in, rowData, true);
+
+        int count = readVarInt(in);
+        for (int childIndex = 0; childIndex < count; childIndex++) {
+            readTree(in, rowData, childIndex);
+        }
+    }
+
+
+    /**
+     * Write the list of child indexes that lead from the root row
+     * of the passed in row's tree down to the passed in row.
+     */
+    static void writePath(DataOutput out, RowData rowData)
+        throws IOException {
+
+        int depth = rowData.getIndentCount();
+        int[] indexes = new int[depth];
+        RowData row = rowData;
+        for (int level = depth-1; level >= 0; level--) {
+            RowData parentRow = row.getParentRow();
+            indexes[level] = indexOf(parentRow, row);
+            row = parentRow;
+        }
+
+        writeVarInt(out, depth);
+        for (int index : indexes) {
+            writeVarInt(out, index);
+        }
+    }
+
+
+    /**
+     * Read a path writePath() wrote, and return the row it leads to.
+     */
+    static RowData readPath(DataInput in, RowData rootRow)
+        throws IOException {
+
+        int depth = readVarInt(in);
+        RowData rowData = rootRow;
+        for (int level = 0; level < depth; level++) {
+            int index = readVarInt(in);
+            List<RowData> childRows = rowData.getChildRows();
+            if (index >= childRows.size()) {
+                throw(new IOException("Path leads to child "+index+
+                    " of a row that has "+childRows.size()+" children."));
+            }
+            rowData = childRows.get(index);
+        }
+        return(rowData);
+    }
+
+
+    /**
+     * Get the index of the passed in child in its parent's children,
+     * or -1.  This compares rows with ==.
+     */
+    static int indexOf(RowData parentRow, RowData childRow) {
+
+        List<RowData> childRows = parentRow.getChildRows();
+        for (int index = 0; index < childRows.size(); index++) {
+            if (childRows.get(index) == childRow) {
+                return(index);
+            }
+        }
+        return(-1);
+    }
+
+
+    /**
+     * A class under qualification is written as its index in
+     * DataModel.getPossibleCUQs(), plus two.  Any other class is
+     * written as 1 followed by its name, and null is written as 0.
+     * (Names aren't unique.  E.g. there are two classes named "Note".)
+     */
+    private void writeClassUnderQualification(DataOutput out,
+                                              ClassDescription cuq)
+        throws IOException {
+
+        if (cuq == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        List<ClassDescription> possibleCUQs = DataModel.getPossibleCUQs();
+        for (int index = 0; index < possibleCUQs.size(); index++) {
+            if (possibleCUQs.get(index) == cuq) {
+                writeVarInt(out, index+2);
+                return;
+            }
+        }
+        writeVarInt(out, 1);
+        writeString(out, cuq.getName());
+    }
+
+
+    private ClassDescription readClassUnderQualification(DataInput in)
+        throws IOException {
+
+        int number = readVarInt(in);
+        if (number == 0) {
+            return(null);
+        }
+        if (number == 1) {
+            String name = readString(in);
+            ClassDescription cuq = DataModel.getClassDescription(name);
+            if (cuq == null) {
+                throw(new IOException("Unknown class: "+name));
+            }
+            return(cuq);
+        }
+
+        List<ClassDescription> possibleCUQs = DataModel.getPossibleCUQs();
+        if (number-2 >= possibleCUQs.size()) {
+            throw(new IOException("Unknown class under qualification "+
+                "number: "+(number-2)));
+        }
+        return(possibleCUQs.get(number-2));
+    }
+
+
+    private int getAttributeNumber(ClassDescription classDescription,
+                                   Attribute attribute) {
+
+        if (attribute == Attribute.SELECT_ATTRIBUTE) {
+            return(ATTRIBUTE_SELECT);
+        }
+        if (attribute == Attribute.IS_NULL) {
+            return(ATTRIBUTE_IS_NULL);
+        }
+        if (attribute == Attribute.IS_NOT_NULL) {
+            return(ATTRIBUTE_IS_NOT_NULL);
+        }
+
+        int index = getClassAttributes(classDescription).indexOf(attribute);
+        if (index < 0) {
+            throw(new IllegalArgumentException("Attribute "+attribute+
+                " is not an attribute of "+classDescription+"."));
+        }
+        return(FIRST_CLASS_ATTRIBUTE+index);
+    }
+
+
+    private Attribute getAttribute(ClassDescription classDescription,
+                                   int number)
+        throws IOException {
+
+        switch (number) {
+            case ATTRIBUTE_SELECT:
+                return(Attribute.SELECT_ATTRIBUTE);
+            case ATTRIBUTE_IS_NULL:
+                return(Attribute.IS_NULL);
+            case ATTRIBUTE_IS_NOT_NULL:
+                return(Attribute.IS_NOT_NULL);
+        }
+
+        List<Attribute> attributes = getClassAttributes(classDescription);
+        if (number-FIRST_CLASS_ATTRIBUTE >= attributes.size()) {
+            throw(new IOException("Unknown attribute number "+number+
+                " for class "+classDescription+"."));
+        }
+        return(attributes.get(number-FIRST_CLASS_ATTRIBUTE));
+    }
+
+
+    private List<Attribute> getClassAttributes(
+        ClassDescription classDescription) {
+
+        if (classDescription == null) {
+            return(new ArrayList<Attribute>());
+        }
+
+        List<Attribute> attributes = classAttributes.get(classDescription);
+        if (attributes == null) {
+            attributes = classDescription.getAllAttributes();
+            classAttributes.put(classDescription, attributes);
+        }
+        return(attributes);
+    }
+
+
+    private void writeValue(DataOutput out, Object value)
+        throws IOException {
+
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        }
+        else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String)value);
+        }
+        else if (value instanceof Short) {
+            out.writeByte(VALUE_SHORT);
+            out.writeShort(((Short)value).shortValue());
+        }
+        else if (value instanceof Integer) {
+            out.writeByte(VALUE_INTEGER);
+            out.writeInt(((Integer)value).intValue());
+        }
+        else if (value instanceof Double) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Double)value).doubleValue());
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean(((Boolean)value).booleanValue());
+        }
+        else if (value instanceof DateTime) {
+            out.writeByte(VALUE_DATE_TIME);
+            out.writeLong(((DateTime)value).getMillis());
+            writeString(out, ((DateTime)value).getZone().getID());
+        }
+        else {
+            throw(new IllegalArgumentException("Can't write an "+
+                "attributeValue of class "+value.getClass().getName()+"."));
+        }
+    }
+
+
+    private Object readValue(DataInput in)
+        throws IOException {
+
+        int kind = in.readUnsignedByte();
+        switch (kind) {
+            case VALUE_NULL:
+                return(null);
+            case VALUE_STRING:
+                return(readString(in));
+            case VALUE_SHORT:
+                return(Short.valueOf(in.readShort()));
+            case VALUE_INTEGER:
+                return(Integer.valueOf(in.readInt()));
+            case VALUE_DOUBLE:
+                return(Double.valueOf(in.readDouble()));
+            case VALUE_BOOLEAN:
+                return(Boolean.valueOf(in.readBoolean()));
+            case VALUE_DATE_TIME:
+                long millis = in.readLong();
+                return(new DateTime(millis,
+                                    DateTimeZone.forID(readString(in))));
+            default:
+                throw(new IOException("Unknown value kind: "+kind));
+        }
+    }
+}
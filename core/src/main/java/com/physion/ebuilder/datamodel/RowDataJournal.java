@@ -0,0 +1,797 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel;
+
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.metrics.Timer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+
+/**
+ * A RowDataJournal autosaves an expression tree while the user edits
+ * it, so that if the application dies, (or the machine does), the
+ * tree can be put back the way it was.
+ *
+ * It listens to the tree's root row, and appends one small binary
+ * record to a journal file for every TIMING_AFTER RowDataEvent the
+ * root row sends.  A record says which row changed, (as a path of
+ * child indexes from the root row), and what the row's values, or
+ * the new child row, now are.  Changes that can change a whole
+ * subtree, (e.g. changing a row's attribute or collection operator),
+ * record the whole subtree.  A typical record is about 10 bytes.
+ *
+ * Every so often, (see setCheckpointInterval()), the journal writes
+ * a checkpoint.  It copies the tree, starts a new journal file, and
+ * a background thread writes the copy to a checkpoint file.  Once a
+ * checkpoint file is safely on disk, the older checkpoint and
+ * journal files are deleted.  So the journal files never hold more
+ * than a few thousand records, and the user's edits are never made
+ * to wait for a big tree to be written.
+ *
+ * recover() reads the newest good checkpoint file and replays the
+ * journal files that were started after it.  Every record has a
+ * CRC, so a record that was only partly written when the
+ * application died is noticed, and recovery stops there.
+ *
+ * The files in the directory are:
+ *
+ *      checkpoint-<generation>.rdc     A whole tree.
+ *      journal-<generation>.rdj        The changes made to the tree
+ *                                      after checkpoint <generation>
+ *                                      was taken.
+ *
+ * Journal records are flushed to the operating system as they are
+ * written, so they survive the application crashing.  They are not
+ * forced to the disk, because doing that on every keystroke would
+ * be far too slow.  Checkpoint files, and the journal files that
+ * are finished when a checkpoint is taken, are forced to the disk.
+ *
+ * A typical use is:
+ *
+ *      RowData rootRow = RowDataJournal.recover(directory);
+ *      if (rootRow == null)
+ *          rootRow = RowData.createRootRow();
+ *      RowDataJournal journal = new RowDataJournal(directory);
+ *      journal.start(rootRow);
+ *      ...  The user edits the tree.
+ *      journal.close();
+ *      RowDataJournal.delete(directory);
+ *
+ * All the methods except recover() and delete() must be called on
+ * the thread that changes the tree, (i.e. the Swing event thread).
+ * If writing the journal fails, the journal prints the exception,
+ * stops recording, and close() throws it.
+ */
+public class RowDataJournal
+    implements RowDataListener {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    private static final int JOURNAL_MAGIC = 0x52444A31; // "RDJ1"
+    private static final int CHECKPOINT_MAGIC = 0x52444331; // "RDC1"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".rdj";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".rdc";
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile(
+        "(journal|checkpoint)-(\\d+)\\.(rdj|rdc)");
+
+    /**
+     * The kinds of journal records.
+     */
+    private static final int RECORD_ROW = 0;       // path, values
+    private static final int RECORD_ADD = 1;       // path, index, tree
+    private static final int RECORD_DELETE = 2;    // path, index
+    private static final int RECORD_SUBTREE = 3;   // path, tree
+
+    private static final Counter RECORDS =
+        Metrics.counter("rowData.journal.records");
+    private static final Histogram RECORD_BYTES =
+        Metrics.histogram("rowData.journal.recordBytes");
+    private static final Timer CHECKPOINT_TIME =
+        Metrics.timer("rowData.journal.checkpoint");
+    private static final Histogram CHECKPOINT_BYTES =
+        Metrics.histogram("rowData.journal.checkpointBytes");
+    private static final Counter RECORDS_REPLAYED =
+        Metrics.counter("rowData.journal.recordsReplayed");
+
+    private final File directory;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    private RowData rootRow;
+    private long generation;
+    private int recordsSinceCheckpoint;
+
+    private FileOutputStream journalFile;
+    private DataOutputStream journalOut;
+    private RowDataCodec codec;
+
+    /**
+     * A record is built in recordBuffer, so we know its length
+     * and CRC before we write it.  They are reused for every record.
+     */
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+    private final DataOutputStream recordOut =
+        new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The index each row that is being deleted had in its parent
+     * when the TIMING_BEFORE event was sent.  By the time the
+     * TIMING_AFTER event is sent, it is gone.
+     */
+    private final ArrayDeque<Integer> deleteIndexes =
+        new ArrayDeque<Integer>();
+
+    private ExecutorService checkpointWriter;
+    private volatile Exception failure;
+
+
+    /**
+     * Create a journal that keeps its files in the passed in directory.
+     * The directory is created if it does not exist.  Nothing is
+     * written until start() is called.
+     */
+    public RowDataJournal(File directory) {
+
+        if (directory == null) {
+            throw(new IllegalArgumentException("directory is null."));
+        }
+        this.directory = directory;
+    }
+
+
+    /**
+     * Set how many records are written to a journal file
+     * before a checkpoint is taken.
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+
+        if (checkpointInterval < 1) {
+            throw(new IllegalArgumentException(
+                "checkpointInterval must be at least 1: "+
+                checkpointInterval));
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+
+    public int getCheckpointInterval() {
+        return(checkpointInterval);
+    }
+
+
+    /**
+     * Start recording the changes to the tree with the passed in
+     * root row.  This takes a checkpoint of the tree right away, so
+     * the passed in tree is what recover() returns if the tree is
+     * never changed.
+     */
+    public void start(RowData rootRow)
+        throws IOException {
+
+        if (rootRow == null) {
+            throw(new IllegalArgumentException("rootRow is null."));
+        }
+        if (this.rootRow != null) {
+            throw(new IllegalStateException("The journal has already "+
+                "been started."));
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw(new IOException("Could not create directory "+directory));
+        }
+
+        /**
+         * Start after any files that are already in the directory,
+         * so an older tree never looks newer than this one.
+         */
+        for (long existing : getGenerations(directory, null)) {
+            generation = Math.max(generation, existing);
+        }
+
+        checkpointWriter = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                                               "RowDataJournal checkpoint");
+                    thread.setDaemon(true);
+                    return(thread);
+                }
+            });
+
+        this.rootRow = rootRow;
+        checkpoint();
+        rootRow.addRowDataListener(this);
+    }
+
+
+    /**
+     * Take a checkpoint now.  The tree is copied on this thread,
+     * and written to disk in the background.
+     */
+    public void checkpoint()
+        throws IOException {
+
+        if (rootRow == null) {
+            throw(new IllegalStateException("The journal has not "+
+                "been started."));
+        }
+        checkIfFailed();
+
+        generation++;
+        openJournal(generation);
+        recordsSinceCheckpoint = 0;
+
+        /**
+         * Copy the tree, and create any rows the copy hasn't created
+         * yet, (see ChildRowSource), here, so the background thread
+         * only reads the copy.  Nothing else has a reference to it,
+         * so it is never changed.
+         */
+        final RowData snapshot = new RowData(rootRow);
+        snapshot.getDescendentCount();
+
+        final long snapshotGeneration = generation;
+        checkpointWriter.execute(new Runnable() {
+            public void run() {
+                try {
+                    writeCheckpoint(snapshot, snapshotGeneration);
+                }
+                catch (Exception e) {
+                    fail(e);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Stop recording, wait for the last checkpoint to be written,
+     * and close the journal file.  The files are left in the
+     * directory.  Call delete() to remove them.
+     *
+     * @throws IOException If writing the journal or a checkpoint
+     * failed at any time.
+     */
+    public void close()
+        throws IOException {
+
+        if (rootRow == null) {
+            return;
+        }
+
+        rootRow.removeRowDataListener(this);
+        rootRow = null;
+
+        try {
+            closeJournal();
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+
+        checkpointWriter.shutdown();
+        try {
+            checkpointWriter.awaitTermination(Long.MAX_VALUE,
+                                              TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        checkIfFailed();
+    }
+
+
+    /**
+     * Record the passed in change to the tree.
+     */
+    @Override
+    public void rowDataChanged(RowDataEvent event) {
+
+        if ((rootRow == null) || (failure != null)) {
+            return;
+        }
+
+        RowData rowData = event.getOriginalRowData();
+
+        if (event.getTiming() == RowDataEvent.TIMING_BEFORE) {
+            if (event.getChangeType() == RowDataEvent.TYPE_CHILD_DELETE) {
+                deleteIndexes.push(Integer.valueOf(RowDataCodec.indexOf(
+                    rowData, event.getChildRowData())));
+            }
+            return;
+        }
+
+        try {
+            switch (event.getChangeType()) {
+
+                case RowDataEvent.TYPE_PARENT:
+                    /**
+                     * This is part of adding the row to its parent,
+                     * which is recorded by the TYPE_CHILD_ADD event.
+                     */
+                    return;
+
+                case RowDataEvent.TYPE_CHILD_ADD:
+                    /**
+                     * createCompoundRow() and createAttributeRow() don't
+                     * say which row they added, but it is the last one.
+                     */
+                    RowData childRow = event.getChildRowData();
+                    List<RowData> childRows = rowData.getChildRows();
+                    int addIndex = (childRow == null) ?
+                        childRows.size()-1 :
+                        RowDataCodec.indexOf(rowData, childRow);
+                    if (addIndex < 0) {
+                        return;
+                    }
+                    startRecord(RECORD_ADD, rowData);
+                    RowDataCodec.writeVarInt(recordOut, addIndex);
+                    codec.writeTree(recordOut, childRows.get(addIndex));
+                    break;
+
+                case RowDataEvent.TYPE_CHILD_DELETE:
+                    int deleteIndex = deleteIndexes.isEmpty() ? -1 :
+                        deleteIndexes.pop().intValue();
+                    if (deleteIndex < 0) {
+                        return;
+                    }
+                    startRecord(RECORD_DELETE, rowData);
+                    RowDataCodec.writeVarInt(recordOut, deleteIndex);
+                    break;
+
+                case RowDataEvent.TYPE_ATTRIBUTE_VALUE:
+                case RowDataEvent.TYPE_ATTRIBUTE_OPERATOR:
+                case RowDataEvent.TYPE_PROP_NAME:
+                case RowDataEvent.TYPE_PROP_TYPE:
+                    startRecord(RECORD_ROW, rowData);
+                    codec.writeValues(recordOut, rowData);
+                    break;
+
+                default:
+                    /**
+                     * Changing a row's attribute, collection operator,
+                     * or class under qualification can change or
+                     * remove its children too, so we record them all.
+                     */
+                    startRecord(RECORD_SUBTREE, rowData);
+                    codec.writeTree(recordOut, rowData);
+                    break;
+            }
+
+            finishRecord();
+
+            if (recordsSinceCheckpoint >= checkpointInterval) {
+                checkpoint();
+            }
+        }
+        catch (Exception e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+     * Read the tree that was being recorded in the passed in directory,
+     * as it was when the last complete record was written.
+     *
+     * @return The root row of the tree, or null if the directory
+     * doesn't have a good checkpoint file.
+     */
+    public static RowData recover(File directory) {
+
+        List<Long> checkpoints = getGenerations(directory,
+                                                CHECKPOINT_PREFIX);
+        Collections.reverse(checkpoints);
+
+        for (long checkpoint : checkpoints) {
+
+            RowData rootRow;
+            try {
+                rootRow = readCheckpoint(new File(directory,
+                    CHECKPOINT_PREFIX+checkpoint+CHECKPOINT_SUFFIX),
+                    checkpoint);
+            }
+            catch (Exception e) {
+                System.err.println("Skipping unreadable checkpoint "+
+                                   checkpoint+": "+e);
+                continue;
+            }
+
+            /**
+             * Replay the journals in order, until one is missing
+             * or one ends with a bad record.
+             */
+            for (long journal = checkpoint; true; journal++) {
+                File file = new File(directory,
+                    JOURNAL_PREFIX+journal+JOURNAL_SUFFIX);
+                if (!file.isFile() || !replayJournal(file, journal, rootRow))
+                    break;
+            }
+            return(rootRow);
+        }
+
+        return(null);
+    }
+
+
+    /**
+     * Delete the files a RowDataJournal wrote in the passed in
+     * directory.  Other files, and the directory, are left alone.
+     */
+    public static void delete(File directory) {
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (isJournalFile(file.getName()) ||
+                file.getName().endsWith(CHECKPOINT_SUFFIX+".tmp")) {
+                if (!file.delete()) {
+                    System.err.println("Could not delete "+file);
+                }
+            }
+        }
+    }
+
+
+    private void startRecord(int kind, RowData rowData)
+        throws IOException {
+
+        recordBuffer.reset();
+        recordOut.writeByte(kind);
+        RowDataCodec.writePath(recordOut, rowData);
+    }
+
+
+    /**
+     * Write the record in recordBuffer to the journal file:
+     *
+     *      int length, payload, int CRC of the payload
+     */
+    private void finishRecord()
+        throws IOException {
+
+        recordOut.flush();
+        crc.reset();
+        crc.update(recordBuffer.getBuffer(), 0, recordBuffer.size());
+
+        journalOut.writeInt(recordBuffer.size());
+        journalOut.write(recordBuffer.getBuffer(), 0, recordBuffer.size());
+        journalOut.writeInt((int)crc.getValue());
+        journalOut.flush();
+
+        RECORDS.increment();
+        RECORD_BYTES.update(recordBuffer.size()+8);
+        recordsSinceCheckpoint++;
+    }
+
+
+    private void openJournal(long journalGeneration)
+        throws IOException {
+
+        closeJournal();
+
+        journalFile = new FileOutputStream(new File(directory,
+            JOURNAL_PREFIX+journalGeneration+JOURNAL_SUFFIX));
+        journalOut = new DataOutputStream(
+            new BufferedOutputStream(journalFile));
+        codec = new RowDataCodec();
+
+        journalOut.writeInt(JOURNAL_MAGIC);
+        journalOut.writeInt(FORMAT_VERSION);
+        journalOut.writeLong(journalGeneration);
+        journalOut.flush();
+    }
+
+
+    private void closeJournal()
+        throws IOException {
+
+        if (journalOut == null) {
+            return;
+        }
+
+        try {
+            journalOut.flush();
+            journalFile.getFD().sync();
+        }
+        finally {
+            journalOut.close();
+            journalOut = null;
+            journalFile = null;
+            codec = null;
+        }
+    }
+
+
+    /**
+     * Write the passed in copy of the tree to a checkpoint file,
+     * and then delete the files it makes unnecessary.
+     * This is run by the checkpointWriter thread.
+     *
+     * The file is written under a temporary name and then renamed,
+     * so a checkpoint file is either complete or not there.
+     */
+    private void writeCheckpoint(RowData snapshot, long snapshotGeneration)
+        throws IOException {
+
+        Timer.Context context = CHECKPOINT_TIME.start();
+
+        RecordBuffer buffer = new RecordBuffer();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(snapshotGeneration);
+        new RowDataCodec().writeTree(out, snapshot);
+        out.flush();
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.getBuffer(), 0, buffer.size());
+
+        File file = new File(directory,
+            CHECKPOINT_PREFIX+snapshotGeneration+CHECKPOINT_SUFFIX);
+        File tempFile = new File(directory, file.getName()+".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream dataOut = new DataOutputStream(fileOut);
+            dataOut.write(buffer.getBuffer(), 0, buffer.size());
+            dataOut.writeInt((int)checksum.getValue());
+            dataOut.flush();
+            fileOut.getFD().sync();
+        }
+        finally {
+            fileOut.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE);
+
+        CHECKPOINT_BYTES.update(buffer.size()+4);
+
+        /**
+         * Everything in the older files is in the new checkpoint.
+         */
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File oldFile : files) {
+                Matcher matcher = FILE_NAME_PATTERN.matcher(
+                    oldFile.getName());
+                if (matcher.matches() &&
+                    (Long.parseLong(matcher.group(2)) < snapshotGeneration))
+                    oldFile.delete();
+            }
+        }
+
+        context.stop();
+    }
+
+
+    private static RowData readCheckpoint(File file, long checkpoint)
+        throws IOException {
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if (bytes.length < 4) {
+            throw(new IOException("File is too short."));
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length-4);
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes));
+        in.mark(bytes.length);
+        in.skipBytes(bytes.length-4);
+        if (in.readInt() != (int)checksum.getValue()) {
+            throw(new IOException("Bad CRC."));
+        }
+        in.reset();
+
+        readHeader(in, CHECKPOINT_MAGIC, checkpoint);
+        return(new RowDataCodec().readTree(in, null, 0));
+    }
+
+
+    /**
+     * Apply the records in the passed in journal file to the tree.
+     *
+     * @return true if the whole file was good, false if it ended
+     * with a bad or partly written record.
+     */
+    private static boolean replayJournal(File file, long journal,
+                                         RowData rootRow) {
+
+        RowDataCodec codec = new RowDataCodec();
+        CRC32 checksum = new CRC32();
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            readHeader(in, JOURNAL_MAGIC, journal);
+
+            while (in.available() > 0) {
+
+                int length = in.readInt();
+                if ((length <= 0) || (length > in.available()-4)) {
+                    throw(new IOException("Bad record length: "+length));
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if (in.readInt() != (int)checksum.getValue()) {
+                    throw(new IOException("Bad CRC."));
+                }
+
+                applyRecord(new DataInputStream(
+                    new ByteArrayInputStream(payload)), codec, rootRow);
+                RECORDS_REPLAYED.increment();
+            }
+            return(true);
+        }
+        catch (EOFException e) {
+            System.err.println("Journal "+journal+
+                               " ends with a partly written record.");
+            return(false);
+        }
+        catch (Exception e) {
+            System.err.println("Stopping at a bad record in journal "+
+                               journal+": "+e);
+            return(false);
+        }
+    }
+
+
+    private static void applyRecord(DataInputStream in, RowDataCodec codec,
+                                    RowData rootRow)
+        throws IOException {
+
+        int kind = in.readUnsignedByte();
+        RowData rowData = RowDataCodec.readPath(in, rootRow);
+
+        switch (kind) {
+
+            case RECORD_ROW:
+                codec.readValues(in, rowData, false);
+                break;
+
+            case RECORD_ADD:
+                int addIndex = RowDataCodec.readVarInt(in);
+                if (addIndex > rowData.getChildRows().size()) {
+                    throw(new IOException("Bad child index: "+addIndex));
+                }
+                codec.readTree(in, rowData, addIndex);
+                break;
+
+            case RECORD_DELETE:
+                int deleteIndex = RowDataCodec.readVarInt(in);
+                if (deleteIndex >= rowData.getChildRows().size()) {
+                    throw(new IOException("Bad child index: "+deleteIndex));
+                }
+                rowData.restoreChildRowRemoval(deleteIndex);
+                break;
+
+            case RECORD_SUBTREE:
+                codec.readTreeInto(in, rowData);
+                break;
+
+            default:
+                throw(new IOException("Unknown record kind: "+kind));
+        }
+    }
+
+
+    private static void readHeader(DataInputStream in, int magic,
+                                   long expectedGeneration)
+        throws IOException {
+
+        if (in.readInt() != magic) {
+            throw(new IOException("Not a RowDataJournal file."));
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw(new IOException("Unknown format version: "+version));
+        }
+        long fileGeneration = in.readLong();
+        if (fileGeneration != expectedGeneration) {
+            throw(new IOException("File says it is generation "+
+                fileGeneration+", not "+expectedGeneration));
+        }
+    }
+
+
+    /**
+     * Get the generations of the files in the passed in directory,
+     * in increasing order.
+     *
+     * @param prefix Only look at files whose names start with
+     * this, or look at all of them if this is null.
+     */
+    private static List<Long> getGenerations(File directory, String prefix) {
+
+        List<Long> generations = new ArrayList<Long>();
+        String[] names = directory.list();
+        if (names == null) {
+            return(generations);
+        }
+
+        for (String name : names) {
+            Matcher matcher = FILE_NAME_PATTERN.matcher(name);
+            if (matcher.matches() &&
+                ((prefix == null) || name.startsWith(prefix))) {
+                generations.add(Long.valueOf(matcher.group(2)));
+            }
+        }
+        Collections.sort(generations);
+        return(generations);
+    }
+
+
+    private static boolean isJournalFile(String name) {
+        return(FILE_NAME_PATTERN.matcher(name).matches());
+    }
+
+
+    private void fail(Exception e) {
+
+        if (failure == null) {
+            System.err.println("RowDataJournal stopped recording:");
+            e.printStackTrace();
+            failure = e;
+        }
+    }
+
+
+    private void checkIfFailed()
+        throws IOException {
+
+        Exception e = failure;
+        if (e instanceof IOException) {
+            throw((IOException)e);
+        }
+        if (e != null) {
+            throw(new IOException("RowDataJournal failed.", e));
+        }
+    }
+
+
+    /**
+     * A ByteArrayOutputStream that lets us use its buffer
+     * without copying it.
+     */
+    private static final class RecordBuffer
+        extends ByteArrayOutputStream {
+
+        byte[] getBuffer() {
+            return(buf);
+        }
+    }
+}
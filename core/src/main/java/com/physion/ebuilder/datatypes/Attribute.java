@@ -4,7 +4,10 @@
  */
 package com.physion.ebuilder.datatypes;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -27,6 +30,18 @@ import java.io.Serializable;
  * comboBox as an instance of an Attribute object.
  * This makes the code a bit more simple, but does
  * make the Attribute class a bit less "clean".
+ *
+ * Attributes are immutable "flyweights".  You cannot create one with
+ * "new".  Instead, call one of the valueOf() methods, which returns
+ * the one and only Attribute object with those values, creating it
+ * the first time it is asked for.  Because of this, two Attributes
+ * are equivalent if, and only if, they are the same object, so
+ * equals() is simply "==", and every RowData attributePath, comboBox
+ * list, etc. shares references to the same small set of Attribute
+ * objects instead of making copies of them.
+ *
+ * A deserialized Attribute is replaced by the canonical one with
+ * the same values.  (See readResolve().)
  */
 public class Attribute
     implements Serializable {
@@ -47,12 +62,20 @@ public class Attribute
      * doesn't matter to the code if they are consistent, so
      * change it if you think it is unweildy.
      */
+    /**
+     * This is the pool of canonical Attributes, keyed by the
+     * string created by createKey().  It MUST be declared before
+     * the special Attributes below, because creating them uses it.
+     */
+    private static final Map<String,Attribute> canonicalAttributes =
+        new HashMap<String,Attribute>();
+
     public static final Attribute SELECT_ATTRIBUTE =
-        new Attribute("Select Attribute", Type.REFERENCE);
+        valueOf("Select Attribute", Type.REFERENCE);
     public static final Attribute IS_NULL =
-        new Attribute(Operator.IS_NULL.toString(), Type.REFERENCE);
+        valueOf(Operator.IS_NULL.toString(), Type.REFERENCE);
     public static final Attribute IS_NOT_NULL =
-        new Attribute(Operator.IS_NOT_NULL.toString(), Type.REFERENCE);
+        valueOf(Operator.IS_NOT_NULL.toString(), Type.REFERENCE);
 
 
     /**
@@ -67,7 +90,7 @@ public class Attribute
      * EntityBase.properties attribute.  In that case the displayName
      * is "Property" and the queryName is "properties".
      */
-    private String queryName;
+    private final String queryName;
 
     /**
      * The "display" name of this attribute.  I.e. the string that
@@ -96,18 +119,18 @@ public class Attribute
      *
      * The displayNames might change before the code is finished.
      */
-    private String displayName;
+    private final String displayName;
 
     /**
      * The type of this attribute.  E.g. BOOLEAN, INT, REFERENCE.
      */
-    private Type type;
+    private final Type type;
 
     /**
      * If our type is "REFERENCE", then this is the class that
      * we reference.  Otherwise, this is null.
      */
-    private ClassDescription classDescription;
+    private final ClassDescription classDescription;
 
     /**
      * The cardinality of the relationship between this attribute
@@ -115,31 +138,31 @@ public class Attribute
      * This does not apply if this attribute is a "primitive" type
      * such as boolean, int, float, string, time/date.
      */
-    private Cardinality cardinality;
-
+    private final Cardinality cardinality;
 
     /**
-     * Create an Attribute that is a copy of another Attribute.
+     * The hash code of this Attribute.  It is computed once, from
+     * the same values that make this Attribute unique, because
+     * Attributes are used as keys in a number of maps.
      */
-    public Attribute(Attribute other) {
-        this(other.queryName, other.displayName, other.type,
-             other.classDescription, other.cardinality);
-    }
+    private final int hash;
 
 
     /**
-     * The base constructor that sets all the member data values
-     * to the passed in values.
+     * The one and only constructor.  It sets all the member data
+     * values to the passed in values.  It is private because
+     * Attributes must be created using one of the valueOf() methods.
      */
-    public Attribute(String queryName, String displayName, Type type,
-                     ClassDescription classDescription,
-                     Cardinality cardinality) {
+    private Attribute(String queryName, String displayName, Type type,
+                      ClassDescription classDescription,
+                      Cardinality cardinality, String key) {
 
         this.queryName = queryName;
         this.displayName = displayName;
         this.type = type;
         this.classDescription = classDescription;
         this.cardinality = cardinality;
+        this.hash = key.hashCode();
 
         if ((this.type == Type.PARAMETERS_MAP) &&
             (this.cardinality != Cardinality.N_A)) {
@@ -153,120 +176,155 @@ public class Attribute
 
 
     /**
-     * A constructor with the displayName defaulted to null.
-     * (I.e. the displayName will be the same as the queryName.)
+     * Get the one and only Attribute that has all the passed in values.
+     * It is created the first time it is asked for.
+     *
+     * Please note, two Attributes that have the same queryName,
+     * type and cardinality, and that reference classes with the
+     * same name and ancestors, are considered to be the same
+     * Attribute.  E.g. the "notes" string Attribute of Resource and
+     * of AnalysisRecord is one Attribute object shared by both classes.
+     *
+     * The displayName is not part of what makes an Attribute unique,
+     * (it never was part of equals()), because it is only what the
+     * user sees.  So, if the Attribute already exists, it is returned
+     * with the displayName it was created with, even if the passed
+     * in displayName is different.
+     */
+    public static Attribute valueOf(String queryName, String displayName,
+                                    Type type,
+                                    ClassDescription classDescription,
+                                    Cardinality cardinality) {
+
+        if ((queryName == null) || (type == null) || (cardinality == null)) {
+            throw(new IllegalArgumentException(
+                "queryName, type, and cardinality must not be null."));
+        }
+
+        String key = createKey(queryName, type, classDescription,
+                               cardinality);
+
+        synchronized (canonicalAttributes) {
+            Attribute attribute = canonicalAttributes.get(key);
+            if (attribute == null) {
+                attribute = new Attribute(queryName, displayName, type,
+                                          classDescription, cardinality, key);
+                canonicalAttributes.put(key, attribute);
+            }
+            return(attribute);
+        }
+    }
+
+
+    /**
+     * Get the Attribute with the displayName defaulted to null.
+     * (I.e. the displayName will be the same as the queryName,
+     * unless the Attribute already exists with a displayName.)
      *
-     * Use this constructor to create most Attributes that are
+     * Use this method to get most Attributes that are
      * a reference to a class.
      */
-    public Attribute(String queryName, Type type,
-                     ClassDescription classDescription,
-                     Cardinality cardinality) {
-        this(queryName, null, type, classDescription, cardinality);
+    public static Attribute valueOf(String queryName, Type type,
+                                    ClassDescription classDescription,
+                                    Cardinality cardinality) {
+        return(valueOf(queryName, null, type, classDescription, cardinality));
     }
 
 
     /**
-     * A constructor with some values defaulted:
+     * Get the Attribute with some values defaulted:
      *
      *      displayName = null
      *      classDescription = null
      *      cardinality = Cardinality.N_A
      *
-     * Use this constuctor to create a "primitive" Attribute such as
+     * Use this method to get a "primitive" Attribute such as
      * boolean, int, float, string, time/date.
      */
-    public Attribute(String queryName, Type type) {
-        this(queryName, null, type);
+    public static Attribute valueOf(String queryName, Type type) {
+        return(valueOf(queryName, null, type));
     }
 
+
     /**
-     * Constructor with some values defaulted:
+     * Get the Attribute with some values defaulted:
      *
      *   classDescription = null
      *   cardinality = Cardinality.N_A
      *
-     * Use this construtor to create a "primitive" Attribute such as
+     * Use this method to get a "primitive" Attribute such as
      * boolean, int, float, string, time/date with a display name.
      *
      * @param queryName attribute name
      * @param displayName UI display name
      * @param type attribute type
      */
-    public Attribute(String queryName, String displayName, Type type)
-    {
-        this(queryName, displayName, type, null, Cardinality.N_A);
+    public static Attribute valueOf(String queryName, String displayName,
+                                    Type type) {
+        return(valueOf(queryName, displayName, type, null, Cardinality.N_A));
     }
 
 
     /**
-     * Returns true if this Attribute is equivalent to
-     * the passed in Attribute.
+     * Create the string that uniquely identifies an Attribute
+     * in the canonicalAttributes pool.  The displayName is not
+     * part of it.  (See valueOf().)
+     *
+     * We use the names of the referenced class and all its
+     * ancestors instead of the ClassDescription object itself,
+     * because a deserialized Attribute references a deserialized
+     * copy of its ClassDescription, and because the DataModel
+     * has two different classes named "Note".
      */
-    @Override
-    public boolean equals(Object rhs) {
-
-        if (rhs == null)
-            return(false);
-
-        if (!(rhs instanceof Attribute))
-            return(false);
-
-        Attribute other = (Attribute)rhs;
+    private static String createKey(String queryName, Type type,
+                                    ClassDescription classDescription,
+                                    Cardinality cardinality) {
 
-        if (this == rhs)
-            return(true);
+        StringBuilder sb = new StringBuilder();
+        sb.append(queryName).append('|').append(type.name()).append('|').
+            append(cardinality.name());
 
-        if (!this.queryName.equals(other.queryName))
-            return(false);
-
-        /**
-         * The displayName is not relevant for determining whether
-         * two Attribute objects are equivalent.
-         */
-        //if (!this.getDisplayName().equals(other.getDisplayName()))
-        //    return(false);
-
-        if (this.type != other.type)
-            return(false);
+        for (ClassDescription cd = classDescription; cd != null;
+             cd = cd.getParentClass()) {
+            sb.append('|').append(cd.getName());
+        }
 
-        if (this.cardinality != other.cardinality)
-            return(false);
+        return(sb.toString());
+    }
 
-        /**
-         * See if the two Attributes share the same classDescription.
-         * Note, we don't use the ClassDescription class's equals()
-         * method because that method ends up calling this Attribute
-         * equals() method, which would cause an infinite loop.
-         * We assume that no one is going to name a class the empty
-         * string.
-         */
-        String thisCDName = "";
-        String otherCDName = "";
 
-        if (this.classDescription != null)
-            thisCDName = this.classDescription.getName();
+    /**
+     * When an Attribute is deserialized, replace it with the
+     * canonical Attribute that has the same values.  This keeps
+     * the "one object per Attribute" rule true for trees that are
+     * read in from a file.
+     */
+    private Object readResolve()
+        throws ObjectStreamException {
 
-        if (other.classDescription != null)
-            otherCDName = other.classDescription.getName();
+        return(valueOf(queryName, displayName, type, classDescription,
+                       cardinality));
+    }
 
-        if (!thisCDName.equals(otherCDName))
-            return(false);
 
-        return(true);
+    /**
+     * Returns true if this Attribute is the same object as the
+     * passed in object.  Because there is only ever one Attribute
+     * object with a given set of values, (see valueOf()), that is
+     * the same as saying they are equivalent.
+     */
+    @Override
+    public boolean equals(Object rhs) {
+        return(this == rhs);
     }
 
 
     /**
-     * Set the "query" name of this attribute that should be used
-     * in query strings.  E.g. "uuid", "owner", "properties".
-     *
-     * If you want to set the string that should be displayed in a
-     * comboBox dropdown list to be different than the queryName,
-     * you should use the setDisplayName() method.
+     * Return the hash code that we computed once when we were created.
      */
-    public void setQueryName(String queryName) {
-        this.queryName = queryName;
+    @Override
+    public int hashCode() {
+        return(hash);
     }
 
 
@@ -284,20 +342,6 @@ public class Attribute
     }
 
 
-    /**
-     * If the displayName and queryName for this attribute are the
-     * same strings, you don't need to call this method.
-     * The getDisplayName() method will return the queryName value
-     * in that case.
-     *
-     * But if the displayName and queryName are different values,
-     * you need to call this method to set the displayName.
-     */
-    public void setDisplayName(String displayName) {
-        this.displayName = displayName;
-    }
-
-
     /**
      * Get the "display" name of this attribute.  I.e. this
      * is the string that is displayed in a comboBox.
@@ -371,9 +415,7 @@ public class Attribute
      */
     public boolean isPrimitive() {
 
-        if (this.equals(Attribute.SELECT_ATTRIBUTE) ||
-            this.equals(Attribute.IS_NULL) ||
-            this.equals(Attribute.IS_NOT_NULL)) {
+        if (isSpecial()) {
             return(false);
         }
 
@@ -388,12 +430,9 @@ public class Attribute
      */
     public boolean isSpecial() {
 
-        if (this.equals(Attribute.SELECT_ATTRIBUTE) ||
-            this.equals(Attribute.IS_NULL) ||
-            this.equals(Attribute.IS_NOT_NULL)) {
-            return(true);
-        }
-        return(false);
+        return((this == Attribute.SELECT_ATTRIBUTE) ||
+               (this == Attribute.IS_NULL) ||
+               (this == Attribute.IS_NOT_NULL));
     }
 
 
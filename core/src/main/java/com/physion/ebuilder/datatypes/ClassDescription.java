@@ -6,6 +6,10 @@ package com.physion.ebuilder.datatypes;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -33,6 +37,35 @@ public class ClassDescription
      */
     private ClassDescription parentClass = null;
 
+    /**
+     * Where this class is in a preorder walk of the class hierarchy,
+     * and the preorder number of the last class in its subtree.
+     * A class is a subclass of another exactly when its preorder
+     * number is in the other's [preorder, lastDescendant] interval.
+     * See numberHierarchy().
+     *
+     * The numbers are only good while the Numbering they were
+     * assigned in is valid, and only against classes numbered in
+     * the same Numbering.  setParentClass() invalidates the class's
+     * Numbering, so a hierarchy that has been changed since it was
+     * numbered falls back to walking the parent classes.  Other
+     * hierarchies, (e.g. the DataModel's), keep their numbers.
+     * A class that has never been numbered, (or was deserialized),
+     * has no Numbering.
+     */
+    private transient int preorder;
+    private transient int lastDescendant;
+    private transient volatile Numbering numbering;
+
+
+    /**
+     * One call to numberHierarchy().  It is not valid until all
+     * the classes have been numbered.
+     */
+    private static final class Numbering {
+        private volatile boolean valid;
+    }
+
 
     /**
      * Create a ClassDescription with no attributes.
@@ -99,6 +132,11 @@ public class ClassDescription
      * not have a parent class.
      */
     public void setParentClass(ClassDescription parentClass) {
+
+        Numbering n = numbering;
+        if (n != null) {
+            n.valid = false;
+        }
         this.parentClass = parentClass;
     }
 
@@ -113,22 +151,119 @@ public class ClassDescription
     }
 
 
-    /*
-    public boolean isInstanceof(ClassDescription classDescription) {
+    /**
+     * Returns true if this class is the passed in class,
+     * or one of its descendants.
+     *
+     * If both classes were numbered by the same call to
+     * numberHierarchy(), and neither hierarchy has changed since,
+     * this is two integer comparisons.  Otherwise, we walk up our
+     * parent classes.
+     */
+    public boolean isSubclassOf(ClassDescription classDescription) {
 
         if (classDescription == null) {
             return(false);
         }
 
-        while (classDescription != null) {
-            if (this.equals(classDescription))
-                return(true);
-            classDescription = classDescription.getParentClass();
+        Numbering n = numbering;
+        if ((n != null) && n.valid &&
+            (classDescription.numbering == n)) {
+            return((classDescription.preorder <= preorder) &&
+                   (preorder <= classDescription.lastDescendant));
         }
 
+        for (ClassDescription cd = this; cd != null; cd = cd.parentClass) {
+            if (cd == classDescription)
+                return(true);
+        }
         return(false);
     }
-    */
+
+
+    /**
+     * Number the passed in classes with preorder intervals,
+     * (see preorder above), so isSubclassOf() doesn't have to walk
+     * up the hierarchy.  The DataModel calls this once, after it
+     * has created all its classes.  The passed in collection must
+     * contain every ancestor of every class in it.  Numbering one
+     * hierarchy does not affect the numbers of any other.
+     */
+    public static void numberHierarchy(
+        Collection<ClassDescription> classDescriptions) {
+
+        Numbering pending = new Numbering();
+
+        /**
+         * Find each class's direct subclasses,
+         * keeping the order they were passed in.
+         */
+        Map<ClassDescription,List<ClassDescription>> subclasses =
+            new IdentityHashMap<ClassDescription,List<ClassDescription>>();
+        List<ClassDescription> roots = new ArrayList<ClassDescription>();
+        for (ClassDescription cd : classDescriptions) {
+            if (cd.parentClass == null) {
+                roots.add(cd);
+                continue;
+            }
+            List<ClassDescription> list = subclasses.get(cd.parentClass);
+            if (list == null) {
+                list = new ArrayList<ClassDescription>();
+                subclasses.put(cd.parentClass, list);
+            }
+            list.add(cd);
+        }
+
+        int next = 0;
+        for (ClassDescription root : roots) {
+            next = number(root, next, subclasses, pending);
+        }
+
+        for (ClassDescription cd : classDescriptions) {
+            if (cd.numbering != pending) {
+                throw(new IllegalArgumentException("The parent class of "+
+                    cd+" is not in the collection."));
+            }
+        }
+        pending.valid = true;
+    }
+
+
+    /**
+     * Returns true if isSubclassOf() can use this class's preorder
+     * interval.  I.e. it was numbered by numberHierarchy(), and its
+     * hierarchy has not changed since.
+     */
+    public boolean isNumbered() {
+
+        Numbering n = numbering;
+        return((n != null) && n.valid);
+    }
+
+
+    /**
+     * Number the passed in class and its subtree, starting at next.
+     * The class is moved to the pending Numbering before its numbers
+     * change, so nobody uses them while we are assigning them, and
+     * so numberHierarchy() can check it numbered all the classes.
+     *
+     * @return The number after the last one used.
+     */
+    private static int number(ClassDescription cd, int next,
+        Map<ClassDescription,List<ClassDescription>> subclasses,
+        Numbering pending) {
+
+        cd.numbering = pending;
+        cd.preorder = next++;
+        List<ClassDescription> list = subclasses.get(cd);
+        if (list != null) {
+            for (ClassDescription subclass : list) {
+                next = number(subclass, next, subclasses, pending);
+            }
+        }
+        cd.lastDescendant = next-1;
+        return(next);
+    }
 
 
     /**
@@ -196,7 +331,7 @@ public class ClassDescription
 
 
     /**
-     * Get a COPY of the Attribute with the passed in queryName
+     * Get the Attribute with the passed in queryName
      * if such an attribute exists in this ClassDescription.
      * Returns null if it doesn't.
      *
@@ -207,16 +342,23 @@ public class ClassDescription
      * "properties".  Not a displayName like "My Property".
      *
      * @return The Attribute, if it exists, that has the passed
-     * in queryName.  Please note, we return a COPY of this ClassDescription's
-     * Attribute, so you are free to do with it what you want.
+     * in queryName.  Attributes are immutable and shared, so we
+     * do not need to return a copy.
      * Returns null if the Attribute does not exist in the passed
      * in ClassDescription.
      */
     public Attribute getAttribute(String queryName) {
 
-        for (Attribute att : getAllAttributes()) {
-            if (att.getQueryName().equals(queryName))
-                return(new Attribute(att));
+        /**
+         * Walk up the class hierarchy ourselves instead of calling
+         * getAllAttributes(), so we don't build a new list every
+         * time someone looks up an Attribute.
+         */
+        for (ClassDescription cd = this; cd != null; cd = cd.parentClass) {
+            for (Attribute att : cd.attributes) {
+                if (att.getQueryName().equals(queryName))
+                    return(att);
+            }
         }
 
         return(null);
@@ -291,33 +433,33 @@ public class ClassDescription
         /**
          * Initialize values of the EntityBase class.
          */
-        Attribute attribute = new Attribute("owner", Type.REFERENCE,
-                                  userCD, Cardinality.TO_ONE);
+        Attribute attribute = Attribute.valueOf("owner", Type.REFERENCE,
+                                      userCD, Cardinality.TO_ONE);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("uuid", Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("uuid", Type.UTF_8_STRING);
         entityBaseCD.addAttribute(attribute);
 
-        attribute = new Attribute("incomplete", Type.BOOLEAN);
+        attribute = Attribute.valueOf("incomplete", Type.BOOLEAN);
         entityBaseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the TaggableEntityBase class.
          */
-        attribute = new Attribute("keywords", Type.REFERENCE,
-                                  keywordTagCD, Cardinality.TO_MANY);
+        attribute = Attribute.valueOf("keywords", Type.REFERENCE,
+                                      keywordTagCD, Cardinality.TO_MANY);
         taggableEntityBaseCD.addAttribute(attribute);
 
         /**
          * Initialize values of the User class.
          */
-        attribute = new Attribute("userName", Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("userName", Type.UTF_8_STRING);
         userCD.addAttribute(attribute);
 
         /**
          * Initialize values of the KeywordTag class.
          */
-        attribute = new Attribute("tag", Type.UTF_8_STRING);
+        attribute = Attribute.valueOf("tag", Type.UTF_8_STRING);
         keywordTagCD.addAttribute(attribute);
 
         /**
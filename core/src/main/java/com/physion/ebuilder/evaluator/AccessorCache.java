@@ -0,0 +1,550 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import org.joda.time.Instant;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * An AccessorCache finds the getter of a DataModel attribute,
+ * (e.g. "protocolID"), on a user's Java class, (e.g. getProtocolID()),
+ * and turns it into a small object that calls the getter without
+ * reflection.  Each (Class, queryName) pair is only looked up once.
+ *
+ * For an attribute named "protocolID", we look for these public
+ * members, in this order:
+ *
+ *      getProtocolID()
+ *      isProtocolID(), (if it returns a boolean)
+ *      protocolID()
+ *      the field protocolID
+ *
+ * The getter is turned into a java.util.function object by
+ * LambdaMetafactory, (the same thing the compiler does for a lambda
+ * or method reference), so calling it is as fast as calling the
+ * getter directly, and the JIT can inline it.  If the getter returns
+ * an int, short, byte, char, long, float, double, or boolean, the
+ * Accessor has a ToIntFunction, ToLongFunction, ToDoubleFunction,
+ * or Predicate for it, so the value is never boxed.  If
+ * LambdaMetafactory can't be used, (e.g. for a field, or a class
+ * that isn't public), we call a MethodHandle instead, which
+ * is almost as fast.
+ *
+ * An AccessorCache is thread safe.
+ *
+ * @see PredicateCompiler
+ */
+final class AccessorCache {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * The accessors of each class, by queryName.  A ClassValue keeps
+     * them with the Class itself, so this cache does not stop a
+     * class, (or its ClassLoader), from being unloaded.
+     */
+    private final ClassValue<Map<String,Accessor>> accessors =
+        new ClassValue<Map<String,Accessor>>() {
+            @Override
+            protected Map<String,Accessor> computeValue(Class<?> type) {
+                return(new ConcurrentHashMap<String,Accessor>());
+            }
+        };
+
+
+    /**
+     * Get the Accessor of the attribute of the passed in class.
+     * If two threads ask for the same one at the same time, only
+     * one of them looks it up, and they both get the same Accessor.
+     *
+     * @return null if the class doesn't have a public getter
+     * or field for the attribute.
+     */
+    Accessor getAccessor(final Class<?> type, String queryName) {
+
+        if (queryName == null) {
+            return(null);
+        }
+
+        Accessor accessor = accessors.get(type).computeIfAbsent(queryName,
+            new Function<String,Accessor>() {
+                public Accessor apply(String name) {
+                    Accessor accessor = createAccessor(type, name);
+                    return((accessor == null) ? Accessor.MISSING : accessor);
+                }
+            });
+        return((accessor == Accessor.MISSING) ? null : accessor);
+    }
+
+
+    private static Accessor createAccessor(Class<?> type, String queryName) {
+
+        if ((queryName == null) || queryName.isEmpty()) {
+            return(null);
+        }
+
+        String capitalized = Character.toUpperCase(queryName.charAt(0))+
+            queryName.substring(1);
+
+        Member member = findMethod(type, "get"+capitalized);
+        if (member == null) {
+            member = findMethod(type, "is"+capitalized);
+            if ((member != null) &&
+                (((Method)member).getReturnType() != boolean.class)) {
+                member = null;
+            }
+        }
+        if (member == null) {
+            member = findMethod(type, queryName);
+        }
+        if (member == null) {
+            try {
+                Field field = type.getField(queryName);
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    member = field;
+                }
+            }
+            catch (NoSuchFieldException e) {
+                member = null;
+            }
+        }
+        if (member == null) {
+            return(null);
+        }
+
+        MethodHandle handle;
+        Class<?> valueType;
+        Type genericValueType;
+        try {
+            if (member instanceof Method) {
+                Method method = (Method)member;
+                handle = LOOKUP.unreflect(method);
+                valueType = method.getReturnType();
+                genericValueType = method.getGenericReturnType();
+            }
+            else {
+                Field field = (Field)member;
+                handle = LOOKUP.unreflectGetter(field);
+                valueType = field.getType();
+                genericValueType = field.getGenericType();
+            }
+        }
+        catch (IllegalAccessException e) {
+            /**
+             * E.g. a public method of a class that is not public.
+             */
+            return(null);
+        }
+
+        return(new Accessor(member instanceof Method, handle, valueType,
+                            genericValueType));
+    }
+
+
+    /**
+     * Find a public, non-static method with no parameters.
+     */
+    private static Method findMethod(Class<?> type, String name) {
+
+        try {
+            Method method = type.getMethod(name);
+            if (Modifier.isStatic(method.getModifiers()) ||
+                (method.getReturnType() == void.class)) {
+                return(null);
+            }
+            return(method);
+        }
+        catch (NoSuchMethodException e) {
+            return(null);
+        }
+    }
+
+
+    /**
+     * The getter of one attribute of one class.
+     * Only the getters that fit the attribute's type are set.
+     * E.g. for an int getter, intGetter is set, and objectGetter
+     * boxes the int.
+     */
+    static final class Accessor {
+
+        /**
+         * Marks a (Class, queryName) that has no getter,
+         * so we don't look for it again.
+         */
+        static final Accessor MISSING = new Accessor();
+
+        private final Kind kind;
+        private final Class<?> valueType;
+        private final Type genericValueType;
+
+        private final ToIntFunction<Object> intGetter;
+        private final ToLongFunction<Object> longGetter;
+        private final ToDoubleFunction<Object> doubleGetter;
+        private final Predicate<Object> booleanGetter;
+        private final Function<Object,Object> objectGetter;
+
+
+        private Accessor() {
+            kind = Kind.OBJECT;
+            valueType = Object.class;
+            genericValueType = Object.class;
+            intGetter = null;
+            longGetter = null;
+            doubleGetter = null;
+            booleanGetter = null;
+            objectGetter = null;
+        }
+
+
+        @SuppressWarnings("unchecked")
+        Accessor(boolean isMethod, MethodHandle handle, Class<?> valueType,
+                 Type genericValueType) {
+
+            this.kind = Kind.of(valueType);
+            this.valueType = valueType;
+            this.genericValueType = genericValueType;
+
+            ToIntFunction<Object> intGetter = null;
+            ToLongFunction<Object> longGetter = null;
+            ToDoubleFunction<Object> doubleGetter = null;
+            Predicate<Object> booleanGetter = null;
+            Function<Object,Object> objectGetter = null;
+
+            switch (kind) {
+
+                case INT:
+                    intGetter = (ToIntFunction<Object>)makeLambda(isMethod,
+                        handle, ToIntFunction.class, "applyAsInt", int.class);
+                    if (intGetter == null) {
+                        intGetter = intInvoker(handle);
+                    }
+                    objectGetter = boxInt(intGetter);
+                    break;
+
+                case LONG:
+                    longGetter = (ToLongFunction<Object>)makeLambda(isMethod,
+                        handle, ToLongFunction.class, "applyAsLong",
+                        long.class);
+                    if (longGetter == null) {
+                        longGetter = longInvoker(handle);
+                    }
+                    objectGetter = boxLong(longGetter);
+                    break;
+
+                case DOUBLE:
+                    doubleGetter = (ToDoubleFunction<Object>)makeLambda(
+                        isMethod, handle, ToDoubleFunction.class,
+                        "applyAsDouble", double.class);
+                    if (doubleGetter == null) {
+                        doubleGetter = doubleInvoker(handle);
+                    }
+                    objectGetter = boxDouble(doubleGetter);
+                    break;
+
+                case BOOLEAN:
+                    booleanGetter = (Predicate<Object>)makeLambda(isMethod,
+                        handle, Predicate.class, "test", boolean.class);
+                    if (booleanGetter == null) {
+                        booleanGetter = booleanInvoker(handle);
+                    }
+                    objectGetter = boxBoolean(booleanGetter);
+                    break;
+
+                default:
+                    objectGetter = (Function<Object,Object>)makeLambda(
+                        isMethod, handle, Function.class, "apply",
+                        Object.class);
+                    if (objectGetter == null) {
+                        objectGetter = objectInvoker(handle);
+                    }
+                    if (Date.class.isAssignableFrom(valueType)) {
+                        objectGetter = convertDate(objectGetter);
+                    }
+                    break;
+            }
+
+            this.intGetter = intGetter;
+            this.longGetter = longGetter;
+            this.doubleGetter = doubleGetter;
+            this.booleanGetter = booleanGetter;
+            this.objectGetter = objectGetter;
+        }
+
+
+        Kind getKind() {
+            return(kind);
+        }
+
+        Class<?> getValueType() {
+            return(valueType);
+        }
+
+        Type getGenericValueType() {
+            return(genericValueType);
+        }
+
+        ToIntFunction<Object> getIntGetter() {
+            return(intGetter);
+        }
+
+        ToLongFunction<Object> getLongGetter() {
+            return(longGetter);
+        }
+
+        ToDoubleFunction<Object> getDoubleGetter() {
+            return(doubleGetter);
+        }
+
+        Predicate<Object> getBooleanGetter() {
+            return(booleanGetter);
+        }
+
+        /**
+         * Get a getter that returns the value as an Object.
+         * This is always set.  java.util.Date values are returned
+         * as org.joda.time.Instant, so they compare with
+         * TimeLiteralValueExpressions.
+         */
+        Function<Object,Object> getObjectGetter() {
+            return(objectGetter);
+        }
+
+
+        /**
+         * Use LambdaMetafactory to create an instance of the passed
+         * in functional interface that calls the getter.
+         *
+         * @return null if that can't be done.
+         */
+        private static Object makeLambda(boolean isMethod,
+                                         MethodHandle handle,
+                                         Class<?> functionalInterface,
+                                         String methodName,
+                                         Class<?> returnType) {
+
+            if (!isMethod) {
+                /**
+                 * LambdaMetafactory only takes method handles.
+                 */
+                return(null);
+            }
+
+            try {
+                MethodType instantiatedType = MethodType.methodType(
+                    (returnType == Object.class) ?
+                        handle.type().returnType() : returnType,
+                    handle.type().parameterType(0));
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP,
+                    methodName, MethodType.methodType(functionalInterface),
+                    MethodType.methodType(returnType, Object.class),
+                    handle, instantiatedType);
+                return(site.getTarget().invoke());
+            }
+            catch (Throwable t) {
+                return(null);
+            }
+        }
+
+
+        private static ToIntFunction<Object> intInvoker(MethodHandle handle) {
+
+            final MethodHandle invoker = handle.asType(
+                MethodType.methodType(int.class, Object.class));
+            return(new ToIntFunction<Object>() {
+                public int applyAsInt(Object object) {
+                    try {
+                        return((int)invoker.invokeExact(object));
+                    }
+                    catch (Throwable t) {
+                        throw(rethrow(t));
+                    }
+                }
+            });
+        }
+
+
+        private static ToLongFunction<Object> longInvoker(
+            MethodHandle handle) {
+
+            final MethodHandle invoker = handle.asType(
+                MethodType.methodType(long.class, Object.class));
+            return(new ToLongFunction<Object>() {
+                public long applyAsLong(Object object) {
+                    try {
+                        return((long)invoker.invokeExact(object));
+                    }
+                    catch (Throwable t) {
+                        throw(rethrow(t));
+                    }
+                }
+            });
+        }
+
+
+        private static ToDoubleFunction<Object> doubleInvoker(
+            MethodHandle handle) {
+
+            final MethodHandle invoker = handle.asType(
+                MethodType.methodType(double.class, Object.class));
+            return(new ToDoubleFunction<Object>() {
+                public double applyAsDouble(Object object) {
+                    try {
+                        return((double)invoker.invokeExact(object));
+                    }
+                    catch (Throwable t) {
+                        throw(rethrow(t));
+                    }
+                }
+            });
+        }
+
+
+        private static Predicate<Object> booleanInvoker(MethodHandle handle) {
+
+            final MethodHandle invoker = handle.asType(
+                MethodType.methodType(boolean.class, Object.class));
+            return(new Predicate<Object>() {
+                public boolean test(Object object) {
+                    try {
+                        return((boolean)invoker.invokeExact(object));
+                    }
+                    catch (Throwable t) {
+                        throw(rethrow(t));
+                    }
+                }
+            });
+        }
+
+
+        private static Function<Object,Object> objectInvoker(
+            MethodHandle handle) {
+
+            final MethodHandle invoker = handle.asType(
+                MethodType.methodType(Object.class, Object.class));
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    try {
+                        return(invoker.invokeExact(object));
+                    }
+                    catch (Throwable t) {
+                        throw(rethrow(t));
+                    }
+                }
+            });
+        }
+
+
+        private static Function<Object,Object> boxInt(
+            final ToIntFunction<Object> getter) {
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    return(Integer.valueOf(getter.applyAsInt(object)));
+                }
+            });
+        }
+
+
+        private static Function<Object,Object> boxLong(
+            final ToLongFunction<Object> getter) {
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    return(Long.valueOf(getter.applyAsLong(object)));
+                }
+            });
+        }
+
+
+        private static Function<Object,Object> boxDouble(
+            final ToDoubleFunction<Object> getter) {
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    return(Double.valueOf(getter.applyAsDouble(object)));
+                }
+            });
+        }
+
+
+        private static Function<Object,Object> boxBoolean(
+            final Predicate<Object> getter) {
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    return(Boolean.valueOf(getter.test(object)));
+                }
+            });
+        }
+
+
+        private static Function<Object,Object> convertDate(
+            final Function<Object,Object> getter) {
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    Object value = getter.apply(object);
+                    return((value == null) ? null :
+                           new Instant(((Date)value).getTime()));
+                }
+            });
+        }
+
+
+        private static RuntimeException rethrow(Throwable t) {
+
+            if (t instanceof RuntimeException) {
+                return((RuntimeException)t);
+            }
+            if (t instanceof Error) {
+                throw((Error)t);
+            }
+            return(new IllegalStateException("A getter threw an exception.",
+                                             t));
+        }
+    }
+
+
+    /**
+     * How a getter's value is returned.
+     */
+    enum Kind {
+
+        INT, LONG, DOUBLE, BOOLEAN, OBJECT;
+
+        static Kind of(Class<?> type) {
+
+            if ((type == int.class) || (type == short.class) ||
+                (type == byte.class) || (type == char.class)) {
+                return(INT);
+            }
+            else if (type == long.class) {
+                return(LONG);
+            }
+            else if ((type == double.class) || (type == float.class)) {
+                return(DOUBLE);
+            }
+            else if (type == boolean.class) {
+                return(BOOLEAN);
+            }
+            return(OBJECT);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.translator.Translator;
+import org.joda.time.ReadableInstant;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * AttributeStatistics summarizes the values of one attribute path,
+ * (e.g. epochGroup.label), that have been seen in a sample of
+ * entities.  The optimizer uses it to guess how often a comparison
+ * on the path will be true, (its "selectivity").
+ *
+ * It keeps:
+ *
+ *      The number of values seen, and how many of them were null.
+ *
+ *      A HyperLogLog sketch of the distinct values, so we can
+ *      estimate the number of distinct values in a fixed 1K of
+ *      memory.  The selectivity of == is 1/(number of distinct values).
+ *
+ *      A uniform random sample, (a "reservoir"), of the number and
+ *      time values.  Sorted, the sample is an equi-depth histogram,
+ *      which is what we use to estimate the selectivity of <, >, etc.
+ *      Times are kept as milliseconds since the epoch.
+ *
+ * Values are hashed and converted the same way Values.indexKey()
+ * does it, so the Integer 27 and the Double 27.0 are the same value.
+ *
+ * An AttributeStatistics is not thread safe.
+ */
+public final class AttributeStatistics {
+
+    /**
+     * The sketch has 2^PRECISION registers.
+     */
+    private static final int PRECISION = 10;
+    private static final int REGISTER_COUNT = 1 << PRECISION;
+
+    private static final int RESERVOIR_SIZE = 512;
+
+    private final String path;
+
+    private long count;
+    private long nullCount;
+    private long numericCount;
+
+    private final byte[] registers = new byte[REGISTER_COUNT];
+
+    private final double[] reservoir = new double[RESERVOIR_SIZE];
+    private int reservoirSize;
+    private boolean sorted = true;
+
+    /**
+     * Seeded, so the same values always give the same statistics.
+     */
+    private final Random random = new Random(0x5eedL);
+
+
+    AttributeStatistics(String path) {
+        this.path = path;
+    }
+
+
+    /**
+     * Get the attribute path these are the statistics of.
+     * E.g. "epochGroup.label".
+     */
+    public String getPath() {
+        return(path);
+    }
+
+
+    /**
+     * Add a value of the attribute to the statistics.
+     * The value may be null.
+     */
+    public void add(Object value) {
+
+        count++;
+
+        Object key = Values.indexKey(value);
+        if (key == null) {
+            if (value == null) {
+                nullCount++;
+                return;
+            }
+            /**
+             * NaN.  We count it, but it is never equal
+             * to anything, so it isn't in the sketch.
+             */
+            return;
+        }
+
+        addToSketch(key.hashCode());
+
+        if (key instanceof Number) {
+            addToReservoir(((Number)key).doubleValue());
+        }
+    }
+
+
+    /**
+     * Get the number of values that have been added.
+     */
+    public long getCount() {
+        return(count);
+    }
+
+
+    /**
+     * Get the fraction of the values that were null.
+     */
+    public double getNullFraction() {
+        return((count == 0) ? 0.0 : ((double)nullCount)/count);
+    }
+
+
+    /**
+     * Get the estimated number of distinct, non-null values.
+     * The estimate is usually within a few percent.
+     */
+    public long getDistinctCount() {
+
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0/(1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double m = REGISTER_COUNT;
+        double alpha = 0.7213/(1.0+1.079/m);
+        double estimate = alpha*m*m/sum;
+
+        /**
+         * The raw estimate is biased for small cardinalities.
+         * Use linear counting instead.
+         */
+        if ((estimate <= 2.5*m) && (zeros > 0)) {
+            estimate = m*Math.log(m/zeros);
+        }
+
+        return(Math.min(Math.round(estimate), count-nullCount));
+    }
+
+
+    /**
+     * Get an equi-depth histogram of the number and time values.
+     * The returned array contains bucketCount+1 boundaries, and
+     * about the same number of values fall between each pair of
+     * boundaries.  Returns an empty array if no number or time
+     * values have been added.
+     */
+    public double[] getHistogram(int bucketCount) {
+
+        if (bucketCount < 1) {
+            throw(new IllegalArgumentException("bucketCount < 1"));
+        }
+        if (reservoirSize == 0) {
+            return(new double[0]);
+        }
+
+        sortReservoir();
+        double[] boundaries = new double[bucketCount+1];
+        for (int index = 0; index <= bucketCount; index++) {
+            int position = (int)Math.min(reservoirSize-1,
+                ((long)index*(reservoirSize-1))/bucketCount);
+            boundaries[index] = reservoir[position];
+        }
+        return(boundaries);
+    }
+
+
+    /**
+     * Estimate the fraction of entities for which
+     * "path operatorName literal" is true.
+     *
+     * @param operatorName One of the Translator.OE_* comparison names.
+     * @param literal The value on the right of the comparison.
+     *
+     * @return A number between 0 and 1, or -1 if we can't tell.
+     * (E.g. for a regular expression, or if no values have
+     * been added yet.)
+     */
+    public double estimateSelectivity(String operatorName, Object literal) {
+
+        if ((count == 0) || (literal == null)) {
+            return(-1.0);
+        }
+
+        double nonNull = 1.0-getNullFraction();
+
+        if (Translator.OE_EQUALS.equals(operatorName)) {
+            return(nonNull/Math.max(1L, getDistinctCount()));
+        }
+        else if (Translator.OE_NOT_EQUALS.equals(operatorName)) {
+            return(nonNull-nonNull/Math.max(1L, getDistinctCount()));
+        }
+
+        double value;
+        if (literal instanceof Number) {
+            value = ((Number)literal).doubleValue();
+        }
+        else if (literal instanceof ReadableInstant) {
+            value = ((ReadableInstant)literal).getMillis();
+        }
+        else {
+            return(-1.0);
+        }
+        if ((reservoirSize == 0) || Double.isNaN(value)) {
+            return(-1.0);
+        }
+
+        sortReservoir();
+        double below = ((double)lowerBound(value))/reservoirSize;
+        double atOrBelow = ((double)upperBound(value))/reservoirSize;
+
+        double fraction;
+        if (Translator.OE_LESS_THAN.equals(operatorName)) {
+            fraction = below;
+        }
+        else if (Translator.OE_LESS_THAN_EQUALS.equals(operatorName)) {
+            fraction = atOrBelow;
+        }
+        else if (Translator.OE_GREATER_THAN.equals(operatorName)) {
+            fraction = 1.0-atOrBelow;
+        }
+        else if (Translator.OE_GREATER_THAN_EQUALS.equals(operatorName)) {
+            fraction = 1.0-below;
+        }
+        else {
+            return(-1.0);
+        }
+
+        /**
+         * The histogram only describes the number and time values.
+         */
+        return(fraction*numericCount/count);
+    }
+
+
+    private void addToSketch(int hashCode) {
+
+        long hash = mix(hashCode);
+        int register = (int)(hash >>> (64-PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) |
+                                             (1L << (PRECISION-1)))+1;
+        if (rank > registers[register]) {
+            registers[register] = (byte)rank;
+        }
+    }
+
+
+    /**
+     * Reservoir sampling, (Vitter's Algorithm R).
+     */
+    private void addToReservoir(double value) {
+
+        numericCount++;
+        if (reservoirSize < RESERVOIR_SIZE) {
+            reservoir[reservoirSize++] = value;
+            sorted = false;
+        }
+        else {
+            long slot = (long)(random.nextDouble()*numericCount);
+            if (slot < RESERVOIR_SIZE) {
+                reservoir[(int)slot] = value;
+                sorted = false;
+            }
+        }
+    }
+
+
+    private void sortReservoir() {
+
+        if (!sorted) {
+            Arrays.sort(reservoir, 0, reservoirSize);
+            sorted = true;
+        }
+    }
+
+
+    /**
+     * The number of sampled values that are less than value.
+     */
+    private int lowerBound(double value) {
+
+        int low = 0;
+        int high = reservoirSize;
+        while (low < high) {
+            int middle = (low+high) >>> 1;
+            if (reservoir[middle] < value) {
+                low = middle+1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return(low);
+    }
+
+
+    /**
+     * The number of sampled values that are less than or equal to value.
+     */
+    private int upperBound(double value) {
+
+        int low = 0;
+        int high = reservoirSize;
+        while (low < high) {
+            int middle = (low+high) >>> 1;
+            if (reservoir[middle] <= value) {
+                low = middle+1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return(low);
+    }
+
+
+    /**
+     * Spread the bits of a hashCode over 64 bits.
+     * (The finalizer of MurmurHash3.)
+     */
+    private static long mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return(hash);
+    }
+
+
+    public String toString() {
+        return(path+": count="+count+", nullFraction="+getNullFraction()+
+               ", distinct="+getDistinctCount());
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * A Bloom filter of values.  mightContain() never says no to a
+ * value that was added, and says yes to a value that was not added
+ * with about the false positive probability the filter was sized for.
+ *
+ * Values are hashed the way Values.indexKey() converts them, so
+ * a value the == operator says is equal to an added value is
+ * also "contained".  Strings are hashed over all their chars with
+ * a 64 bit hash, instead of using their 32 bit hashCode(), so
+ * that very large filters still work.
+ *
+ * The k bit positions are computed from two hashes, (h1 + i*h2),
+ * as described by Kirsch and Mitzenmacher.
+ */
+final class BloomFilter {
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+
+    /**
+     * Create a filter sized for the expected number of values
+     * and false positive probability.
+     */
+    BloomFilter(long expectedCount, double falsePositiveProbability) {
+
+        if ((falsePositiveProbability <= 0.0) ||
+            (falsePositiveProbability >= 1.0)) {
+            throw(new IllegalArgumentException(
+                "falsePositiveProbability must be between 0 and 1."));
+        }
+
+        long n = Math.max(1L, expectedCount);
+        double ln2 = Math.log(2.0);
+        long m = (long)Math.ceil(-n*Math.log(falsePositiveProbability)/
+                                 (ln2*ln2));
+        m = Math.max(64L, Math.min(m, Integer.MAX_VALUE-63L));
+
+        this.bitCount = (int)(((m+63)/64)*64);
+        this.bits = new long[bitCount/64];
+        this.hashCount = Math.max(1, (int)Math.round(
+            ((double)bitCount/n)*ln2));
+    }
+
+
+    private BloomFilter(long[] bits, int hashCount) {
+
+        this.bits = bits;
+        this.bitCount = bits.length*64;
+        this.hashCount = hashCount;
+    }
+
+
+    /**
+     * Add a value to the filter.  null and NaN are ignored,
+     * because they are never equal to anything.
+     */
+    void add(Object value) {
+
+        Object key = Values.indexKey(value);
+        if (key == null) {
+            return;
+        }
+
+        long hash = hash(key);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int index = 0; index < hashCount; index++) {
+            int bit = ((h1+index*h2) & Integer.MAX_VALUE)%bitCount;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+
+    /**
+     * Returns false if the value was definitely never added.
+     */
+    boolean mightContain(Object value) {
+
+        Object key = Values.indexKey(value);
+        if (key == null) {
+            return(false);
+        }
+
+        long hash = hash(key);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int index = 0; index < hashCount; index++) {
+            int bit = ((h1+index*h2) & Integer.MAX_VALUE)%bitCount;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return(false);
+            }
+        }
+        return(true);
+    }
+
+
+    void write(DataOutput out)
+        throws IOException {
+
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+
+    static BloomFilter read(DataInput in)
+        throws IOException {
+
+        int hashCount = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int index = 0; index < bits.length; index++) {
+            bits[index] = in.readLong();
+        }
+        return(new BloomFilter(bits, hashCount));
+    }
+
+
+    private static long hash(Object key) {
+
+        long hash;
+        if (key instanceof String) {
+            /**
+             * FNV-1a over the chars.
+             */
+            String string = (String)key;
+            hash = 0xcbf29ce484222325L;
+            for (int index = 0; index < string.length(); index++) {
+                hash ^= string.charAt(index);
+                hash *= 0x100000001b3L;
+            }
+        }
+        else if (key instanceof Double) {
+            hash = Double.doubleToLongBits((Double)key);
+        }
+        else if (key instanceof Long) {
+            hash = ~(Long)key;
+        }
+        else {
+            hash = key.hashCode();
+        }
+        return(mix(hash));
+    }
+
+
+    /**
+     * The finalizer of MurmurHash3.
+     */
+    private static long mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return(hash);
+    }
+}
@@ -0,0 +1,1121 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.translator.Translator;
+import org.joda.time.DateTime;
+import org.joda.time.ReadableInstant;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+
+/**
+ * A Column holds the values of one attribute for every row of a
+ * ColumnarEntityCache.Table.  The values are kept off the Java heap,
+ * in direct ByteBuffers, at a fixed width per row, so millions of
+ * rows are a few large buffers the garbage collector never looks
+ * inside, instead of millions of small objects.  Whether a row's
+ * value is null is kept in a separate bitmap, (one bit per row).
+ *
+ * Strings are dictionary encoded.  Each distinct value of the column
+ * is kept once, on the heap, in the column's Dictionary, and each
+ * row holds the int code of its value.  References are kept as the
+ * ids of the referenced entities, (encoded the same way), because
+ * the referenced entity might not be in the cache yet.  A TO_MANY
+ * reference is kept as an offset into a second buffer that holds
+ * the number of ids followed by the ids' codes.
+ *
+ * The subclasses of Column are nested in this file because they
+ * are small, and nothing outside of this package should know about
+ * them.  (See Node for the same arrangement.)
+ *
+ * Columns are not thread safe.
+ *
+ * @see ColumnarEntityCache
+ */
+abstract class Column {
+
+    /**
+     * The number of rows the buffers are created with.
+     * They double in size whenever they fill up.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Attribute attribute;
+    private final int width;
+
+    /**
+     * The values, width bytes per row.
+     */
+    ByteBuffer data;
+
+    /**
+     * One bit per row, set if the row's value is null.
+     */
+    private ByteBuffer nulls;
+
+    private int capacity;
+
+
+    Column(Attribute attribute, int width) {
+
+        this.attribute = attribute;
+        this.width = width;
+        this.capacity = INITIAL_CAPACITY;
+        this.data = allocate(capacity*width);
+        this.nulls = allocate(capacity/8);
+    }
+
+
+    /**
+     * Create the right kind of Column for the passed in Attribute,
+     * or return null if the attribute isn't kept in a column.
+     * (E.g. PARAMETERS_MAPs and the per-user attributes, whose
+     * values depend on who is asking.)
+     */
+    static Column create(Attribute attribute) {
+
+        if (attribute.isSpecial()) {
+            return(null);
+        }
+
+        switch (attribute.getType()) {
+            case INT_16:
+                return(new ShortColumn(attribute));
+            case INT_32:
+                return(new IntColumn(attribute));
+            case FLOAT_64:
+                return(new DoubleColumn(attribute));
+            case BOOLEAN:
+                return(new BooleanColumn(attribute));
+            case DATE_TIME:
+                return(new TimeColumn(attribute));
+            case UTF_8_STRING:
+                return(new StringColumn(attribute));
+            case REFERENCE:
+                if (attribute.getCardinality() == Cardinality.TO_MANY) {
+                    return(new ToManyColumn(attribute));
+                }
+                return(new StringColumn(attribute));
+            default:
+                return(null);
+        }
+    }
+
+
+    static ByteBuffer allocate(int bytes) {
+        return(ByteBuffer.allocateDirect(bytes).order(
+            ByteOrder.nativeOrder()));
+    }
+
+
+    /**
+     * Copy the passed in buffer into a new one of the passed in size.
+     */
+    static ByteBuffer grow(ByteBuffer buffer, int bytes) {
+
+        ByteBuffer grown = allocate(bytes);
+        ByteBuffer old = buffer.duplicate();
+        old.clear();
+        grown.put(old);
+        grown.clear();
+        return(grown);
+    }
+
+
+    Attribute getAttribute() {
+        return(attribute);
+    }
+
+
+    String getName() {
+        return(attribute.getQueryName());
+    }
+
+
+    /**
+     * Returns true if the values of this column are the ids of
+     * the entities the attribute references.
+     */
+    boolean isReference() {
+        return(attribute.getType() == Type.REFERENCE);
+    }
+
+
+    /**
+     * Make sure there is room for rows 0 to rows-1.
+     */
+    void ensureCapacity(int rows) {
+
+        if (rows <= capacity) {
+            return;
+        }
+
+        int newCapacity = capacity;
+        while (newCapacity < rows) {
+            newCapacity *= 2;
+        }
+        data = grow(data, newCapacity*width);
+        nulls = grow(nulls, newCapacity/8);
+        capacity = newCapacity;
+    }
+
+
+    /**
+     * Set the value of a row.  ensureCapacity() must have been
+     * called for the row.
+     *
+     * @throws IllegalArgumentException if the value is not of the
+     * column's type.
+     */
+    void set(int row, Object value) {
+
+        int index = row >>> 3;
+        int bit = 1 << (row & 7);
+        if (value == null) {
+            nulls.put(index, (byte)(nulls.get(index) | bit));
+        }
+        else {
+            write(row, value);
+            nulls.put(index, (byte)(nulls.get(index) & ~bit));
+        }
+    }
+
+
+    /**
+     * Replace the value of a row that has already been set.
+     * Unlike set(), this knows the row has an old value.
+     */
+    void update(int row, Object value) {
+        set(row, value);
+    }
+
+
+    boolean isNull(int row) {
+        return((nulls.get(row >>> 3) & (1 << (row & 7))) != 0);
+    }
+
+
+    /**
+     * Get the value of a row, or null.
+     */
+    Object get(int row) {
+        return(isNull(row) ? null : read(row));
+    }
+
+
+    /**
+     * Get the number of bytes this column has allocated off the heap.
+     */
+    long getOffHeapBytes() {
+        return(data.capacity()+nulls.capacity());
+    }
+
+
+    /**
+     * Returns true if the passed in, non-null, value can be
+     * kept in this column.
+     */
+    abstract boolean accepts(Object value);
+
+
+    abstract void write(int row, Object value);
+
+
+    abstract Object read(int row);
+
+
+    /**
+     * Set the bit in result of every row, (less than rowCount), whose
+     * value is equal to the passed in value.  (As Values.isEqual()
+     * defines equal.)
+     */
+    abstract void scanEquals(Object value, int rowCount, BitSet result);
+
+
+    /**
+     * Set the bit in result of every row, (less than rowCount), whose
+     * value is from min to max, inclusive.  A null min or max
+     * means there is no bound on that side.
+     *
+     * @throws IllegalArgumentException if this column can't be
+     * scanned for a range of the passed in values.
+     */
+    void scanRange(Object min, Object max, int rowCount, BitSet result) {
+        throw(new IllegalArgumentException("The "+getName()+" column "+
+            "can't be scanned for a range."));
+    }
+
+
+    /**
+     * Set the bit in result of every row, (less than rowCount), whose
+     * value is null.
+     */
+    void scanNull(int rowCount, BitSet result) {
+
+        for (int row = 0; row < rowCount; row++) {
+            if (isNull(row)) {
+                result.set(row);
+            }
+        }
+    }
+
+
+    /**
+     * Compare the values of two rows, neither of which is unordered,
+     * (see isUnordered()), the same way Values.compare() would
+     * compare them.
+     *
+     * @throws IllegalArgumentException if this column's values
+     * have no order.
+     */
+    int compareRows(int a, int b) {
+        throw(new IllegalArgumentException("The "+getName()+" column "+
+            "has no order."));
+    }
+
+
+    /**
+     * Returns true if the row's value can't be ordered, so it is
+     * put with the nulls, after all the other values, whichever
+     * way the rows are sorted.  This is the same as TopKQuery does
+     * with the values it gets from an EntityAccessor.
+     */
+    boolean isUnordered(int row) {
+        return(isNull(row));
+    }
+
+
+    IllegalArgumentException wrongType(Object value, String expected) {
+        return(new IllegalArgumentException("The value of "+getName()+
+            " must be "+expected+".  It is a "+
+            value.getClass().getName()+"."));
+    }
+
+
+    /**
+     * Get the passed in range bound as a double, or the passed in
+     * default if it is null.
+     */
+    double doubleBound(Object bound, double unbounded) {
+
+        if (bound == null) {
+            return(unbounded);
+        }
+        if (!(bound instanceof Number)) {
+            throw(wrongType(bound, "compared to a number"));
+        }
+        return(((Number)bound).doubleValue());
+    }
+
+
+    /**
+     * A column whose values are whole numbers that fit in a long.
+     * Its scans are done on the longs.
+     */
+    abstract static class LongColumn
+        extends Column {
+
+        LongColumn(Attribute attribute, int width) {
+            super(attribute, width);
+        }
+
+        abstract long readLong(int row);
+
+        @Override
+        int compareRows(int a, int b) {
+
+            long l = readLong(a);
+            long r = readLong(b);
+            return((l < r) ? -1 : ((l > r) ? 1 : 0));
+        }
+
+        /**
+         * Get a range bound as a long.  A fractional bound is
+         * rounded inwards, (e.g. > 2.5 is >= 3), since the values
+         * are whole numbers.
+         */
+        long longBound(Object bound, boolean lower) {
+
+            double value = doubleBound(bound, lower ? Long.MIN_VALUE :
+                                              Long.MAX_VALUE);
+            return((long)(lower ? Math.ceil(value) : Math.floor(value)));
+        }
+
+        @Override
+        void scanEquals(Object value, int rowCount, BitSet result) {
+
+            if ((value == null) || (((value instanceof Number) &&
+                 (((Number)value).doubleValue() !=
+                  Math.rint(((Number)value).doubleValue()))))) {
+                return;
+            }
+            scanRange(value, value, rowCount, result);
+        }
+
+        @Override
+        void scanRange(Object min, Object max, int rowCount,
+                       BitSet result) {
+            scanLongs(longBound(min, true), longBound(max, false),
+                      rowCount, result);
+        }
+
+        void scanLongs(long min, long max, int rowCount, BitSet result) {
+
+            for (int row = 0; row < rowCount; row++) {
+                long value = readLong(row);
+                if ((value >= min) && (value <= max) && !isNull(row)) {
+                    result.set(row);
+                }
+            }
+        }
+    }
+
+
+    static final class ShortColumn
+        extends LongColumn {
+
+        ShortColumn(Attribute attribute) {
+            super(attribute, 2);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return(value instanceof Number);
+        }
+
+        @Override
+        void write(int row, Object value) {
+
+            if (!(value instanceof Number)) {
+                throw(wrongType(value, "a Short"));
+            }
+            data.putShort(row*2, ((Number)value).shortValue());
+        }
+
+        @Override
+        Object read(int row) {
+            return(Short.valueOf(data.getShort(row*2)));
+        }
+
+        @Override
+        long readLong(int row) {
+            return(data.getShort(row*2));
+        }
+    }
+
+
+    static final class IntColumn
+        extends LongColumn {
+
+        IntColumn(Attribute attribute) {
+            super(attribute, 4);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return(value instanceof Number);
+        }
+
+        @Override
+        void write(int row, Object value) {
+
+            if (!(value instanceof Number)) {
+                throw(wrongType(value, "an Integer"));
+            }
+            data.putInt(row*4, ((Number)value).intValue());
+        }
+
+        @Override
+        Object read(int row) {
+            return(Integer.valueOf(data.getInt(row*4)));
+        }
+
+        @Override
+        long readLong(int row) {
+            return(data.getInt(row*4));
+        }
+    }
+
+
+    /**
+     * A DATE_TIME column.  The values are kept as milliseconds since
+     * the epoch, so they are read back as DateTimes in the default
+     * time zone, whatever zone they were written in.
+     */
+    static final class TimeColumn
+        extends LongColumn {
+
+        TimeColumn(Attribute attribute) {
+            super(attribute, 8);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return((value instanceof ReadableInstant) || (value instanceof Date));
+        }
+
+        @Override
+        void write(int row, Object value) {
+            data.putLong(row*8, millis(value));
+        }
+
+        @Override
+        Object read(int row) {
+            return(new DateTime(data.getLong(row*8)));
+        }
+
+        @Override
+        long readLong(int row) {
+            return(data.getLong(row*8));
+        }
+
+        private long millis(Object value) {
+
+            if (value instanceof ReadableInstant) {
+                return(((ReadableInstant)value).getMillis());
+            }
+            if (value instanceof Date) {
+                return(((Date)value).getTime());
+            }
+            throw(wrongType(value, "a ReadableInstant"));
+        }
+
+        @Override
+        void scanEquals(Object value, int rowCount, BitSet result) {
+
+            if (value instanceof ReadableInstant) {
+                long millis = millis(value);
+                scanLongs(millis, millis, rowCount, result);
+            }
+        }
+
+        @Override
+        void scanRange(Object min, Object max, int rowCount,
+                       BitSet result) {
+            scanLongs((min == null) ? Long.MIN_VALUE : millis(min),
+                      (max == null) ? Long.MAX_VALUE : millis(max),
+                      rowCount, result);
+        }
+    }
+
+
+    static final class DoubleColumn
+        extends Column {
+
+        DoubleColumn(Attribute attribute) {
+            super(attribute, 8);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return(value instanceof Number);
+        }
+
+        @Override
+        void write(int row, Object value) {
+
+            if (!(value instanceof Number)) {
+                throw(wrongType(value, "a Double"));
+            }
+            data.putDouble(row*8, ((Number)value).doubleValue());
+        }
+
+        @Override
+        Object read(int row) {
+            return(Double.valueOf(data.getDouble(row*8)));
+        }
+
+        @Override
+        int compareRows(int a, int b) {
+
+            double l = data.getDouble(a*8);
+            double r = data.getDouble(b*8);
+            return((l < r) ? -1 : ((l > r) ? 1 : 0));
+        }
+
+        /**
+         * NaN is not less than, equal to, or greater than anything,
+         * so it is treated as null.
+         */
+        @Override
+        boolean isUnordered(int row) {
+            return(isNull(row) || Double.isNaN(data.getDouble(row*8)));
+        }
+
+        @Override
+        void scanEquals(Object value, int rowCount, BitSet result) {
+
+            if (value instanceof Number) {
+                scanRange(value, value, rowCount, result);
+            }
+        }
+
+        @Override
+        void scanRange(Object min, Object max, int rowCount,
+                       BitSet result) {
+
+            double low = doubleBound(min, Double.NEGATIVE_INFINITY);
+            double high = doubleBound(max, Double.POSITIVE_INFINITY);
+            for (int row = 0; row < rowCount; row++) {
+                double value = data.getDouble(row*8);
+                if ((value >= low) && (value <= high) && !isNull(row)) {
+                    result.set(row);
+                }
+            }
+        }
+    }
+
+
+    static final class BooleanColumn
+        extends Column {
+
+        BooleanColumn(Attribute attribute) {
+            super(attribute, 1);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return(value instanceof Boolean);
+        }
+
+        @Override
+        void write(int row, Object value) {
+
+            if (!(value instanceof Boolean)) {
+                throw(wrongType(value, "a Boolean"));
+            }
+            data.put(row, (byte)(((Boolean)value).booleanValue() ? 1 : 0));
+        }
+
+        @Override
+        Object read(int row) {
+            return(Boolean.valueOf(data.get(row) != 0));
+        }
+
+        @Override
+        void scanEquals(Object value, int rowCount, BitSet result) {
+
+            if (!(value instanceof Boolean)) {
+                return;
+            }
+            byte wanted = (byte)(((Boolean)value).booleanValue() ? 1 : 0);
+            for (int row = 0; row < rowCount; row++) {
+                if ((data.get(row) == wanted) && !isNull(row)) {
+                    result.set(row);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The distinct values of a dictionary encoded column.
+     * A value's code is the order it was first added in, so
+     * codes are never reused or changed.
+     *
+     * So that string comparisons can be done on codes, the
+     * dictionary also keeps the rank of each code, (its position
+     * if the values were sorted), and, for each regular expression
+     * it has been asked about, a bitset of the codes whose values
+     * the expression finds.  Both are brought up to date the next
+     * time they are asked for after values are added.  The ranks
+     * are re-sorted, but a bitset only has the new values tested.
+     */
+    static final class Dictionary {
+
+        private final List<String> values = new ArrayList<String>();
+        private final Map<String,Integer> codes =
+            new HashMap<String,Integer>();
+
+        /**
+         * The values, sorted, and the rank of each code in them.
+         * These are for the first sortedSize codes.
+         */
+        private String[] sorted = new String[0];
+        private int[] ranks = new int[0];
+        private int sortedSize;
+
+        /**
+         * The codes each regular expression finds, by operator and
+         * pattern.  See getMatches().
+         */
+        private final Map<String,PatternMatches> matches =
+            new HashMap<String,PatternMatches>();
+
+
+        /**
+         * Get the code of the passed in value, adding it if this
+         * is the first time we have seen it.
+         */
+        int encode(String value) {
+
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = Integer.valueOf(values.size());
+                values.add(value);
+                codes.put(value, code);
+            }
+            return(code.intValue());
+        }
+
+
+        /**
+         * Get the code of the passed in value, or -1 if the value
+         * is not in the dictionary.
+         */
+        int codeOf(Object value) {
+
+            Integer code = codes.get(value);
+            return((code == null) ? -1 : code.intValue());
+        }
+
+
+        String valueOf(int code) {
+            return(values.get(code));
+        }
+
+
+        int size() {
+            return(values.size());
+        }
+
+
+        /**
+         * Get the values, indexed by code.
+         */
+        List<String> getValues() {
+            return(Collections.unmodifiableList(values));
+        }
+
+
+        /**
+         * Get the rank of each code.  I.e. value(a) < value(b)
+         * if, and only if, ranks[a] < ranks[b].
+         */
+        int[] getRanks() {
+
+            sort();
+            return(ranks);
+        }
+
+
+        /**
+         * Get the number of values that are less than the passed in
+         * value, or, if inclusive, less than or equal to it.
+         * I.e. the first rank whose value is greater than (or equal
+         * to) the passed in value.
+         */
+        int rankBound(String value, boolean inclusive) {
+
+            sort();
+            int low = 0;
+            int high = sortedSize;
+            while (low < high) {
+                int middle = (low+high) >>> 1;
+                int comparison = sorted[middle].compareTo(value);
+                if ((comparison < 0) || (inclusive && (comparison == 0))) {
+                    low = middle+1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return(low);
+        }
+
+
+        private void sort() {
+
+            if (sortedSize == values.size()) {
+                return;
+            }
+
+            sortedSize = values.size();
+            sorted = values.toArray(new String[sortedSize]);
+            Arrays.sort(sorted);
+            ranks = new int[sortedSize];
+            for (int rank = 0; rank < sortedSize; rank++) {
+                ranks[codes.get(sorted[rank]).intValue()] = rank;
+            }
+        }
+
+
+        /**
+         * Get the codes of the values the passed in regular
+         * expression finds.  The caller must not change the bitset.
+         *
+         * @param operatorName One of the regular expression
+         * operators.  Only whether it is case insensitive matters,
+         * so =~~ and !~~ share their bitsets.
+         */
+        BitSet getMatches(String operatorName, String regex) {
+
+            boolean caseInsensitive = operatorName.endsWith("~~");
+            String key = (caseInsensitive ? "~~" : "~")+regex;
+            PatternMatches patternMatches = matches.get(key);
+            if (patternMatches == null) {
+                patternMatches = new PatternMatches(
+                    Node.Compare.compilePattern(operatorName, regex));
+                matches.put(key, patternMatches);
+            }
+
+            while (patternMatches.tested < values.size()) {
+                int code = patternMatches.tested++;
+                if (patternMatches.pattern.matcher(values.get(code)).find()) {
+                    patternMatches.codes.set(code);
+                }
+            }
+            return(patternMatches.codes);
+        }
+    }
+
+
+    /**
+     * The codes a regular expression finds, for the first "tested"
+     * codes of a Dictionary.
+     */
+    private static final class PatternMatches {
+
+        private final Pattern pattern;
+        private final BitSet codes = new BitSet();
+        private int tested;
+
+        PatternMatches(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+
+    /**
+     * A dictionary encoded UTF_8_STRING column, or a TO_ONE
+     * reference column, whose values are the referenced ids.
+     */
+    static final class StringColumn
+        extends Column {
+
+        private final Dictionary dictionary = new Dictionary();
+
+        StringColumn(Attribute attribute) {
+            super(attribute, 4);
+        }
+
+        Dictionary getDictionary() {
+            return(dictionary);
+        }
+
+        /**
+         * Get the code of a row's value.  The code of a null
+         * row is meaningless.
+         */
+        int getCode(int row) {
+            return(data.getInt(row*4));
+        }
+
+        @Override
+        boolean accepts(Object value) {
+            return(value instanceof String);
+        }
+
+        @Override
+        void write(int row, Object value) {
+
+            if (!(value instanceof String)) {
+                throw(wrongType(value, "a String"));
+            }
+            data.putInt(row*4, dictionary.encode((String)value));
+        }
+
+        @Override
+        Object read(int row) {
+            return(dictionary.valueOf(data.getInt(row*4)));
+        }
+
+        /**
+         * Compare the ranks of the rows' codes, so no strings
+         * are compared.
+         */
+        @Override
+        int compareRows(int a, int b) {
+
+            int[] ranks = dictionary.getRanks();
+            return(Integer.signum(ranks[data.getInt(a*4)]-
+                                  ranks[data.getInt(b*4)]));
+        }
+
+        /**
+         * The value is looked up in the dictionary once, and then
+         * only the codes are compared.
+         */
+        @Override
+        void scanEquals(Object value, int rowCount, BitSet result) {
+
+            int code = dictionary.codeOf(value);
+            if (code < 0) {
+                return;
+            }
+            for (int row = 0; row < rowCount; row++) {
+                if ((data.getInt(row*4) == code) && !isNull(row)) {
+                    result.set(row);
+                }
+            }
+        }
+
+        /**
+         * The bounds are turned into a range of ranks, once, so
+         * each row is two int comparisons.
+         */
+        @Override
+        void scanRange(Object min, Object max, int rowCount,
+                       BitSet result) {
+
+            if (((min != null) && !(min instanceof String)) ||
+                ((max != null) && !(max instanceof String))) {
+                throw(wrongType(((min != null) &&
+                                 !(min instanceof String)) ? min : max,
+                                "compared to a String"));
+            }
+
+            BitSet rows = new BitSet(rowCount);
+            rows.set(0, rowCount);
+            scanRanks((min == null) ? 0 : dictionary.rankBound(
+                          (String)min, false),
+                      (max == null) ? dictionary.size() :
+                          dictionary.rankBound((String)max, true),
+                      rows, result);
+        }
+
+        /**
+         * Set the bit in result of every row in candidates whose
+         * value compared to the passed in literal is true.  The
+         * literal is resolved against the dictionary once:
+         *
+         *      == and !=       become comparisons of codes.
+         *      <, <=, >, >=    become a range of ranks.
+         *      =~, !~, etc.    become a bitset of codes, which the
+         *                      dictionary keeps for the next scan.
+         *
+         * As with Node.Compare, a null value is never true.
+         *
+         * @throws IllegalArgumentException if the operator is not
+         * a comparison.
+         */
+        void scanCompare(String operatorName, String literal,
+                         BitSet candidates, BitSet result) {
+
+            if (Translator.OE_EQUALS.equals(operatorName) ||
+                Translator.OE_NOT_EQUALS.equals(operatorName)) {
+
+                int code = dictionary.codeOf(literal);
+                boolean equals = Translator.OE_EQUALS.equals(operatorName);
+                for (int row = candidates.nextSetBit(0); row >= 0;
+                     row = candidates.nextSetBit(row+1)) {
+                    if (((data.getInt(row*4) == code) == equals) &&
+                        !isNull(row)) {
+                        result.set(row);
+                    }
+                }
+            }
+            else if (Translator.OE_LESS_THAN.equals(operatorName)) {
+                scanRanks(0, dictionary.rankBound(literal, false),
+                          candidates, result);
+            }
+            else if (Translator.OE_LESS_THAN_EQUALS.equals(operatorName)) {
+                scanRanks(0, dictionary.rankBound(literal, true),
+                          candidates, result);
+            }
+            else if (Translator.OE_GREATER_THAN.equals(operatorName)) {
+                scanRanks(dictionary.rankBound(literal, true),
+                          dictionary.size(), candidates, result);
+            }
+            else if (Translator.OE_GREATER_THAN_EQUALS.equals(
+                         operatorName)) {
+                scanRanks(dictionary.rankBound(literal, false),
+                          dictionary.size(), candidates, result);
+            }
+            else if (Node.Compare.isRegularExpression(operatorName)) {
+
+                BitSet codes = dictionary.getMatches(operatorName, literal);
+                boolean found = !operatorName.startsWith("!");
+                for (int row = candidates.nextSetBit(0); row >= 0;
+                     row = candidates.nextSetBit(row+1)) {
+                    if ((codes.get(data.getInt(row*4)) == found) &&
+                        !isNull(row)) {
+                        result.set(row);
+                    }
+                }
+            }
+            else {
+                throw(new IllegalArgumentException(operatorName+
+                    " is not a comparison operator."));
+            }
+        }
+
+        /**
+         * Set the bit in result of every row in candidates whose
+         * value's rank is from low, inclusive, to high, exclusive.
+         */
+        private void scanRanks(int low, int high, BitSet candidates,
+                               BitSet result) {
+
+            if (low >= high) {
+                return;
+            }
+
+            int[] ranks = dictionary.getRanks();
+            for (int row = candidates.nextSetBit(0); row >= 0;
+                 row = candidates.nextSetBit(row+1)) {
+                int rank = ranks[data.getInt(row*4)];
+                if ((rank >= low) && (rank < high) && !isNull(row)) {
+                    result.set(row);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A TO_MANY reference column.  Each row holds the offset, in
+     * the elements buffer, of the number of ids the row has,
+     * which is followed by the codes of the ids.  Changing a row's
+     * ids appends them to the elements buffer again, so the space
+     * of its old ids is wasted.  (See getWastedBytes().)
+     */
+    static final class ToManyColumn
+        extends Column {
+
+        private final Dictionary dictionary = new Dictionary();
+        private ByteBuffer elements = allocate(4096);
+        private int elementsSize;
+        private long wastedBytes;
+
+        ToManyColumn(Attribute attribute) {
+            super(attribute, 4);
+        }
+
+        Dictionary getDictionary() {
+            return(dictionary);
+        }
+
+        @Override
+        boolean accepts(Object value) {
+
+            for (Object id : Values.asCollection(value)) {
+                if (!(id instanceof String)) {
+                    return(false);
+                }
+            }
+            return(true);
+        }
+
+        /**
+         * The row's old ids stay in the elements buffer, unused.
+         * (A row that is only being set(), i.e. appended, has no
+         * old ids, even though its null bit is clear.)
+         */
+        @Override
+        void update(int row, Object value) {
+
+            if (!isNull(row)) {
+                wastedBytes += 4*(1+elements.getInt(data.getInt(row*4)));
+            }
+            set(row, value);
+        }
+
+        @Override
+        void write(int row, Object value) {
+
+            List<String> ids = new ArrayList<String>();
+            for (Object id : Values.asCollection(value)) {
+                if (!(id instanceof String)) {
+                    throw(wrongType(id, "a collection of String ids"));
+                }
+                ids.add((String)id);
+            }
+
+            int bytes = 4*(1+ids.size());
+            if (elementsSize+bytes > elements.capacity()) {
+                elements = grow(elements, Math.max(elements.capacity()*2,
+                                                   elementsSize+bytes));
+            }
+
+            int offset = elementsSize;
+            elements.putInt(offset, ids.size());
+            for (int index = 0; index < ids.size(); index++) {
+                elements.putInt(offset+4*(1+index),
+                                dictionary.encode(ids.get(index)));
+            }
+            elementsSize += bytes;
+            data.putInt(row*4, offset);
+        }
+
+        /**
+         * Get the ids of a row.
+         */
+        @Override
+        Object read(int row) {
+
+            int offset = data.getInt(row*4);
+            int count = elements.getInt(offset);
+            List<String> ids = new ArrayList<String>(count);
+            for (int index = 0; index < count; index++) {
+                ids.add(dictionary.valueOf(elements.getInt(
+                    offset+4*(1+index))));
+            }
+            return(ids);
+        }
+
+        /**
+         * Set the rows that contain the passed in id.
+         */
+        @Override
+        void scanEquals(Object value, int rowCount, BitSet result) {
+
+            int code = dictionary.codeOf(value);
+            if (code < 0) {
+                return;
+            }
+            for (int row = 0; row < rowCount; row++) {
+                if (isNull(row)) {
+                    continue;
+                }
+                int offset = data.getInt(row*4);
+                int count = elements.getInt(offset);
+                for (int index = 0; index < count; index++) {
+                    if (elements.getInt(offset+4*(1+index)) == code) {
+                        result.set(row);
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Get the number of bytes of the elements buffer that hold
+         * ids that rows used to have.
+         */
+        long getWastedBytes() {
+            return(wastedBytes);
+        }
+
+        @Override
+        long getOffHeapBytes() {
+            return(super.getOffHeapBytes()+elements.capacity());
+        }
+    }
+}
@@ -0,0 +1,866 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A ColumnarEntityCache is a copy of a lot of entities, kept in a
+ * form that is cheap to hold and fast to scan.  There is a Table per
+ * DataModel class, and the Table has a Column per attribute of the
+ * class, whose type follows the attribute's Type and Cardinality:
+ *
+ *      INT_16, INT_32, FLOAT_64, BOOLEAN   A fixed width number.
+ *      DATE_TIME                           Milliseconds, as a long.
+ *      UTF_8_STRING                        A dictionary code.
+ *      REFERENCE, TO_ONE                   The code of the referenced
+ *                                          entity's id.
+ *      REFERENCE, TO_MANY                  An offset of a list of
+ *                                          the codes of the ids.
+ *
+ * The column values are kept off the Java heap.  (See Column.)
+ * Attributes whose values can't be kept in a column, (e.g. the
+ * PARAMETERS_MAPs and the per-user attributes), are not cached,
+ * and read as null.
+ *
+ * Entities are copied into the cache with append(), and changes to
+ * them are copied with update().  Both read the entity using the
+ * EntityAccessor the cache was created with.  Entities are
+ * identified by the value of their id attribute, which is "uuid"
+ * unless you say otherwise.  A referenced entity does not have to
+ * be appended before the entity that references it.  The reference
+ * is resolved when it is read.
+ *
+ * A Table can be scanned a column at a time, (e.g. scanEquals()),
+ * which returns the matching row numbers as a BitSet, so scans
+ * can be and'ed and or'ed together.  Or a whole query can be
+ * run against a Table with select().  The cached entities can be
+ * read like any other entities with the EntityAccessor returned by
+ * getAccessor(), whose entities are the cache's Row objects.
+ *
+ *      ColumnarEntityCache cache = new ColumnarEntityCache(accessor);
+ *      for (Object epoch : epochs)
+ *          cache.append(epoch);
+ *      BitSet rows = cache.getTable("Epoch").scanRange("startTime",
+ *                                                       start, end);
+ *
+ * A ColumnarEntityCache is not thread safe.
+ */
+public final class ColumnarEntityCache {
+
+    private static final Counter ROWS_APPENDED =
+        Metrics.counter("evaluator.columnarCache.rowsAppended");
+    private static final Counter ROWS_UPDATED =
+        Metrics.counter("evaluator.columnarCache.rowsUpdated");
+    private static final Counter STRING_SCANS =
+        Metrics.counter("evaluator.columnarCache.stringScans");
+
+    private final EntityAccessor source;
+    private final String idAttribute;
+
+    private final Map<ClassDescription,Table> tables =
+        new LinkedHashMap<ClassDescription,Table>();
+
+    /**
+     * Every cached row, by the id of its entity.
+     */
+    private final Map<String,Row> rows = new HashMap<String,Row>();
+
+    private final EntityAccessor accessor = new CacheAccessor();
+
+
+    /**
+     * Create an empty cache of entities read with the passed in
+     * accessor.  Entities are identified by their "uuid".
+     */
+    public ColumnarEntityCache(EntityAccessor source) {
+        this(source, IncrementalView.DEFAULT_ID_ATTRIBUTE);
+    }
+
+
+    /**
+     * Create an empty cache of entities read with the passed in
+     * accessor.
+     *
+     * @param idAttribute The name of the UTF_8_STRING attribute whose
+     * value identifies an entity.
+     */
+    public ColumnarEntityCache(EntityAccessor source, String idAttribute) {
+
+        if ((source == null) || (idAttribute == null)) {
+            throw(new IllegalArgumentException(
+                "source and idAttribute must not be null."));
+        }
+        this.source = source;
+        this.idAttribute = idAttribute;
+    }
+
+
+    /**
+     * Copy the passed in entity into the cache.
+     *
+     * @throws IllegalArgumentException if the entity's class is not
+     * in the DataModel, it has no id, an entity with its id is
+     * already cached, or one of its values is not of its
+     * attribute's type.
+     */
+    public void append(Object entity) {
+
+        Table table = getOrCreateTable(entity);
+        String id = getId(entity);
+        if (rows.containsKey(id)) {
+            throw(new IllegalArgumentException("An entity with the id \""+
+                id+"\" is already cached.  Use update()."));
+        }
+
+        int index = table.rowCount;
+        table.write(index+1, index, entity, false);
+        table.rowCount++;
+
+        rows.put(id, new Row(table, index));
+        ROWS_APPENDED.increment();
+    }
+
+
+    /**
+     * Copy the current values of the passed in entity into the
+     * cache.  The space a TO_MANY reference's old ids used is not
+     * reused.
+     *
+     * @throws IllegalArgumentException if the entity is not cached,
+     * its class has changed, or one of its values is not of its
+     * attribute's type.
+     */
+    public void update(Object entity) {
+
+        Table table = getOrCreateTable(entity);
+        String id = getId(entity);
+        Row row = rows.get(id);
+        if (row == null) {
+            throw(new IllegalArgumentException("No entity with the id \""+
+                id+"\" is cached.  Use append()."));
+        }
+        if (row.table != table) {
+            throw(new IllegalArgumentException("The entity with the id \""+
+                id+"\" was cached as a "+row.table.getClassDescription()+
+                ", not a "+table.getClassDescription()+"."));
+        }
+
+        table.write(table.rowCount, row.index, entity, true);
+        ROWS_UPDATED.increment();
+    }
+
+
+    private Table getOrCreateTable(Object entity) {
+
+        if (entity == null) {
+            throw(new IllegalArgumentException("entity must not be null."));
+        }
+
+        String className = source.getClassName(entity);
+        ClassDescription classDescription = (className == null) ? null :
+            DataModel.getClassDescription(className);
+        if (classDescription == null) {
+            throw(new IllegalArgumentException("The entity's class, \""+
+                className+"\", is not in the DataModel."));
+        }
+
+        Table table = tables.get(classDescription);
+        if (table == null) {
+            table = new Table(classDescription);
+            if (!(table.columns.get(idAttribute) instanceof
+                  Column.StringColumn)) {
+                throw(new IllegalArgumentException(className+
+                    " does not have a "+idAttribute+" string attribute."));
+            }
+            tables.put(classDescription, table);
+        }
+        return(table);
+    }
+
+
+    private String getId(Object entity) {
+
+        Object id = source.getAttribute(entity, idAttribute);
+        if (!(id instanceof String)) {
+            throw(new IllegalArgumentException("The entity's "+
+                idAttribute+" must be a String.  It is "+id+"."));
+        }
+        return((String)id);
+    }
+
+
+    /**
+     * Get the value of one of an entity's attributes in the form
+     * its Column keeps it.  References are turned into the ids of
+     * the referenced entities.  A reference that is already a
+     * String is taken to be an id.
+     */
+    private Object getColumnValue(Object entity, Column column) {
+
+        Object value = source.getAttribute(entity, column.getName());
+        if ((value == null) || !column.isReference()) {
+            return(value);
+        }
+
+        if (column.getAttribute().getCardinality() != Cardinality.TO_MANY) {
+            return(referenceId(value));
+        }
+
+        List<Object> ids = new ArrayList<Object>();
+        for (Object element : Values.asCollection(value)) {
+            if (element != null) {
+                ids.add(referenceId(element));
+            }
+        }
+        return(ids);
+    }
+
+
+    private Object referenceId(Object reference) {
+
+        if (reference instanceof String) {
+            return(reference);
+        }
+        return(source.getAttribute(reference, idAttribute));
+    }
+
+
+    /**
+     * Get the Table of the passed in class, or null if no entities
+     * of the class have been cached.
+     */
+    public Table getTable(ClassDescription classDescription) {
+        return(tables.get(classDescription));
+    }
+
+
+    /**
+     * Get the Table of the class with the passed in name, or null
+     * if no entities of the class have been cached.
+     */
+    public Table getTable(String className) {
+
+        for (Table table : tables.values()) {
+            if (table.classDescription.getName().equals(className)) {
+                return(table);
+            }
+        }
+        return(null);
+    }
+
+
+    /**
+     * Get the Tables, in the order their first rows were appended.
+     */
+    public Collection<Table> getTables() {
+        return(Collections.unmodifiableCollection(tables.values()));
+    }
+
+
+    /**
+     * Get the cached entity with the passed in id, or null.
+     */
+    public Row find(String id) {
+        return(rows.get(id));
+    }
+
+
+    /**
+     * Get the number of bytes the cache has allocated off the heap.
+     */
+    public long getOffHeapBytes() {
+
+        long bytes = 0;
+        for (Table table : tables.values()) {
+            for (Column column : table.columns.values()) {
+                bytes += column.getOffHeapBytes();
+            }
+        }
+        return(bytes);
+    }
+
+
+    /**
+     * Get the number of off heap bytes that hold the ids TO_MANY
+     * references had before they were updated.  (See update().)
+     */
+    public long getWastedBytes() {
+
+        long bytes = 0;
+        for (Table table : tables.values()) {
+            for (Column column : table.columns.values()) {
+                if (column instanceof Column.ToManyColumn) {
+                    bytes += ((Column.ToManyColumn)column).getWastedBytes();
+                }
+            }
+        }
+        return(bytes);
+    }
+
+
+    /**
+     * Get an EntityAccessor that reads the cached entities, i.e. the
+     * Row objects returned by find().  A reference whose entity is
+     * not cached, (or is not of the attribute's class), is null.
+     * Data model specific operators, (e.g. "keywords"), are not
+     * cached, so the accessor does not know any of them.
+     */
+    public EntityAccessor getAccessor() {
+        return(accessor);
+    }
+
+
+    /**
+     * The cached entities of one DataModel class.
+     */
+    public final class Table {
+
+        private final ClassDescription classDescription;
+
+        /**
+         * The Columns, by attribute name.  If a subclass has an
+         * attribute with the same name as one of its parents', the
+         * subclass's attribute wins.
+         */
+        private final Map<String,Column> columns =
+            new LinkedHashMap<String,Column>();
+
+        private int rowCount;
+
+        /**
+         * The ordered indexes that have been asked for since the
+         * rows last changed, by attribute name and direction.
+         * See getOrderedRows().
+         */
+        private final Map<String,int[]> orderedRows =
+            new HashMap<String,int[]>();
+
+
+        private Table(ClassDescription classDescription) {
+
+            this.classDescription = classDescription;
+            for (Attribute attribute :
+                 classDescription.getAllAttributes()) {
+                if (!columns.containsKey(attribute.getQueryName())) {
+                    Column column = Column.create(attribute);
+                    if (column != null) {
+                        columns.put(attribute.getQueryName(), column);
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Write all the values of the passed in entity into a row.
+         * All the values are read and checked before any are
+         * written, so a bad value leaves the row as it was.
+         *
+         * @param update True if the row already has values, i.e. it
+         * is being updated, not appended.
+         */
+        private void write(int rows, int index, Object entity,
+                           boolean update) {
+
+            Map<Column,Object> values = new LinkedHashMap<Column,Object>();
+            for (Column column : columns.values()) {
+                Object value = getColumnValue(entity, column);
+                checkType(column, value);
+                values.put(column, value);
+            }
+
+            for (Map.Entry<Column,Object> entry : values.entrySet()) {
+                entry.getKey().ensureCapacity(rows);
+                if (update) {
+                    entry.getKey().update(index, entry.getValue());
+                }
+                else {
+                    entry.getKey().set(index, entry.getValue());
+                }
+            }
+            orderedRows.clear();
+        }
+
+
+        private void checkType(Column column, Object value) {
+
+            if ((value != null) && !column.accepts(value)) {
+                throw(new IllegalArgumentException("The value of "+
+                    classDescription.getName()+"."+column.getName()+
+                    " is not a "+column.getAttribute().getType()+
+                    ".  It is "+value+"."));
+            }
+        }
+
+
+        public ClassDescription getClassDescription() {
+            return(classDescription);
+        }
+
+
+        public int getRowCount() {
+            return(rowCount);
+        }
+
+
+        /**
+         * Get the names of the attributes that are cached.
+         */
+        public List<String> getColumnNames() {
+            return(new ArrayList<String>(columns.keySet()));
+        }
+
+
+        /**
+         * Get the row number of the entity with the passed in id,
+         * or -1 if it is not in this Table.
+         */
+        public int getRow(String id) {
+
+            Row row = rows.get(id);
+            return(((row == null) || (row.table != this)) ? -1 : row.index);
+        }
+
+
+        /**
+         * Get the cached value of an attribute of a row.  A reference
+         * is the id of the referenced entity, and a TO_MANY reference
+         * is a List of ids.
+         */
+        public Object getValue(int row, String attributeName) {
+
+            checkRow(row);
+            return(getColumn(attributeName).get(row));
+        }
+
+
+        /**
+         * Get the rows whose attribute is equal to the passed in
+         * value.  For a TO_MANY reference, get the rows that
+         * reference the entity with the passed in id.
+         */
+        public BitSet scanEquals(String attributeName, Object value) {
+
+            BitSet result = new BitSet(rowCount);
+            getColumn(attributeName).scanEquals(value, rowCount, result);
+            return(result);
+        }
+
+
+        /**
+         * Get the rows whose number, time, or string attribute is from
+         * min to max, inclusive.  A null min or max means there is no
+         * bound on that side.
+         *
+         * @throws IllegalArgumentException if the attribute is not a
+         * number, time, or string, or the bounds are not of its type.
+         */
+        public BitSet scanRange(String attributeName, Object min,
+                                Object max) {
+
+            BitSet result = new BitSet(rowCount);
+            getColumn(attributeName).scanRange(min, max, rowCount, result);
+            return(result);
+        }
+
+
+        /**
+         * Get the rows whose attribute is null.
+         */
+        public BitSet scanNull(String attributeName) {
+
+            BitSet result = new BitSet(rowCount);
+            getColumn(attributeName).scanNull(rowCount, result);
+            return(result);
+        }
+
+
+        /**
+         * Get the rows that match the passed in query.  The query's
+         * Class Under Qualification is not checked against the Table.
+         */
+        public BitSet select(FlatExpression expression) {
+
+            if (expression == null) {
+                throw(new IllegalArgumentException(
+                    "expression must not be null."));
+            }
+
+            FlatExpression.Interpreter interpreter =
+                expression.interpreter(accessor);
+            BitSet result = new BitSet(rowCount);
+            for (int index = 0; index < rowCount; index++) {
+                if (interpreter.matches(new Row(this, index))) {
+                    result.set(index);
+                }
+            }
+            return(result);
+        }
+
+
+        /**
+         * Get the rows that match the passed in query.  The query is
+         * evaluated a Node at a time, over all the rows that might
+         * still match, instead of a row at a time:
+         *
+         *      An and only evaluates an operand on the rows the
+         *          operands before it were true for, and an or
+         *          only on the rows they were not true for.
+         *      A comparison of a string attribute of the entity to
+         *          a string literal is done on the column's codes.
+         *          (See Column.StringColumn.scanCompare().)  The
+         *          literal is resolved against the dictionary once,
+         *          however many rows there are.
+         *      Anything else is evaluated on each row with an
+         *          EvaluationFrame, the same as a PreparedQuery.
+         *
+         * The query's Class Under Qualification is not checked
+         * against the Table.
+         *
+         * @throws IllegalArgumentException if the tree contains
+         * something that can't be evaluated.
+         */
+        public BitSet select(ExpressionTree expressionTree) {
+
+            if (expressionTree == null) {
+                throw(new IllegalArgumentException(
+                    "expressionTree must not be null."));
+            }
+
+            NodeCompiler compiler = new NodeCompiler();
+            Node root = compiler.compile(expressionTree.getRootExpression());
+            EvaluationFrame frame = new EvaluationFrame(accessor);
+
+            BitSet candidates = new BitSet(rowCount);
+            candidates.set(0, rowCount);
+            return(select(root, candidates, compiler, frame));
+        }
+
+
+        /**
+         * Get the rows in candidates the passed in Node is true for.
+         */
+        private BitSet select(Node node, BitSet candidates,
+                              NodeCompiler compiler, EvaluationFrame frame) {
+
+            BitSet result = new BitSet(rowCount);
+            if (candidates.isEmpty()) {
+                return(result);
+            }
+
+            if (node instanceof Node.Junction) {
+
+                boolean and = ((Node.Junction)node).isAnd();
+                BitSet remaining = (BitSet)candidates.clone();
+                if (and) {
+                    result = remaining;
+                }
+                for (Node operand :
+                     ((Node.Junction)node).getEvaluationOrder()) {
+                    BitSet operandResult = select(operand, remaining,
+                                                  compiler, frame);
+                    if (and) {
+                        remaining.and(operandResult);
+                    }
+                    else {
+                        result.or(operandResult);
+                        remaining.andNot(operandResult);
+                    }
+                }
+                return(result);
+            }
+            else if (node instanceof Node.Not) {
+
+                result.or(candidates);
+                result.andNot(select(((Node.Not)node).getOperand(),
+                                     candidates, compiler, frame));
+                return(result);
+            }
+            else if (node instanceof Node.Compare) {
+
+                Node.Compare compare = (Node.Compare)node;
+                Column.StringColumn column = stringColumn(compare.getLeft());
+                if ((column != null) &&
+                    (compare.getRight() instanceof Node.Literal) &&
+                    (((Node.Literal)compare.getRight()).getValue()
+                     instanceof String)) {
+                    column.scanCompare(compare.getOperatorName(),
+                        (String)((Node.Literal)compare.getRight()).getValue(),
+                        candidates, result);
+                    STRING_SCANS.increment();
+                    return(result);
+                }
+            }
+
+            for (int index = candidates.nextSetBit(0); index >= 0;
+                 index = candidates.nextSetBit(index+1)) {
+                frame.begin(new Row(this, index), compiler.getNodeCount());
+                if (frame.test(node)) {
+                    result.set(index);
+                }
+            }
+            return(result);
+        }
+
+
+        /**
+         * If the passed in Node is a UTF_8_STRING attribute of the
+         * entity being evaluated, get its Column.  Otherwise,
+         * return null.
+         */
+        private Column.StringColumn stringColumn(Node node) {
+
+            if (!(node instanceof Node.Attribute) ||
+                !(((Node.Attribute)node).getInput() instanceof Node.This)) {
+                return(null);
+            }
+
+            Column column = columns.get(
+                ((Node.Attribute)node).getAttributeName());
+            if (!(column instanceof Column.StringColumn) ||
+                column.isReference()) {
+                return(null);
+            }
+            return((Column.StringColumn)column);
+        }
+
+
+        /**
+         * Get the row numbers sorted by the value of the passed in
+         * attribute.  Rows whose values are null, (or NaN), come last,
+         * whichever way the rows are sorted, and rows with equal
+         * values are in row number order.  The index is kept until a row is
+         * appended or updated, so asking again is free.  The caller
+         * must not change the array.
+         *
+         * @throws IllegalArgumentException if the attribute is not
+         * a number, time, or string.
+         */
+        public int[] getOrderedRows(String attributeName,
+                                    boolean descending) {
+
+            final Column column = getColumn(attributeName);
+            String key = (descending ? "-" : "+")+attributeName;
+            int[] ordered = orderedRows.get(key);
+            if (ordered != null) {
+                return(ordered);
+            }
+
+            List<Integer> values = new ArrayList<Integer>(rowCount);
+            List<Integer> nulls = new ArrayList<Integer>();
+            for (int index = 0; index < rowCount; index++) {
+                (column.isUnordered(index) ? nulls : values).add(
+                    Integer.valueOf(index));
+            }
+
+            final int sign = descending ? -1 : 1;
+            Collections.sort(values, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return(sign*column.compareRows(a.intValue(),
+                                                   b.intValue()));
+                }
+            });
+
+            ordered = new int[rowCount];
+            int position = 0;
+            for (Integer index : values) {
+                ordered[position++] = index.intValue();
+            }
+            for (Integer index : nulls) {
+                ordered[position++] = index.intValue();
+            }
+
+            orderedRows.put(key, ordered);
+            return(ordered);
+        }
+
+
+        /**
+         * Get the Row object of a row number, so it can be read
+         * with getAccessor().
+         */
+        public Row getRow(int index) {
+
+            checkRow(index);
+            return(new Row(this, index));
+        }
+
+
+        /**
+         * Get the accessor that reads this Table's Rows.
+         */
+        EntityAccessor getAccessor() {
+            return(accessor);
+        }
+
+
+        Column getColumn(String attributeName) {
+
+            Column column = columns.get(attributeName);
+            if (column == null) {
+                throw(new IllegalArgumentException(attributeName+
+                    " is not a cached attribute of "+
+                    classDescription.getName()+"."));
+            }
+            return(column);
+        }
+
+
+        private void checkRow(int row) {
+
+            if ((row < 0) || (row >= rowCount)) {
+                throw(new IllegalArgumentException("row "+row+
+                    " is not from 0 to "+(rowCount-1)+"."));
+            }
+        }
+
+
+        @Override
+        public String toString() {
+            return(classDescription.getName()+" ("+rowCount+" rows)");
+        }
+    }
+
+
+    /**
+     * A cached entity.  Two Rows are equal if they are the
+     * same row of the same Table.
+     */
+    public static final class Row {
+
+        private final Table table;
+        private final int index;
+
+
+        private Row(Table table, int index) {
+
+            this.table = table;
+            this.index = index;
+        }
+
+
+        public Table getTable() {
+            return(table);
+        }
+
+
+        public int getIndex() {
+            return(index);
+        }
+
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (!(object instanceof Row)) {
+                return(false);
+            }
+            Row row = (Row)object;
+            return((row.table == table) && (row.index == index));
+        }
+
+
+        @Override
+        public int hashCode() {
+            return(System.identityHashCode(table)*31+index);
+        }
+
+
+        @Override
+        public String toString() {
+            return(table.classDescription.getName()+"["+index+"]");
+        }
+    }
+
+
+    /**
+     * Reads the cached entities.  See getAccessor().
+     */
+    private final class CacheAccessor
+        implements EntityAccessor {
+
+        @Override
+        public String getClassName(Object entity) {
+            return(asRow(entity).table.classDescription.getName());
+        }
+
+
+        @Override
+        public Object getAttribute(Object entity, String attributeName) {
+
+            Row row = asRow(entity);
+            Column column = row.table.columns.get(attributeName);
+            if (column == null) {
+                return(null);
+            }
+
+            Object value = column.get(row.index);
+            if ((value == null) || !column.isReference()) {
+                return(value);
+            }
+
+            ClassDescription target =
+                column.getAttribute().getClassDescription();
+            if (!(column instanceof Column.ToManyColumn)) {
+                return(resolve(value, target));
+            }
+
+            List<Object> elements = new ArrayList<Object>();
+            for (Object id : (List<?>)value) {
+                elements.add(resolve(id, target));
+            }
+            return(elements);
+        }
+
+
+        private Row resolve(Object id, ClassDescription target) {
+
+            Row row = rows.get(id);
+            if ((row == null) || ((target != null) &&
+                !row.table.classDescription.isSubclassOf(target))) {
+                return(null);
+            }
+            return(row);
+        }
+
+
+        @Override
+        public Object evaluateOperator(String operatorName,
+                                       Object[] operands) {
+            throw(new UnsupportedOperationException("The "+operatorName+
+                " operator is not cached."));
+        }
+
+
+        private Row asRow(Object entity) {
+
+            if (!(entity instanceof Row)) {
+                throw(new IllegalArgumentException(
+                    "The cache's accessor only works with its Rows.  "+
+                    "entity = "+entity));
+            }
+            return((Row)entity);
+        }
+    }
+}
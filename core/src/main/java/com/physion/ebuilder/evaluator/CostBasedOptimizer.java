@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The CostBasedOptimizer changes the order in which and/or Nodes
+ * evaluate their operands so that, on average, as little work as
+ * possible is done.
+ *
+ * The operands of an "and" are evaluated until one is false, so
+ * we want the operands that are cheap and usually false first.
+ * The classic answer is to sort the operands by
+ *
+ *      cost / (1 - probability the operand is true)
+ *
+ * (and for an "or", by cost / probability the operand is true).
+ * E.g. an Int32 == comparison that is almost always false goes in
+ * front of a case insensitive regular expression on a path that
+ * goes through an any().
+ *
+ * The cost and probability of each Node come from, in order:
+ *
+ *      What was observed, (see Observations), if the Node has
+ *      been evaluated at least MIN_OBSERVATIONS times.
+ *
+ *      For a comparison of an attribute path to a literal, the
+ *      AttributeStatistics of the path, for the probability.
+ *
+ *      Rough guesses based on the kind of Node.  The guessed costs
+ *      are in about the same units, (nanoseconds), as the observed
+ *      costs, so the two can be mixed.
+ *
+ * Only the compiled Nodes are changed.  The RowData tree, (and the
+ * ExpressionTree), keep the order the user put the rows in.
+ *
+ * Please note, Nodes are shared by all the queries compiled by the
+ * same NodeCompiler, so an and/or that appears in several queries
+ * gets one order.
+ */
+final class CostBasedOptimizer {
+
+    /**
+     * A Node must have been observed at least this many times
+     * before we trust the observations more than our guesses.
+     */
+    static final int MIN_OBSERVATIONS = 32;
+
+    private static final double ATTRIBUTE_COST = 20.0;
+    private static final double COMPARE_COST = 10.0;
+    private static final double REGULAR_EXPRESSION_COST = 200.0;
+    private static final double CALL_COST = 500.0;
+    private static final double QUANTIFIER_COST = 100.0;
+    private static final double OTHER_COST = 5.0;
+
+    /**
+     * The number of elements we guess a collection has.
+     */
+    private static final double GUESSED_ELEMENT_COUNT = 10.0;
+
+    private static final double GUESSED_EQUALS_PASS_RATE = 0.1;
+    private static final double GUESSED_RANGE_PASS_RATE = 1.0/3.0;
+    private static final double GUESSED_MATCHES_PASS_RATE = 0.25;
+    private static final double GUESSED_IS_NULL_PASS_RATE = 0.1;
+    private static final double GUESSED_PASS_RATE = 0.5;
+
+    private final Observations observations;
+    private final Map<Node,AttributeStatistics> statistics;
+
+    /**
+     * The estimates we have already made.  (Nodes form a DAG,
+     * so we would otherwise estimate shared Nodes many times.)
+     */
+    private final Map<Node,Estimate> estimates = new HashMap<Node,Estimate>();
+
+    private int reorderedCount;
+
+
+    /**
+     * @param observations What was observed about the Nodes.
+     * @param statistics The statistics of the attribute paths,
+     * keyed by the Node that gets the path.
+     */
+    CostBasedOptimizer(Observations observations,
+                       Map<Node,AttributeStatistics> statistics) {
+
+        this.observations = observations;
+        this.statistics = statistics;
+    }
+
+
+    /**
+     * Reorder the operands of all the and/or Nodes reachable
+     * from the passed in Nodes.
+     *
+     * @return The number of and/or Nodes whose order changed.
+     */
+    int optimize(Collection<Node> roots) {
+
+        reorderedCount = 0;
+        estimates.clear();
+        for (Node root : roots) {
+            estimate(root);
+        }
+        return(reorderedCount);
+    }
+
+
+    /**
+     * Estimate the cost and pass rate of a Node, reordering
+     * any and/or Nodes along the way.
+     */
+    private Estimate estimate(Node node) {
+
+        Estimate estimate = estimates.get(node);
+        if (estimate != null) {
+            return(estimate);
+        }
+
+        /**
+         * We always visit the children, even if the Node has been
+         * observed, so the and/or Nodes below it get reordered too.
+         */
+        if (node instanceof Node.Junction) {
+            estimate = estimateJunction((Node.Junction)node);
+        }
+        else {
+            estimate = guess(node);
+        }
+
+        if (node.isBoolean() &&
+            (observations.getEvaluationCount(node) >= MIN_OBSERVATIONS)) {
+            estimate = new Estimate(observations.getAverageNanos(node),
+                                    observations.getPassRate(node));
+        }
+
+        estimates.put(node, estimate);
+        return(estimate);
+    }
+
+
+    /**
+     * Sort the operands of an and/or, and estimate the
+     * cost of evaluating them in that order.
+     */
+    private Estimate estimateJunction(Node.Junction junction) {
+
+        final boolean and = junction.isAnd();
+        Node[] operands = junction.getChildren();
+        final Map<Node,Double> ranks = new HashMap<Node,Double>();
+        for (Node operand : operands) {
+            Estimate estimate = estimate(operand);
+            double stop = and ? (1.0-estimate.passRate) : estimate.passRate;
+            ranks.put(operand, Double.valueOf((stop <= 0.0) ?
+                Double.POSITIVE_INFINITY : estimate.cost/stop));
+        }
+
+        /**
+         * Arrays.sort() is stable, so operands with the same
+         * rank stay in the order the user put them in.
+         */
+        Node[] order = operands.clone();
+        Arrays.sort(order, new Comparator<Node>() {
+            public int compare(Node node1, Node node2) {
+                return(ranks.get(node1).compareTo(ranks.get(node2)));
+            }
+        });
+
+        if (!Arrays.equals(order, junction.getEvaluationOrder())) {
+            junction.setEvaluationOrder(order);
+            reorderedCount++;
+        }
+
+        /**
+         * Each operand is only evaluated if all the ones before
+         * it didn't decide the answer.
+         */
+        double cost = 0.0;
+        double reached = 1.0;
+        double passRate = and ? 1.0 : 0.0;
+        for (Node operand : order) {
+            Estimate estimate = estimates.get(operand);
+            cost += reached*estimate.cost;
+            reached *= and ? estimate.passRate : (1.0-estimate.passRate);
+            if (and) {
+                passRate *= estimate.passRate;
+            }
+            else {
+                passRate = 1.0-(1.0-passRate)*(1.0-estimate.passRate);
+            }
+        }
+        return(new Estimate(cost, passRate));
+    }
+
+
+    /**
+     * Guess the cost and pass rate of any Node other than an and/or.
+     */
+    private Estimate guess(Node node) {
+
+        double childCost = 0.0;
+        for (Node child : node.getChildren()) {
+            childCost += estimate(child).cost;
+        }
+
+        if ((node instanceof Node.This) || (node instanceof Node.Literal)) {
+            double passRate = GUESSED_PASS_RATE;
+            if (node instanceof Node.Literal) {
+                passRate = Boolean.TRUE.equals(((Node.Literal)node).
+                                               getValue()) ? 1.0 : 0.0;
+            }
+            return(new Estimate(0.0, passRate));
+        }
+        else if (node instanceof Node.Attribute) {
+            return(new Estimate(ATTRIBUTE_COST+childCost, GUESSED_PASS_RATE));
+        }
+        else if (node instanceof Node.Compare) {
+
+            Node.Compare compare = (Node.Compare)node;
+            String operatorName = compare.getOperatorName();
+            boolean regularExpression =
+                Node.Compare.isRegularExpression(operatorName);
+            double cost = childCost + (regularExpression ?
+                REGULAR_EXPRESSION_COST : COMPARE_COST);
+            return(new Estimate(cost, guessPassRate(compare)));
+        }
+        else if (node instanceof Node.Not) {
+            Estimate operand = estimate(((Node.Not)node).getOperand());
+            return(new Estimate(operand.cost, 1.0-operand.passRate));
+        }
+        else if (node instanceof Node.Quantifier) {
+
+            Node.Quantifier quantifier = (Node.Quantifier)node;
+            double cost = QUANTIFIER_COST +
+                estimate(quantifier.getCollection()).cost +
+                GUESSED_ELEMENT_COUNT*estimate(quantifier.getCondition()).cost;
+            return(new Estimate(cost, GUESSED_PASS_RATE));
+        }
+        else if (node instanceof Node.Call) {
+            return(new Estimate(CALL_COST+childCost, GUESSED_PASS_RATE));
+        }
+        else if (node instanceof Node.IsNull) {
+            return(new Estimate(OTHER_COST+childCost,
+                                GUESSED_IS_NULL_PASS_RATE));
+        }
+        return(new Estimate(OTHER_COST+childCost, GUESSED_PASS_RATE));
+    }
+
+
+    private double guessPassRate(Node.Compare compare) {
+
+        String operatorName = compare.getOperatorName();
+
+        AttributeStatistics attributeStatistics =
+            statistics.get(compare.getLeft());
+        if ((attributeStatistics != null) &&
+            (compare.getRight() instanceof Node.Literal)) {
+            double selectivity = attributeStatistics.estimateSelectivity(
+                operatorName, ((Node.Literal)compare.getRight()).getValue());
+            if (selectivity >= 0.0) {
+                return(selectivity);
+            }
+        }
+
+        if (Translator.OE_EQUALS.equals(operatorName)) {
+            return(GUESSED_EQUALS_PASS_RATE);
+        }
+        else if (Translator.OE_NOT_EQUALS.equals(operatorName)) {
+            return(1.0-GUESSED_EQUALS_PASS_RATE);
+        }
+        else if (Node.Compare.isRegularExpression(operatorName)) {
+            return(operatorName.startsWith("!") ?
+                   1.0-GUESSED_MATCHES_PASS_RATE : GUESSED_MATCHES_PASS_RATE);
+        }
+        return(GUESSED_RANGE_PASS_RATE);
+    }
+
+
+    /**
+     * The expected cost of evaluating a Node, and the
+     * probability that it is true.
+     */
+    private static final class Estimate {
+
+        private final double cost;
+        private final double passRate;
+
+        Estimate(double cost, double passRate) {
+            this.cost = cost;
+            this.passRate = Math.max(0.0, Math.min(1.0, passRate));
+        }
+    }
+}
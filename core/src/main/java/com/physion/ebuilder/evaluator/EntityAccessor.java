@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+
+/**
+ * The classes in the com.physion.ebuilder.evaluator package evaluate
+ * ExpressionTrees against application objects, (e.g. Epochs and
+ * Sources), in memory.  They do not know anything about how those
+ * objects are stored.  Instead, they ask an EntityAccessor for the
+ * values they need.
+ *
+ * An "entity" is whatever object the application uses to represent
+ * an instance of a class in the DataModel.  For example, an Epoch.
+ *
+ * The values an EntityAccessor returns should be one of:
+ *
+ *      null, if the entity does not have a value for the attribute.
+ *
+ *      A String, Boolean, Short, Integer, Double, or a Joda
+ *      ReadableInstant, (e.g. DateTime), for primitive attributes.
+ *
+ *      Another entity, for a Cardinality.TO_ONE reference.
+ *
+ *      A java.lang.Iterable or an array of entities for a
+ *      Cardinality.TO_MANY reference.
+ *
+ *      A java.util.Map for a "parameters map" attribute such as
+ *      protocolParameters.  The keys are Strings.
+ *
+ * MapEntityAccessor is a simple implementation of this interface
+ * that works with entities that are java.util.Map objects.
+ *
+ * @see MapEntityAccessor
+ * @see MultiQueryNetwork
+ */
+public interface EntityAccessor {
+
+    /**
+     * Get the name of the DataModel class of the passed in entity.
+     * E.g. "Epoch", "Source".  This is compared to the Class Under
+     * Qualification of an ExpressionTree.
+     */
+    public String getClassName(Object entity);
+
+
+    /**
+     * Get the value of the attribute named attributeName of the
+     * passed in entity.  The attributeName is the Attribute's
+     * queryName.  E.g. "protocolID", "epochGroup", "responses".
+     *
+     * @param entity The entity whose value we want.  This is
+     * never null.
+     */
+    public Object getAttribute(Object entity, String attributeName);
+
+
+    /**
+     * Evaluate an operator that the evaluator does not know how to
+     * evaluate itself.  These are the operators that are specific
+     * to the application's data model, such as "properties",
+     * "myproperties", "keywords", "mykeywords", "mynotes",
+     * "containing_experiments", etc.
+     *
+     * @param operatorName The name of the operator, as it appears
+     * in the OperatorExpression.
+     *
+     * @param operands The values of the operands of the
+     * OperatorExpression, in order.  For example, for
+     * properties("someKey", this), the operands are the String
+     * "someKey" and the current entity.
+     *
+     * @return The value of the operator.  This is usually a
+     * collection of entities or values.
+     *
+     * @throws UnsupportedOperationException if the accessor
+     * does not know the operator.
+     */
+    public Object evaluateOperator(String operatorName, Object[] operands);
+}
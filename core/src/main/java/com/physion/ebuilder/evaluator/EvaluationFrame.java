@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * An EvaluationFrame remembers the values of the Nodes that have
+ * been evaluated for one entity.  Every Node is a function of
+ * just the entity it is evaluated against, (there are no variables
+ * in an ExpressionTree that refer to an "outer" entity), so once
+ * a Node has been evaluated for an entity we never need to evaluate
+ * it again for that entity.  That is what lets many queries share
+ * the work of evaluating the same attribute paths and comparisons.
+ *
+ * The frame for the record being evaluated keeps its values in
+ * arrays indexed by Node id, and the arrays are reused from one
+ * record to the next.  Frames for the elements of collections,
+ * (i.e. the entities that any/all/count iterate over), are created
+ * as needed and use a HashMap, because most Nodes are never
+ * evaluated against an element.
+ *
+ * Frames are created by calling begin() for each record.
+ * Frames are not thread safe.
+ */
+final class EvaluationFrame {
+
+    /**
+     * Marker for a Node whose value has been computed and is null.
+     */
+    private static final Object NULL = new Object();
+
+    private final EntityAccessor accessor;
+
+    /**
+     * The frame of the record that is being evaluated.
+     * This is "this" for the record's frame.
+     */
+    private final EvaluationFrame root;
+
+    private Object entity;
+
+    /**
+     * The memo for the record's frame.  A value in values[] is
+     * only valid if stamps[] for the Node equals stamp.
+     * Incrementing stamp throws away all the values in O(1).
+     */
+    private Object[] values;
+    private int[] stamps;
+    private int stamp;
+
+    /**
+     * The memo for an element's frame.
+     */
+    private Map<Node,Object> memo;
+
+    /**
+     * The frames of the elements of collections that have been
+     * iterated over while evaluating the current record.
+     * This is only used in the record's frame.
+     */
+    private Map<Object,EvaluationFrame> elementFrames;
+
+    /**
+     * If this is not null, the and/or Nodes record how their
+     * operands did in it.  This is only used in the record's frame.
+     */
+    private Observations observations;
+
+    /**
+     * The values bound to the BindParameter Nodes.
+     * This is only used in the record's frame.
+     */
+    private Object[] parameters = NO_PARAMETERS;
+
+    private static final Object[] NO_PARAMETERS = new Object[0];
+
+    /**
+     * If this is not null, every Node that is computed is recorded
+     * in it.  This is only used in the record's frame.
+     */
+    private EvaluationProfile profile;
+
+
+    /**
+     * Create a frame that can be used to evaluate records.
+     * Call begin() before evaluating each record.
+     */
+    EvaluationFrame(EntityAccessor accessor) {
+
+        this.accessor = accessor;
+        this.root = this;
+        this.values = new Object[0];
+        this.stamps = new int[0];
+        this.stamp = 0;
+        this.elementFrames = new IdentityHashMap<Object,EvaluationFrame>();
+    }
+
+
+    /**
+     * Create a frame for an element of a collection.
+     */
+    private EvaluationFrame(EvaluationFrame root, Object entity) {
+
+        this.accessor = root.accessor;
+        this.root = root;
+        this.entity = entity;
+        this.memo = new HashMap<Node,Object>();
+    }
+
+
+    /**
+     * Start evaluating a new record.  This forgets the values
+     * of all the Nodes that were evaluated for the previous record.
+     *
+     * @param nodeCount The number of Nodes that might be evaluated.
+     * (I.e. one more than the largest Node id.)
+     */
+    void begin(Object entity, int nodeCount) {
+
+        if (this != root) {
+            throw(new IllegalStateException(
+                "begin() can only be called on a record frame."));
+        }
+
+        this.entity = entity;
+        elementFrames.clear();
+
+        if (values.length < nodeCount) {
+            values = new Object[nodeCount];
+            stamps = new int[nodeCount];
+            stamp = 0;
+        }
+
+        stamp++;
+        if (stamp == 0) {
+            /**
+             * We wrapped around.  Clear the stamps so old values
+             * can't look valid.
+             */
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+
+    /**
+     * Get the entity this frame evaluates Nodes against.
+     */
+    Object getEntity() {
+        return(entity);
+    }
+
+
+    EntityAccessor getAccessor() {
+        return(accessor);
+    }
+
+
+    /**
+     * Get the Observations the and/or Nodes should record how
+     * their operands did in, or null if they should not record.
+     */
+    Observations getObservations() {
+        return(root.observations);
+    }
+
+
+    /**
+     * Set the Observations the and/or Nodes evaluated in this frame,
+     * (and the frames of its elements), record into.  Pass null to
+     * stop recording.
+     */
+    void setObservations(Observations observations) {
+        root.observations = observations;
+    }
+
+
+    /**
+     * Get the value bound to the BindParameter Node with the passed in
+     * index.  A parameter that has not been bound is null.
+     */
+    Object getParameter(int index) {
+
+        Object[] values = root.parameters;
+        return((index < values.length) ? values[index] : null);
+    }
+
+
+    /**
+     * Set the values of the BindParameter Nodes, by index.
+     * The array is not copied, so don't change it while it is
+     * being used.  The values of Nodes that have already been
+     * evaluated for the current record are not forgotten, so call
+     * this before begin().
+     */
+    void setParameters(Object[] parameters) {
+        root.parameters = (parameters == null) ? NO_PARAMETERS : parameters;
+    }
+
+
+    /**
+     * Get the EvaluationProfile every computed Node is recorded in,
+     * or null if Nodes should not be recorded.
+     */
+    EvaluationProfile getProfile() {
+        return(root.profile);
+    }
+
+
+    /**
+     * Set the EvaluationProfile the Nodes computed in this frame,
+     * (and the frames of its elements), are recorded in.
+     * Pass null to stop recording.
+     */
+    void setProfile(EvaluationProfile profile) {
+        root.profile = profile;
+    }
+
+
+    /**
+     * Get the value of the passed in Node for this frame's entity,
+     * evaluating it if it has not been evaluated yet.
+     */
+    Object value(Node node) {
+
+        Object value;
+        if (memo == null) {
+            int id = node.getId();
+            if (stamps[id] == stamp) {
+                value = values[id];
+            }
+            else {
+                value = compute(node);
+                values[id] = value;
+                stamps[id] = stamp;
+            }
+        }
+        else {
+            value = memo.get(node);
+            if (value == null) {
+                value = compute(node);
+                memo.put(node, (value == null) ? NULL : value);
+            }
+            else if (value == NULL) {
+                value = null;
+            }
+        }
+        return(value);
+    }
+
+
+    /**
+     * Compute the value of the passed in Node, recording it in
+     * the profile if there is one.
+     */
+    private Object compute(Node node) {
+
+        EvaluationProfile profile = root.profile;
+        if (profile == null) {
+            return(node.compute(this));
+        }
+
+        long start = System.nanoTime();
+        Object value = node.compute(this);
+        profile.record(node, value, System.nanoTime()-start);
+        return(value);
+    }
+
+
+    /**
+     * Get the value of a boolean Node.
+     */
+    boolean test(Node node) {
+        return(Boolean.TRUE.equals(value(node)));
+    }
+
+
+    /**
+     * Returns true if the value of the passed in Node has
+     * already been computed in this frame.
+     */
+    boolean isComputed(Node node) {
+
+        if (memo == null) {
+            return(stamps[node.getId()] == stamp);
+        }
+        return(memo.containsKey(node));
+    }
+
+
+    /**
+     * Set the value of a Node without evaluating it.
+     * This is used when the value is already known some other way.
+     * For example, the MultiQueryNetwork's equality index finds
+     * all the == comparisons on an attribute that are true with
+     * one hash lookup.
+     */
+    void setValue(Node node, Object value) {
+
+        if (memo == null) {
+            values[node.getId()] = value;
+            stamps[node.getId()] = stamp;
+        }
+        else {
+            memo.put(node, (value == null) ? NULL : value);
+        }
+    }
+
+
+    /**
+     * Get the frame for an element of a collection that a Node
+     * in this frame is iterating over.  The same frame is returned
+     * for the same element for the rest of the current record,
+     * so all the Nodes evaluated against that element are shared.
+     */
+    EvaluationFrame frameFor(Object element) {
+
+        if (element == root.entity) {
+            return(root);
+        }
+
+        EvaluationFrame frame = root.elementFrames.get(element);
+        if (frame == null) {
+            frame = new EvaluationFrame(root, element);
+            root.elementFrames.put(element, frame);
+        }
+        return(frame);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.Arrays;
+
+
+/**
+ * An EvaluationProfile records, for every Node, how many times it
+ * was computed, how many of those times it was true or false,
+ * how many times it was skipped because an and/or/any/all had
+ * already found its answer, and how long computing it took.
+ * The numbers are kept in arrays indexed by Node id.
+ *
+ * Unlike Observations, which only the and/or operands record into,
+ * every Node that an EvaluationFrame computes while a profile is
+ * set on it is recorded.  (See EvaluationFrame.setProfile().)
+ * A Node whose value was already in the frame's memo is not
+ * computed again, so it is not counted again.
+ *
+ * The nanos of a Node include the time it took to compute any of
+ * its inputs that had not been computed yet.  I.e. they are
+ * "inclusive", the same as the "actual time" of an SQL
+ * EXPLAIN ANALYZE.
+ *
+ * EvaluationProfile is not thread safe.
+ *
+ * @see QueryProfile
+ */
+final class EvaluationProfile {
+
+    private long[] invocations = new long[0];
+    private long[] passes = new long[0];
+    private long[] fails = new long[0];
+    private long[] skips = new long[0];
+    private long[] nanos = new long[0];
+
+
+    /**
+     * Record that a Node was computed.
+     *
+     * @param value The value the Node computed.  Only Boolean
+     * values are counted as passes or fails.
+     * @param elapsedNanos How long computing it took.
+     */
+    void record(Node node, Object value, long elapsedNanos) {
+
+        int id = grow(node);
+        invocations[id]++;
+        if (Boolean.TRUE.equals(value)) {
+            passes[id]++;
+        }
+        else if (Boolean.FALSE.equals(value)) {
+            fails[id]++;
+        }
+        nanos[id] += elapsedNanos;
+    }
+
+
+    /**
+     * Record that a Node was not computed because the and/or/any/all
+     * it is an operand of already knew its answer.
+     *
+     * @param count The number of times it was skipped.  E.g. the
+     * number of elements an "any" did not get to.
+     */
+    void recordSkip(Node node, long count) {
+
+        int id = grow(node);
+        skips[id] += count;
+    }
+
+
+    long getInvocations(Node node) {
+        return(get(invocations, node));
+    }
+
+
+    long getPasses(Node node) {
+        return(get(passes, node));
+    }
+
+
+    long getFails(Node node) {
+        return(get(fails, node));
+    }
+
+
+    long getSkips(Node node) {
+        return(get(skips, node));
+    }
+
+
+    long getNanos(Node node) {
+        return(get(nanos, node));
+    }
+
+
+    /**
+     * Forget everything.
+     */
+    void clear() {
+
+        Arrays.fill(invocations, 0);
+        Arrays.fill(passes, 0);
+        Arrays.fill(fails, 0);
+        Arrays.fill(skips, 0);
+        Arrays.fill(nanos, 0);
+    }
+
+
+    private static long get(long[] counts, Node node) {
+
+        int id = node.getId();
+        return((id < counts.length) ? counts[id] : 0);
+    }
+
+
+    /**
+     * Make the arrays big enough for the passed in Node,
+     * and return its id.
+     */
+    private int grow(Node node) {
+
+        int id = node.getId();
+        if (id >= invocations.length) {
+            int length = Math.max(id+1, invocations.length*2);
+            invocations = Arrays.copyOf(invocations, length);
+            passes = Arrays.copyOf(passes, length);
+            fails = Arrays.copyOf(fails, length);
+            skips = Arrays.copyOf(skips, length);
+            nanos = Arrays.copyOf(nanos, length);
+        }
+        return(id);
+    }
+}
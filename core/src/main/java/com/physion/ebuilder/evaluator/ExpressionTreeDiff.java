@@ -0,0 +1,426 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An ExpressionTreeDiff finds the parts of an ExpressionTree that
+ * changed when the user edited a saved query.  A result cache, (or
+ * an IncrementalView), can then keep the results of the branches
+ * that did not change, and only recompute the ones that did.
+ *
+ * Each subtree of both trees is given a number that identifies what
+ * it computes.  Two subtrees get the same number if they have the
+ * same operator and operands, or are the same attribute or literal.
+ * The operands of "and" and "or" can be in any order, so moving
+ * a row up or down in the GUI is not a change.  This is "hash
+ * consing", the same thing NodeCompiler does for Nodes, and it
+ * means comparing two subtrees is just comparing two numbers.
+ *
+ * Then we walk both trees from the root.  If two subtrees have the
+ * same number, nothing below them changed.  If they are the same
+ * operator with the same number of operands, we compare operand to
+ * operand.  For "and" and "or", operands that are unchanged, (even
+ * if they moved), are paired up first, and the remaining operands
+ * are paired in the order they appear.  Anything that can't be
+ * paired is a Change.
+ *
+ * So, the Changes are the smallest subtrees that are different.
+ * Their ancestors compute different values too, of course, but
+ * their other branches don't, and getUnchanged() has those.
+ */
+public final class ExpressionTreeDiff {
+
+    /**
+     * What happened to a subtree.
+     */
+    public enum Kind {
+
+        /**
+         * The subtree is only in the new tree.
+         * E.g. a row was added to an "All" row.
+         */
+        ADDED,
+
+        /**
+         * The subtree is only in the old tree.
+         */
+        REMOVED,
+
+        /**
+         * The subtree in the old tree was replaced by a
+         * different subtree in the new tree.
+         */
+        CHANGED
+    }
+
+
+    /**
+     * One changed subtree.
+     *
+     * A path is the list of operand indexes you follow from the
+     * root expression to get to the subtree.  The root's path is
+     * the empty list.
+     */
+    public static final class Change {
+
+        private final Kind kind;
+        private final List<Integer> oldPath;
+        private final List<Integer> newPath;
+        private final IExpression oldExpression;
+        private final IExpression newExpression;
+
+        Change(Kind kind, List<Integer> oldPath, List<Integer> newPath,
+               IExpression oldExpression, IExpression newExpression) {
+
+            this.kind = kind;
+            this.oldPath = (oldPath == null) ? null :
+                Collections.unmodifiableList(oldPath);
+            this.newPath = (newPath == null) ? null :
+                Collections.unmodifiableList(newPath);
+            this.oldExpression = oldExpression;
+            this.newExpression = newExpression;
+        }
+
+        public Kind getKind() {
+            return(kind);
+        }
+
+        /**
+         * Get the path of the subtree in the old tree.
+         * This is null for an ADDED subtree.
+         */
+        public List<Integer> getOldPath() {
+            return(oldPath);
+        }
+
+        /**
+         * Get the path of the subtree in the new tree.
+         * This is null for a REMOVED subtree.
+         */
+        public List<Integer> getNewPath() {
+            return(newPath);
+        }
+
+        /**
+         * This is null for an ADDED subtree.
+         */
+        public IExpression getOldExpression() {
+            return(oldExpression);
+        }
+
+        /**
+         * This is null for a REMOVED subtree.
+         */
+        public IExpression getNewExpression() {
+            return(newExpression);
+        }
+
+        public String toString() {
+            return(kind+" old="+oldPath+" new="+newPath);
+        }
+    }
+
+
+    /**
+     * The number of each distinct subtree key.
+     */
+    private final Map<String,Integer> ids = new HashMap<String,Integer>();
+
+    /**
+     * The number of each subtree of both trees.
+     */
+    private final Map<IExpression,Integer> expressionIds =
+        new IdentityHashMap<IExpression,Integer>();
+
+    private final List<Change> changes = new ArrayList<Change>();
+
+    /**
+     * The largest subtrees of the new tree that are unchanged,
+     * mapped to the subtree of the old tree they are the same as.
+     */
+    private final Map<IExpression,IExpression> unchanged =
+        new IdentityHashMap<IExpression,IExpression>();
+
+
+    /**
+     * Compare two versions of a query.
+     */
+    public ExpressionTreeDiff(ExpressionTree oldTree, ExpressionTree newTree) {
+
+        if ((oldTree == null) || (newTree == null)) {
+            throw(new IllegalArgumentException(
+                "oldTree and newTree must not be null."));
+        }
+
+        IExpression oldRoot = oldTree.getRootExpression();
+        IExpression newRoot = newTree.getRootExpression();
+        List<Integer> rootPath = Collections.emptyList();
+
+        String oldClass = oldTree.getClassUnderQualification();
+        String newClass = newTree.getClassUnderQualification();
+        if ((oldClass == null) ? (newClass != null) :
+            !oldClass.equals(newClass)) {
+            /**
+             * The same expression means something different
+             * for a different class, so everything changed.
+             */
+            changes.add(new Change(Kind.CHANGED, rootPath, rootPath,
+                                   oldRoot, newRoot));
+            return;
+        }
+
+        diff(oldRoot, newRoot, new ArrayList<Integer>(),
+             new ArrayList<Integer>());
+    }
+
+
+    /**
+     * Returns true if the two trees compute the same thing.
+     */
+    public boolean isIdentical() {
+        return(changes.isEmpty());
+    }
+
+
+    /**
+     * Get the smallest changed subtrees, in the order they
+     * were found, (which is a depth first walk of the trees).
+     */
+    public List<Change> getChanges() {
+        return(Collections.unmodifiableList(changes));
+    }
+
+
+    /**
+     * Get the largest subtrees of the new tree that did not change,
+     * each mapped to the subtree of the old tree it is the same as.
+     * A cache can look up the old subtree's result, and use it for
+     * the new subtree.  The map uses identity, not equals().
+     */
+    public Map<IExpression,IExpression> getUnchanged() {
+        return(Collections.unmodifiableMap(unchanged));
+    }
+
+
+    /**
+     * Compare a subtree of the old tree with a subtree of the new tree.
+     */
+    private void diff(IExpression oldExpression, IExpression newExpression,
+                      List<Integer> oldPath, List<Integer> newPath) {
+
+        if (idOf(oldExpression) == idOf(newExpression)) {
+            unchanged.put(newExpression, oldExpression);
+            return;
+        }
+
+        if (!(oldExpression instanceof IOperatorExpression) ||
+            !(newExpression instanceof IOperatorExpression)) {
+            changes.add(new Change(Kind.CHANGED, copy(oldPath), copy(newPath),
+                                   oldExpression, newExpression));
+            return;
+        }
+
+        IOperatorExpression oldOperator = (IOperatorExpression)oldExpression;
+        IOperatorExpression newOperator = (IOperatorExpression)newExpression;
+        String operatorName = oldOperator.getOperatorName();
+        List<IExpression> oldOperands = oldOperator.getOperandList();
+        List<IExpression> newOperands = newOperator.getOperandList();
+
+        if ((operatorName == null) ||
+            !operatorName.equals(newOperator.getOperatorName())) {
+            changes.add(new Change(Kind.CHANGED, copy(oldPath), copy(newPath),
+                                   oldExpression, newExpression));
+            return;
+        }
+
+        if (isUnordered(operatorName)) {
+            diffUnordered(oldOperands, newOperands, oldPath, newPath);
+        }
+        else if (oldOperands.size() == newOperands.size()) {
+            for (int index = 0; index < oldOperands.size(); index++) {
+                diffOperands(oldOperands, index, newOperands, index,
+                             oldPath, newPath);
+            }
+        }
+        else {
+            changes.add(new Change(Kind.CHANGED, copy(oldPath), copy(newPath),
+                                   oldExpression, newExpression));
+        }
+    }
+
+
+    /**
+     * Compare the operands of two "and"s or two "or"s.
+     */
+    private void diffUnordered(List<IExpression> oldOperands,
+                               List<IExpression> newOperands,
+                               List<Integer> oldPath, List<Integer> newPath) {
+
+        /**
+         * First, pair up the operands that didn't change.
+         * The values are the indexes of the old operands
+         * with each id that are not paired yet.
+         */
+        Map<Integer,List<Integer>> oldIndexes =
+            new HashMap<Integer,List<Integer>>();
+        for (int index = 0; index < oldOperands.size(); index++) {
+            Integer id = Integer.valueOf(idOf(oldOperands.get(index)));
+            List<Integer> list = oldIndexes.get(id);
+            if (list == null) {
+                list = new ArrayList<Integer>(1);
+                oldIndexes.put(id, list);
+            }
+            list.add(Integer.valueOf(index));
+        }
+
+        boolean[] oldPaired = new boolean[oldOperands.size()];
+        List<Integer> unpairedNew = new ArrayList<Integer>();
+        for (int index = 0; index < newOperands.size(); index++) {
+            List<Integer> list = oldIndexes.get(
+                Integer.valueOf(idOf(newOperands.get(index))));
+            if ((list != null) && !list.isEmpty()) {
+                int oldIndex = list.remove(0).intValue();
+                oldPaired[oldIndex] = true;
+                unchanged.put(newOperands.get(index),
+                              oldOperands.get(oldIndex));
+            }
+            else {
+                unpairedNew.add(Integer.valueOf(index));
+            }
+        }
+
+        /**
+         * Then pair up the rest in order.  (I.e. the user edited
+         * a row but didn't move it.)
+         */
+        int next = 0;
+        for (int oldIndex = 0; oldIndex < oldOperands.size(); oldIndex++) {
+            if (oldPaired[oldIndex]) {
+                continue;
+            }
+            if (next < unpairedNew.size()) {
+                int newIndex = unpairedNew.get(next++).intValue();
+                diffOperands(oldOperands, oldIndex, newOperands, newIndex,
+                             oldPath, newPath);
+            }
+            else {
+                changes.add(new Change(Kind.REMOVED,
+                    append(oldPath, oldIndex), null,
+                    oldOperands.get(oldIndex), null));
+            }
+        }
+
+        for (; next < unpairedNew.size(); next++) {
+            int newIndex = unpairedNew.get(next).intValue();
+            changes.add(new Change(Kind.ADDED, null,
+                append(newPath, newIndex), null, newOperands.get(newIndex)));
+        }
+    }
+
+
+    private void diffOperands(List<IExpression> oldOperands, int oldIndex,
+                              List<IExpression> newOperands, int newIndex,
+                              List<Integer> oldPath, List<Integer> newPath) {
+
+        oldPath.add(Integer.valueOf(oldIndex));
+        newPath.add(Integer.valueOf(newIndex));
+        diff(oldOperands.get(oldIndex), newOperands.get(newIndex),
+             oldPath, newPath);
+        oldPath.remove(oldPath.size()-1);
+        newPath.remove(newPath.size()-1);
+    }
+
+
+    /**
+     * Get the number that identifies what the passed in subtree
+     * computes.  Subtrees that compute the same thing get the
+     * same number.
+     */
+    private int idOf(IExpression expression) {
+
+        Integer id = expressionIds.get(expression);
+        if (id != null) {
+            return(id.intValue());
+        }
+
+        String key;
+        if (expression instanceof IOperatorExpression) {
+
+            IOperatorExpression operator = (IOperatorExpression)expression;
+            List<IExpression> operands = operator.getOperandList();
+            int[] operandIds = new int[operands.size()];
+            for (int index = 0; index < operandIds.length; index++) {
+                operandIds[index] = idOf(operands.get(index));
+            }
+            if (isUnordered(operator.getOperatorName())) {
+                Arrays.sort(operandIds);
+            }
+            key = "op:"+operator.getOperatorName()+Arrays.toString(operandIds);
+        }
+        else if (expression instanceof IAttributeExpression) {
+            key = "attr:"+((IAttributeExpression)expression).
+                getAttributeName();
+        }
+        else if (expression instanceof ITimeLiteralValueExpression) {
+            key = "time:"+((ITimeLiteralValueExpression)expression).
+                getEpochMillis();
+        }
+        else if (expression instanceof ILiteralValueExpression) {
+            key = expression.getClass().getName()+":"+
+                ((ILiteralValueExpression)expression).getValue();
+        }
+        else {
+            /**
+             * Something we don't know how to look inside of.
+             * It is only the same as itself.
+             */
+            key = "identity:"+ids.size();
+        }
+
+        id = ids.get(key);
+        if (id == null) {
+            id = Integer.valueOf(ids.size());
+            ids.put(key, id);
+        }
+        expressionIds.put(expression, id);
+        return(id.intValue());
+    }
+
+
+    private static boolean isUnordered(String operatorName) {
+        return(Translator.OE_AND.equals(operatorName) ||
+               Translator.OE_OR.equals(operatorName));
+    }
+
+
+    private static List<Integer> copy(List<Integer> path) {
+        return(new ArrayList<Integer>(path));
+    }
+
+
+    private static List<Integer> append(List<Integer> path, int index) {
+
+        List<Integer> copy = copy(path);
+        copy.add(Integer.valueOf(index));
+        return(copy);
+    }
+}
@@ -0,0 +1,1248 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.BooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.ClassLiteralValueExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.Float64LiteralValueExpression;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.IStringLiteralValueExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.expression.Int32LiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.StringLiteralValueExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.translator.Translator;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A FlatExpression is an ExpressionTree encoded as one int[] of
+ * instructions, in postfix order, plus a constant pool that holds
+ * the literals, attribute names, operator names, and the name of
+ * the Class Under Qualification.  E.g.
+ *
+ *      protocolID == "abc" and epochGroup.label == "Test 27"
+ *
+ * is encoded as:
+ *
+ *       0  ATTRIBUTE      protocolID
+ *       1  STRING         "abc"
+ *       2  COMPARE        ==
+ *       3  JUMP_IF_FALSE  8
+ *       4  ATTRIBUTE      epochGroup
+ *       5  DOT            label
+ *       6  STRING         "Test 27"
+ *       7  COMPARE        ==
+ *       8  AND            2
+ *
+ * A tree of OperatorExpression objects is a few kilobytes of small
+ * objects and ArrayLists scattered around the heap, and evaluating
+ * it chases a pointer for every operand.  A FlatExpression is a few
+ * hundred bytes in two arrays, so it is what should be kept in a
+ * cache, (it has equals() and hashCode(), and toByteArray() for
+ * caches that are not on the heap).  toExpressionTree() turns it
+ * back into exactly the tree it was created from.
+ *
+ * Each instruction is one int.  The low 8 bits are the opcode, and
+ * the rest is its argument, (a constant pool index, an operand count,
+ * or the index of another instruction).  The only instruction that
+ * takes two ints is CALL, whose second int is the pool index of the
+ * operator's name.
+ *
+ * The and/or operators short circuit, the same as a Junction Node
+ * does.  Each of their operands, except the last, is followed by a
+ * JUMP_IF_FALSE, (or JUMP_IF_TRUE), to the instruction after the
+ * AND, (or OR).  The any/all operators are a loop.  ITERATE takes
+ * the collection and starts the loop, and the ANY or ALL at the end
+ * of the condition's instructions either finishes the loop or jumps
+ * back to the start of the condition with the next element.  Those
+ * jumps are only for the interpreter.  toExpressionTree() ignores
+ * them.
+ *
+ * Expressions are evaluated by an Interpreter, (see interpreter()),
+ * with exactly the semantics of the Nodes a NodeCompiler would
+ * compile the tree into, but without the memo of an EvaluationFrame.
+ * That makes it the better choice for a single query applied to
+ * many entities, and the MultiQueryNetwork the better choice for
+ * many queries that share attribute paths.
+ *
+ * FlatExpression objects are immutable and thread safe.
+ * An Interpreter is not thread safe.
+ */
+public final class FlatExpression {
+
+    private static final Histogram ENCODED_BYTES =
+        Metrics.histogram("evaluator.flatExpression.encodedBytes");
+
+    /**
+     * The version written at the start of toByteArray().
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The opcodes.
+     */
+    static final int THIS = 0;
+    static final int ATTRIBUTE = 1;
+    static final int INT32 = 2;
+    static final int FLOAT64 = 3;
+    static final int BOOLEAN = 4;
+    static final int STRING = 5;
+    static final int TIME = 6;
+    static final int CLASS = 7;
+    static final int DOT = 8;
+    static final int AS = 9;
+    static final int ELEMENTS_OF_TYPE = 10;
+    static final int COUNT = 11;
+    static final int IS_NULL = 12;
+    static final int NOT = 13;
+    static final int PARAMETER = 14;
+    static final int COMPARE = 15;
+    static final int CALL = 16;
+    static final int AND = 17;
+    static final int OR = 18;
+    static final int JUMP_IF_FALSE = 19;
+    static final int JUMP_IF_TRUE = 20;
+    static final int ITERATE = 21;
+    static final int ANY = 22;
+    static final int ALL = 23;
+
+    private static final String[] OPCODE_NAMES = {"THIS", "ATTRIBUTE",
+        "INT32", "FLOAT64", "BOOLEAN", "STRING", "TIME", "CLASS", "DOT",
+        "AS", "ELEMENTS_OF_TYPE", "COUNT", "IS_NULL", "NOT", "PARAMETER",
+        "COMPARE", "CALL", "AND", "OR", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+        "ITERATE", "ANY", "ALL"};
+
+    private static final int OPCODE_BITS = 8;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS)-1;
+    private static final int MAX_ARGUMENT = (1 << (32-OPCODE_BITS))-1;
+
+    /**
+     * The tags of the constant pool entries in toByteArray().
+     */
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INTEGER = 2;
+    private static final int TAG_DOUBLE = 3;
+    private static final int TAG_TIME = 4;
+
+    private final int[] code;
+    private final Object[] pool;
+    private final int classUnderQualificationIndex;
+
+    /**
+     * What the interpreter needs that can be worked out once, when
+     * the FlatExpression is created.  The comparison for each
+     * COMPARE instruction, (with its pattern already compiled if
+     * it is a regular expression of a literal), the type mask for
+     * each AS and ELEMENTS_OF_TYPE instruction, and how deep the
+     * value and loop stacks get.
+     */
+    private final Node.Compare[] comparisons;
+    private final int[] typeMasks;
+    private final int maxStackDepth;
+    private final int maxLoopDepth;
+
+
+    /**
+     * @throws IllegalArgumentException if the instructions are not a
+     * well formed expression, (e.g. they were read from a corrupt
+     * cache entry).
+     */
+    private FlatExpression(int[] code, Object[] pool,
+                           int classUnderQualificationIndex) {
+
+        this.code = code;
+        this.pool = pool;
+        this.classUnderQualificationIndex = classUnderQualificationIndex;
+        if (!(constant(classUnderQualificationIndex) instanceof String)) {
+            throw(new IllegalArgumentException(
+                "The Class Under Qualification is not a String."));
+        }
+
+        comparisons = new Node.Compare[code.length];
+        typeMasks = new int[code.length];
+
+        int depth = 0;
+        int maxDepth = 0;
+        int loopDepth = 0;
+        int maxLoops = 0;
+
+        /**
+         * Where the instruction before this one starts.  A CALL is
+         * two words, so this is not always pc-1.
+         */
+        int previousStart = -1;
+        for (int pc = 0; pc < code.length; pc++) {
+
+            int start = pc;
+            int opcode = code[pc] & OPCODE_MASK;
+            int argument = code[pc] >>> OPCODE_BITS;
+            int pops;
+            int pushes = 1;
+
+            switch (opcode) {
+                case THIS:
+                case BOOLEAN:
+                    pops = 0;
+                    break;
+                case ATTRIBUTE:
+                case STRING:
+                case CLASS:
+                    pops = 0;
+                    checkConstant(argument, String.class);
+                    break;
+                case INT32:
+                    pops = 0;
+                    checkConstant(argument, Integer.class);
+                    break;
+                case FLOAT64:
+                    pops = 0;
+                    checkConstant(argument, Double.class);
+                    break;
+                case TIME:
+                    pops = 0;
+                    checkConstant(argument, DateTime.class);
+                    break;
+                case DOT:
+                    pops = 1;
+                    checkConstant(argument, String.class);
+                    break;
+                case AS:
+                case ELEMENTS_OF_TYPE:
+                    pops = 1;
+                    checkConstant(argument, String.class);
+                    typeMasks[pc] = Values.typeMask((String)pool[argument]);
+                    break;
+                case COUNT:
+                case IS_NULL:
+                case NOT:
+                    pops = 1;
+                    break;
+                case PARAMETER:
+                    pops = 2;
+                    break;
+                case COMPARE:
+                    pops = 2;
+                    checkConstant(argument, String.class);
+                    String operatorName = (String)pool[argument];
+                    if (!NodeCompiler.isComparison(operatorName)) {
+                        throw(new IllegalArgumentException("\""+
+                            operatorName+"\" is not a comparison."));
+                    }
+                    /**
+                     * Let the Compare Node do the comparing, so we
+                     * compare exactly the way it does.  If the right
+                     * operand is a literal, give it a Literal Node,
+                     * so it compiles a regular expression once.
+                     */
+                    Node right = null;
+                    int previous = (previousStart >= 0) ?
+                        (code[previousStart] & OPCODE_MASK) : -1;
+                    if ((previous == STRING) || (previous == INT32) ||
+                        (previous == FLOAT64) || (previous == TIME)) {
+                        right = new Node.Literal(0, "",
+                            pool[code[previousStart] >>> OPCODE_BITS]);
+                    }
+                    comparisons[pc] = new Node.Compare(0, "", operatorName,
+                                                       null, right);
+                    break;
+                case CALL:
+                    pops = argument;
+                    if (pc+1 >= code.length) {
+                        throw(new IllegalArgumentException(
+                            "CALL is missing its operator name."));
+                    }
+                    checkConstant(code[++pc], String.class);
+                    break;
+                case AND:
+                case OR:
+                    /**
+                     * The JUMPs after the other operands already
+                     * popped their values.
+                     */
+                    pops = (argument == 0) ? 0 : 1;
+                    break;
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE:
+                    pops = 1;
+                    pushes = 0;
+                    int target = (opcode == JUMP_IF_FALSE) ? AND : OR;
+                    if ((argument <= pc) || (argument >= code.length) ||
+                        ((code[argument] & OPCODE_MASK) != target)) {
+                        throw(new IllegalArgumentException("The "+
+                            OPCODE_NAMES[opcode]+" at "+pc+
+                            " does not jump to an "+OPCODE_NAMES[target]+
+                            "."));
+                    }
+                    break;
+                case ITERATE:
+                    pops = 1;
+                    pushes = 0;
+                    if ((argument <= pc) || (argument >= code.length) ||
+                        (((code[argument] & OPCODE_MASK) != ANY) &&
+                         ((code[argument] & OPCODE_MASK) != ALL)) ||
+                        ((code[argument] >>> OPCODE_BITS) != pc)) {
+                        throw(new IllegalArgumentException("The ITERATE at "+
+                            pc+" does not end at an ANY or ALL."));
+                    }
+                    loopDepth++;
+                    maxLoops = Math.max(maxLoops, loopDepth);
+                    break;
+                case ANY:
+                case ALL:
+                    pops = 1;
+                    if ((argument >= pc) ||
+                        ((code[argument] & OPCODE_MASK) != ITERATE)) {
+                        throw(new IllegalArgumentException("The "+
+                            OPCODE_NAMES[opcode]+" at "+pc+
+                            " does not start at an ITERATE."));
+                    }
+                    loopDepth--;
+                    break;
+                default:
+                    throw(new IllegalArgumentException("Unknown opcode "+
+                        opcode+" at "+pc+"."));
+            }
+
+            if (depth < pops) {
+                throw(new IllegalArgumentException("The "+
+                    OPCODE_NAMES[opcode]+" at "+pc+" has too few operands."));
+            }
+            depth += pushes-pops;
+            maxDepth = Math.max(maxDepth, depth);
+            previousStart = start;
+        }
+
+        if ((depth != 1) || (loopDepth != 0) ||
+            ((code[code.length-1] & OPCODE_MASK) < DOT)) {
+            throw(new IllegalArgumentException(
+                "The instructions are not one expression."));
+        }
+
+        maxStackDepth = maxDepth;
+        maxLoopDepth = maxLoops;
+    }
+
+
+    private Object constant(int index) {
+
+        if ((index < 0) || (index >= pool.length)) {
+            throw(new IllegalArgumentException("Constant pool index "+
+                index+" is out of range."));
+        }
+        return(pool[index]);
+    }
+
+
+    private void checkConstant(int index, Class<?> type) {
+
+        if (!type.isInstance(constant(index))) {
+            throw(new IllegalArgumentException("Constant pool entry "+
+                index+" is not a "+type.getSimpleName()+"."));
+        }
+    }
+
+
+    /**
+     * Encode the passed in tree.
+     *
+     * @throws IllegalArgumentException if the tree contains something
+     * the evaluator does not understand.  E.g. a "." operator whose
+     * right operand is not an AttributeExpression.
+     */
+    public static FlatExpression encode(ExpressionTree expressionTree) {
+
+        if ((expressionTree == null) ||
+            (expressionTree.getRootExpression() == null)) {
+            throw(new IllegalArgumentException(
+                "expressionTree must not be null, and must have a root."));
+        }
+        if (expressionTree.getClassUnderQualification() == null) {
+            throw(new IllegalArgumentException(
+                "The Class Under Qualification must not be null."));
+        }
+
+        Encoder encoder = new Encoder();
+        int classUnderQualificationIndex = encoder.constant(
+            expressionTree.getClassUnderQualification());
+        encoder.encode(expressionTree.getRootExpression());
+        return(new FlatExpression(encoder.code(),
+                                  encoder.pool.toArray(),
+                                  classUnderQualificationIndex));
+    }
+
+
+    /**
+     * Turn this back into the ExpressionTree it was encoded from.
+     * (A new tree is created every time this is called.)
+     */
+    public ExpressionTree toExpressionTree() {
+
+        List<IExpression> stack = new ArrayList<IExpression>();
+        for (int pc = 0; pc < code.length; pc++) {
+
+            int opcode = code[pc] & OPCODE_MASK;
+            int argument = code[pc] >>> OPCODE_BITS;
+            Object constant = ((argument < pool.length) ? pool[argument] :
+                               null);
+
+            switch (opcode) {
+                case THIS:
+                    stack.add(new AttributeExpression(Translator.AE_THIS));
+                    break;
+                case ATTRIBUTE:
+                    stack.add(new AttributeExpression((String)constant));
+                    break;
+                case INT32:
+                    stack.add(new Int32LiteralValueExpression(
+                        ((Integer)constant).intValue()));
+                    break;
+                case FLOAT64:
+                    stack.add(new Float64LiteralValueExpression(
+                        ((Double)constant).doubleValue()));
+                    break;
+                case BOOLEAN:
+                    stack.add(new BooleanLiteralValueExpression(
+                        Boolean.valueOf(argument != 0)));
+                    break;
+                case STRING:
+                    stack.add(new StringLiteralValueExpression(
+                        (String)constant));
+                    break;
+                case TIME:
+                    stack.add(new TimeLiteralValueExpression(
+                        (DateTime)constant));
+                    break;
+                case CLASS:
+                    stack.add(new ClassLiteralValueExpression(
+                        (String)constant));
+                    break;
+                case DOT:
+                    stack.add(operator(Translator.OE_DOT, pop(stack, 1)[0],
+                        new AttributeExpression((String)constant)));
+                    break;
+                case AS:
+                case ELEMENTS_OF_TYPE:
+                    stack.add(operator((opcode == AS) ? Translator.OE_AS :
+                        Translator.OE_ELEMENTS_OF_TYPE, pop(stack, 1)[0],
+                        new ClassLiteralValueExpression((String)constant)));
+                    break;
+                case COUNT:
+                    stack.add(operator(Translator.OE_COUNT, pop(stack, 1)));
+                    break;
+                case IS_NULL:
+                    stack.add(operator(Translator.OE_IS_NULL, pop(stack, 1)));
+                    break;
+                case NOT:
+                    stack.add(operator(Translator.OE_NOT, pop(stack, 1)));
+                    break;
+                case PARAMETER:
+                    stack.add(operator(Translator.OE_PARAMETER,
+                                       pop(stack, 2)));
+                    break;
+                case COMPARE:
+                    stack.add(operator((String)constant, pop(stack, 2)));
+                    break;
+                case CALL:
+                    stack.add(operator((String)pool[code[++pc]],
+                                       pop(stack, argument)));
+                    break;
+                case AND:
+                case OR:
+                    stack.add(operator((opcode == AND) ? Translator.OE_AND :
+                        Translator.OE_OR, pop(stack, argument)));
+                    break;
+                case ANY:
+                case ALL:
+                    stack.add(operator((opcode == ANY) ? Translator.OE_ANY :
+                        Translator.OE_ALL, pop(stack, 2)));
+                    break;
+                default:
+                    /**
+                     * The JUMPs and ITERATE are only for the
+                     * interpreter.
+                     */
+                    break;
+            }
+        }
+
+        return(new ExpressionTree(getClassUnderQualification(),
+                                  (IOperatorExpression)stack.get(0)));
+    }
+
+
+    /**
+     * Remove the last count expressions from the stack and return
+     * them in the order they were pushed.
+     */
+    private static IExpression[] pop(List<IExpression> stack, int count) {
+
+        List<IExpression> top = stack.subList(stack.size()-count,
+                                              stack.size());
+        IExpression[] operands = top.toArray(new IExpression[count]);
+        top.clear();
+        return(operands);
+    }
+
+
+    private static OperatorExpression operator(String operatorName,
+                                               IExpression... operands) {
+        return(new OperatorExpression(operatorName,
+            new ArrayList<IExpression>(Arrays.asList(operands))));
+    }
+
+
+    public String getClassUnderQualification() {
+        return((String)pool[classUnderQualificationIndex]);
+    }
+
+
+    /**
+     * Get the number of ints of instructions.
+     */
+    public int getCodeLength() {
+        return(code.length);
+    }
+
+
+    /**
+     * Get the number of entries in the constant pool.
+     */
+    public int getConstantPoolSize() {
+        return(pool.length);
+    }
+
+
+    /**
+     * Get a listing of the instructions, one per line, like the
+     * one in the class comment.  This is for debugging.
+     */
+    public String disassemble() {
+
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc++) {
+
+            int opcode = code[pc] & OPCODE_MASK;
+            int argument = code[pc] >>> OPCODE_BITS;
+            builder.append(String.format("%4d  %-16s ", pc,
+                                         OPCODE_NAMES[opcode]));
+            switch (opcode) {
+                case THIS:
+                case COUNT:
+                case IS_NULL:
+                case NOT:
+                case PARAMETER:
+                    break;
+                case BOOLEAN:
+                    builder.append(argument != 0);
+                    break;
+                case STRING:
+                    builder.append('"').append(pool[argument]).append('"');
+                    break;
+                case CALL:
+                    builder.append(pool[code[++pc]]).append(' ').
+                        append(argument);
+                    break;
+                case AND:
+                case OR:
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE:
+                case ITERATE:
+                case ANY:
+                case ALL:
+                    builder.append(argument);
+                    break;
+                default:
+                    builder.append(pool[argument]);
+                    break;
+            }
+            builder.append('\n');
+        }
+        return(builder.toString());
+    }
+
+
+    /**
+     * Get the bytes of this FlatExpression, e.g. to keep it in a
+     * cache that is not on the Java heap.  fromByteArray() turns
+     * them back into an equal FlatExpression.
+     */
+    public byte[] toByteArray() {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(classUnderQualificationIndex);
+            out.writeInt(code.length);
+            for (int instruction : code) {
+                out.writeInt(instruction);
+            }
+
+            out.writeInt(pool.length);
+            for (Object constant : pool) {
+                if (constant instanceof String) {
+                    out.writeByte(TAG_STRING);
+                    out.writeUTF((String)constant);
+                }
+                else if (constant instanceof Integer) {
+                    out.writeByte(TAG_INTEGER);
+                    out.writeInt(((Integer)constant).intValue());
+                }
+                else if (constant instanceof Double) {
+                    out.writeByte(TAG_DOUBLE);
+                    out.writeDouble(((Double)constant).doubleValue());
+                }
+                else {
+                    DateTime time = (DateTime)constant;
+                    out.writeByte(TAG_TIME);
+                    out.writeLong(time.getMillis());
+                    out.writeUTF(time.getZone().getID());
+                }
+            }
+            out.close();
+
+            ENCODED_BYTES.update(bytes.size());
+            return(bytes.toByteArray());
+        }
+        catch (IOException e) {
+            /**
+             * This can't happen, we are writing to memory.
+             */
+            throw(new IllegalStateException(e));
+        }
+    }
+
+
+    /**
+     * Read a FlatExpression from the bytes toByteArray() returned.
+     *
+     * @throws IllegalArgumentException if the bytes are not a
+     * FlatExpression.
+     */
+    public static FlatExpression fromByteArray(byte[] bytes) {
+
+        if (bytes == null) {
+            throw(new IllegalArgumentException("bytes must not be null."));
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes));
+
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw(new IllegalArgumentException("Unknown FlatExpression "+
+                    "format version: "+version));
+            }
+            int classUnderQualificationIndex = in.readInt();
+
+            int[] code = new int[checkLength(in.readInt(), bytes)];
+            for (int pc = 0; pc < code.length; pc++) {
+                code[pc] = in.readInt();
+            }
+
+            Object[] pool = new Object[checkLength(in.readInt(), bytes)];
+            for (int index = 0; index < pool.length; index++) {
+                int tag = in.readByte();
+                if (tag == TAG_STRING) {
+                    pool[index] = in.readUTF();
+                }
+                else if (tag == TAG_INTEGER) {
+                    pool[index] = Integer.valueOf(in.readInt());
+                }
+                else if (tag == TAG_DOUBLE) {
+                    pool[index] = Double.valueOf(in.readDouble());
+                }
+                else if (tag == TAG_TIME) {
+                    long millis = in.readLong();
+                    pool[index] = new DateTime(millis,
+                        DateTimeZone.forID(in.readUTF()));
+                }
+                else {
+                    throw(new IllegalArgumentException(
+                        "Unknown constant pool tag: "+tag));
+                }
+            }
+
+            return(new FlatExpression(code, pool,
+                                      classUnderQualificationIndex));
+        }
+        catch (IOException e) {
+            throw(new IllegalArgumentException(
+                "The bytes are not a FlatExpression.", e));
+        }
+    }
+
+
+    /**
+     * Don't let a corrupt length make us allocate a huge array.
+     */
+    private static int checkLength(int length, byte[] bytes) {
+
+        if ((length < 0) || (length > bytes.length)) {
+            throw(new IllegalArgumentException("Bad length: "+length));
+        }
+        return(length);
+    }
+
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (!(object instanceof FlatExpression)) {
+            return(false);
+        }
+        FlatExpression other = (FlatExpression)object;
+        return((classUnderQualificationIndex ==
+                other.classUnderQualificationIndex) &&
+               Arrays.equals(code, other.code) &&
+               Arrays.equals(pool, other.pool));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return((31*Arrays.hashCode(code))+Arrays.hashCode(pool));
+    }
+
+
+    @Override
+    public String toString() {
+        return("FlatExpression("+getClassUnderQualification()+", "+
+               code.length+" instructions, "+pool.length+" constants)");
+    }
+
+
+    /**
+     * Create an Interpreter that evaluates this expression against
+     * entities read with the passed in accessor.
+     */
+    public Interpreter interpreter(EntityAccessor accessor) {
+        return(new Interpreter(this, accessor));
+    }
+
+
+    /**
+     * Builds the instructions and the constant pool for encode().
+     */
+    private static final class Encoder {
+
+        private int[] code = new int[64];
+        private int length;
+        private final List<Object> pool = new ArrayList<Object>();
+        private final Map<Object,Integer> poolIndexes =
+            new HashMap<Object,Integer>();
+
+
+        int[] code() {
+            return(Arrays.copyOf(code, length));
+        }
+
+
+        /**
+         * Get the pool index of the passed in constant, adding it
+         * to the pool if it is not there yet.  Equal constants share
+         * one entry.  (An Integer 27 and a Double 27.0 are not equal.)
+         */
+        int constant(Object value) {
+
+            if (value == null) {
+                throw(new IllegalArgumentException(
+                    "A literal, attribute name, or operator name is null."));
+            }
+
+            Integer index = poolIndexes.get(value);
+            if (index == null) {
+                index = Integer.valueOf(pool.size());
+                pool.add(value);
+                poolIndexes.put(value, index);
+            }
+            return(index.intValue());
+        }
+
+
+        /**
+         * Append an instruction and return its index.
+         */
+        int emit(int opcode, int argument) {
+
+            if ((argument < 0) || (argument > MAX_ARGUMENT)) {
+                throw(new IllegalArgumentException("The expression is "+
+                    "too big to encode."));
+            }
+            return(emitWord(opcode | (argument << OPCODE_BITS)));
+        }
+
+
+        private int emitWord(int word) {
+
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length*2);
+            }
+            code[length] = word;
+            return(length++);
+        }
+
+
+        /**
+         * Change the argument of an already emitted instruction.
+         */
+        void patch(int pc, int argument) {
+
+            if (argument > MAX_ARGUMENT) {
+                throw(new IllegalArgumentException("The expression is "+
+                    "too big to encode."));
+            }
+            code[pc] = (code[pc] & OPCODE_MASK) | (argument << OPCODE_BITS);
+        }
+
+
+        void encode(IExpression expression) {
+
+            if (expression instanceof IAttributeExpression) {
+
+                String name = ((IAttributeExpression)expression).
+                    getAttributeName();
+                if (Translator.AE_THIS.equals(name)) {
+                    emit(THIS, 0);
+                }
+                else {
+                    emit(ATTRIBUTE, constant(name));
+                }
+            }
+            else if (expression instanceof IInt32LiteralValueExpression) {
+                emit(INT32, constant(Integer.valueOf(
+                    ((IInt32LiteralValueExpression)expression).
+                    getIntValue())));
+            }
+            else if (expression instanceof IFloat64LiteralValueExpression) {
+                emit(FLOAT64, constant(Double.valueOf(
+                    ((IFloat64LiteralValueExpression)expression).
+                    getDoubleValue())));
+            }
+            else if (expression instanceof IBooleanLiteralValueExpression) {
+                emit(BOOLEAN, ((IBooleanLiteralValueExpression)expression).
+                     getBooleanValue() ? 1 : 0);
+            }
+            else if (expression instanceof ITimeLiteralValueExpression) {
+                emit(TIME, constant(((ITimeLiteralValueExpression)
+                                     expression).getTimeValue()));
+            }
+            else if (expression instanceof IStringLiteralValueExpression) {
+                emit(STRING, constant(((ILiteralValueExpression)expression).
+                                      getValue()));
+            }
+            else if (expression instanceof IClassLiteralValueExpression) {
+                emit(CLASS, constant(((ILiteralValueExpression)expression).
+                                     getValue()));
+            }
+            else if (expression instanceof IOperatorExpression) {
+                operator((IOperatorExpression)expression);
+            }
+            else {
+                throw(new IllegalArgumentException("Unhandled IExpression "+
+                    "type: "+((expression == null) ? "null" :
+                              expression.getClass().getName())));
+            }
+        }
+
+
+        private void operator(IOperatorExpression expression) {
+
+            String name = expression.getOperatorName();
+            List<IExpression> operands = expression.getOperandList();
+
+            if (Translator.OE_AND.equals(name) ||
+                Translator.OE_OR.equals(name)) {
+
+                boolean and = Translator.OE_AND.equals(name);
+                List<Integer> jumps = new ArrayList<Integer>();
+                for (int index = 0; index < operands.size(); index++) {
+                    encode(operands.get(index));
+                    if (index < operands.size()-1) {
+                        jumps.add(Integer.valueOf(emit(
+                            and ? JUMP_IF_FALSE : JUMP_IF_TRUE, 0)));
+                    }
+                }
+                int end = emit(and ? AND : OR, operands.size());
+                for (Integer jump : jumps) {
+                    patch(jump.intValue(), end);
+                }
+            }
+            else if (Translator.OE_NOT.equals(name) ||
+                     Translator.OE_COUNT.equals(name) ||
+                     Translator.OE_IS_NULL.equals(name)) {
+
+                checkOperandCount(expression, 1);
+                encode(operands.get(0));
+                emit(Translator.OE_NOT.equals(name) ? NOT :
+                     (Translator.OE_COUNT.equals(name) ? COUNT : IS_NULL), 0);
+            }
+            else if (Translator.OE_ANY.equals(name) ||
+                     Translator.OE_ALL.equals(name)) {
+
+                checkOperandCount(expression, 2);
+                encode(operands.get(0));
+                int start = emit(ITERATE, 0);
+                encode(operands.get(1));
+                int end = emit(Translator.OE_ALL.equals(name) ? ALL : ANY,
+                               start);
+                patch(start, end);
+            }
+            else if (Translator.OE_DOT.equals(name)) {
+
+                checkOperandCount(expression, 2);
+                if (!(operands.get(1) instanceof IAttributeExpression)) {
+                    throw(new IllegalArgumentException("The right operand "+
+                        "of the \".\" operator must be an "+
+                        "AttributeExpression.  It is: "+operands.get(1)));
+                }
+                encode(operands.get(0));
+                emit(DOT, constant(((IAttributeExpression)operands.get(1)).
+                                   getAttributeName()));
+            }
+            else if (Translator.OE_PARAMETER.equals(name)) {
+
+                checkOperandCount(expression, 2);
+                encode(operands.get(0));
+                encode(operands.get(1));
+                emit(PARAMETER, 0);
+            }
+            else if (Translator.OE_AS.equals(name) ||
+                     Translator.OE_ELEMENTS_OF_TYPE.equals(name)) {
+
+                checkOperandCount(expression, 2);
+                if (!(operands.get(1) instanceof
+                      IClassLiteralValueExpression)) {
+                    throw(new IllegalArgumentException("The right operand "+
+                        "of the \""+name+"\" operator must be a "+
+                        "ClassLiteralValueExpression.  It is: "+
+                        operands.get(1)));
+                }
+                encode(operands.get(0));
+                emit(Translator.OE_AS.equals(name) ? AS : ELEMENTS_OF_TYPE,
+                     constant(((ILiteralValueExpression)operands.get(1)).
+                              getValue()));
+            }
+            else if (NodeCompiler.isComparison(name)) {
+
+                checkOperandCount(expression, 2);
+                encode(operands.get(0));
+                encode(operands.get(1));
+                emit(COMPARE, constant(name));
+            }
+            else {
+                for (IExpression operand : operands) {
+                    encode(operand);
+                }
+                emit(CALL, operands.size());
+                emitWord(constant(name));
+            }
+        }
+
+
+        private static void checkOperandCount(IOperatorExpression expression,
+                                              int count) {
+
+            if (expression.getOperandList().size() != count) {
+                throw(new IllegalArgumentException("The \""+
+                    expression.getOperatorName()+"\" operator must have "+
+                    count+" operand(s).  It has "+
+                    expression.getOperandList().size()+"."));
+            }
+        }
+    }
+
+
+    /**
+     * Evaluates a FlatExpression against entities.  It is a loop
+     * over the instructions with a stack of values, so evaluating
+     * an entity creates no objects except the ones the accessor
+     * and the any/all iterators create.
+     */
+    public static final class Interpreter {
+
+        private final FlatExpression expression;
+        private final EntityAccessor accessor;
+
+        private final Object[] stack;
+
+        /**
+         * The iterators of the any/all loops we are in, and the
+         * entity each loop should go back to when it is done.
+         */
+        private final Iterator<?>[] iterators;
+        private final Object[] outerEntities;
+
+
+        private Interpreter(FlatExpression expression,
+                            EntityAccessor accessor) {
+
+            if (accessor == null) {
+                throw(new IllegalArgumentException(
+                    "accessor must not be null."));
+            }
+            this.expression = expression;
+            this.accessor = accessor;
+            this.stack = new Object[expression.maxStackDepth];
+            this.iterators = new Iterator<?>[expression.maxLoopDepth];
+            this.outerEntities = new Object[expression.maxLoopDepth];
+        }
+
+
+        /**
+         * Returns true if the passed in entity matches the expression.
+         */
+        public boolean matches(Object entity) {
+
+            if (entity == null) {
+                return(false);
+            }
+            return(Boolean.TRUE.equals(evaluate(entity)));
+        }
+
+
+        /**
+         * Get the value of the expression for the passed in entity.
+         */
+        Object evaluate(Object entity) {
+
+            int[] code = expression.code;
+            Object[] pool = expression.pool;
+            Object[] stack = this.stack;
+            int top = -1;
+            int loops = 0;
+            Object current = entity;
+
+            int pc = 0;
+            while (pc < code.length) {
+
+                int instruction = code[pc];
+                int argument = instruction >>> OPCODE_BITS;
+
+                switch (instruction & OPCODE_MASK) {
+                    case THIS:
+                        stack[++top] = current;
+                        break;
+                    case ATTRIBUTE:
+                        stack[++top] = attribute(current,
+                                                 (String)pool[argument]);
+                        break;
+                    case INT32:
+                    case FLOAT64:
+                    case STRING:
+                    case TIME:
+                    case CLASS:
+                        stack[++top] = pool[argument];
+                        break;
+                    case BOOLEAN:
+                        stack[++top] = Boolean.valueOf(argument != 0);
+                        break;
+                    case DOT:
+                        String name = (String)pool[argument];
+                        if (!Translator.AE_THIS.equals(name)) {
+                            stack[top] = attribute(stack[top], name);
+                        }
+                        break;
+                    case AS:
+                        if (!Values.isOfType(stack[top],
+                                             expression.typeMasks[pc])) {
+                            stack[top] = null;
+                        }
+                        break;
+                    case ELEMENTS_OF_TYPE:
+                        List<Object> elements = new ArrayList<Object>();
+                        for (Object element :
+                             Values.asCollection(stack[top])) {
+                            if (Values.isOfType(element,
+                                                expression.typeMasks[pc])) {
+                                elements.add(element);
+                            }
+                        }
+                        stack[top] = elements;
+                        break;
+                    case COUNT:
+                        stack[top] = Integer.valueOf(
+                            Values.asCollection(stack[top]).size());
+                        break;
+                    case IS_NULL:
+                        stack[top] = Boolean.valueOf(stack[top] == null);
+                        break;
+                    case NOT:
+                        stack[top] = Boolean.valueOf(
+                            !Boolean.TRUE.equals(stack[top]));
+                        break;
+                    case PARAMETER:
+                        top--;
+                        stack[top] = parameter(stack[top], stack[top+1]);
+                        break;
+                    case COMPARE:
+                        top--;
+                        stack[top] = Boolean.valueOf(
+                            expression.comparisons[pc].compare(stack[top],
+                                                               stack[top+1]));
+                        break;
+                    case CALL:
+                        Object[] values = Arrays.copyOfRange(stack,
+                            top+1-argument, top+1);
+                        top -= argument;
+                        stack[++top] = accessor.evaluateOperator(
+                            (String)pool[code[++pc]], values);
+                        break;
+                    case AND:
+                    case OR:
+                        if (argument == 0) {
+                            stack[++top] = Boolean.valueOf(
+                                (instruction & OPCODE_MASK) == AND);
+                        }
+                        else {
+                            stack[top] = Boolean.valueOf(
+                                Boolean.TRUE.equals(stack[top]));
+                        }
+                        break;
+                    case JUMP_IF_FALSE:
+                        if (!Boolean.TRUE.equals(stack[top])) {
+                            stack[top] = Boolean.FALSE;
+                            pc = argument+1;
+                            continue;
+                        }
+                        top--;
+                        break;
+                    case JUMP_IF_TRUE:
+                        if (Boolean.TRUE.equals(stack[top])) {
+                            pc = argument+1;
+                            continue;
+                        }
+                        top--;
+                        break;
+                    case ITERATE:
+                        Iterator<?> iterator = Values.asCollection(
+                            stack[top]).iterator();
+                        Object first = next(iterator);
+                        if (first == null) {
+                            /**
+                             * any() of nothing is false, and all()
+                             * of nothing is true.
+                             */
+                            stack[top] = Boolean.valueOf(
+                                (code[argument] & OPCODE_MASK) == ALL);
+                            pc = argument+1;
+                            continue;
+                        }
+                        top--;
+                        iterators[loops] = iterator;
+                        outerEntities[loops] = current;
+                        loops++;
+                        current = first;
+                        break;
+                    case ANY:
+                    case ALL:
+                        boolean all = ((instruction & OPCODE_MASK) == ALL);
+                        if (Boolean.TRUE.equals(stack[top]) == all) {
+                            Object element = next(iterators[loops-1]);
+                            if (element != null) {
+                                top--;
+                                current = element;
+                                pc = argument+1;
+                                continue;
+                            }
+                        }
+                        else {
+                            all = !all;
+                        }
+                        stack[top] = Boolean.valueOf(all);
+                        loops--;
+                        current = outerEntities[loops];
+                        iterators[loops] = null;
+                        outerEntities[loops] = null;
+                        break;
+                }
+                pc++;
+            }
+
+            /**
+             * Don't hold on to the entity's values.
+             */
+            Object value = stack[0];
+            Arrays.fill(stack, null);
+            return(value);
+        }
+
+
+        /**
+         * The same as an Attribute Node.
+         */
+        private Object attribute(Object entity, String attributeName) {
+
+            if (entity == null) {
+                return(null);
+            }
+            if (Translator.AE_VALUE.equals(attributeName) &&
+                Values.isPrimitive(entity)) {
+                return(entity);
+            }
+            return(accessor.getAttribute(entity, attributeName));
+        }
+
+
+        /**
+         * The same as a Parameter Node.
+         */
+        private Object parameter(Object mapValue, Object keyValue) {
+
+            if ((mapValue == null) || (keyValue == null)) {
+                return(null);
+            }
+            if (mapValue instanceof Map) {
+                return(((Map<?,?>)mapValue).get(keyValue));
+            }
+            return(accessor.evaluateOperator(Translator.OE_PARAMETER,
+                new Object[] {mapValue, keyValue}));
+        }
+
+
+        /**
+         * Get the next element that is not null, or null if there
+         * are no more.  (The any/all Nodes skip null elements.)
+         */
+        private static Object next(Iterator<?> iterator) {
+
+            while (iterator.hasNext()) {
+                Object element = iterator.next();
+                if (element != null) {
+                    return(element);
+                }
+            }
+            return(null);
+        }
+    }
+}
@@ -0,0 +1,651 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * An IncrementalView keeps the set of entities that match one
+ * ExpressionTree up to date as entities are inserted, updated, and
+ * deleted.  It is meant for things like a dashboard that shows the
+ * live set of Epochs that match a query.
+ *
+ * Instead of re-evaluating the query against every entity whenever
+ * something changes, the caller tells the view about each change,
+ * (a "delta"), and the view only re-evaluates what the change could
+ * affect:
+ *
+ *      insert(), update(), and delete() are for the entities the
+ *      query is about, (i.e. instances of the Class Under
+ *      Qualification).  Only that one entity is evaluated.
+ *
+ *      insertElement(), updateElement(), and deleteElement() are for
+ *      the elements of an entity's TO_MANY attributes.  E.g. a new
+ *      Response was added to an Epoch's responses.  For every
+ *      count(responses), any(responses, ...), and all(responses, ...)
+ *      in the query, the view keeps the number of elements, and the
+ *      number of elements that satisfy the any/all condition.  A
+ *      change to one element evaluates the condition against just
+ *      that element, adjusts the counts, and re-evaluates the query
+ *      for the one parent entity using the counts.  The rest of the
+ *      collection is never looked at again.  (None is not(any), so
+ *      it is maintained too.)
+ *
+ * So, the cost of a delta is proportional to the size of the delta
+ * and of the query, not to the number of entities in the view or
+ * the number of elements in a collection.
+ *
+ * The counts are only kept for any/all/count operators whose
+ * collection is an attribute of the query's entity, (e.g. responses,
+ * but not epochGroup.epochs or keywords(...)), and that are not
+ * inside another any/all.  Everything else is evaluated normally.
+ *
+ * Please note, the elements of a maintained collection are read
+ * from the entity when it is inserted.  After that, the view does
+ * not look at the collection again:  update() keeps the counts it
+ * has, and changes to the collection must be reported with the
+ * ...Element() methods.  (Or delete() and insert() the entity.)
+ *
+ * Entities are identified by the value of an id attribute,
+ * which is "uuid" unless you say otherwise.
+ *
+ * An IncrementalView is not thread safe.
+ */
+public class IncrementalView {
+
+    /**
+     * The attribute that identifies entities if the
+     * caller does not pass one to the constructor.
+     */
+    public static final String DEFAULT_ID_ATTRIBUTE = "uuid";
+
+    private static final Counter DELTAS =
+        Metrics.counter("evaluator.view.deltas");
+    private static final Counter ELEMENTS_SCANNED =
+        Metrics.counter("evaluator.view.elementsScanned");
+
+    private final EntityAccessor accessor;
+    private final String idAttribute;
+    private final String classUnderQualification;
+
+    private final NodeCompiler compiler = new NodeCompiler();
+    private final Node root;
+
+    /**
+     * The maintained any/all Nodes, grouped by the name of the
+     * attribute they iterate over.
+     */
+    private final Map<String,List<Node.Quantifier>> quantifiers =
+        new HashMap<String,List<Node.Quantifier>>();
+
+    /**
+     * The maintained count Nodes, grouped by the name of the
+     * attribute they count.
+     */
+    private final Map<String,List<Node.Count>> counts =
+        new HashMap<String,List<Node.Count>>();
+
+    /**
+     * What we know about each entity, by id.
+     */
+    private final Map<Object,EntityState> entities =
+        new HashMap<Object,EntityState>();
+
+    /**
+     * The ids of the matching entities, in the order they
+     * started matching.
+     */
+    private final Set<Object> matches = new LinkedHashSet<Object>();
+
+    private final EvaluationFrame frame;
+    private final EvaluationFrame elementFrame;
+
+    private final List<IncrementalViewListener> listeners =
+        new CopyOnWriteArrayList<IncrementalViewListener>();
+
+
+    /**
+     * Create an empty view of the entities that match the passed
+     * in ExpressionTree.  Entities are identified by their "uuid".
+     */
+    public IncrementalView(ExpressionTree expressionTree,
+                           EntityAccessor accessor) {
+        this(expressionTree, accessor, DEFAULT_ID_ATTRIBUTE);
+    }
+
+
+    /**
+     * Create an empty view of the entities that match the passed
+     * in ExpressionTree.
+     *
+     * @param idAttribute The name of the attribute whose value
+     * identifies an entity or element.
+     */
+    public IncrementalView(ExpressionTree expressionTree,
+                           EntityAccessor accessor,
+                           String idAttribute) {
+
+        if ((expressionTree == null) || (accessor == null) ||
+            (idAttribute == null)) {
+            throw(new IllegalArgumentException(
+                "expressionTree, accessor, and idAttribute must not "+
+                "be null."));
+        }
+
+        this.accessor = accessor;
+        this.idAttribute = idAttribute;
+        this.classUnderQualification =
+            expressionTree.getClassUnderQualification();
+        this.root = compiler.compile(expressionTree.getRootExpression());
+        this.frame = new EvaluationFrame(accessor);
+        this.elementFrame = new EvaluationFrame(accessor);
+
+        findMaintainedNodes(root);
+    }
+
+
+    public void addIncrementalViewListener(IncrementalViewListener listener) {
+        listeners.add(listener);
+    }
+
+
+    public void removeIncrementalViewListener(
+        IncrementalViewListener listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Get the ids of the entities that currently match the query.
+     * The returned set is read-only and changes as the view changes.
+     */
+    public Set<Object> getMatches() {
+        return(Collections.unmodifiableSet(matches));
+    }
+
+
+    /**
+     * Returns true if the entity with the passed in id is
+     * currently in the view and matches the query.
+     */
+    public boolean isMatch(Object id) {
+        return(matches.contains(id));
+    }
+
+
+    /**
+     * Get the number of elements the view thinks the entity's
+     * attribute has.  This is the value count(attributeName) has
+     * for that entity.  Returns -1 if the view does not maintain
+     * that attribute or doesn't know about that entity.
+     */
+    public int getElementCount(Object id, String attributeName) {
+
+        EntityState state = entities.get(id);
+        if (state == null) {
+            return(-1);
+        }
+        CollectionState collection = state.collections.get(attributeName);
+        return((collection != null) ? collection.size() : -1);
+    }
+
+
+    /**
+     * A new entity.  If the entity is not an instance of the
+     * query's Class Under Qualification, (or a subclass), it is
+     * ignored.  If the view already has an entity with the same id,
+     * this is the same as update().
+     */
+    public void insert(Object entity) {
+
+        DELTAS.increment();
+        if (!isOfClass(entity)) {
+            return;
+        }
+
+        Object id = getId(entity);
+        EntityState state = entities.get(id);
+        if ((state != null) && (state.entity != null)) {
+            update(entity);
+            return;
+        }
+
+        if (state == null) {
+            state = new EntityState();
+            entities.put(id, state);
+        }
+        state.entity = entity;
+
+        /**
+         * Read the maintained collections.  If elements were added
+         * before the entity itself, (state.collections is not empty),
+         * we already have the counts for those collections.
+         */
+        for (String attributeName : maintainedAttributes()) {
+            if (state.collections.containsKey(attributeName)) {
+                continue;
+            }
+            CollectionState collection = state.collection(attributeName);
+            Object value = accessor.getAttribute(entity, attributeName);
+            for (Object element : Values.asCollection(value)) {
+                ELEMENTS_SCANNED.increment();
+                if (element != null) {
+                    collection.put(getId(element), element);
+                }
+                else {
+                    collection.nulls++;
+                }
+            }
+        }
+
+        reevaluate(id, state);
+    }
+
+
+    /**
+     * An entity's own attributes changed.  The maintained
+     * collections are not re-read.  If the view does not know
+     * about the entity, this is the same as insert().
+     */
+    public void update(Object entity) {
+
+        DELTAS.increment();
+        Object id = getId(entity);
+        EntityState state = entities.get(id);
+        if ((state == null) || (state.entity == null)) {
+            insert(entity);
+            return;
+        }
+
+        state.entity = entity;
+        reevaluate(id, state);
+    }
+
+
+    /**
+     * An entity was deleted.
+     */
+    public void delete(Object id) {
+
+        DELTAS.increment();
+        EntityState state = entities.remove(id);
+        if ((state != null) && state.matched) {
+            setMatched(id, state, false);
+        }
+    }
+
+
+    /**
+     * An element was added to a TO_MANY attribute of an entity.
+     * If the attribute is not one the view maintains counts for,
+     * the entity is simply re-evaluated.
+     *
+     * @param parentId The id of the entity that has the attribute.
+     * @param attributeName The name of the attribute. E.g. "responses".
+     * @param element The new element.  A null element has no id,
+     * so it is never replaced.  It is removed by deleteElement()
+     * with a null elementId.
+     */
+    public void insertElement(Object parentId, String attributeName,
+                              Object element) {
+
+        DELTAS.increment();
+        EntityState state = stateFor(parentId);
+        if (isMaintained(attributeName)) {
+            CollectionState collection = state.collection(attributeName);
+            if (element != null) {
+                collection.put(getId(element), element);
+            }
+            else {
+                collection.nulls++;
+            }
+        }
+        reevaluate(parentId, state);
+    }
+
+
+    /**
+     * An element of a TO_MANY attribute of an entity changed.
+     */
+    public void updateElement(Object parentId, String attributeName,
+                              Object element) {
+        insertElement(parentId, attributeName, element);
+    }
+
+
+    /**
+     * An element was removed from a TO_MANY attribute of an entity.
+     * A null elementId removes one of the null elements.
+     */
+    public void deleteElement(Object parentId, String attributeName,
+                              Object elementId) {
+
+        DELTAS.increment();
+        EntityState state = stateFor(parentId);
+        if (isMaintained(attributeName)) {
+            CollectionState collection = state.collection(attributeName);
+            if (elementId != null) {
+                collection.remove(elementId);
+            }
+            else if (collection.nulls > 0) {
+                collection.nulls--;
+            }
+        }
+        reevaluate(parentId, state);
+    }
+
+
+    /**
+     * Find the any/all/count Nodes we can maintain counts for.
+     * We don't look inside the condition of an any/all, (whether
+     * we maintain it or not), because that is evaluated against
+     * the elements, not the entity.  E.g. the responses in
+     * any(epochGroup.epochs, any(responses, ...)) are the responses
+     * of the group's epochs.
+     */
+    private void findMaintainedNodes(Node node) {
+
+        if (node instanceof Node.Quantifier) {
+            Node.Quantifier quantifier = (Node.Quantifier)node;
+            String attributeName = getEntityAttribute(
+                quantifier.getCollection());
+            if (attributeName != null) {
+                List<Node.Quantifier> list = quantifiers.get(attributeName);
+                if (list == null) {
+                    list = new ArrayList<Node.Quantifier>();
+                    quantifiers.put(attributeName, list);
+                }
+                if (!list.contains(quantifier)) {
+                    list.add(quantifier);
+                }
+            }
+            else {
+                findMaintainedNodes(quantifier.getCollection());
+            }
+            return;
+        }
+        else if (node instanceof Node.Count) {
+            Node.Count count = (Node.Count)node;
+            String attributeName = getEntityAttribute(count.getInput());
+            if (attributeName != null) {
+                List<Node.Count> list = counts.get(attributeName);
+                if (list == null) {
+                    list = new ArrayList<Node.Count>();
+                    counts.put(attributeName, list);
+                }
+                if (!list.contains(count)) {
+                    list.add(count);
+                }
+                return;
+            }
+        }
+
+        for (Node child : node.getChildren()) {
+            findMaintainedNodes(child);
+        }
+    }
+
+
+    /**
+     * If the passed in Node is an attribute of the entity itself,
+     * (e.g. AttributeExpression(responses)), return the attribute's
+     * name.  Otherwise return null.
+     */
+    private static String getEntityAttribute(Node node) {
+
+        if ((node instanceof Node.Attribute) &&
+            (((Node.Attribute)node).getInput() instanceof Node.This)) {
+            return(((Node.Attribute)node).getAttributeName());
+        }
+        return(null);
+    }
+
+
+    private boolean isMaintained(String attributeName) {
+        return(quantifiers.containsKey(attributeName) ||
+               counts.containsKey(attributeName));
+    }
+
+
+    private Set<String> maintainedAttributes() {
+
+        Set<String> names = new LinkedHashSet<String>(quantifiers.keySet());
+        names.addAll(counts.keySet());
+        return(names);
+    }
+
+
+    /**
+     * Get the state of an entity, creating it if it is not there.
+     * (Elements can be reported before the entity they belong to.)
+     */
+    private EntityState stateFor(Object id) {
+
+        EntityState state = entities.get(id);
+        if (state == null) {
+            state = new EntityState();
+            entities.put(id, state);
+        }
+        return(state);
+    }
+
+
+    /**
+     * Evaluate the query for one entity, using the maintained
+     * counts instead of iterating over the maintained collections,
+     * and update the set of matches.
+     */
+    private void reevaluate(Object id, EntityState state) {
+
+        if (state.entity == null) {
+            /**
+             * We only know about some elements so far.
+             */
+            return;
+        }
+
+        frame.begin(state.entity, compiler.getNodeCount());
+
+        for (Map.Entry<String,CollectionState> entry :
+             state.collections.entrySet()) {
+
+            CollectionState collection = entry.getValue();
+            List<Node.Quantifier> quantifierList =
+                quantifiers.get(entry.getKey());
+            if (quantifierList != null) {
+                for (int index = 0; index < quantifierList.size(); index++) {
+                    Node.Quantifier quantifier = quantifierList.get(index);
+                    int satisfied = collection.satisfied[index];
+                    boolean value = quantifier.isAll() ?
+                        (satisfied == collection.elements.size()) :
+                        (satisfied > 0);
+                    frame.setValue(quantifier, Boolean.valueOf(value));
+                }
+            }
+
+            List<Node.Count> countList = counts.get(entry.getKey());
+            if (countList != null) {
+                for (Node.Count count : countList) {
+                    frame.setValue(count, Integer.valueOf(
+                        collection.size()));
+                }
+            }
+        }
+
+        boolean matched = frame.test(root);
+        if (matched != state.matched) {
+            setMatched(id, state, matched);
+        }
+    }
+
+
+    private void setMatched(Object id, EntityState state, boolean matched) {
+
+        state.matched = matched;
+        if (matched) {
+            matches.add(id);
+            for (IncrementalViewListener listener : listeners) {
+                listener.matchAdded(id, state.entity);
+            }
+        }
+        else {
+            matches.remove(id);
+            for (IncrementalViewListener listener : listeners) {
+                listener.matchRemoved(id);
+            }
+        }
+    }
+
+
+    private boolean isOfClass(Object entity) {
+
+        if (classUnderQualification == null) {
+            return(true);
+        }
+        return(MultiQueryNetwork.getClassNames(accessor, entity).
+               contains(classUnderQualification));
+    }
+
+
+    private Object getId(Object entity) {
+
+        Object id = accessor.getAttribute(entity, idAttribute);
+        if (id == null) {
+            throw(new IllegalArgumentException("The entity does not have "+
+                "a value for the id attribute \""+idAttribute+"\": "+
+                entity));
+        }
+        return(id);
+    }
+
+
+    /**
+     * What the view knows about one entity.
+     */
+    private final class EntityState {
+
+        /**
+         * The entity.  This is null if we have been told about some
+         * of its elements, but not about the entity itself yet.
+         */
+        private Object entity;
+
+        private boolean matched;
+
+        /**
+         * The maintained collections, by attribute name.
+         */
+        private final Map<String,CollectionState> collections =
+            new HashMap<String,CollectionState>();
+
+
+        CollectionState collection(String attributeName) {
+
+            CollectionState collection = collections.get(attributeName);
+            if (collection == null) {
+                collection = new CollectionState(
+                    quantifiers.get(attributeName));
+                collections.put(attributeName, collection);
+            }
+            return(collection);
+        }
+    }
+
+
+    /**
+     * The counts for one maintained collection of one entity.
+     */
+    private final class CollectionState {
+
+        /**
+         * The any/all Nodes on this attribute.  (Might be empty.)
+         */
+        private final List<Node.Quantifier> quantifierList;
+
+        /**
+         * For each element, whether it satisfies the condition of
+         * each of the quantifiers, so we know what to subtract when
+         * it changes or is removed.
+         */
+        private final Map<Object,boolean[]> elements =
+            new HashMap<Object,boolean[]>();
+
+        /**
+         * For each quantifier, the number of elements that
+         * satisfy its condition.
+         */
+        private final int[] satisfied;
+
+        /**
+         * The number of null elements.  An any/all skips them, (so
+         * an all is true if all the other elements satisfy it), but
+         * a count counts them.  (See Node.Quantifier and Node.Count.)
+         */
+        private int nulls;
+
+
+        CollectionState(List<Node.Quantifier> quantifierList) {
+
+            this.quantifierList = (quantifierList != null) ? quantifierList :
+                Collections.<Node.Quantifier>emptyList();
+            this.satisfied = new int[this.quantifierList.size()];
+        }
+
+
+        /**
+         * Add an element, or replace the element with the same id.
+         */
+        void put(Object elementId, Object element) {
+
+            remove(elementId);
+
+            boolean[] results = new boolean[quantifierList.size()];
+            if (results.length > 0) {
+                elementFrame.begin(element, compiler.getNodeCount());
+                for (int index = 0; index < results.length; index++) {
+                    results[index] = elementFrame.test(
+                        quantifierList.get(index).getCondition());
+                    if (results[index]) {
+                        satisfied[index]++;
+                    }
+                }
+            }
+            elements.put(elementId, results);
+        }
+
+
+        /**
+         * Get the number of elements, including the null ones.
+         */
+        int size() {
+            return(elements.size()+nulls);
+        }
+
+
+        void remove(Object elementId) {
+
+            boolean[] results = elements.remove(elementId);
+            if (results != null) {
+                for (int index = 0; index < results.length; index++) {
+                    if (results[index]) {
+                        satisfied[index]--;
+                    }
+                }
+            }
+        }
+    }
+}
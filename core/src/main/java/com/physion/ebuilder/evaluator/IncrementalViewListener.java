@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.EventListener;
+
+
+/**
+ * Implement this interface to be told when entities start
+ * or stop matching the query of an IncrementalView.
+ */
+public interface IncrementalViewListener
+    extends EventListener {
+
+    /**
+     * The entity with the passed in id now matches the query.
+     */
+    public void matchAdded(Object id, Object entity);
+
+    /**
+     * The entity with the passed in id no longer matches the
+     * query, or was deleted.
+     */
+    public void matchRemoved(Object id);
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.Map;
+
+
+/**
+ * This is an EntityAccessor for entities that are java.util.Map
+ * objects.  The keys of the map are the Attribute queryNames.
+ * The name of the entity's class is stored under the key
+ * CLASS_NAME_KEY.
+ *
+ * This is handy for testing, and for feeding the evaluator
+ * records that came from somewhere like a JSON document.
+ *
+ * Operators that are specific to the data model, (e.g. "keywords"),
+ * are looked up as attributes whose name is the operator name.
+ * E.g. mykeywords(this) returns the value stored under the
+ * key "mykeywords".  Operators that take a key, (e.g.
+ * properties("someKey", this)), return the value stored under
+ * the key "properties.someKey".
+ */
+public class MapEntityAccessor
+    implements EntityAccessor {
+
+    /**
+     * The key under which the entity's class name is stored.
+     */
+    public static final String CLASS_NAME_KEY = "class";
+
+
+    @Override
+    public String getClassName(Object entity) {
+
+        Object className = asMap(entity).get(CLASS_NAME_KEY);
+        return((className != null) ? className.toString() : null);
+    }
+
+
+    @Override
+    public Object getAttribute(Object entity, String attributeName) {
+
+        if (!(entity instanceof Map)) {
+            return(null);
+        }
+        return(((Map<?,?>)entity).get(attributeName));
+    }
+
+
+    /**
+     * Evaluate a data model specific operator by looking it up
+     * as an attribute of the entity operand.
+     * See the class comment for more details.
+     */
+    @Override
+    public Object evaluateOperator(String operatorName, Object[] operands) {
+
+        String key = null;
+        Object entity = null;
+        for (Object operand : operands) {
+            if (operand instanceof Map) {
+                entity = operand;
+            }
+            else if (operand instanceof String) {
+                key = (String)operand;
+            }
+        }
+
+        if (entity == null) {
+            return(null);
+        }
+
+        if (key == null) {
+            return(getAttribute(entity, operatorName));
+        }
+        else {
+            return(getAttribute(entity, operatorName+"."+key));
+        }
+    }
+
+
+    private static Map<?,?> asMap(Object entity) {
+
+        if (!(entity instanceof Map)) {
+            throw(new IllegalArgumentException(
+                "MapEntityAccessor only works with java.util.Map "+
+                "entities.  entity = "+entity));
+        }
+        return((Map<?,?>)entity);
+    }
+}
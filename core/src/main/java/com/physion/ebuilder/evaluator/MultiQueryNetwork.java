@@ -0,0 +1,660 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.metrics.Timer;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A MultiQueryNetwork evaluates many saved ExpressionTrees, (queries),
+ * against a stream of entities and tells you which queries each
+ * entity matches.
+ *
+ * Evaluating thousands of queries one at a time repeats the same
+ * work over and over: every query that looks at epochGroup.label
+ * dereferences epochGroup, and every query that contains
+ * protocolID == "abc" does that comparison.  This class is built
+ * like a Rete or discrimination network instead:
+ *
+ *      All the queries are compiled into one DAG of Nodes.  Identical
+ *      attribute paths, comparisons, and sub-expressions are the same
+ *      Node no matter how many queries contain them.  (See NodeCompiler.)
+ *
+ *      When an entity is evaluated, each Node is evaluated at most once,
+ *      and only if some query needs it.  (See EvaluationFrame.)
+ *
+ *      Queries that are identical are evaluated once, and all of their
+ *      ids are reported.
+ *
+ *      Most saved queries contain at least one == comparison that
+ *      must be true for the query to match.  (E.g. the
+ *      protocolID == "abc" in "All of: protocolID == "abc", ...".)
+ *      We call that comparison the query's "guard".  Guards on the
+ *      same attribute path are kept in a hash index keyed by the
+ *      literal value.  For each entity we evaluate each indexed path
+ *      once, do one hash lookup to find the guards that are true, and
+ *      only evaluate the queries whose guard is true.  Queries
+ *      that don't have a guard are always evaluated.
+ *
+ * So, the cost per entity grows with the number of distinct attribute
+ * paths and comparisons that are actually needed, (plus the number
+ * of queries that pass their guard), not with the total number of
+ * queries.
+ *
+ * A query is only evaluated against entities whose class is the
+ * query's Class Under Qualification, or a subclass of it.
+ *
+ * Every getSampleInterval()'th entity is a "sample".  For samples,
+ * the network records how often each operand of each and/or was
+ * true and how long it took, and it adds the values of the attribute
+ * paths the queries compare to literals to the AttributeStatistics
+ * of those paths.  optimize() uses those numbers to change the order
+ * in which the and/or Nodes evaluate their operands.  (See
+ * CostBasedOptimizer.)  The order of the rows in the queries'
+ * RowData trees is never changed.
+ *
+ * A MultiQueryNetwork is not thread safe.  Use one per thread,
+ * or synchronize.
+ *
+ * @see EntityAccessor
+ */
+public class MultiQueryNetwork {
+
+    private static final Timer MATCH_TIMER =
+        Metrics.timer("evaluator.network.match");
+    private static final Histogram CANDIDATES =
+        Metrics.histogram("evaluator.network.candidateQueries");
+    private static final Counter REORDERED =
+        Metrics.counter("evaluator.network.reorderedJunctions");
+
+    /**
+     * By default, every 64th entity is a sample.
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    private final EntityAccessor accessor;
+
+    private final NodeCompiler compiler = new NodeCompiler();
+
+    /**
+     * The queries, grouped by the name of their Class Under
+     * Qualification.
+     */
+    private final Map<String,QuerySet> querySets =
+        new HashMap<String,QuerySet>();
+
+    /**
+     * The Root of each query id.  This is a LinkedHashMap so
+     * getQueryIds() returns the ids in the order they were added.
+     */
+    private final Map<String,Root> rootsById =
+        new LinkedHashMap<String,Root>();
+
+    /**
+     * The frame we reuse for every entity we evaluate.
+     */
+    private final EvaluationFrame frame;
+
+    /**
+     * Incremented for every entity.  A Root whose stamp equals this
+     * has already been added to the list of candidates for the
+     * current entity.
+     */
+    private int matchStamp;
+
+    /**
+     * What was observed about the and/or operands in the samples.
+     */
+    private final Observations observations = new Observations();
+
+    private int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    /**
+     * The number of entities until the next sample.
+     */
+    private int untilSample = DEFAULT_SAMPLE_INTERVAL;
+
+
+    /**
+     * Create an empty network.
+     *
+     * @param accessor The object that knows how to get attribute
+     * values from the entities we will be asked to evaluate.
+     */
+    public MultiQueryNetwork(EntityAccessor accessor) {
+
+        if (accessor == null) {
+            throw(new IllegalArgumentException("accessor == null"));
+        }
+
+        this.accessor = accessor;
+        this.frame = new EvaluationFrame(accessor);
+    }
+
+
+    /**
+     * Add a query to the network.
+     *
+     * @param queryId The id that match() reports if an entity
+     * matches this query.
+     *
+     * @throws IllegalArgumentException if the queryId is already
+     * in the network, or if the tree contains something that cannot
+     * be evaluated.
+     */
+    public void addQuery(String queryId, ExpressionTree expressionTree) {
+
+        if ((queryId == null) || (expressionTree == null)) {
+            throw(new IllegalArgumentException(
+                "queryId and expressionTree must not be null."));
+        }
+        if (rootsById.containsKey(queryId)) {
+            throw(new IllegalArgumentException("There is already a "+
+                "query with the id: "+queryId));
+        }
+
+        Node node = compiler.compile(expressionTree.getRootExpression());
+        String className = expressionTree.getClassUnderQualification();
+
+        QuerySet querySet = querySets.get(className);
+        if (querySet == null) {
+            querySet = new QuerySet();
+            querySets.put(className, querySet);
+        }
+
+        Root root = querySet.roots.get(node);
+        if (root == null) {
+            root = new Root(node, querySet);
+            querySet.roots.put(node, root);
+            querySet.addRoot(root);
+        }
+        root.queryIds.add(queryId);
+        rootsById.put(queryId, root);
+
+        querySet.addStatistics(node);
+    }
+
+
+    /**
+     * Remove a query from the network.
+     *
+     * Please note, the Nodes the query used are not removed,
+     * because other queries might be using them.  If you remove
+     * a lot of queries, it is better to build a new network.
+     *
+     * @return true if the query was in the network.
+     */
+    public boolean removeQuery(String queryId) {
+
+        Root root = rootsById.remove(queryId);
+        if (root == null) {
+            return(false);
+        }
+
+        root.queryIds.remove(queryId);
+        if (root.queryIds.isEmpty()) {
+            root.querySet.roots.remove(root.node);
+            root.querySet.removeRoot(root);
+        }
+        return(true);
+    }
+
+
+    /**
+     * Get the ids of all the queries in the network.
+     */
+    public List<String> getQueryIds() {
+        return(new ArrayList<String>(rootsById.keySet()));
+    }
+
+
+    /**
+     * Get the number of distinct Nodes, (attribute paths,
+     * comparisons, and/or/not, etc.), in the network.  This is
+     * what the cost of evaluating an entity grows with.
+     */
+    public int getNodeCount() {
+        return(compiler.getNodeCount());
+    }
+
+
+    /**
+     * Get how often entities are sampled.  See setSampleInterval().
+     */
+    public int getSampleInterval() {
+        return(sampleInterval);
+    }
+
+
+    /**
+     * Set how often entities are sampled.  E.g. 64 means every 64th
+     * entity is a sample.  1 means every entity is a sample, and 0
+     * turns sampling off.
+     */
+    public void setSampleInterval(int sampleInterval) {
+
+        if (sampleInterval < 0) {
+            throw(new IllegalArgumentException("sampleInterval < 0"));
+        }
+        this.sampleInterval = sampleInterval;
+        this.untilSample = sampleInterval;
+    }
+
+
+    /**
+     * Get the statistics of an attribute path, (e.g. "epochGroup.label"),
+     * of the entities of the passed in class.  The network only keeps
+     * statistics for paths that its queries compare to a literal.
+     *
+     * @return null if there are no statistics for that path.
+     */
+    public AttributeStatistics getAttributeStatistics(String className,
+                                                      String path) {
+
+        QuerySet querySet = querySets.get(className);
+        if (querySet == null) {
+            return(null);
+        }
+        for (AttributeStatistics attributeStatistics :
+             querySet.statistics.values()) {
+            if (attributeStatistics.getPath().equals(path)) {
+                return(attributeStatistics);
+            }
+        }
+        return(null);
+    }
+
+
+    /**
+     * Change the order in which the and/or operators of the queries
+     * evaluate their operands, based on the statistics gathered from
+     * the samples so far, so the cheap operands that usually decide
+     * the answer are evaluated first.  This can be called as often
+     * as you like.  It doesn't change what any query matches.
+     *
+     * @return The number of and/or operators whose order changed.
+     */
+    public int optimize() {
+
+        Map<Node,AttributeStatistics> statistics =
+            new HashMap<Node,AttributeStatistics>();
+        List<Node> roots = new ArrayList<Node>();
+        for (QuerySet querySet : querySets.values()) {
+            for (Map.Entry<Node,AttributeStatistics> entry :
+                 querySet.statistics.entrySet()) {
+                if (!statistics.containsKey(entry.getKey())) {
+                    statistics.put(entry.getKey(), entry.getValue());
+                }
+            }
+            roots.addAll(querySet.roots.keySet());
+        }
+
+        int reordered = new CostBasedOptimizer(observations, statistics).
+            optimize(roots);
+        REORDERED.add(reordered);
+        return(reordered);
+    }
+
+
+    /**
+     * Get the ids of the queries that the passed in entity matches.
+     * The ids are in no particular order.
+     */
+    public List<String> match(Object entity) {
+
+        List<String> matches = new ArrayList<String>();
+        match(entity, matches);
+        return(matches);
+    }
+
+
+    /**
+     * Add the ids of the queries that the passed in entity matches
+     * to the passed in list.  This lets the caller reuse one list
+     * for a whole batch of entities.
+     */
+    public void match(Object entity, List<String> matches) {
+
+        if (entity == null) {
+            return;
+        }
+
+        Timer.Context context = MATCH_TIMER.start();
+        try {
+            matchProtected(entity, matches);
+        }
+        finally {
+            context.stop();
+        }
+    }
+
+
+    /**
+     * This does the real work for match().
+     */
+    private void matchProtected(Object entity, List<String> matches) {
+
+        frame.begin(entity, compiler.getNodeCount());
+        matchStamp++;
+
+        boolean sample = false;
+        if ((sampleInterval > 0) && (--untilSample <= 0)) {
+            untilSample = sampleInterval;
+            sample = true;
+        }
+        frame.setObservations(sample ? observations : null);
+
+        int candidates = 0;
+        for (String className : getClassNames(accessor, entity)) {
+
+            QuerySet querySet = querySets.get(className);
+            if (querySet == null) {
+                continue;
+            }
+
+            if (sample) {
+                for (Map.Entry<Node,AttributeStatistics> entry :
+                     querySet.statistics.entrySet()) {
+                    entry.getValue().add(frame.value(entry.getKey()));
+                }
+            }
+
+            /**
+             * First, the queries whose guards are true.
+             */
+            for (Map.Entry<Node,Map<Object,List<Node>>> entry :
+                 querySet.guardIndex.entrySet()) {
+
+                Object key = Values.indexKey(frame.value(entry.getKey()));
+                if (key == null) {
+                    continue;
+                }
+
+                List<Node> guards = entry.getValue().get(key);
+                if (guards == null) {
+                    continue;
+                }
+
+                for (Node guard : guards) {
+                    /**
+                     * We already know the guard is true, so
+                     * remember that so it isn't evaluated again.
+                     */
+                    frame.setValue(guard, Boolean.TRUE);
+                    for (Root root : querySet.guardedRoots.get(guard)) {
+                        candidates += evaluate(root, matches);
+                    }
+                }
+            }
+
+            /**
+             * Then the queries that don't have a guard.
+             */
+            for (Root root : querySet.unguardedRoots) {
+                candidates += evaluate(root, matches);
+            }
+        }
+
+        CANDIDATES.update(candidates);
+    }
+
+
+    /**
+     * Evaluate a query root against the current entity, unless
+     * it has already been evaluated for this entity.
+     *
+     * @return 1 if the root was evaluated, 0 if it was not.
+     */
+    private int evaluate(Root root, List<String> matches) {
+
+        if (root.stamp == matchStamp) {
+            return(0);
+        }
+        root.stamp = matchStamp;
+
+        if (frame.test(root.node)) {
+            matches.addAll(root.queryIds);
+        }
+        return(1);
+    }
+
+
+    /**
+     * Get the name of the entity's class, and the names of all
+     * of its superclasses, because a query on a superclass
+     * matches entities of a subclass.
+     */
+    static List<String> getClassNames(EntityAccessor accessor,
+                                      Object entity) {
+
+        List<String> names = new ArrayList<String>();
+        String className = accessor.getClassName(entity);
+        if (className == null) {
+            return(names);
+        }
+
+        names.add(className);
+        ClassDescription classDescription =
+            DataModel.getClassDescription(className);
+        if (classDescription != null) {
+            classDescription = classDescription.getParentClass();
+            while (classDescription != null) {
+                names.add(classDescription.getName());
+                classDescription = classDescription.getParentClass();
+            }
+        }
+        return(names);
+    }
+
+
+    /**
+     * Find a comparison that must be true for the passed in
+     * Node to be true, and that can be looked up in the guard index.
+     * I.e. an == comparison of an attribute path to a literal,
+     * (that is not inside an any/all/not).
+     *
+     * Returns null if there is no such comparison.
+     */
+    static Node findGuard(Node node) {
+
+        if (node instanceof Node.Compare) {
+
+            Node.Compare compare = (Node.Compare)node;
+            if (Translator.OE_EQUALS.equals(compare.getOperatorName()) &&
+                (compare.getRight() instanceof Node.Literal) &&
+                !(compare.getLeft() instanceof Node.Literal) &&
+                (Values.indexKey(((Node.Literal)compare.getRight()).
+                                 getValue()) != null)) {
+                return(compare);
+            }
+        }
+        else if (node instanceof Node.Junction) {
+
+            Node[] operands = node.getChildren();
+            if (((Node.Junction)node).isAnd() || (operands.length == 1)) {
+                /**
+                 * For an "and", any operand's guard will do.
+                 * An "or" with one operand is the same as the operand.
+                 * (The translator wraps single rows in an "or" or "and".)
+                 */
+                for (Node operand : operands) {
+                    Node guard = findGuard(operand);
+                    if (guard != null) {
+                        return(guard);
+                    }
+                }
+            }
+        }
+
+        return(null);
+    }
+
+
+    /**
+     * A distinct compiled query, and the ids of all the queries
+     * that compiled to it.
+     */
+    private static final class Root {
+
+        private final Node node;
+        private final QuerySet querySet;
+        private final List<String> queryIds = new ArrayList<String>();
+        private Node guard;
+        private int stamp;
+
+        Root(Node node, QuerySet querySet) {
+            this.node = node;
+            this.querySet = querySet;
+        }
+    }
+
+
+    /**
+     * The queries for one Class Under Qualification.
+     */
+    private static final class QuerySet {
+
+        /**
+         * The Root for each distinct compiled query Node.
+         */
+        private final Map<Node,Root> roots = new HashMap<Node,Root>();
+
+        /**
+         * The queries that have no guard.
+         */
+        private final List<Root> unguardedRoots = new ArrayList<Root>();
+
+        /**
+         * For each attribute path that has guards on it, a map
+         * from the literal value, (see Values.indexKey()), to the
+         * guards that compare the path to that value.
+         */
+        private final Map<Node,Map<Object,List<Node>>> guardIndex =
+            new LinkedHashMap<Node,Map<Object,List<Node>>>();
+
+        /**
+         * The queries that each guard guards.
+         */
+        private final Map<Node,List<Root>> guardedRoots =
+            new HashMap<Node,List<Root>>();
+
+        /**
+         * The statistics of the attribute paths the queries compare
+         * to literals, keyed by the Node that gets the path.
+         */
+        private final Map<Node,AttributeStatistics> statistics =
+            new LinkedHashMap<Node,AttributeStatistics>();
+
+
+        /**
+         * Start keeping statistics for the attribute paths that the
+         * passed in Node, (or the Nodes below it), compares to a
+         * literal.  We don't look inside the conditions of any/all,
+         * because those paths start at the elements, not the entity.
+         */
+        void addStatistics(Node node) {
+
+            if (node instanceof Node.Compare) {
+                Node.Compare compare = (Node.Compare)node;
+                if ((compare.getLeft() instanceof Node.Attribute) &&
+                    (compare.getRight() instanceof Node.Literal) &&
+                    !statistics.containsKey(compare.getLeft())) {
+                    String path = ((Node.Attribute)compare.getLeft()).
+                        getPath();
+                    if (path != null) {
+                        statistics.put(compare.getLeft(),
+                                       new AttributeStatistics(path));
+                    }
+                }
+                return;
+            }
+
+            if (node instanceof Node.Quantifier) {
+                addStatistics(((Node.Quantifier)node).getCollection());
+                return;
+            }
+
+            for (Node child : node.getChildren()) {
+                addStatistics(child);
+            }
+        }
+
+
+        void addRoot(Root root) {
+
+            root.guard = findGuard(root.node);
+            if (root.guard == null) {
+                unguardedRoots.add(root);
+                return;
+            }
+
+            List<Root> rootList = guardedRoots.get(root.guard);
+            if (rootList == null) {
+                rootList = new ArrayList<Root>();
+                guardedRoots.put(root.guard, rootList);
+
+                Node.Compare compare = (Node.Compare)root.guard;
+                Map<Object,List<Node>> index =
+                    guardIndex.get(compare.getLeft());
+                if (index == null) {
+                    index = new HashMap<Object,List<Node>>();
+                    guardIndex.put(compare.getLeft(), index);
+                }
+
+                Object key = Values.indexKey(
+                    ((Node.Literal)compare.getRight()).getValue());
+                List<Node> guards = index.get(key);
+                if (guards == null) {
+                    guards = new ArrayList<Node>(1);
+                    index.put(key, guards);
+                }
+                guards.add(compare);
+            }
+            rootList.add(root);
+        }
+
+
+        void removeRoot(Root root) {
+
+            if (root.guard == null) {
+                unguardedRoots.remove(root);
+                return;
+            }
+
+            List<Root> rootList = guardedRoots.get(root.guard);
+            rootList.remove(root);
+            if (!rootList.isEmpty()) {
+                return;
+            }
+
+            guardedRoots.remove(root.guard);
+            Node.Compare compare = (Node.Compare)root.guard;
+            Map<Object,List<Node>> index = guardIndex.get(compare.getLeft());
+            Object key = Values.indexKey(
+                ((Node.Literal)compare.getRight()).getValue());
+            List<Node> guards = index.get(key);
+            guards.remove(compare);
+            if (guards.isEmpty()) {
+                index.remove(key);
+                if (index.isEmpty()) {
+                    guardIndex.remove(compare.getLeft());
+                }
+            }
+        }
+    }
+}
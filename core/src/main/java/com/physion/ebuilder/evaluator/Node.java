@@ -0,0 +1,820 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * A Node is one operation in a compiled ExpressionTree.  E.g.
+ * "get the epochGroup attribute", "compare to the literal 27",
+ * "and these three things together".
+ *
+ * Nodes are created by a NodeCompiler, which "interns" them:
+ * if two ExpressionTrees, (or two parts of the same tree), contain
+ * the same operation on the same inputs, they share a single Node.
+ * So, the Nodes of all the compiled trees form a DAG, not a set
+ * of separate trees.  Combined with the memo in EvaluationFrame,
+ * that means each distinct operation is performed at most once per
+ * entity, no matter how many queries contain it.
+ *
+ * Because Nodes are shared, they must never be changed after
+ * they are created.  The one exception is the order in which a
+ * Junction evaluates its operands, which the CostBasedOptimizer
+ * changes, because it doesn't change what the Junction computes.
+ *
+ * The subclasses of Node are nested in this file because they are
+ * small, and nothing outside of this package should know about them.
+ *
+ * @see NodeCompiler
+ * @see EvaluationFrame
+ */
+abstract class Node {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * A small, dense, unique number that is used to index the
+     * arrays in an EvaluationFrame.
+     */
+    private final int id;
+
+    /**
+     * A string that describes this Node and the ids of its
+     * children.  Two Nodes with the same key compute the same
+     * thing, so the NodeCompiler uses this to intern Nodes.
+     */
+    private final String key;
+
+
+    Node(int id, String key) {
+        this.id = id;
+        this.key = key;
+    }
+
+
+    int getId() {
+        return(id);
+    }
+
+
+    String getKey() {
+        return(key);
+    }
+
+
+    /**
+     * Get the Nodes whose values this Node uses.
+     */
+    Node[] getChildren() {
+        return(NO_CHILDREN);
+    }
+
+
+    /**
+     * Returns true if this Node computes a boolean value.
+     */
+    boolean isBoolean() {
+        return(false);
+    }
+
+
+    /**
+     * Compute the value of this Node for the entity of the
+     * passed in frame.  Do not call this directly.  Call
+     * frame.value(node) so the value is remembered.
+     */
+    abstract Object compute(EvaluationFrame frame);
+
+
+    public String toString() {
+        return("#"+id+" "+key);
+    }
+
+
+    /**
+     * The current entity.  I.e. AttributeExpression(this).
+     */
+    static final class This
+        extends Node {
+
+        This(int id) {
+            super(id, "this");
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(frame.getEntity());
+        }
+    }
+
+
+    /**
+     * A constant value.  E.g. Int32LiteralValueExpression(27).
+     */
+    static final class Literal
+        extends Node {
+
+        private final Object value;
+
+        Literal(int id, String key, Object value) {
+            super(id, key);
+            this.value = value;
+        }
+
+        Object getValue() {
+            return(value);
+        }
+
+        @Override
+        boolean isBoolean() {
+            return(value instanceof Boolean);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(value);
+        }
+    }
+
+
+    /**
+     * A bind parameter of a PreparedQuery.  I.e. a literal that was
+     * lifted out of the tree, so the same Nodes can be evaluated
+     * with different values.  The value is whatever was bound to
+     * the parameter in the frame.  (See EvaluationFrame.getParameter().)
+     */
+    static final class BindParameter
+        extends Node {
+
+        private final int index;
+
+        BindParameter(int id, String key, int index) {
+            super(id, key);
+            this.index = index;
+        }
+
+        int getIndex() {
+            return(index);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(frame.getParameter(index));
+        }
+    }
+
+
+    /**
+     * The value of an attribute of the entity computed by the
+     * input Node.  E.g. the "label" in epochGroup.label.
+     * A bare AttributeExpression(label) is an Attribute Node
+     * whose input is the This Node.
+     */
+    static final class Attribute
+        extends Node {
+
+        private final Node input;
+        private final String attributeName;
+
+        Attribute(int id, String key, Node input, String attributeName) {
+            super(id, key);
+            this.input = input;
+            this.attributeName = attributeName;
+        }
+
+        String getAttributeName() {
+            return(attributeName);
+        }
+
+        Node getInput() {
+            return(input);
+        }
+
+        /**
+         * Get the dotted attribute path this Node gets from the
+         * entity being evaluated, e.g. "epochGroup.label", or null
+         * if the path doesn't start at the entity.
+         */
+        String getPath() {
+
+            if (input instanceof This) {
+                return(attributeName);
+            }
+            if (input instanceof Attribute) {
+                String inputPath = ((Attribute)input).getPath();
+                if (inputPath != null) {
+                    return(inputPath+"."+attributeName);
+                }
+            }
+            return(null);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {input});
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            Object entity = frame.value(input);
+            if (entity == null) {
+                return(null);
+            }
+
+            /**
+             * The "value" of a primitive value, (e.g. a parameter
+             * value or property value), is the value itself.
+             */
+            if (Translator.AE_VALUE.equals(attributeName) &&
+                Values.isPrimitive(entity)) {
+                return(entity);
+            }
+
+            return(frame.getAccessor().getAttribute(entity, attributeName));
+        }
+    }
+
+
+    /**
+     * The "parameter" operator.  E.g.
+     * parameter(protocolParameters, "someKey").
+     * If the map value is a java.util.Map, we look up the key
+     * ourselves.  Otherwise we ask the EntityAccessor.
+     */
+    static final class Parameter
+        extends Node {
+
+        private final Node map;
+        private final Node parameterKey;
+
+        Parameter(int id, String key, Node map, Node parameterKey) {
+            super(id, key);
+            this.map = map;
+            this.parameterKey = parameterKey;
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {map, parameterKey});
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            Object mapValue = frame.value(map);
+            Object keyValue = frame.value(parameterKey);
+            if ((mapValue == null) || (keyValue == null)) {
+                return(null);
+            }
+
+            if (mapValue instanceof java.util.Map) {
+                return(((java.util.Map<?,?>)mapValue).get(keyValue));
+            }
+            return(frame.getAccessor().evaluateOperator(
+                Translator.OE_PARAMETER, new Object[] {mapValue, keyValue}));
+        }
+    }
+
+
+    /**
+     * The "as" operator, which casts a value to one of the
+     * ovation value classes.  If the value is not of that type,
+     * the result is null.
+     */
+    static final class As
+        extends Node {
+
+        private final Node input;
+        private final int typeMask;
+
+        As(int id, String key, Node input, String classLiteral) {
+            super(id, key);
+            this.input = input;
+            this.typeMask = Values.typeMask(classLiteral);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {input});
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            Object value = frame.value(input);
+            return(Values.isOfType(value, typeMask) ? value : null);
+        }
+    }
+
+
+    /**
+     * The "elementsOfType" operator, which keeps just the elements
+     * of a collection that are of one of the ovation value classes.
+     */
+    static final class ElementsOfType
+        extends Node {
+
+        private final Node input;
+        private final int typeMask;
+
+        ElementsOfType(int id, String key, Node input, String classLiteral) {
+            super(id, key);
+            this.input = input;
+            this.typeMask = Values.typeMask(classLiteral);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {input});
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            List<Object> elements = new ArrayList<Object>();
+            for (Object element : Values.asCollection(frame.value(input))) {
+                if (Values.isOfType(element, typeMask)) {
+                    elements.add(element);
+                }
+            }
+            return(elements);
+        }
+    }
+
+
+    /**
+     * An operator that is specific to the application's data model,
+     * such as "keywords" or "properties".  The EntityAccessor
+     * evaluates these.
+     */
+    static final class Call
+        extends Node {
+
+        private final String operatorName;
+        private final Node[] operands;
+
+        Call(int id, String key, String operatorName, Node[] operands) {
+            super(id, key);
+            this.operatorName = operatorName;
+            this.operands = operands;
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(operands.clone());
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            Object[] values = new Object[operands.length];
+            for (int index = 0; index < operands.length; index++) {
+                values[index] = frame.value(operands[index]);
+            }
+            return(frame.getAccessor().evaluateOperator(operatorName,
+                                                        values));
+        }
+    }
+
+
+    /**
+     * The "count" operator.  The number of elements in a collection.
+     */
+    static final class Count
+        extends Node {
+
+        private final Node input;
+
+        Count(int id, String key, Node input) {
+            super(id, key);
+            this.input = input;
+        }
+
+        Node getInput() {
+            return(input);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {input});
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(Integer.valueOf(
+                Values.asCollection(frame.value(input)).size()));
+        }
+    }
+
+
+    /**
+     * The "isnull" operator.
+     */
+    static final class IsNull
+        extends Node {
+
+        private final Node input;
+
+        IsNull(int id, String key, Node input) {
+            super(id, key);
+            this.input = input;
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {input});
+        }
+
+        @Override
+        boolean isBoolean() {
+            return(true);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(Boolean.valueOf(frame.value(input) == null));
+        }
+    }
+
+
+    /**
+     * A comparison, such as ==, <, or =~~.  These are the "leaves"
+     * of the boolean part of a tree.
+     *
+     * Please note, if either value is null, every comparison is
+     * false, including !=.  Use isnull to test for null.
+     */
+    static final class Compare
+        extends Node {
+
+        private final String operatorName;
+        private final Node left;
+        private final Node right;
+
+        /**
+         * If the right operand is a literal and this is one of the
+         * regular expression operators, this is the compiled
+         * pattern, so we only compile it once.
+         */
+        private final Pattern pattern;
+
+
+        Compare(int id, String key, String operatorName,
+                Node left, Node right) {
+
+            super(id, key);
+            this.operatorName = operatorName;
+            this.left = left;
+            this.right = right;
+
+            Pattern pattern = null;
+            if (isRegularExpression(operatorName) &&
+                (right instanceof Literal) &&
+                (((Literal)right).getValue() != null)) {
+                pattern = compilePattern(operatorName,
+                    ((Literal)right).getValue().toString());
+            }
+            this.pattern = pattern;
+        }
+
+        String getOperatorName() {
+            return(operatorName);
+        }
+
+        Node getLeft() {
+            return(left);
+        }
+
+        Node getRight() {
+            return(right);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {left, right});
+        }
+
+        @Override
+        boolean isBoolean() {
+            return(true);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(Boolean.valueOf(compare(frame.value(left),
+                                           frame.value(right))));
+        }
+
+        /**
+         * Apply this comparison to two values.
+         */
+        boolean compare(Object leftValue, Object rightValue) {
+
+            if ((leftValue == null) || (rightValue == null)) {
+                return(false);
+            }
+
+            if (Translator.OE_EQUALS.equals(operatorName)) {
+                return(Values.isEqual(leftValue, rightValue));
+            }
+            else if (Translator.OE_NOT_EQUALS.equals(operatorName)) {
+                return(!Values.isEqual(leftValue, rightValue));
+            }
+            else if (isRegularExpression(operatorName)) {
+                /**
+                 * A PreparedQuery binds the pattern of a regular
+                 * expression parameter already compiled.
+                 */
+                Pattern p = pattern;
+                if (rightValue instanceof Pattern) {
+                    p = (Pattern)rightValue;
+                }
+                else if (p == null) {
+                    p = compilePattern(operatorName, rightValue.toString());
+                }
+                boolean found = p.matcher(leftValue.toString()).find();
+                return(operatorName.startsWith("!") ? !found : found);
+            }
+
+            int comparison = Values.compare(leftValue, rightValue);
+            if (comparison == Values.INCOMPARABLE) {
+                return(false);
+            }
+
+            if (Translator.OE_LESS_THAN.equals(operatorName)) {
+                return(comparison < 0);
+            }
+            else if (Translator.OE_LESS_THAN_EQUALS.equals(operatorName)) {
+                return(comparison <= 0);
+            }
+            else if (Translator.OE_GREATER_THAN.equals(operatorName)) {
+                return(comparison > 0);
+            }
+            else if (Translator.OE_GREATER_THAN_EQUALS.equals(operatorName)) {
+                return(comparison >= 0);
+            }
+
+            throw(new IllegalStateException("Unhandled comparison "+
+                "operator: "+operatorName));
+        }
+
+        static boolean isRegularExpression(String operatorName) {
+            return(Translator.OE_MATCHES_CASE_SENSITIVE.equals(operatorName) ||
+                Translator.OE_MATCHES_CASE_INSENSITIVE.equals(operatorName) ||
+                Translator.OE_DOES_NOT_MATCH_CASE_SENSITIVE.equals(
+                    operatorName) ||
+                Translator.OE_DOES_NOT_MATCH_CASE_INSENSITIVE.equals(
+                    operatorName));
+        }
+
+        static Pattern compilePattern(String operatorName,
+                                              String regex) {
+            if (operatorName.endsWith("~~")) {
+                return(Pattern.compile(regex, Pattern.CASE_INSENSITIVE |
+                                              Pattern.UNICODE_CASE));
+            }
+            return(Pattern.compile(regex));
+        }
+    }
+
+
+    /**
+     * The "not" operator.
+     */
+    static final class Not
+        extends Node {
+
+        private final Node operand;
+
+        Not(int id, String key, Node operand) {
+            super(id, key);
+            this.operand = operand;
+        }
+
+        Node getOperand() {
+            return(operand);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {operand});
+        }
+
+        @Override
+        boolean isBoolean() {
+            return(true);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+            return(Boolean.valueOf(!frame.test(operand)));
+        }
+    }
+
+
+    /**
+     * The "and" and "or" operators.  They take any number of
+     * operands and stop evaluating operands as soon as the
+     * answer is known.  An "and" with no operands is true,
+     * and an "or" with no operands is false.
+     */
+    static final class Junction
+        extends Node {
+
+        private final boolean and;
+        private final Node[] operands;
+
+        /**
+         * The operands in the order they are evaluated.
+         * This starts out as the order in the ExpressionTree,
+         * (i.e. the order of the rows in the GUI).
+         */
+        private Node[] evaluationOrder;
+
+        Junction(int id, String key, boolean and, Node[] operands) {
+            super(id, key);
+            this.and = and;
+            this.operands = operands;
+            this.evaluationOrder = operands;
+        }
+
+        boolean isAnd() {
+            return(and);
+        }
+
+        Node[] getEvaluationOrder() {
+            return(evaluationOrder.clone());
+        }
+
+        /**
+         * Change the order in which the operands are evaluated.
+         * The passed in array must contain the same operands as
+         * getChildren(), in any order.
+         */
+        void setEvaluationOrder(Node[] order) {
+
+            List<Node> expected = new ArrayList<Node>(Arrays.asList(operands));
+            if ((order.length != operands.length) ||
+                !expected.containsAll(Arrays.asList(order)) ||
+                !Arrays.asList(order).containsAll(expected)) {
+                throw(new IllegalArgumentException("The evaluation order "+
+                    "must contain the same operands as the Junction."));
+            }
+            evaluationOrder = order.clone();
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(operands.clone());
+        }
+
+        @Override
+        boolean isBoolean() {
+            return(true);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            Observations observations = frame.getObservations();
+            if (observations != null) {
+                return(computeObserved(frame, observations));
+            }
+
+            for (int index = 0; index < evaluationOrder.length; index++) {
+                if (frame.test(evaluationOrder[index]) != and) {
+                    recordSkips(frame, index+1);
+                    return(Boolean.valueOf(!and));
+                }
+            }
+            return(Boolean.valueOf(and));
+        }
+
+        /**
+         * If the frame is being profiled, record that the operands
+         * from the passed in index on were skipped.  An operand that
+         * some other Node has already computed for this entity is
+         * not counted as skipped, because it did not have to be.
+         */
+        private void recordSkips(EvaluationFrame frame, int from) {
+
+            EvaluationProfile profile = frame.getProfile();
+            if (profile != null) {
+                for (int index = from; index < evaluationOrder.length;
+                     index++) {
+                    if (!frame.isComputed(evaluationOrder[index])) {
+                        profile.recordSkip(evaluationOrder[index], 1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * The same as compute(), but record what each operand that
+         * had not already been computed did, and how long it took.
+         */
+        private Object computeObserved(EvaluationFrame frame,
+                                       Observations observations) {
+
+            for (int index = 0; index < evaluationOrder.length; index++) {
+
+                Node operand = evaluationOrder[index];
+                boolean computed = frame.isComputed(operand);
+                long start = System.nanoTime();
+                boolean value = frame.test(operand);
+                if (!computed) {
+                    observations.record(operand, value,
+                                        System.nanoTime()-start);
+                }
+
+                if (value != and) {
+                    recordSkips(frame, index+1);
+                    return(Boolean.valueOf(!and));
+                }
+            }
+            return(Boolean.valueOf(and));
+        }
+    }
+
+
+    /**
+     * The "any" and "all" operators.  The first operand is the
+     * collection and the second is the condition that is evaluated
+     * against each element of the collection.  "all" of an empty
+     * collection is true.
+     */
+    static final class Quantifier
+        extends Node {
+
+        private final boolean all;
+        private final Node collection;
+        private final Node condition;
+
+        Quantifier(int id, String key, boolean all, Node collection,
+                   Node condition) {
+            super(id, key);
+            this.all = all;
+            this.collection = collection;
+            this.condition = condition;
+        }
+
+        boolean isAll() {
+            return(all);
+        }
+
+        Node getCollection() {
+            return(collection);
+        }
+
+        Node getCondition() {
+            return(condition);
+        }
+
+        @Override
+        Node[] getChildren() {
+            return(new Node[] {collection, condition});
+        }
+
+        @Override
+        boolean isBoolean() {
+            return(true);
+        }
+
+        @Override
+        Object compute(EvaluationFrame frame) {
+
+            Collection<?> elements = Values.asCollection(
+                frame.value(collection));
+            int visited = 0;
+            for (Object element : elements) {
+                visited++;
+                if (element == null) {
+                    continue;
+                }
+                if (frame.frameFor(element).test(condition) != all) {
+                    /**
+                     * If we are being profiled, the elements we
+                     * did not get to are skips of the condition.
+                     */
+                    EvaluationProfile profile = frame.getProfile();
+                    if ((profile != null) && (visited < elements.size())) {
+                        profile.recordSkip(condition,
+                                           elements.size()-visited);
+                    }
+                    return(Boolean.valueOf(!all));
+                }
+            }
+            return(Boolean.valueOf(all));
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.IStringLiteralValueExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.translator.Translator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A NodeCompiler turns IExpression trees into Nodes.
+ *
+ * Every Node a NodeCompiler creates is "interned".  If the compiler
+ * is asked to compile an expression that computes the same thing
+ * as an expression it has already compiled, it returns the Node it
+ * already created.  This happens bottom up, so, for example, the
+ * epochGroup part of epochGroup.label and epochGroup.source is the
+ * same Node, and two queries that both contain protocolID == "abc"
+ * share the same Compare Node.
+ *
+ * A NodeCompiler is not thread safe.
+ *
+ * @see Node
+ */
+final class NodeCompiler {
+
+    /**
+     * All the Nodes we have created, indexed by their key.
+     */
+    private final Map<String,Node> nodesByKey = new HashMap<String,Node>();
+
+    /**
+     * All the Nodes we have created, indexed by their id.
+     */
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    /**
+     * The one and only This Node.
+     */
+    private final Node thisNode;
+
+    /**
+     * The literals that are compiled into BindParameter Nodes
+     * instead of Literal Nodes, and their parameter indexes.
+     * The literals are compared with ==, because two literals
+     * with the same value are still two different parameters.
+     */
+    private final Map<IExpression,Integer> parameterIndexes;
+
+
+    NodeCompiler() {
+        this(null);
+    }
+
+
+    /**
+     * Create a compiler that compiles the passed in literals
+     * into BindParameter Nodes.  (See PreparedQuery.)
+     */
+    NodeCompiler(Map<IExpression,Integer> parameterIndexes) {
+        this.parameterIndexes = parameterIndexes;
+        thisNode = intern(new Node.This(0));
+    }
+
+
+    /**
+     * Get the number of Nodes this compiler has created.
+     * Every Node's id is less than this.
+     */
+    int getNodeCount() {
+        return(nodes.size());
+    }
+
+
+    /**
+     * Get the Node with the passed in id.
+     */
+    Node getNode(int id) {
+        return(nodes.get(id));
+    }
+
+
+    /**
+     * Compile the passed in expression, (and all of its operands),
+     * into a Node.
+     *
+     * @throws IllegalArgumentException if the expression is not
+     * something the evaluator understands.  E.g. a "." operator
+     * whose right operand is not an AttributeExpression.
+     */
+    Node compile(IExpression expression) {
+
+        if (expression == null) {
+            throw(new IllegalArgumentException("expression == null"));
+        }
+
+        if (expression instanceof IAttributeExpression) {
+
+            String name = ((IAttributeExpression)expression).
+                getAttributeName();
+            if (Translator.AE_THIS.equals(name)) {
+                return(thisNode);
+            }
+            return(attribute(thisNode, name));
+        }
+        else if (expression instanceof ILiteralValueExpression) {
+            return(literal((ILiteralValueExpression)expression));
+        }
+        else if (expression instanceof IOperatorExpression) {
+            return(operator((IOperatorExpression)expression));
+        }
+
+        throw(new IllegalArgumentException("Unhandled IExpression "+
+            "type: "+expression.getClass().getName()));
+    }
+
+
+    /**
+     * Compile an IOperatorExpression.
+     */
+    private Node operator(IOperatorExpression expression) {
+
+        String name = expression.getOperatorName();
+        List<IExpression> operands = expression.getOperandList();
+
+        if (Translator.OE_AND.equals(name) || Translator.OE_OR.equals(name)) {
+
+            Node[] children = compileAll(operands);
+            boolean and = Translator.OE_AND.equals(name);
+            return(intern(new Node.Junction(nodes.size(),
+                name+keyOf(children), and, children)));
+        }
+        else if (Translator.OE_NOT.equals(name)) {
+
+            checkOperandCount(expression, 1);
+            Node operand = compile(operands.get(0));
+            return(intern(new Node.Not(nodes.size(),
+                name+keyOf(operand), operand)));
+        }
+        else if (Translator.OE_ANY.equals(name) ||
+                 Translator.OE_ALL.equals(name)) {
+
+            checkOperandCount(expression, 2);
+            Node collection = compile(operands.get(0));
+            Node condition = compile(operands.get(1));
+            return(intern(new Node.Quantifier(nodes.size(),
+                name+keyOf(collection, condition),
+                Translator.OE_ALL.equals(name), collection, condition)));
+        }
+        else if (Translator.OE_COUNT.equals(name)) {
+
+            checkOperandCount(expression, 1);
+            Node input = compile(operands.get(0));
+            return(intern(new Node.Count(nodes.size(),
+                name+keyOf(input), input)));
+        }
+        else if (Translator.OE_IS_NULL.equals(name)) {
+
+            checkOperandCount(expression, 1);
+            Node input = compile(operands.get(0));
+            return(intern(new Node.IsNull(nodes.size(),
+                name+keyOf(input), input)));
+        }
+        else if (Translator.OE_DOT.equals(name)) {
+
+            checkOperandCount(expression, 2);
+            if (!(operands.get(1) instanceof IAttributeExpression)) {
+                throw(new IllegalArgumentException("The right operand of "+
+                    "the \".\" operator must be an AttributeExpression.  "+
+                    "It is: "+operands.get(1)));
+            }
+            Node input = compile(operands.get(0));
+            String attributeName = ((IAttributeExpression)operands.get(1)).
+                getAttributeName();
+            if (Translator.AE_THIS.equals(attributeName)) {
+                return(input);
+            }
+            return(attribute(input, attributeName));
+        }
+        else if (Translator.OE_PARAMETER.equals(name)) {
+
+            checkOperandCount(expression, 2);
+            Node map = compile(operands.get(0));
+            Node parameterKey = compile(operands.get(1));
+            return(intern(new Node.Parameter(nodes.size(),
+                name+keyOf(map, parameterKey), map, parameterKey)));
+        }
+        else if (Translator.OE_AS.equals(name) ||
+                 Translator.OE_ELEMENTS_OF_TYPE.equals(name)) {
+
+            checkOperandCount(expression, 2);
+            if (!(operands.get(1) instanceof IClassLiteralValueExpression)) {
+                throw(new IllegalArgumentException("The right operand of "+
+                    "the \""+name+"\" operator must be a "+
+                    "ClassLiteralValueExpression.  It is: "+operands.get(1)));
+            }
+            Node input = compile(operands.get(0));
+            String classLiteral = (String)((IClassLiteralValueExpression)
+                operands.get(1)).getValue();
+            String key = name+"("+input.getId()+","+classLiteral+")";
+            if (Translator.OE_AS.equals(name)) {
+                return(intern(new Node.As(nodes.size(), key, input,
+                                          classLiteral)));
+            }
+            return(intern(new Node.ElementsOfType(nodes.size(), key, input,
+                                                  classLiteral)));
+        }
+        else if (isComparison(name)) {
+
+            checkOperandCount(expression, 2);
+            Node left = compile(operands.get(0));
+            Node right = compile(operands.get(1));
+            return(intern(new Node.Compare(nodes.size(),
+                name+keyOf(left, right), name, left, right)));
+        }
+        else {
+            /**
+             * Something specific to the data model, such as
+             * "keywords" or "properties".  Let the EntityAccessor
+             * deal with it.
+             */
+            Node[] children = compileAll(operands);
+            return(intern(new Node.Call(nodes.size(),
+                "call:"+name+keyOf(children), name, children)));
+        }
+    }
+
+
+    /**
+     * Get the Node for an attribute of the value of the input Node.
+     */
+    private Node attribute(Node input, String attributeName) {
+        return(intern(new Node.Attribute(nodes.size(),
+            "attr("+input.getId()+","+attributeName+")",
+            input, attributeName)));
+    }
+
+
+    /**
+     * Compile a literal value.  The key includes the type of the
+     * literal, so the Int32 27, the Float64 27.0, and the String
+     * "27" are three different Nodes.
+     */
+    private Node literal(ILiteralValueExpression expression) {
+
+        Integer index = (parameterIndexes == null) ? null :
+            parameterIndexes.get(expression);
+        if (index != null) {
+            return(intern(new Node.BindParameter(nodes.size(),
+                "parameter("+index+")", index.intValue())));
+        }
+
+        String key;
+        Object value;
+
+        if (expression instanceof IInt32LiteralValueExpression) {
+            int intValue = ((IInt32LiteralValueExpression)expression).
+                getIntValue();
+            key = "int:"+intValue;
+            value = Integer.valueOf(intValue);
+        }
+        else if (expression instanceof IFloat64LiteralValueExpression) {
+            double doubleValue = ((IFloat64LiteralValueExpression)expression).
+                getDoubleValue();
+            key = "double:"+doubleValue;
+            value = Double.valueOf(doubleValue);
+        }
+        else if (expression instanceof IBooleanLiteralValueExpression) {
+            boolean booleanValue = ((IBooleanLiteralValueExpression)
+                expression).getBooleanValue();
+            key = "boolean:"+booleanValue;
+            value = Boolean.valueOf(booleanValue);
+        }
+        else if (expression instanceof ITimeLiteralValueExpression) {
+            ITimeLiteralValueExpression time =
+                (ITimeLiteralValueExpression)expression;
+            key = "time:"+time.getEpochMillis();
+            value = time.getTimeValue();
+        }
+        else if (expression instanceof IStringLiteralValueExpression) {
+            value = expression.getValue();
+            key = "string:"+value;
+        }
+        else if (expression instanceof IClassLiteralValueExpression) {
+            value = expression.getValue();
+            key = "class:"+value;
+        }
+        else {
+            throw(new IllegalArgumentException("Unhandled "+
+                "ILiteralValueExpression type: "+
+                expression.getClass().getName()));
+        }
+
+        return(intern(new Node.Literal(nodes.size(), "literal("+key+")",
+                                       value)));
+    }
+
+
+    private Node[] compileAll(List<IExpression> operands) {
+
+        Node[] children = new Node[operands.size()];
+        for (int index = 0; index < children.length; index++) {
+            children[index] = compile(operands.get(index));
+        }
+        return(children);
+    }
+
+
+    /**
+     * If we already have a Node with the same key as the passed in
+     * Node, return the one we already have.  Otherwise, add the
+     * passed in Node to our tables and return it.
+     *
+     * Please note, the passed in Node must have been created with
+     * nodes.size() as its id.
+     */
+    private Node intern(Node node) {
+
+        Node existing = nodesByKey.get(node.getKey());
+        if (existing != null) {
+            return(existing);
+        }
+
+        nodesByKey.put(node.getKey(), node);
+        nodes.add(node);
+        return(node);
+    }
+
+
+    private static String keyOf(Node... children) {
+
+        StringBuilder key = new StringBuilder("(");
+        for (int index = 0; index < children.length; index++) {
+            if (index > 0) {
+                key.append(',');
+            }
+            key.append(children[index].getId());
+        }
+        return(key.append(')').toString());
+    }
+
+
+    private static void checkOperandCount(IOperatorExpression expression,
+                                          int count) {
+
+        if (expression.getOperandList().size() != count) {
+            throw(new IllegalArgumentException("The \""+
+                expression.getOperatorName()+"\" operator must have "+
+                count+" operand(s).  It has "+
+                expression.getOperandList().size()+"."));
+        }
+    }
+
+
+    static boolean isComparison(String operatorName) {
+        return(Translator.OE_EQUALS.equals(operatorName) ||
+               Translator.OE_NOT_EQUALS.equals(operatorName) ||
+               Translator.OE_LESS_THAN.equals(operatorName) ||
+               Translator.OE_GREATER_THAN.equals(operatorName) ||
+               Translator.OE_LESS_THAN_EQUALS.equals(operatorName) ||
+               Translator.OE_GREATER_THAN_EQUALS.equals(operatorName) ||
+               Node.Compare.isRegularExpression(operatorName));
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import java.util.Arrays;
+
+
+/**
+ * Observations records how often the operands of and/or Nodes
+ * were actually evaluated, how often they were true, and how long
+ * they took.  The numbers are kept in arrays indexed by Node id.
+ *
+ * An EvaluationFrame only records into an Observations object
+ * while one is set on it, (see EvaluationFrame.setObservations()),
+ * which the MultiQueryNetwork does for a sample of the entities,
+ * so the calls to System.nanoTime() don't slow every entity down.
+ *
+ * Observations is not thread safe.
+ *
+ * @see CostBasedOptimizer
+ */
+final class Observations {
+
+    private long[] evaluationCounts = new long[0];
+    private long[] passCounts = new long[0];
+    private long[] nanos = new long[0];
+
+
+    /**
+     * Record that a Node was evaluated.
+     *
+     * @param passed The value the Node computed.
+     * @param elapsedNanos How long computing it took, including
+     * computing any of its inputs that had not been computed yet.
+     */
+    void record(Node node, boolean passed, long elapsedNanos) {
+
+        int id = node.getId();
+        if (id >= evaluationCounts.length) {
+            int length = Math.max(id+1, evaluationCounts.length*2);
+            evaluationCounts = Arrays.copyOf(evaluationCounts, length);
+            passCounts = Arrays.copyOf(passCounts, length);
+            nanos = Arrays.copyOf(nanos, length);
+        }
+
+        evaluationCounts[id]++;
+        if (passed) {
+            passCounts[id]++;
+        }
+        nanos[id] += elapsedNanos;
+    }
+
+
+    long getEvaluationCount(Node node) {
+
+        int id = node.getId();
+        return((id < evaluationCounts.length) ? evaluationCounts[id] : 0);
+    }
+
+
+    /**
+     * Get the fraction of the evaluations of the Node that were true.
+     */
+    double getPassRate(Node node) {
+
+        long evaluations = getEvaluationCount(node);
+        return((evaluations == 0) ? 0.0 :
+               ((double)passCounts[node.getId()])/evaluations);
+    }
+
+
+    /**
+     * Get the average time it took to evaluate the Node.
+     */
+    double getAverageNanos(Node node) {
+
+        long evaluations = getEvaluationCount(node);
+        return((evaluations == 0) ? 0.0 :
+               ((double)nanos[node.getId()])/evaluations);
+    }
+
+
+    /**
+     * Forget everything.
+     */
+    void clear() {
+
+        Arrays.fill(evaluationCounts, 0);
+        Arrays.fill(passCounts, 0);
+        Arrays.fill(nanos, 0);
+    }
+}
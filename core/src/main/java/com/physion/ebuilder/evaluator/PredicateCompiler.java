@@ -0,0 +1,768 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IClassLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.translator.Translator;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * A PredicateCompiler turns an ExpressionTree into a
+ * java.util.function.Predicate that can be applied to the user's
+ * own Java objects.  E.g. in a stream:
+ *
+ *      Predicate<MyEpoch> predicate =
+ *          PredicateCompiler.compile(expressionTree, MyEpoch.class);
+ *      epochs.stream().filter(predicate)...
+ *
+ * The attributes in the tree are bound to the getters of the class,
+ * (see AccessorCache), when the tree is compiled.  For example,
+ * epochGroup.label becomes getEpochGroup() on MyEpoch, and
+ * getLabel() on the declared return type of getEpochGroup().
+ * Then each part of the tree becomes a small Predicate or Function
+ * object that calls the next one.  So, when the Predicate is
+ * evaluated, there is no reflection and no looking things up by
+ * name.  A comparison of an int, long, double, or boolean getter
+ * with a literal is done on the primitive value, so nothing is boxed.
+ *
+ * If the declared type doesn't have the getter, (e.g. it is an
+ * interface, a Map, or Object), the getter is looked up from the
+ * object's actual class the first time each class is seen, (using a
+ * ClassValue, which is about as fast as a field read after that).
+ * Maps are read with get(queryName), so the Maps MapEntityAccessor
+ * reads also work.  An attribute that the object doesn't have is null.
+ *
+ * The elements of a TO_MANY attribute are compiled against the
+ * element type of the getter's declared return type, (e.g. Response
+ * for List<Response> or Response[]).
+ *
+ * The Predicate gives the same answers as the MultiQueryNetwork
+ * would for the same values.  (E.g. a comparison with null is false.)
+ * The model-specific operators, (e.g. keywords, properties), can't be
+ * compiled, because they are not attributes of the user's objects.
+ *
+ * The returned Predicates are thread safe, as long as the
+ * getters are.
+ */
+public final class PredicateCompiler {
+
+    private static final Counter COMPILED =
+        Metrics.counter("evaluator.predicateCompiler.compiled");
+
+    /**
+     * The accessors of all the classes any Predicate has been
+     * compiled for.
+     */
+    private static final AccessorCache ACCESSORS = new AccessorCache();
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    private static final Function<Object,Object> IDENTITY =
+        new Function<Object,Object>() {
+            public Object apply(Object object) {
+                return(object);
+            }
+        };
+
+
+    private PredicateCompiler() {
+    }
+
+
+    /**
+     * Compile an ExpressionTree into a Predicate on the passed in type.
+     *
+     * Please note, the tree's Class Under Qualification is not
+     * checked against the type.  That is up to the caller.
+     *
+     * @throws IllegalArgumentException if the tree contains something
+     * that can't be compiled.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Predicate<T> compile(ExpressionTree expressionTree,
+                                           Class<T> type) {
+
+        if ((expressionTree == null) || (type == null)) {
+            throw(new IllegalArgumentException(
+                "expressionTree and type must not be null."));
+        }
+
+        Predicate<Object> predicate = condition(
+            expressionTree.getRootExpression(), type);
+        COMPILED.increment();
+        return((Predicate<T>)(Predicate<?>)predicate);
+    }
+
+
+    /**
+     * Compile an expression whose value is true or false.
+     *
+     * @param type The declared type of the objects the
+     * Predicate will be applied to.
+     */
+    private static Predicate<Object> condition(IExpression expression,
+                                               Class<?> type) {
+
+        if (expression instanceof IBooleanLiteralValueExpression) {
+            final boolean value = ((IBooleanLiteralValueExpression)
+                expression).getBooleanValue();
+            return(new Predicate<Object>() {
+                public boolean test(Object object) {
+                    return(value);
+                }
+            });
+        }
+
+        if (!(expression instanceof IOperatorExpression)) {
+            /**
+             * E.g. a boolean attribute on its own.
+             */
+            final Function<Object,Object> getter =
+                value(expression, type).asObject();
+            return(new Predicate<Object>() {
+                public boolean test(Object object) {
+                    return(Boolean.TRUE.equals(getter.apply(object)));
+                }
+            });
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (Translator.OE_AND.equals(name) || Translator.OE_OR.equals(name)) {
+
+            if (operands.size() == 1) {
+                return(condition(operands.get(0), type));
+            }
+
+            final boolean and = Translator.OE_AND.equals(name);
+            final Predicate<?>[] predicates = new Predicate<?>[operands.size()];
+            for (int index = 0; index < predicates.length; index++) {
+                predicates[index] = condition(operands.get(index), type);
+            }
+            return(new Predicate<Object>() {
+                @SuppressWarnings("unchecked")
+                public boolean test(Object object) {
+                    for (Predicate<?> predicate : predicates) {
+                        if (((Predicate<Object>)predicate).test(object) !=
+                            and) {
+                            return(!and);
+                        }
+                    }
+                    return(and);
+                }
+            });
+        }
+        else if (Translator.OE_NOT.equals(name)) {
+
+            checkOperandCount(oe, 1);
+            final Predicate<Object> operand = condition(operands.get(0), type);
+            return(new Predicate<Object>() {
+                public boolean test(Object object) {
+                    return(!operand.test(object));
+                }
+            });
+        }
+        else if (Translator.OE_ANY.equals(name) ||
+                 Translator.OE_ALL.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            final boolean all = Translator.OE_ALL.equals(name);
+            Operand collection = value(operands.get(0), type);
+            final Function<Object,Object> getter = collection.asObject();
+            final Predicate<Object> condition = condition(operands.get(1),
+                elementType(collection.genericValueType));
+            return(new Predicate<Object>() {
+                public boolean test(Object object) {
+                    for (Object element : Values.asCollection(
+                         getter.apply(object))) {
+                        if ((element != null) &&
+                            (condition.test(element) != all)) {
+                            return(!all);
+                        }
+                    }
+                    return(all);
+                }
+            });
+        }
+        else if (Translator.OE_IS_NULL.equals(name)) {
+
+            checkOperandCount(oe, 1);
+            final Function<Object,Object> getter =
+                value(operands.get(0), type).asObject();
+            return(new Predicate<Object>() {
+                public boolean test(Object object) {
+                    return(getter.apply(object) == null);
+                }
+            });
+        }
+        else if (NodeCompiler.isComparison(name)) {
+
+            checkOperandCount(oe, 2);
+            return(comparison(name, operands.get(0), operands.get(1), type));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+"\" operator "+
+            "can't be compiled into a Predicate."));
+    }
+
+
+    /**
+     * Compile a comparison.  If the left side is a primitive getter
+     * and the right side is a number or boolean literal, the
+     * comparison is done without boxing.  Otherwise, we use the
+     * same code the MultiQueryNetwork uses.
+     */
+    private static Predicate<Object> comparison(String operatorName,
+                                                IExpression leftExpression,
+                                                IExpression rightExpression,
+                                                Class<?> type) {
+
+        Operand left = value(leftExpression, type);
+        int op = operatorCode(operatorName);
+
+        if ((op >= 0) && (rightExpression instanceof ILiteralValueExpression)) {
+
+            final Function<Object,Object> owner = left.owner;
+            final int code = op;
+
+            if ((left.kind == AccessorCache.Kind.INT) &&
+                (rightExpression instanceof IInt32LiteralValueExpression)) {
+
+                final ToIntFunction<Object> getter = left.intGetter;
+                final int literal = ((IInt32LiteralValueExpression)
+                    rightExpression).getIntValue();
+                return(new Predicate<Object>() {
+                    public boolean test(Object object) {
+                        Object target = (owner == null) ? object :
+                            owner.apply(object);
+                        return((target != null) && PredicateCompiler.test(code,
+                            Integer.compare(getter.applyAsInt(target),
+                                            literal)));
+                    }
+                });
+            }
+
+            if ((left.kind == AccessorCache.Kind.LONG) &&
+                ((rightExpression instanceof IInt32LiteralValueExpression) ||
+                 (rightExpression instanceof ITimeLiteralValueExpression))) {
+
+                final ToLongFunction<Object> getter = left.longGetter;
+                final long literal =
+                    (rightExpression instanceof IInt32LiteralValueExpression) ?
+                    ((IInt32LiteralValueExpression)rightExpression).
+                        getIntValue() :
+                    ((ITimeLiteralValueExpression)rightExpression).
+                        getEpochMillis();
+                return(new Predicate<Object>() {
+                    public boolean test(Object object) {
+                        Object target = (owner == null) ? object :
+                            owner.apply(object);
+                        return((target != null) && PredicateCompiler.test(code,
+                            Long.compare(getter.applyAsLong(target), literal)));
+                    }
+                });
+            }
+
+            if (((left.kind == AccessorCache.Kind.INT) ||
+                 (left.kind == AccessorCache.Kind.LONG) ||
+                 (left.kind == AccessorCache.Kind.DOUBLE)) &&
+                ((rightExpression instanceof IInt32LiteralValueExpression) ||
+                 (rightExpression instanceof IFloat64LiteralValueExpression))) {
+
+                final ToDoubleFunction<Object> getter = left.asDouble();
+                final double literal =
+                    (rightExpression instanceof IInt32LiteralValueExpression) ?
+                    ((IInt32LiteralValueExpression)rightExpression).
+                        getIntValue() :
+                    ((IFloat64LiteralValueExpression)rightExpression).
+                        getDoubleValue();
+                return(new Predicate<Object>() {
+                    public boolean test(Object object) {
+                        Object target = (owner == null) ? object :
+                            owner.apply(object);
+                        return((target != null) && PredicateCompiler.test(code,
+                            compare(getter.applyAsDouble(target), literal)));
+                    }
+                });
+            }
+
+            if ((left.kind == AccessorCache.Kind.BOOLEAN) &&
+                (rightExpression instanceof IBooleanLiteralValueExpression) &&
+                ((op == EQ) || (op == NE))) {
+
+                final Predicate<Object> getter = left.booleanGetter;
+                final boolean expected = ((IBooleanLiteralValueExpression)
+                    rightExpression).getBooleanValue() == (op == EQ);
+                return(new Predicate<Object>() {
+                    public boolean test(Object object) {
+                        Object target = (owner == null) ? object :
+                            owner.apply(object);
+                        return((target != null) &&
+                               (getter.test(target) == expected));
+                    }
+                });
+            }
+        }
+
+        /**
+         * Everything else.  Let a Node.Compare do it, so the answer
+         * is the same as the MultiQueryNetwork's.  (It also
+         * compiles the regular expression just once.)
+         */
+        final Function<Object,Object> leftGetter = left.asObject();
+        final Function<Object,Object> rightGetter =
+            value(rightExpression, type).asObject();
+        Node.Literal literal = null;
+        if (rightExpression instanceof ILiteralValueExpression) {
+            literal = new Node.Literal(-1, "",
+                literalValue((ILiteralValueExpression)rightExpression));
+        }
+        final Node.Compare compare = new Node.Compare(-1, "", operatorName,
+                                                      null, literal);
+        return(new Predicate<Object>() {
+            public boolean test(Object object) {
+                return(compare.compare(leftGetter.apply(object),
+                                       rightGetter.apply(object)));
+            }
+        });
+    }
+
+
+    /**
+     * Compile an expression whose value is not just true or false.
+     */
+    private static Operand value(IExpression expression, Class<?> type) {
+
+        if (expression instanceof ILiteralValueExpression) {
+            final Object value = literalValue(
+                (ILiteralValueExpression)expression);
+            return(Operand.object(null, new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    return(value);
+                }
+            }, (value == null) ? Object.class : value.getClass()));
+        }
+
+        if (expression instanceof IAttributeExpression) {
+            String name = ((IAttributeExpression)expression).getAttributeName();
+            if (Translator.AE_THIS.equals(name)) {
+                return(Operand.object(null, IDENTITY, type));
+            }
+            return(attribute(null, type, name));
+        }
+
+        if (!(expression instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException("Unhandled IExpression "+
+                "type: "+expression));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (Translator.OE_DOT.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            if (!(operands.get(1) instanceof IAttributeExpression)) {
+                throw(new IllegalArgumentException("The right operand of "+
+                    "the \".\" operator must be an AttributeExpression."));
+            }
+            Operand input = value(operands.get(0), type);
+            String attributeName = ((IAttributeExpression)operands.get(1)).
+                getAttributeName();
+            if (Translator.AE_THIS.equals(attributeName)) {
+                return(input);
+            }
+            return(attribute(input.asObject(), input.valueType,
+                             attributeName));
+        }
+        else if (Translator.OE_COUNT.equals(name)) {
+
+            checkOperandCount(oe, 1);
+            final Function<Object,Object> getter =
+                value(operands.get(0), type).asObject();
+            Operand operand = new Operand(AccessorCache.Kind.INT, null,
+                                          int.class, int.class);
+            operand.intGetter = new ToIntFunction<Object>() {
+                public int applyAsInt(Object object) {
+                    return(Values.asCollection(getter.apply(object)).size());
+                }
+            };
+            return(operand);
+        }
+        else if (Translator.OE_PARAMETER.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            final Function<Object,Object> map =
+                value(operands.get(0), type).asObject();
+            final Function<Object,Object> key =
+                value(operands.get(1), type).asObject();
+            return(Operand.object(null, new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    Object value = map.apply(object);
+                    return((value instanceof Map) ?
+                           ((Map<?,?>)value).get(key.apply(object)) : null);
+                }
+            }, Object.class));
+        }
+        else if (Translator.OE_AS.equals(name) ||
+                 Translator.OE_ELEMENTS_OF_TYPE.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            if (!(operands.get(1) instanceof IClassLiteralValueExpression)) {
+                throw(new IllegalArgumentException("The right operand of "+
+                    "the \""+name+"\" operator must be a "+
+                    "ClassLiteralValueExpression."));
+            }
+            final Function<Object,Object> input =
+                value(operands.get(0), type).asObject();
+            final int typeMask = Values.typeMask((String)
+                ((IClassLiteralValueExpression)operands.get(1)).getValue());
+
+            if (Translator.OE_AS.equals(name)) {
+                return(Operand.object(null, new Function<Object,Object>() {
+                    public Object apply(Object object) {
+                        Object value = input.apply(object);
+                        return(Values.isOfType(value, typeMask) ?
+                               value : null);
+                    }
+                }, Object.class));
+            }
+            return(Operand.object(null, new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    List<Object> elements = new ArrayList<Object>();
+                    for (Object element : Values.asCollection(
+                         input.apply(object))) {
+                        if (Values.isOfType(element, typeMask)) {
+                            elements.add(element);
+                        }
+                    }
+                    return(elements);
+                }
+            }, List.class));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+"\" operator "+
+            "can't be compiled into a Predicate."));
+    }
+
+
+    /**
+     * Get the Operand for an attribute of the value of owner.
+     *
+     * @param owner Gets the object that has the attribute from the
+     * object the Predicate is applied to.  null means the object
+     * the Predicate is applied to has the attribute.
+     *
+     * @param ownerType The declared type of the object that has
+     * the attribute.
+     */
+    private static Operand attribute(Function<Object,Object> owner,
+                                     Class<?> ownerType,
+                                     final String attributeName) {
+
+        AccessorCache.Accessor accessor = null;
+        if ((ownerType != null) && (ownerType != Object.class) &&
+            !Map.class.isAssignableFrom(ownerType)) {
+            accessor = ACCESSORS.getAccessor(ownerType, attributeName);
+        }
+
+        if (accessor != null) {
+            Operand operand = new Operand(accessor.getKind(), owner,
+                accessor.getValueType(), accessor.getGenericValueType());
+            operand.intGetter = accessor.getIntGetter();
+            operand.longGetter = accessor.getLongGetter();
+            operand.doubleGetter = accessor.getDoubleGetter();
+            operand.booleanGetter = accessor.getBooleanGetter();
+            operand.objectGetter = accessor.getObjectGetter();
+            return(operand);
+        }
+
+        /**
+         * We don't know what the object will be until we see it.
+         */
+        final ClassValue<AccessorCache.Accessor> accessors =
+            new ClassValue<AccessorCache.Accessor>() {
+                protected AccessorCache.Accessor computeValue(Class<?> type) {
+                    AccessorCache.Accessor accessor =
+                        ACCESSORS.getAccessor(type, attributeName);
+                    return((accessor == null) ?
+                           AccessorCache.Accessor.MISSING : accessor);
+                }
+            };
+        final boolean isValue = Translator.AE_VALUE.equals(attributeName);
+
+        return(Operand.object(owner, new Function<Object,Object>() {
+            public Object apply(Object object) {
+                if (object instanceof Map) {
+                    return(((Map<?,?>)object).get(attributeName));
+                }
+                if (isValue && Values.isPrimitive(object)) {
+                    return(object);
+                }
+                AccessorCache.Accessor accessor =
+                    accessors.get(object.getClass());
+                return((accessor == AccessorCache.Accessor.MISSING) ? null :
+                       accessor.getObjectGetter().apply(object));
+            }
+        }, Object.class));
+    }
+
+
+    /**
+     * Get the type of the elements of a collection whose
+     * declared type is the passed in type.  E.g. Response for
+     * List<Response>.  Returns Object.class if we can't tell.
+     */
+    private static Class<?> elementType(Type type) {
+
+        if (type instanceof Class) {
+            Class<?> c = (Class<?>)type;
+            return(c.isArray() ? c.getComponentType() : Object.class);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType)type;
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if ((parameterized.getRawType() instanceof Class) &&
+                Iterable.class.isAssignableFrom(
+                    (Class<?>)parameterized.getRawType()) &&
+                (arguments.length == 1)) {
+                if (arguments[0] instanceof Class) {
+                    return((Class<?>)arguments[0]);
+                }
+                if ((arguments[0] instanceof ParameterizedType) &&
+                    (((ParameterizedType)arguments[0]).getRawType() instanceof
+                     Class)) {
+                    return((Class<?>)((ParameterizedType)arguments[0]).
+                           getRawType());
+                }
+            }
+        }
+        return(Object.class);
+    }
+
+
+    private static Object literalValue(ILiteralValueExpression literal) {
+
+        if (literal instanceof ITimeLiteralValueExpression) {
+            return(((ITimeLiteralValueExpression)literal).getTimeValue());
+        }
+        return(literal.getValue());
+    }
+
+
+    /**
+     * Get the code of a comparison operator that can be done on
+     * primitive values, or -1 for a regular expression operator.
+     */
+    private static int operatorCode(String operatorName) {
+
+        if (Translator.OE_EQUALS.equals(operatorName)) {
+            return(EQ);
+        }
+        else if (Translator.OE_NOT_EQUALS.equals(operatorName)) {
+            return(NE);
+        }
+        else if (Translator.OE_LESS_THAN.equals(operatorName)) {
+            return(LT);
+        }
+        else if (Translator.OE_LESS_THAN_EQUALS.equals(operatorName)) {
+            return(LE);
+        }
+        else if (Translator.OE_GREATER_THAN.equals(operatorName)) {
+            return(GT);
+        }
+        else if (Translator.OE_GREATER_THAN_EQUALS.equals(operatorName)) {
+            return(GE);
+        }
+        return(-1);
+    }
+
+
+    /**
+     * Compare two doubles the way Values.compare() does.
+     * (I.e. NaN can't be compared to anything.)
+     */
+    private static int compare(double left, double right) {
+
+        if (left < right) {
+            return(-1);
+        }
+        else if (left > right) {
+            return(1);
+        }
+        else if (left == right) {
+            return(0);
+        }
+        return(Values.INCOMPARABLE);
+    }
+
+
+    /**
+     * Apply a comparison operator to the result of a compare.
+     */
+    private static boolean test(int code, int comparison) {
+
+        if (comparison == Values.INCOMPARABLE) {
+            /**
+             * Not equal is the only thing that is true of NaN.
+             */
+            return(code == NE);
+        }
+
+        switch (code) {
+            case EQ: return(comparison == 0);
+            case NE: return(comparison != 0);
+            case LT: return(comparison < 0);
+            case LE: return(comparison <= 0);
+            case GT: return(comparison > 0);
+            default: return(comparison >= 0);
+        }
+    }
+
+
+    private static void checkOperandCount(IOperatorExpression expression,
+                                          int count) {
+
+        if (expression.getOperandList().size() != count) {
+            throw(new IllegalArgumentException("The \""+
+                expression.getOperatorName()+"\" operator must have "+
+                count+" operand(s).  It has "+
+                expression.getOperandList().size()+"."));
+        }
+    }
+
+
+    /**
+     * A compiled expression that is not just true or false.
+     * It is the getter of the last step of an attribute path,
+     * (of the kind the getter returns), applied to whatever
+     * the owner function returns.
+     */
+    private static final class Operand {
+
+        private final AccessorCache.Kind kind;
+        private final Function<Object,Object> owner;
+        private final Class<?> valueType;
+        private final Type genericValueType;
+
+        private ToIntFunction<Object> intGetter;
+        private ToLongFunction<Object> longGetter;
+        private ToDoubleFunction<Object> doubleGetter;
+        private Predicate<Object> booleanGetter;
+        private Function<Object,Object> objectGetter;
+
+
+        Operand(AccessorCache.Kind kind, Function<Object,Object> owner,
+                Class<?> valueType, Type genericValueType) {
+
+            this.kind = kind;
+            this.owner = owner;
+            this.valueType = valueType;
+            this.genericValueType = genericValueType;
+        }
+
+
+        static Operand object(Function<Object,Object> owner,
+                              Function<Object,Object> getter,
+                              Class<?> valueType) {
+
+            Operand operand = new Operand(AccessorCache.Kind.OBJECT, owner,
+                                          valueType, valueType);
+            operand.objectGetter = getter;
+            return(operand);
+        }
+
+
+        /**
+         * Get a function that returns the value as an Object.
+         * (Boxing it if it is a primitive.)
+         */
+        Function<Object,Object> asObject() {
+
+            final Function<Object,Object> getter;
+            if (objectGetter != null) {
+                getter = objectGetter;
+            }
+            else if (intGetter != null) {
+                final ToIntFunction<Object> ints = intGetter;
+                getter = new Function<Object,Object>() {
+                    public Object apply(Object object) {
+                        return(Integer.valueOf(ints.applyAsInt(object)));
+                    }
+                };
+            }
+            else {
+                throw(new IllegalStateException("The Operand has no getter."));
+            }
+
+            if (owner == null) {
+                return(getter);
+            }
+            final Function<Object,Object> ownerGetter = owner;
+            return(new Function<Object,Object>() {
+                public Object apply(Object object) {
+                    Object target = ownerGetter.apply(object);
+                    return((target == null) ? null : getter.apply(target));
+                }
+            });
+        }
+
+
+        /**
+         * Get a function that returns the value of an
+         * INT, LONG, or DOUBLE Operand as a double.
+         */
+        ToDoubleFunction<Object> asDouble() {
+
+            if (doubleGetter != null) {
+                return(doubleGetter);
+            }
+            if (longGetter != null) {
+                final ToLongFunction<Object> longs = longGetter;
+                return(new ToDoubleFunction<Object>() {
+                    public double applyAsDouble(Object object) {
+                        return(longs.applyAsLong(object));
+                    }
+                });
+            }
+            final ToIntFunction<Object> ints = intGetter;
+            return(new ToDoubleFunction<Object>() {
+                public double applyAsDouble(Object object) {
+                    return(ints.applyAsInt(object));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IFloat64LiteralValueExpression;
+import com.physion.ebuilder.expression.IInt32LiteralValueExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.IStringLiteralValueExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A PreparedQuery is an ExpressionTree whose Int32, Float64, String,
+ * and Time literals have been lifted out into numbered bind
+ * parameters.  E.g. the tree for:
+ *
+ *      protocolID == "abc" and startTime > 2011-02-01
+ *
+ * becomes the template:
+ *
+ *      protocolID == ?0 and startTime > ?1
+ *
+ * with the parameter values "abc" and 2011-02-01.  The parameters
+ * are numbered in the order the literals appear in the tree,
+ * (depth first, left to right).  Boolean and class literals are
+ * part of the shape of the query, so they are not lifted.
+ *
+ * Most of the queries people run are the same few shapes with
+ * different literals.  The template is compiled into Nodes, (see
+ * NodeCompiler), the first time it is prepared, and the compiled
+ * plan is kept in a bounded, least recently used, plan cache keyed
+ * by the template.  Preparing another tree with the same shape only
+ * walks the tree to build its template and collect its literals.
+ * The plan is then evaluated with whatever values are bound to it,
+ * without being compiled again:
+ *
+ *      PreparedQuery query = PreparedQuery.prepare(expressionTree);
+ *      PreparedQuery.Bound bound = query.bind(accessor, "xyz", time);
+ *      for (Object epoch : epochs)
+ *          if (bound.matches(epoch))
+ *              ...
+ *
+ * A bound value can be of any type the literal could have been.
+ * (E.g. an Integer or a Double for a number.)  The value of a
+ * regular expression parameter is compiled into a Pattern once,
+ * when it is bound.
+ *
+ * Please note, like PredicateCompiler, the tree's Class Under
+ * Qualification is not checked against the entities.  That is up
+ * to the caller.
+ *
+ * PreparedQuery objects are immutable and thread safe.
+ * A Bound is not thread safe.
+ */
+public final class PreparedQuery {
+
+    public static final int DEFAULT_PLAN_CACHE_SIZE = 256;
+
+    private static final Counter PLANS_COMPILED =
+        Metrics.counter("evaluator.preparedQuery.plansCompiled");
+    private static final Counter PLAN_CACHE_HITS =
+        Metrics.counter("evaluator.preparedQuery.planCacheHits");
+    private static final Counter PLANS_EVICTED =
+        Metrics.counter("evaluator.preparedQuery.plansEvicted");
+
+    private static int planCacheSize = DEFAULT_PLAN_CACHE_SIZE;
+
+    /**
+     * The compiled plans, keyed by template, in least recently
+     * used order.  Always synchronize on PLAN_CACHE to use it.
+     */
+    private static final LinkedHashMap<String,Plan> PLAN_CACHE =
+        new LinkedHashMap<String,Plan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Plan> e) {
+                if (size() > planCacheSize) {
+                    PLANS_EVICTED.increment();
+                    return(true);
+                }
+                return(false);
+            }
+        };
+
+    private final Plan plan;
+    private final Object[] parameterValues;
+
+
+    private PreparedQuery(Plan plan, Object[] parameterValues) {
+        this.plan = plan;
+        this.parameterValues = parameterValues;
+    }
+
+
+    /**
+     * Lift the literals out of the passed in tree, and get the
+     * compiled plan for its template, compiling it if it is not
+     * in the plan cache.
+     *
+     * @throws IllegalArgumentException if the tree contains something
+     * that can't be evaluated.
+     */
+    public static PreparedQuery prepare(ExpressionTree expressionTree) {
+
+        if (expressionTree == null) {
+            throw(new IllegalArgumentException(
+                "expressionTree must not be null."));
+        }
+
+        StringBuilder template = new StringBuilder();
+        template.append(expressionTree.getClassUnderQualification()).
+            append('|');
+        List<Object> values = new ArrayList<Object>();
+        Map<IExpression,Integer> parameterIndexes =
+            new IdentityHashMap<IExpression,Integer>();
+        lift(expressionTree.getRootExpression(), template, values,
+             parameterIndexes);
+        String key = template.toString();
+
+        Plan plan;
+        synchronized (PLAN_CACHE) {
+            plan = PLAN_CACHE.get(key);
+        }
+
+        if (plan != null) {
+            PLAN_CACHE_HITS.increment();
+        }
+        else {
+            /**
+             * Compile outside the lock.  If two threads compile the
+             * same template at once, they both get a good plan, and
+             * the cache keeps the first one.
+             */
+            Plan compiled = new Plan(key, expressionTree.getRootExpression(),
+                                     parameterIndexes, values.size());
+            PLANS_COMPILED.increment();
+            synchronized (PLAN_CACHE) {
+                plan = PLAN_CACHE.get(key);
+                if (plan == null) {
+                    plan = compiled;
+                    PLAN_CACHE.put(key, plan);
+                }
+            }
+        }
+
+        return(new PreparedQuery(plan, values.toArray()));
+    }
+
+
+    /**
+     * Get the template of the query.  Two trees that differ only
+     * in the values of their lifted literals have the same template.
+     * The template is meant for debugging and logging.  Its format
+     * may change.
+     */
+    public String getTemplate() {
+        return(plan.template);
+    }
+
+
+    /**
+     * Get a 64 bit fingerprint of the template.
+     */
+    public long getFingerprint() {
+        return(plan.fingerprint);
+    }
+
+
+    public int getParameterCount() {
+        return(parameterValues.length);
+    }
+
+
+    /**
+     * Get the values of the literals that were lifted out of the
+     * tree this query was prepared from, by parameter index.
+     * This returns a copy.
+     */
+    public Object[] getParameterValues() {
+        return(parameterValues.clone());
+    }
+
+
+    /**
+     * Bind the values of the literals that were lifted out of the
+     * tree this query was prepared from.  I.e. the result matches
+     * the same entities the tree does.
+     */
+    public Bound bind(EntityAccessor accessor) {
+        return(new Bound(plan, accessor, plan.bindValues(parameterValues)));
+    }
+
+
+    /**
+     * Bind the passed in values to the parameters.
+     *
+     * @throws IllegalArgumentException if the wrong number of values
+     * is passed in, or if a regular expression parameter's value is
+     * not a legal regular expression.
+     */
+    public Bound bind(EntityAccessor accessor, Object... values) {
+        return(new Bound(plan, accessor, plan.bindValues(values)));
+    }
+
+
+    /**
+     * Set the maximum number of plans the plan cache keeps.
+     * The least recently used plans are dropped first.
+     */
+    public static void setPlanCacheSize(int size) {
+
+        if (size < 1) {
+            throw(new IllegalArgumentException(
+                "The plan cache size must be at least 1: "+size));
+        }
+        synchronized (PLAN_CACHE) {
+            planCacheSize = size;
+            while (PLAN_CACHE.size() > size) {
+                PLAN_CACHE.remove(PLAN_CACHE.keySet().iterator().next());
+                PLANS_EVICTED.increment();
+            }
+        }
+    }
+
+
+    public static int getPlanCacheSize() {
+        synchronized (PLAN_CACHE) {
+            return(planCacheSize);
+        }
+    }
+
+
+    public static void clearPlanCache() {
+        synchronized (PLAN_CACHE) {
+            PLAN_CACHE.clear();
+        }
+    }
+
+
+    /**
+     * Append the template of the passed in expression to the template
+     * StringBuilder, and lift its literals into parameters.
+     */
+    private static void lift(IExpression expression, StringBuilder template,
+                             List<Object> values,
+                             Map<IExpression,Integer> parameterIndexes) {
+
+        if (expression instanceof IAttributeExpression) {
+            template.append(((IAttributeExpression)expression).
+                getAttributeName());
+        }
+        else if (expression instanceof ILiteralValueExpression) {
+
+            ILiteralValueExpression literal =
+                (ILiteralValueExpression)expression;
+            Object value = null;
+            String type = null;
+            if (expression instanceof IInt32LiteralValueExpression) {
+                type = "int";
+                value = Integer.valueOf(((IInt32LiteralValueExpression)
+                    expression).getIntValue());
+            }
+            else if (expression instanceof IFloat64LiteralValueExpression) {
+                type = "double";
+                value = Double.valueOf(((IFloat64LiteralValueExpression)
+                    expression).getDoubleValue());
+            }
+            else if (expression instanceof IStringLiteralValueExpression) {
+                type = "string";
+                value = literal.getValue();
+            }
+            else if (expression instanceof ITimeLiteralValueExpression) {
+                type = "time";
+                value = ((ITimeLiteralValueExpression)expression).
+                    getTimeValue();
+            }
+
+            if (type != null) {
+                parameterIndexes.put(expression,
+                                     Integer.valueOf(values.size()));
+                template.append('?').append(values.size()).append(':').
+                    append(type);
+                values.add(value);
+            }
+            else {
+                template.append(expression.getClass().getSimpleName()).
+                    append('(').append(literal.getValue()).append(')');
+            }
+        }
+        else if (expression instanceof IOperatorExpression) {
+
+            IOperatorExpression oe = (IOperatorExpression)expression;
+            template.append(oe.getOperatorName()).append('(');
+            List<IExpression> operands = oe.getOperandList();
+            for (int index = 0; index < operands.size(); index++) {
+                if (index > 0) {
+                    template.append(',');
+                }
+                lift(operands.get(index), template, values,
+                     parameterIndexes);
+            }
+            template.append(')');
+        }
+        else {
+            /**
+             * The NodeCompiler will complain about it.
+             */
+            template.append(String.valueOf(expression));
+        }
+    }
+
+
+    /**
+     * The compiled Nodes of one template.
+     * A Plan is never changed after it is created.
+     */
+    private static final class Plan {
+
+        private final String template;
+        private final long fingerprint;
+        private final NodeCompiler compiler;
+        private final Node root;
+        private final int parameterCount;
+
+        /**
+         * The regular expression operator each parameter is the
+         * pattern of, or null if it is not a pattern.
+         */
+        private final String[] patternOperators;
+
+
+        Plan(String template, IExpression rootExpression,
+             Map<IExpression,Integer> parameterIndexes,
+             int parameterCount) {
+
+            this.template = template;
+            this.fingerprint = fingerprint(template);
+            this.compiler = new NodeCompiler(parameterIndexes);
+            this.root = compiler.compile(rootExpression);
+            this.parameterCount = parameterCount;
+
+            patternOperators = new String[parameterCount];
+            for (int id = 0; id < compiler.getNodeCount(); id++) {
+                Node node = compiler.getNode(id);
+                if ((node instanceof Node.Compare) &&
+                    Node.Compare.isRegularExpression(
+                        ((Node.Compare)node).getOperatorName()) &&
+                    (((Node.Compare)node).getRight() instanceof
+                     Node.BindParameter)) {
+                    patternOperators[((Node.BindParameter)((Node.Compare)
+                        node).getRight()).getIndex()] =
+                        ((Node.Compare)node).getOperatorName();
+                }
+            }
+        }
+
+
+        /**
+         * Check the passed in values, and turn them into the array
+         * an EvaluationFrame reads the parameters from.
+         */
+        Object[] bindValues(Object[] values) {
+
+            if ((values == null) || (values.length != parameterCount)) {
+                throw(new IllegalArgumentException("The query has "+
+                    parameterCount+" parameter(s), but "+
+                    ((values == null) ? 0 : values.length)+
+                    " value(s) were bound."));
+            }
+
+            Object[] bound = values.clone();
+            for (int index = 0; index < bound.length; index++) {
+                if ((patternOperators[index] != null) &&
+                    (bound[index] != null)) {
+                    bound[index] = Node.Compare.compilePattern(
+                        patternOperators[index], bound[index].toString());
+                }
+            }
+            return(bound);
+        }
+
+
+        /**
+         * The 64 bit FNV-1a hash of the template.
+         */
+        private static long fingerprint(String template) {
+
+            long hash = 0xcbf29ce484222325L;
+            for (int index = 0; index < template.length(); index++) {
+                hash ^= template.charAt(index);
+                hash *= 0x100000001b3L;
+            }
+            return(hash);
+        }
+    }
+
+
+    /**
+     * A PreparedQuery with values bound to its parameters,
+     * ready to be evaluated against entities.
+     */
+    public static final class Bound {
+
+        private final Plan plan;
+        private final EvaluationFrame frame;
+
+
+        private Bound(Plan plan, EntityAccessor accessor, Object[] values) {
+
+            if (accessor == null) {
+                throw(new IllegalArgumentException(
+                    "accessor must not be null."));
+            }
+            this.plan = plan;
+            this.frame = new EvaluationFrame(accessor);
+            frame.setParameters(values);
+        }
+
+
+        /**
+         * Bind different values to the parameters, (e.g. for the
+         * next batch of entities), reusing this Bound's memory.
+         */
+        public void rebind(Object... values) {
+            frame.setParameters(plan.bindValues(values));
+        }
+
+
+        /**
+         * Returns true if the passed in entity matches the query.
+         */
+        public boolean matches(Object entity) {
+
+            if (entity == null) {
+                return(false);
+            }
+            frame.begin(entity, plan.compiler.getNodeCount());
+            return(frame.test(plan.root));
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.translator.ExpressionTreeToRowData;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A QueryProfile evaluates a query against entities, the same as
+ * a PreparedQuery.Bound does, and while it does, it records how
+ * each row of the query did.  I.e. it is an SQL "EXPLAIN ANALYZE"
+ * for the rows a user sees in the ExpressionBuilder.
+ *
+ * For each row it records:
+ *
+ *      How many times the row was evaluated.
+ *      How many of those times it was true, and how many false.
+ *      How many times it was skipped, because an and/or/any/all
+ *          above it already knew its answer.
+ *      How long evaluating it took, including the rows below it.
+ *
+ * A row's numbers are the numbers of the Node its IExpression was
+ * compiled into, (see RowDataToExpressionTree.translate(RowData,Map)),
+ * so two rows that are exactly the same share their numbers, the
+ * same way they share their evaluation.
+ *
+ * Timing every Node costs two calls to System.nanoTime() per Node,
+ * so by default only every DEFAULT_SAMPLE_INTERVAL'th entity is
+ * profiled.  The other entities are evaluated at full speed.
+ * Call setSampleInterval(1) to profile every entity.
+ *
+ *      QueryProfile profile = new QueryProfile(rootRow, accessor);
+ *      for (Object epoch : epochs)
+ *          if (profile.matches(epoch))
+ *              ...
+ *      System.out.println(profile);
+ *      for (QueryProfile.RowStatistics row : profile.getHottestRows(3))
+ *          ...
+ *
+ * Please note, like PreparedQuery, the tree's Class Under
+ * Qualification is not checked against the entities.
+ *
+ * A QueryProfile is not thread safe.
+ */
+public final class QueryProfile {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    private static final Counter ENTITIES_PROFILED =
+        Metrics.counter("evaluator.queryProfile.entitiesProfiled");
+
+    private final RowData rootRow;
+
+    /**
+     * The rows of the tree, in the order they appear in the GUI.
+     */
+    private final List<RowData> rows = new ArrayList<RowData>();
+
+    /**
+     * The Node each row was compiled into.
+     */
+    private final Map<RowData,Node> rowNodes =
+        new IdentityHashMap<RowData,Node>();
+
+    private final NodeCompiler compiler = new NodeCompiler();
+    private final Node root;
+    private final EvaluationFrame frame;
+    private final EvaluationProfile profile = new EvaluationProfile();
+
+    private int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    private int untilSample = 1;
+    private long entitiesEvaluated;
+    private long entitiesProfiled;
+
+
+    /**
+     * Create a profile of the query the passed in tree of rows is.
+     *
+     * @throws IllegalArgumentException if the rows can't be
+     * translated, or contain something that can't be evaluated.
+     */
+    public QueryProfile(RowData rootRow, EntityAccessor accessor) {
+
+        if ((rootRow == null) || !rootRow.isRootRow()) {
+            throw(new IllegalArgumentException(
+                "rootRow must be the root row of a tree."));
+        }
+        if (accessor == null) {
+            throw(new IllegalArgumentException(
+                "accessor must not be null."));
+        }
+
+        this.rootRow = rootRow;
+
+        Map<RowData,IExpression> rowExpressions =
+            new IdentityHashMap<RowData,IExpression>();
+        ExpressionTree expressionTree = RowDataToExpressionTree.translate(
+            rootRow, rowExpressions);
+        if (expressionTree == null) {
+            throw(new IllegalArgumentException(
+                "rootRow could not be translated."));
+        }
+
+        root = compiler.compile(expressionTree.getRootExpression());
+
+        /**
+         * Compiling a row's expression again just returns the Node
+         * that was created for it when the root was compiled,
+         * because the compiler interns its Nodes.
+         */
+        addRows(rootRow);
+        for (RowData rowData : rows) {
+            IExpression expression = rowExpressions.get(rowData);
+            if (expression != null) {
+                rowNodes.put(rowData, compiler.compile(expression));
+            }
+        }
+
+        frame = new EvaluationFrame(accessor);
+    }
+
+
+    /**
+     * Create a profile of the query the passed in tree is.
+     * The tree is translated into rows, (see getRootRow()),
+     * which are what the statistics are kept for.
+     *
+     * @throws IllegalArgumentException if the tree contains
+     * something that can't be evaluated.
+     */
+    public QueryProfile(ExpressionTree expressionTree,
+                        EntityAccessor accessor) {
+        this(translate(expressionTree), accessor);
+    }
+
+
+    private static RowData translate(ExpressionTree expressionTree) {
+
+        if (expressionTree == null) {
+            throw(new IllegalArgumentException(
+                "expressionTree must not be null."));
+        }
+        return(ExpressionTreeToRowData.translate(expressionTree));
+    }
+
+
+    private void addRows(RowData rowData) {
+
+        rows.add(rowData);
+        for (RowData childRow : rowData.getChildRows()) {
+            addRows(childRow);
+        }
+    }
+
+
+    /**
+     * Get the root of the tree of rows the statistics are kept for.
+     */
+    public RowData getRootRow() {
+        return(rootRow);
+    }
+
+
+    /**
+     * Get how often entities are profiled.  See setSampleInterval().
+     */
+    public int getSampleInterval() {
+        return(sampleInterval);
+    }
+
+
+    /**
+     * Set how often entities are profiled.  E.g. 16 means every
+     * 16th entity is profiled.  1 means every entity is profiled,
+     * and 0 turns profiling off.
+     */
+    public void setSampleInterval(int sampleInterval) {
+
+        if (sampleInterval < 0) {
+            throw(new IllegalArgumentException("sampleInterval < 0"));
+        }
+        this.sampleInterval = sampleInterval;
+        this.untilSample = 1;
+    }
+
+
+    /**
+     * Returns true if the passed in entity matches the query.
+     * If the entity is one of the samples, how each row did
+     * is recorded.
+     */
+    public boolean matches(Object entity) {
+
+        if (entity == null) {
+            return(false);
+        }
+
+        entitiesEvaluated++;
+        boolean sample = false;
+        if ((sampleInterval > 0) && (--untilSample <= 0)) {
+            untilSample = sampleInterval;
+            sample = true;
+            entitiesProfiled++;
+            ENTITIES_PROFILED.increment();
+        }
+
+        frame.setProfile(sample ? profile : null);
+        frame.begin(entity, compiler.getNodeCount());
+        return(frame.test(root));
+    }
+
+
+    /**
+     * Get the number of entities matches() has been called with.
+     */
+    public long getEntitiesEvaluated() {
+        return(entitiesEvaluated);
+    }
+
+
+    /**
+     * Get the number of entities whose evaluation was profiled.
+     */
+    public long getEntitiesProfiled() {
+        return(entitiesProfiled);
+    }
+
+
+    /**
+     * Get the statistics of the passed in row.
+     *
+     * @throws IllegalArgumentException if the row is not one of
+     * the rows in this profile's tree.
+     */
+    public RowStatistics getRowStatistics(RowData rowData) {
+
+        if (!rowNodes.containsKey(rowData)) {
+            throw(new IllegalArgumentException(
+                "The row is not in this profile's tree."));
+        }
+        return(new RowStatistics(rowData, rowNodes.get(rowData)));
+    }
+
+
+    /**
+     * Get the statistics of all the rows, in the order the rows
+     * appear in the GUI.  I.e. the root row first.
+     */
+    public List<RowStatistics> getRowStatistics() {
+
+        List<RowStatistics> statistics = new ArrayList<RowStatistics>();
+        for (RowData rowData : rows) {
+            statistics.add(getRowStatistics(rowData));
+        }
+        return(statistics);
+    }
+
+
+    /**
+     * Get the rows that took the most time, the slowest first.
+     * The root row is not included, because it always takes
+     * (at least) as long as all the other rows put together.
+     * Rows that were never evaluated are not included.
+     *
+     * @param count The most rows to return.
+     */
+    public List<RowStatistics> getHottestRows(int count) {
+
+        List<RowStatistics> statistics = new ArrayList<RowStatistics>();
+        for (RowData rowData : rows) {
+            if (rowData != rootRow) {
+                RowStatistics rowStatistics = getRowStatistics(rowData);
+                if (rowStatistics.getInvocations() > 0) {
+                    statistics.add(rowStatistics);
+                }
+            }
+        }
+
+        Collections.sort(statistics, new Comparator<RowStatistics>() {
+            @Override
+            public int compare(RowStatistics a, RowStatistics b) {
+                return((a.getNanos() < b.getNanos()) ? 1 :
+                       ((a.getNanos() > b.getNanos()) ? -1 : 0));
+            }
+        });
+
+        return(new ArrayList<RowStatistics>(
+            statistics.subList(0, Math.min(Math.max(count, 0),
+                                           statistics.size()))));
+    }
+
+
+    /**
+     * Forget everything that has been recorded.
+     */
+    public void clear() {
+
+        profile.clear();
+        entitiesEvaluated = 0;
+        entitiesProfiled = 0;
+        untilSample = 1;
+    }
+
+
+    /**
+     * Get an EXPLAIN ANALYZE style report of the rows.  E.g.
+     *
+     *      Epoch | Any  (evaluated 100, true 40, false 60, ...)
+     *        protocolID == "abc"  (evaluated 100, true 10, ...)
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Profiled ").append(entitiesProfiled).
+            append(" of ").append(entitiesEvaluated).append(" entities.");
+        appendRows(builder, rootRow, "");
+        return(builder.toString());
+    }
+
+
+    private void appendRows(StringBuilder builder, RowData rowData,
+                            String indent) {
+
+        builder.append("\n").append(rowData.getRowString(false, indent)).
+            append("  (").append(getRowStatistics(rowData)).append(")");
+        for (RowData childRow : rowData.getChildRows()) {
+            appendRows(builder, childRow, indent+"  ");
+        }
+    }
+
+
+    /**
+     * The statistics of one row, as they were when the RowStatistics
+     * was created.
+     */
+    public final class RowStatistics {
+
+        private final RowData rowData;
+        private final long invocations;
+        private final long passes;
+        private final long fails;
+        private final long skips;
+        private final long nanos;
+
+
+        private RowStatistics(RowData rowData, Node node) {
+
+            this.rowData = rowData;
+            if (node == null) {
+                invocations = passes = fails = skips = nanos = 0;
+            }
+            else {
+                invocations = profile.getInvocations(node);
+                passes = profile.getPasses(node);
+                fails = profile.getFails(node);
+                skips = profile.getSkips(node);
+                nanos = profile.getNanos(node);
+            }
+        }
+
+
+        public RowData getRowData() {
+            return(rowData);
+        }
+
+
+        /**
+         * Get the number of times the row was evaluated.
+         */
+        public long getInvocations() {
+            return(invocations);
+        }
+
+
+        /**
+         * Get the number of times the row was true.
+         */
+        public long getPasses() {
+            return(passes);
+        }
+
+
+        /**
+         * Get the number of times the row was false.
+         */
+        public long getFails() {
+            return(fails);
+        }
+
+
+        /**
+         * Get the number of times the row was not evaluated because
+         * the row above it already knew its answer.
+         */
+        public long getSkips() {
+            return(skips);
+        }
+
+
+        /**
+         * Get the total time evaluating the row took, including
+         * the rows below it.
+         */
+        public long getNanos() {
+            return(nanos);
+        }
+
+
+        public double getAverageNanos() {
+            return((invocations == 0) ? 0.0 : ((double)nanos)/invocations);
+        }
+
+
+        /**
+         * Get the fraction of the time the whole query took that
+         * this row took.  The root row is always 1.0, (or 0.0 if
+         * nothing has been profiled yet).
+         */
+        public double getFractionOfTotal() {
+
+            long total = profile.getNanos(root);
+            return((total == 0) ? 0.0 : ((double)nanos)/total);
+        }
+
+
+        @Override
+        public String toString() {
+            return("evaluated "+invocations+", true "+passes+", false "+
+                   fails+", skipped "+skips+", "+
+                   String.format("%.1f", getAverageNanos()/1000.0)+
+                   " us/evaluation, "+
+                   String.format("%.1f", getFractionOfTotal()*100.0)+
+                   "% of total");
+        }
+    }
+}
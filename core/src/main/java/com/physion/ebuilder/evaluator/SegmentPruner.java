@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IAttributeExpression;
+import com.physion.ebuilder.expression.IBooleanLiteralValueExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.ITimeLiteralValueExpression;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.translator.Translator;
+import org.joda.time.ReadableInstant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A SegmentPruner uses the SegmentSynopsis of each segment of an
+ * entity archive to prove that some segments can't contain a match
+ * for a query, so they can be skipped without being read.
+ *
+ * Each part of the query is evaluated against the synopsis with
+ * three valued logic.  The answer is TRUE if the part is true for
+ * every entity in the segment, FALSE if it is false for every entity,
+ * and UNKNOWN otherwise.  For example, if the protocolID values of a
+ * segment are all between 3 and 7, then protocolID > 10 is FALSE,
+ * protocolID < 10 is TRUE, (as long as none of them are null), and
+ * protocolID == 5 is UNKNOWN.  A segment is skipped if the whole
+ * query is FALSE.
+ *
+ * and, or, and not combine the answers the way you would expect.
+ * (That is why we need TRUE.  not(protocolID < 10) is FALSE for
+ * the segment above.)
+ *
+ * We are conservative about everything the synopsis doesn't
+ * describe.  Any, All, and Count of a TO_MANY attribute, parameters,
+ * regular expressions, and the per-user operators are UNKNOWN,
+ * because the synopsis has no summary of the elements of collections.
+ * So, a segment is never skipped unless it really can't match.
+ * (Bloom filters have false positives, but not false negatives.)
+ */
+public final class SegmentPruner {
+
+    private static final Counter SEGMENTS_SKIPPED =
+        Metrics.counter("evaluator.pruner.segmentsSkipped");
+    private static final Counter SEGMENTS_SCANNED =
+        Metrics.counter("evaluator.pruner.segmentsScanned");
+
+    private enum Truth {
+        TRUE, FALSE, UNKNOWN;
+
+        Truth not() {
+            return((this == TRUE) ? FALSE : ((this == FALSE) ? TRUE : UNKNOWN));
+        }
+    }
+
+    private final ExpressionTree expressionTree;
+
+    /**
+     * The query's Class Under Qualification, or null
+     * if the DataModel doesn't have a class with its name.
+     */
+    private final ClassDescription cuqClassDescription;
+
+
+    public SegmentPruner(ExpressionTree expressionTree) {
+
+        if (expressionTree == null) {
+            throw(new IllegalArgumentException(
+                "expressionTree must not be null."));
+        }
+        this.expressionTree = expressionTree;
+        this.cuqClassDescription = DataModel.getClassDescription(
+            expressionTree.getClassUnderQualification());
+    }
+
+
+    /**
+     * Returns false if no entity in the segment the passed in
+     * synopsis summarizes can match the query.
+     */
+    public boolean mayMatch(SegmentSynopsis synopsis) {
+
+        boolean mayMatch = (synopsis.getCount() > 0) &&
+            isInstance(synopsis.getClassDescription()) &&
+            (evaluate(expressionTree.getRootExpression(), synopsis) !=
+             Truth.FALSE);
+
+        if (mayMatch) {
+            SEGMENTS_SCANNED.increment();
+        }
+        else {
+            SEGMENTS_SKIPPED.increment();
+        }
+        return(mayMatch);
+    }
+
+
+    /**
+     * Get the segments that may contain a match, in the order
+     * of the passed in map.
+     *
+     * @param segments The synopsis of each segment, keyed by
+     * whatever the caller uses to find the segment.  E.g. a File.
+     */
+    public <S> List<S> select(Map<S,SegmentSynopsis> segments) {
+
+        List<S> selected = new ArrayList<S>();
+        for (Map.Entry<S,SegmentSynopsis> entry : segments.entrySet()) {
+            if (mayMatch(entry.getValue())) {
+                selected.add(entry.getKey());
+            }
+        }
+        return(selected);
+    }
+
+
+    /**
+     * Returns true if the entities of the passed in class are
+     * instances of the query's Class Under Qualification.
+     */
+    private boolean isInstance(ClassDescription classDescription) {
+
+        if ((classDescription != null) && (cuqClassDescription != null)) {
+            return(classDescription.isSubclassOf(cuqClassDescription));
+        }
+
+        String cuq = expressionTree.getClassUnderQualification();
+        for (ClassDescription cd = classDescription; cd != null;
+             cd = cd.getParentClass()) {
+            if (cd.getName().equals(cuq)) {
+                return(true);
+            }
+        }
+        return(false);
+    }
+
+
+    private Truth evaluate(IExpression expression, SegmentSynopsis synopsis) {
+
+        if (expression instanceof IBooleanLiteralValueExpression) {
+            return(((IBooleanLiteralValueExpression)expression).
+                   getBooleanValue() ? Truth.TRUE : Truth.FALSE);
+        }
+        if (!(expression instanceof IOperatorExpression)) {
+            return(Truth.UNKNOWN);
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (Translator.OE_AND.equals(name) || Translator.OE_OR.equals(name)) {
+
+            /**
+             * For "and", one FALSE operand makes it FALSE, and it is
+             * only TRUE if all the operands are.  "or" is the opposite.
+             */
+            Truth decisive = Translator.OE_AND.equals(name) ?
+                Truth.FALSE : Truth.TRUE;
+            Truth result = decisive.not();
+            for (IExpression operand : operands) {
+                Truth truth = evaluate(operand, synopsis);
+                if (truth == decisive) {
+                    return(decisive);
+                }
+                if (truth == Truth.UNKNOWN) {
+                    result = Truth.UNKNOWN;
+                }
+            }
+            return(result);
+        }
+        else if (Translator.OE_NOT.equals(name) && (operands.size() == 1)) {
+            return(evaluate(operands.get(0), synopsis).not());
+        }
+        else if (Translator.OE_IS_NULL.equals(name) &&
+                 (operands.size() == 1)) {
+
+            SegmentSynopsis.Summary summary = getSummary(operands.get(0),
+                                                         synopsis);
+            if (summary == null) {
+                return(Truth.UNKNOWN);
+            }
+            if (summary.nullCount == 0) {
+                return(Truth.FALSE);
+            }
+            return((summary.nullCount == summary.count) ?
+                   Truth.TRUE : Truth.UNKNOWN);
+        }
+        else if (NodeCompiler.isComparison(name) && (operands.size() == 2) &&
+                 (operands.get(1) instanceof ILiteralValueExpression)) {
+
+            SegmentSynopsis.Summary summary = getSummary(operands.get(0),
+                                                         synopsis);
+            if (summary == null) {
+                return(Truth.UNKNOWN);
+            }
+            return(compare(summary, name,
+                literalValue((ILiteralValueExpression)operands.get(1))));
+        }
+
+        /**
+         * any, all, count, parameters, the per-user operators, etc.
+         */
+        return(Truth.UNKNOWN);
+    }
+
+
+    /**
+     * Evaluate "path operatorName literal" against the
+     * summary of the path.
+     */
+    private static Truth compare(SegmentSynopsis.Summary summary,
+                                 String operatorName, Object literal) {
+
+        /**
+         * A comparison with null is false, whatever the operator.
+         */
+        if ((literal == null) || (summary.count == summary.nullCount)) {
+            return(Truth.FALSE);
+        }
+
+        if (summary.values != null) {
+            if (Translator.OE_EQUALS.equals(operatorName) &&
+                !summary.values.mightContain(literal)) {
+                return(Truth.FALSE);
+            }
+            return(Truth.UNKNOWN);
+        }
+
+        double value;
+        if ((summary.kind == SegmentSynopsis.Summary.NUMBER) &&
+            (literal instanceof Number)) {
+            value = ((Number)literal).doubleValue();
+        }
+        else if ((summary.kind == SegmentSynopsis.Summary.TIME) &&
+                 (literal instanceof ReadableInstant)) {
+            value = ((ReadableInstant)literal).getMillis();
+        }
+        else {
+            return(Truth.UNKNOWN);
+        }
+        if (summary.mixed || Double.isNaN(value)) {
+            return(Truth.UNKNOWN);
+        }
+
+        if (summary.getRangeCount() == 0) {
+            /**
+             * All the non-null values are NaN, which is only
+             * "not equal" to things.
+             */
+            return(Translator.OE_NOT_EQUALS.equals(operatorName) ?
+                   Truth.UNKNOWN : Truth.FALSE);
+        }
+
+        double min = summary.minimum;
+        double max = summary.maximum;
+
+        /**
+         * Whether every value is in the range, so a comparison
+         * that is true for the whole range is true for every entity.
+         */
+        boolean clean = (summary.nullCount == 0) && (summary.nanCount == 0);
+
+        if (Translator.OE_EQUALS.equals(operatorName)) {
+            if ((value < min) || (value > max)) {
+                return(Truth.FALSE);
+            }
+            return((clean && (min == value) && (max == value)) ?
+                   Truth.TRUE : Truth.UNKNOWN);
+        }
+        else if (Translator.OE_NOT_EQUALS.equals(operatorName)) {
+            if ((min == value) && (max == value) && (summary.nanCount == 0)) {
+                return(Truth.FALSE);
+            }
+            return(((summary.nullCount == 0) &&
+                    ((value < min) || (value > max))) ?
+                   Truth.TRUE : Truth.UNKNOWN);
+        }
+        else if (Translator.OE_LESS_THAN.equals(operatorName)) {
+            return(range(min >= value, clean && (max < value)));
+        }
+        else if (Translator.OE_LESS_THAN_EQUALS.equals(operatorName)) {
+            return(range(min > value, clean && (max <= value)));
+        }
+        else if (Translator.OE_GREATER_THAN.equals(operatorName)) {
+            return(range(max <= value, clean && (min > value)));
+        }
+        else if (Translator.OE_GREATER_THAN_EQUALS.equals(operatorName)) {
+            return(range(max < value, clean && (min >= value)));
+        }
+
+        /**
+         * The regular expression operators.
+         */
+        return(Truth.UNKNOWN);
+    }
+
+
+    private static Truth range(boolean never, boolean always) {
+        return(never ? Truth.FALSE : (always ? Truth.TRUE : Truth.UNKNOWN));
+    }
+
+
+    /**
+     * Get the summary of the attribute path the passed in
+     * expression reads, or null if it isn't a path or the
+     * path isn't summarized.
+     */
+    private static SegmentSynopsis.Summary getSummary(
+        IExpression expression, SegmentSynopsis synopsis) {
+
+        String path = getPath(expression);
+        return((path == null) ? null : synopsis.getSummary(path));
+    }
+
+
+    /**
+     * Get the dotted attribute path, (e.g. "epochGroup.uuid"),
+     * of an expression, or null if it isn't a simple path.
+     */
+    private static String getPath(IExpression expression) {
+
+        if (expression instanceof IAttributeExpression) {
+            String name = ((IAttributeExpression)expression).getAttributeName();
+            return(Translator.AE_THIS.equals(name) ? null : name);
+        }
+
+        if ((expression instanceof IOperatorExpression) &&
+            Translator.OE_DOT.equals(((IOperatorExpression)expression).
+                                     getOperatorName())) {
+            List<IExpression> operands =
+                ((IOperatorExpression)expression).getOperandList();
+            if ((operands.size() == 2) &&
+                (operands.get(1) instanceof IAttributeExpression)) {
+                String path = getPath(operands.get(0));
+                if (path != null) {
+                    return(path+"."+((IAttributeExpression)operands.get(1)).
+                           getAttributeName());
+                }
+            }
+        }
+        return(null);
+    }
+
+
+    private static Object literalValue(ILiteralValueExpression literal) {
+
+        if (literal instanceof ITimeLiteralValueExpression) {
+            return(((ITimeLiteralValueExpression)literal).getTimeValue());
+        }
+        return(literal.getValue());
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Type;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A SegmentSynopsis is a small summary of the entities in one
+ * segment of an entity archive, (e.g. one file of Epochs from one
+ * month).  It is written next to the segment, so a SegmentPruner
+ * can decide whether the segment can contain a match for a query
+ * without reading the segment itself.
+ *
+ * For each attribute of the segment's class it keeps:
+ *
+ *      INT_16, INT_32, FLOAT_64, and DATE_TIME attributes:
+ *      the minimum and maximum value.  (Times are kept as
+ *      milliseconds since the epoch.)
+ *
+ *      UTF_8_STRING attributes:  a Bloom filter of the values.
+ *
+ *      TO_ONE references, (e.g. epochGroup):  a Bloom filter of the
+ *      ids of the referenced entities, under the path
+ *      <attribute>.<id attribute>, (e.g. epochGroup.uuid).
+ *
+ * And, for all of them, how many values were null.  TO_MANY
+ * attributes, PARAMETERS_MAPs, and the per-user attributes are
+ * not summarized.
+ *
+ * All the entities in a segment are assumed to be instances of
+ * the segment's class, (or of one of its subclasses).
+ *
+ * A SegmentSynopsis is not thread safe while entities are
+ * being added.
+ */
+public final class SegmentSynopsis {
+
+    /**
+     * The false positive probability the Bloom filters are sized for.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * The first int of the written form, so read() can tell it
+     * isn't reading a synopsis.
+     */
+    private static final int MAGIC = 0x53594e31;
+
+    private final ClassDescription classDescription;
+    private final EntityAccessor accessor;
+    private final String idAttribute;
+
+    private long count;
+
+    /**
+     * The summary of each attribute path, in the order of
+     * the class's attributes.
+     */
+    private final Map<String,Summary> summaries =
+        new LinkedHashMap<String,Summary>();
+
+
+    /**
+     * Create an empty synopsis that the entities of a segment
+     * are then added to.  References are summarized by their
+     * IncrementalView.DEFAULT_ID_ATTRIBUTE.
+     *
+     * @param expectedCount About how many entities the segment
+     * has.  This is used to size the Bloom filters.
+     */
+    public SegmentSynopsis(ClassDescription classDescription,
+                           EntityAccessor accessor, long expectedCount) {
+        this(classDescription, accessor, expectedCount,
+             IncrementalView.DEFAULT_ID_ATTRIBUTE);
+    }
+
+
+    public SegmentSynopsis(ClassDescription classDescription,
+                           EntityAccessor accessor, long expectedCount,
+                           String idAttribute) {
+
+        if ((classDescription == null) || (accessor == null) ||
+            (idAttribute == null)) {
+            throw(new IllegalArgumentException(
+                "classDescription, accessor, and idAttribute "+
+                "must not be null."));
+        }
+
+        this.classDescription = classDescription;
+        this.accessor = accessor;
+        this.idAttribute = idAttribute;
+
+        for (Attribute attribute : classDescription.getAllAttributes()) {
+
+            if (attribute.isSpecial() ||
+                (attribute.getCardinality() == Cardinality.TO_MANY)) {
+                continue;
+            }
+
+            Type type = attribute.getType();
+            String name = attribute.getQueryName();
+            if ((type == Type.INT_16) || (type == Type.INT_32) ||
+                (type == Type.FLOAT_64)) {
+                summaries.put(name, new Summary(Summary.NUMBER, null));
+            }
+            else if (type == Type.DATE_TIME) {
+                summaries.put(name, new Summary(Summary.TIME, null));
+            }
+            else if (type == Type.UTF_8_STRING) {
+                summaries.put(name, new Summary(Summary.VALUES,
+                    new BloomFilter(expectedCount,
+                                    DEFAULT_FALSE_POSITIVE_PROBABILITY)));
+            }
+            else if ((type == Type.REFERENCE) &&
+                     (attribute.getCardinality() == Cardinality.TO_ONE)) {
+                summaries.put(name+"."+idAttribute,
+                    new Summary(Summary.REFERENCE, new BloomFilter(
+                        expectedCount, DEFAULT_FALSE_POSITIVE_PROBABILITY)));
+            }
+        }
+    }
+
+
+    private SegmentSynopsis(ClassDescription classDescription,
+                            String idAttribute) {
+
+        this.classDescription = classDescription;
+        this.accessor = null;
+        this.idAttribute = idAttribute;
+    }
+
+
+    /**
+     * Add an entity of the segment to the synopsis.
+     *
+     * @throws IllegalStateException if this synopsis was read,
+     * (instead of built), because it has no EntityAccessor.
+     */
+    public void add(Object entity) {
+
+        if (accessor == null) {
+            throw(new IllegalStateException("A SegmentSynopsis that was "+
+                "read can't have entities added to it."));
+        }
+        if (entity == null) {
+            throw(new IllegalArgumentException("entity must not be null."));
+        }
+
+        count++;
+        String suffix = "."+idAttribute;
+        for (Map.Entry<String,Summary> entry : summaries.entrySet()) {
+
+            Summary summary = entry.getValue();
+            if (summary.kind == Summary.REFERENCE) {
+                String path = entry.getKey();
+                Object reference = accessor.getAttribute(entity,
+                    path.substring(0, path.length()-suffix.length()));
+                summary.add((reference == null) ? null :
+                            accessor.getAttribute(reference, idAttribute));
+            }
+            else {
+                summary.add(accessor.getAttribute(entity, entry.getKey()));
+            }
+        }
+    }
+
+
+    public ClassDescription getClassDescription() {
+        return(classDescription);
+    }
+
+
+    /**
+     * Get the number of entities in the segment.
+     */
+    public long getCount() {
+        return(count);
+    }
+
+
+    /**
+     * Get the attribute paths that are summarized.
+     * E.g. "protocolID", "startTime", "epochGroup.uuid".
+     */
+    public List<String> getPaths() {
+        return(Collections.unmodifiableList(
+            new ArrayList<String>(summaries.keySet())));
+    }
+
+
+    /**
+     * Get the summary of the passed in path, or null if the
+     * path isn't summarized.
+     */
+    Summary getSummary(String path) {
+        return(summaries.get(path));
+    }
+
+
+    /**
+     * Write the synopsis.  It can be read back with read().
+     */
+    public void write(DataOutput out)
+        throws IOException {
+
+        out.writeInt(MAGIC);
+        out.writeUTF(classDescription.getName());
+        out.writeUTF(idAttribute);
+        out.writeLong(count);
+        out.writeInt(summaries.size());
+        for (Map.Entry<String,Summary> entry : summaries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+
+    /**
+     * Read a synopsis written by write().  The synopsis that is
+     * returned can be used by a SegmentPruner, but entities
+     * can't be added to it.
+     *
+     * @throws IOException if the input isn't a synopsis, or its
+     * class is not in the DataModel.
+     */
+    public static SegmentSynopsis read(DataInput in)
+        throws IOException {
+
+        if (in.readInt() != MAGIC) {
+            throw(new IOException("The input is not a SegmentSynopsis."));
+        }
+
+        String className = in.readUTF();
+        ClassDescription classDescription =
+            DataModel.getClassDescription(className);
+        if (classDescription == null) {
+            throw(new IOException("Unknown class: "+className));
+        }
+
+        SegmentSynopsis synopsis = new SegmentSynopsis(classDescription,
+                                                       in.readUTF());
+        synopsis.count = in.readLong();
+        int summaryCount = in.readInt();
+        for (int index = 0; index < summaryCount; index++) {
+            String path = in.readUTF();
+            synopsis.summaries.put(path, Summary.read(in));
+        }
+        return(synopsis);
+    }
+
+
+    public String toString() {
+        return("SegmentSynopsis("+classDescription.getName()+", count="+
+               count+", "+summaries+")");
+    }
+
+
+    /**
+     * The summary of one attribute path.
+     */
+    static final class Summary {
+
+        static final byte NUMBER = 0;
+        static final byte TIME = 1;
+        static final byte VALUES = 2;
+        static final byte REFERENCE = 3;
+
+        final byte kind;
+
+        long count;
+        long nullCount;
+
+        /**
+         * The number of NaN values, which are not in
+         * the range, and are not equal to anything.
+         */
+        long nanCount;
+
+        /**
+         * true if a NUMBER or TIME attribute had a value of some
+         * other type, in which case the range can't be used.
+         */
+        boolean mixed;
+
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+
+        final BloomFilter values;
+
+
+        Summary(byte kind, BloomFilter values) {
+
+            this.kind = kind;
+            this.values = values;
+        }
+
+
+        void add(Object value) {
+
+            count++;
+            if (value == null) {
+                nullCount++;
+                return;
+            }
+
+            Object key = Values.indexKey(value);
+            if (key == null) {
+                nanCount++;
+                return;
+            }
+
+            if (values != null) {
+                values.add(key);
+                return;
+            }
+
+            if (((kind == NUMBER) && (key instanceof Double)) ||
+                ((kind == TIME) && (key instanceof Long))) {
+                double d = ((Number)key).doubleValue();
+                minimum = Math.min(minimum, d);
+                maximum = Math.max(maximum, d);
+            }
+            else {
+                mixed = true;
+            }
+        }
+
+
+        /**
+         * Get the number of values that are in the range, or
+         * (for VALUES and REFERENCE), in the Bloom filter.
+         */
+        long getRangeCount() {
+            return(count-nullCount-nanCount);
+        }
+
+
+        void write(DataOutput out)
+            throws IOException {
+
+            out.writeByte(kind);
+            out.writeLong(count);
+            out.writeLong(nullCount);
+            out.writeLong(nanCount);
+            out.writeBoolean(mixed);
+            out.writeDouble(minimum);
+            out.writeDouble(maximum);
+            out.writeBoolean(values != null);
+            if (values != null) {
+                values.write(out);
+            }
+        }
+
+
+        static Summary read(DataInput in)
+            throws IOException {
+
+            byte kind = in.readByte();
+            long count = in.readLong();
+            long nullCount = in.readLong();
+            long nanCount = in.readLong();
+            boolean mixed = in.readBoolean();
+            double minimum = in.readDouble();
+            double maximum = in.readDouble();
+            BloomFilter values = in.readBoolean() ?
+                BloomFilter.read(in) : null;
+
+            Summary summary = new Summary(kind, values);
+            summary.count = count;
+            summary.nullCount = nullCount;
+            summary.nanCount = nanCount;
+            summary.mixed = mixed;
+            summary.minimum = minimum;
+            summary.maximum = maximum;
+            return(summary);
+        }
+
+
+        public String toString() {
+
+            if (values != null) {
+                return("nulls="+nullCount);
+            }
+            return("["+minimum+", "+maximum+"] nulls="+nullCount);
+        }
+    }
+}
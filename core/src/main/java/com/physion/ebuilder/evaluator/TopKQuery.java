@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+import org.joda.time.ReadableInstant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * A TopKQuery finds the first "limit" entities that match an
+ * ExpressionTree, in the order of one of their attributes.  I.e.
+ * the SQL:
+ *
+ *      SELECT * FROM Epoch WHERE ... ORDER BY startTime DESC LIMIT 100
+ *
+ * Filtering every entity and then sorting the matches does a lot of
+ * work that is thrown away, so the query is run one of three ways,
+ * depending on what it is given:
+ *
+ *      execute(entities, accessor)
+ *          The entities are in no particular order.  The best
+ *          matches so far are kept in a heap of at most limit
+ *          entries.  Once the heap is full, an entity whose
+ *          ordering value can't beat the worst entry in the heap
+ *          is skipped without evaluating the ExpressionTree, since
+ *          comparing one value is much cheaper than evaluating a
+ *          query.
+ *
+ *      executeOrdered(entities, accessor)
+ *          The entities are already in order.  (E.g. they come from
+ *          a database index.)  Evaluation stops as soon as limit
+ *          entities have matched, because every entity after them
+ *          orders after them.
+ *
+ *      execute(table)
+ *          The entities are in a ColumnarEntityCache.  The Table's
+ *          ordered index of the attribute is used, (see
+ *          Table.getOrderedRows()), the same way executeOrdered()
+ *          uses its entities.
+ *
+ * Entities whose ordering value is null, (or NaN), come last, in
+ * either direction, and entities with equal values are returned in the
+ * order they were given.  All three ways return the same entities.
+ *
+ *      TopKQuery query = new TopKQuery(expressionTree, "startTime",
+ *                                      true, 100);
+ *      List<Object> newest = query.execute(epochs, accessor);
+ *
+ * Please note, like PreparedQuery, the tree's Class Under
+ * Qualification is not checked against the entities.
+ *
+ * A TopKQuery is not thread safe.
+ */
+public final class TopKQuery {
+
+    private static final Counter ENTITIES_EVALUATED =
+        Metrics.counter("evaluator.topK.entitiesEvaluated");
+
+    /**
+     * The entities that were not evaluated because they could not
+     * have been in the result.
+     */
+    private static final Counter ENTITIES_PRUNED =
+        Metrics.counter("evaluator.topK.entitiesPruned");
+
+    private final NodeCompiler compiler = new NodeCompiler();
+    private final Node root;
+
+    private final Attribute orderBy;
+    private final boolean descending;
+    private final int limit;
+
+    /**
+     * Orders Candidates best first.
+     */
+    private final Comparator<Candidate> order = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+
+            int comparison = compareKeys(a.key, b.key);
+            if (comparison != 0) {
+                return(comparison);
+            }
+            return((a.sequence < b.sequence) ? -1 :
+                   ((a.sequence > b.sequence) ? 1 : 0));
+        }
+    };
+
+
+    /**
+     * Create a query for the first limit entities that match the
+     * passed in tree, ordered by the attribute of its Class Under
+     * Qualification with the passed in name.
+     *
+     * @throws IllegalArgumentException if the tree contains
+     * something that can't be evaluated, its Class Under
+     * Qualification has no such attribute, or the attribute
+     * can't be ordered.
+     */
+    public TopKQuery(ExpressionTree expressionTree, String orderByName,
+                     boolean descending, int limit) {
+        this(expressionTree, lookUp(expressionTree, orderByName),
+             descending, limit);
+    }
+
+
+    /**
+     * Create a query for the first limit entities that match the
+     * passed in tree, ordered by the passed in attribute.
+     *
+     * @param orderBy An INT_16, INT_32, FLOAT_64, DATE_TIME, or
+     * UTF_8_STRING attribute of the tree's Class Under
+     * Qualification.
+     *
+     * @param descending True to return the greatest values first.
+     * E.g. "newest first" for a DATE_TIME.
+     *
+     * @throws IllegalArgumentException if the tree contains
+     * something that can't be evaluated, or the attribute
+     * can't be ordered.
+     */
+    public TopKQuery(ExpressionTree expressionTree, Attribute orderBy,
+                     boolean descending, int limit) {
+
+        if ((expressionTree == null) || (orderBy == null)) {
+            throw(new IllegalArgumentException(
+                "expressionTree and orderBy must not be null."));
+        }
+        if (limit < 0) {
+            throw(new IllegalArgumentException("limit < 0"));
+        }
+        if (!isOrderable(orderBy)) {
+            throw(new IllegalArgumentException("Entities can't be "+
+                "ordered by "+orderBy.getQueryName()+", which is a "+
+                orderBy.getType()+"."));
+        }
+
+        this.root = compiler.compile(expressionTree.getRootExpression());
+        this.orderBy = orderBy;
+        this.descending = descending;
+        this.limit = limit;
+    }
+
+
+    private static Attribute lookUp(ExpressionTree expressionTree,
+                                    String orderByName) {
+
+        if ((expressionTree == null) || (orderByName == null)) {
+            throw(new IllegalArgumentException(
+                "expressionTree and orderByName must not be null."));
+        }
+
+        ClassDescription classDescription = DataModel.getClassDescription(
+            expressionTree.getClassUnderQualification());
+        Attribute attribute = (classDescription == null) ? null :
+            classDescription.getAttribute(orderByName);
+        if (attribute == null) {
+            throw(new IllegalArgumentException(
+                expressionTree.getClassUnderQualification()+
+                " has no attribute named "+orderByName+"."));
+        }
+        return(attribute);
+    }
+
+
+    private static boolean isOrderable(Attribute attribute) {
+
+        if (attribute.isSpecial() ||
+            (attribute.getCardinality() == Cardinality.TO_MANY)) {
+            return(false);
+        }
+
+        Type type = attribute.getType();
+        return((type == Type.INT_16) || (type == Type.INT_32) ||
+               (type == Type.FLOAT_64) || (type == Type.DATE_TIME) ||
+               (type == Type.UTF_8_STRING));
+    }
+
+
+    public Attribute getOrderBy() {
+        return(orderBy);
+    }
+
+
+    public boolean isDescending() {
+        return(descending);
+    }
+
+
+    public int getLimit() {
+        return(limit);
+    }
+
+
+    /**
+     * Get the first limit entities that match, out of entities that
+     * are in no particular order.
+     */
+    public List<Object> execute(Iterable<?> entities,
+                                EntityAccessor accessor) {
+
+        checkArguments(entities, accessor);
+        List<Object> result = new ArrayList<Object>();
+        if (limit == 0) {
+            return(result);
+        }
+
+        /**
+         * The head of the heap is the worst of the best so far.
+         */
+        PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(
+            limit+1, Collections.reverseOrder(order));
+        EvaluationFrame frame = new EvaluationFrame(accessor);
+
+        long sequence = 0;
+        for (Object entity : entities) {
+            if (entity == null) {
+                continue;
+            }
+
+            Candidate candidate = new Candidate(entity,
+                key(accessor, entity), sequence++);
+
+            /**
+             * A later entity that is only as good as the worst
+             * entry loses the tie, so it can't get in either.
+             */
+            if ((heap.size() == limit) &&
+                (order.compare(candidate, heap.peek()) >= 0)) {
+                ENTITIES_PRUNED.increment();
+                continue;
+            }
+
+            if (matches(frame, entity)) {
+                heap.add(candidate);
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        }
+
+        List<Candidate> best = new ArrayList<Candidate>(heap);
+        Collections.sort(best, order);
+        for (Candidate candidate : best) {
+            result.add(candidate.entity);
+        }
+        return(result);
+    }
+
+
+    /**
+     * Get the first limit entities that match, out of entities that
+     * are already in the order this query wants.  No more entities
+     * are read once limit of them have matched.
+     *
+     * @throws IllegalArgumentException if an entity is out of order.
+     * Only the entities that were read are checked.
+     */
+    public List<Object> executeOrdered(Iterable<?> entities,
+                                       EntityAccessor accessor) {
+
+        checkArguments(entities, accessor);
+        List<Object> result = new ArrayList<Object>();
+        if (limit == 0) {
+            return(result);
+        }
+
+        EvaluationFrame frame = new EvaluationFrame(accessor);
+        Object previousKey = null;
+        boolean first = true;
+        for (Object entity : entities) {
+            if (entity == null) {
+                continue;
+            }
+
+            Object key = key(accessor, entity);
+            if (!first && (compareKeys(previousKey, key) > 0)) {
+                throw(new IllegalArgumentException("The entities are not "+
+                    "ordered by "+orderBy.getQueryName()+".  "+key+
+                    " comes after "+previousKey+"."));
+            }
+            previousKey = key;
+            first = false;
+
+            if (matches(frame, entity)) {
+                result.add(entity);
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return(result);
+    }
+
+
+    /**
+     * Get the first limit Rows that match, out of the Rows of
+     * the passed in Table, using the Table's ordered index.
+     *
+     * @throws IllegalArgumentException if the Table does not
+     * cache the attribute this query is ordered by.
+     */
+    public List<ColumnarEntityCache.Row> execute(
+        ColumnarEntityCache.Table table) {
+
+        if (table == null) {
+            throw(new IllegalArgumentException("table must not be null."));
+        }
+
+        List<ColumnarEntityCache.Row> result =
+            new ArrayList<ColumnarEntityCache.Row>();
+        int[] rows = table.getOrderedRows(orderBy.getQueryName(),
+                                          descending);
+        EvaluationFrame frame = new EvaluationFrame(table.getAccessor());
+
+        int visited = 0;
+        while ((result.size() < limit) && (visited < rows.length)) {
+            ColumnarEntityCache.Row row = table.getRow(rows[visited++]);
+            if (matches(frame, row)) {
+                result.add(row);
+            }
+        }
+
+        ENTITIES_PRUNED.add(rows.length-visited);
+        return(result);
+    }
+
+
+    private static void checkArguments(Iterable<?> entities,
+                                       EntityAccessor accessor) {
+
+        if ((entities == null) || (accessor == null)) {
+            throw(new IllegalArgumentException(
+                "entities and accessor must not be null."));
+        }
+    }
+
+
+    private boolean matches(EvaluationFrame frame, Object entity) {
+
+        ENTITIES_EVALUATED.increment();
+        frame.begin(entity, compiler.getNodeCount());
+        return(frame.test(root));
+    }
+
+
+    /**
+     * Get the value of the entity's ordering attribute, or null if
+     * it is null, NaN, or not of the attribute's type.  (Which is how
+     * it would be treated by a comparison in an ExpressionTree.)
+     */
+    private Object key(EntityAccessor accessor, Object entity) {
+
+        Object value = accessor.getAttribute(entity,
+                                             orderBy.getQueryName());
+        switch (orderBy.getType()) {
+            case DATE_TIME:
+                return((value instanceof ReadableInstant) ? value : null);
+            case UTF_8_STRING:
+                return((value instanceof String) ? value : null);
+            default:
+                if (!(value instanceof Number) ||
+                    Double.isNaN(((Number)value).doubleValue())) {
+                    return(null);
+                }
+                return(value);
+        }
+    }
+
+
+    /**
+     * Compare two ordering values, in the order this query wants
+     * them.  Nulls come last.
+     */
+    private int compareKeys(Object a, Object b) {
+
+        if ((a == null) || (b == null)) {
+            return((a == null) ? ((b == null) ? 0 : 1) : -1);
+        }
+        int comparison = Values.compare(a, b);
+        return(descending ? -comparison : comparison);
+    }
+
+
+    /**
+     * An entity, its ordering value, and the order it was read in,
+     * which breaks ties.
+     */
+    private static final class Candidate {
+
+        private final Object entity;
+        private final Object key;
+        private final long sequence;
+
+        Candidate(Object entity, Object key, long sequence) {
+
+            this.entity = entity;
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator;
+
+import com.physion.ebuilder.translator.Translator;
+import org.joda.time.ReadableInstant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Static helper methods that compare and convert the values that
+ * an EntityAccessor returns.  Every part of the evaluator that
+ * compares two values goes through this class, so that, for example,
+ * the MultiQueryNetwork's equality index agrees with what the
+ * == operator would have said.
+ *
+ * Numbers are compared by their double value, so a Short attribute
+ * can be compared to an Int32LiteralValueExpression and an Integer
+ * attribute can be compared to a Float64LiteralValueExpression.
+ * Times are compared by their milliseconds since the epoch.
+ */
+final class Values {
+
+    /**
+     * The value compare() returns if the two values cannot
+     * be compared.  E.g. a String and a Number.
+     */
+    static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+
+    private Values() {
+    }
+
+
+    /**
+     * Returns true if the two values are equal the way the
+     * == operator defines equality.  null is not equal to anything,
+     * not even null.  (Use the isnull operator for that.)
+     */
+    static boolean isEqual(Object left, Object right) {
+
+        if ((left == null) || (right == null)) {
+            return(false);
+        }
+
+        if ((left instanceof Number) && (right instanceof Number)) {
+            return(((Number)left).doubleValue() ==
+                   ((Number)right).doubleValue());
+        }
+
+        if ((left instanceof ReadableInstant) &&
+            (right instanceof ReadableInstant)) {
+            return(((ReadableInstant)left).getMillis() ==
+                   ((ReadableInstant)right).getMillis());
+        }
+
+        return(left.equals(right));
+    }
+
+
+    /**
+     * Compare the two values the way the <, <=, >, and >= operators
+     * do.  Returns a negative number, zero, or a positive number if
+     * left is less than, equal to, or greater than right.
+     * Returns INCOMPARABLE if either value is null, or if the
+     * values are not of comparable types.
+     */
+    static int compare(Object left, Object right) {
+
+        if ((left == null) || (right == null)) {
+            return(INCOMPARABLE);
+        }
+
+        if ((left instanceof Number) && (right instanceof Number)) {
+            double l = ((Number)left).doubleValue();
+            double r = ((Number)right).doubleValue();
+            if (Double.isNaN(l) || Double.isNaN(r)) {
+                return(INCOMPARABLE);
+            }
+            return((l < r) ? -1 : ((l > r) ? 1 : 0));
+        }
+
+        if ((left instanceof ReadableInstant) &&
+            (right instanceof ReadableInstant)) {
+            long l = ((ReadableInstant)left).getMillis();
+            long r = ((ReadableInstant)right).getMillis();
+            return((l < r) ? -1 : ((l > r) ? 1 : 0));
+        }
+
+        if ((left instanceof String) && (right instanceof String)) {
+            return(Integer.signum(((String)left).compareTo((String)right)));
+        }
+
+        return(INCOMPARABLE);
+    }
+
+
+    /**
+     * Get the key under which a value is stored in a hash based
+     * index.  Two values have equal keys if, and only if, isEqual()
+     * says they are equal.
+     *
+     * Returns null if the value can never be equal to anything,
+     * (i.e. null or NaN).
+     */
+    static Object indexKey(Object value) {
+
+        if (value instanceof Number) {
+            double d = ((Number)value).doubleValue();
+            if (Double.isNaN(d)) {
+                return(null);
+            }
+            /**
+             * 0.0 == -0.0, but Double.valueOf(0.0).equals(-0.0)
+             * is false, so map -0.0 to 0.0.
+             */
+            return(Double.valueOf((d == 0.0) ? 0.0 : d));
+        }
+
+        if (value instanceof ReadableInstant) {
+            /**
+             * Numbers are always Doubles, so times use a Long
+             * and the two can never collide.
+             */
+            return(Long.valueOf(((ReadableInstant)value).getMillis()));
+        }
+
+        return(value);
+    }
+
+
+    /**
+     * The bits typeMask() and typeBits() use for the ovation value
+     * classes.  ANY_TYPE is the mask of a class literal we don't know.
+     */
+    static final int BOOLEAN_TYPE = 1;
+    static final int STRING_TYPE = 2;
+    static final int INTEGER_TYPE = 4;
+    static final int FLOAT_TYPE = 8;
+    static final int DATE_TYPE = 16;
+    static final int ANY_TYPE = -1;
+
+
+    /**
+     * Get the type bit of the ovation value class named by the passed
+     * in class literal.  E.g. Translator.CLVE_INTEGER.  The "as" and
+     * "elementsOfType" operators call this once, when they are built,
+     * so checking each value is an AND of two ints instead of a chain
+     * of String comparisons.  If we do not know the class literal,
+     * this returns ANY_TYPE, and every value is assumed to be of
+     * that type.
+     */
+    static int typeMask(String classLiteral) {
+
+        if (Translator.CLVE_BOOLEAN.equals(classLiteral)) {
+            return(BOOLEAN_TYPE);
+        }
+        else if (Translator.CLVE_STRING.equals(classLiteral)) {
+            return(STRING_TYPE);
+        }
+        else if (Translator.CLVE_INTEGER.equals(classLiteral)) {
+            return(INTEGER_TYPE);
+        }
+        else if (Translator.CLVE_FLOAT.equals(classLiteral)) {
+            return(FLOAT_TYPE);
+        }
+        else if (Translator.CLVE_DATE.equals(classLiteral)) {
+            return(DATE_TYPE);
+        }
+        return(ANY_TYPE);
+    }
+
+
+    /**
+     * Get the type bit of the passed in value, or 0 if it is
+     * not one of the ovation value classes.
+     */
+    static int typeBits(Object value) {
+
+        if (value instanceof String) {
+            return(STRING_TYPE);
+        }
+        else if ((value instanceof Integer) || (value instanceof Short) ||
+                 (value instanceof Long) || (value instanceof Byte)) {
+            return(INTEGER_TYPE);
+        }
+        else if ((value instanceof Double) || (value instanceof Float)) {
+            return(FLOAT_TYPE);
+        }
+        else if (value instanceof Boolean) {
+            return(BOOLEAN_TYPE);
+        }
+        else if (value instanceof ReadableInstant) {
+            return(DATE_TYPE);
+        }
+        return(0);
+    }
+
+
+    /**
+     * Returns true if the value is an instance of the ovation
+     * value class whose typeMask() is passed in.  This is used
+     * to evaluate the "as" and "elementsOfType" operators.
+     */
+    static boolean isOfType(Object value, int typeMask) {
+
+        if (value == null) {
+            return(false);
+        }
+        return((typeMask == ANY_TYPE) || ((typeBits(value) & typeMask) != 0));
+    }
+
+
+    /**
+     * Returns true if the value is a primitive value, as opposed
+     * to an entity.  The "value" attribute of a primitive value is
+     * the value itself.  (That is how ExpressionTrees get at the
+     * value of a property or parameter.)
+     */
+    static boolean isPrimitive(Object value) {
+        return((value instanceof String) || (value instanceof Number) ||
+               (value instanceof Boolean) ||
+               (value instanceof ReadableInstant));
+    }
+
+
+    /**
+     * Get the elements of a TO_MANY value.
+     * A null value has no elements.  A value that is not an
+     * Iterable or an array is treated as a collection that
+     * contains just that value.
+     */
+    static Collection<?> asCollection(Object value) {
+
+        if (value == null) {
+            return(Collections.emptyList());
+        }
+        else if (value instanceof Collection) {
+            return((Collection<?>)value);
+        }
+        else if (value instanceof Iterable) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object element : (Iterable<?>)value) {
+                list.add(element);
+            }
+            return(list);
+        }
+        else if (value instanceof Object[]) {
+            return(Arrays.asList((Object[])value));
+        }
+        else {
+            return(Collections.singletonList(value));
+        }
+    }
+}
@@ -31,10 +31,21 @@ public class BooleanLiteralValueExpression
 
     /**
      * Get the value as a Boolean object.
+     * Boolean.valueOf() returns one of the two shared Boolean
+     * objects, so this does not allocate anything.
      */
     @Override
     public Object getValue() {
-        return(new Boolean(value));
+        return(Boolean.valueOf(value));
+    }
+
+
+    /**
+     * Get the value as a primitive boolean.
+     */
+    @Override
+    public boolean getBooleanValue() {
+        return(value);
     }
 
 
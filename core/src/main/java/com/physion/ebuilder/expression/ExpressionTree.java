@@ -14,6 +14,11 @@ import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.io.IOException;
 
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+
 
 /**
  * This class represents an "entire" expression tree.
@@ -47,6 +52,14 @@ public class ExpressionTree
      */
     public static final String SAVE_FILE_NAME = "testSaved.ExpTree";
 
+    /**
+     * How many bytes each serialized ExpressionTree file is.
+     */
+    private static final Histogram BYTES_WRITTEN =
+        Metrics.histogram("expressionTree.serializedBytesWritten");
+    private static final Histogram BYTES_READ =
+        Metrics.histogram("expressionTree.serializedBytesRead");
+
     /**
      * This is a the name of the Class Under Qualification for the
      * root of the tree.  This is a String, not a ClassDescription
@@ -137,10 +150,13 @@ public class ExpressionTree
     public void writeExpressionTree(String fileName) {
 
         try {
-            FileOutputStream outputFile = new FileOutputStream(fileName);
+            CountingOutputStream outputFile = new CountingOutputStream(
+                new FileOutputStream(fileName));
             ObjectOutputStream outputStream = new ObjectOutputStream(
                 outputFile);
             writeExpressionTree(outputStream);
+            outputStream.close();
+            BYTES_WRITTEN.update(outputFile.getCount());
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -218,9 +234,13 @@ public class ExpressionTree
     public static ExpressionTree readExpressionTree(String fileName) {
 
         try {
-            FileInputStream inputFile = new FileInputStream(fileName);
+            CountingInputStream inputFile = new CountingInputStream(
+                new FileInputStream(fileName));
             ObjectInputStream inputStream = new ObjectInputStream(inputFile);
-            return(readExpressionTree(inputStream));
+            ExpressionTree expressionTree = readExpressionTree(inputStream);
+            inputStream.close();
+            BYTES_READ.update(inputFile.getCount());
+            return(expressionTree);
         }
         catch (FileNotFoundException e) {
             /**
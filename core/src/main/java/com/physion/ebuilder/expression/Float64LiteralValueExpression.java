@@ -34,7 +34,16 @@ public class Float64LiteralValueExpression
      */
     @Override
     public Object getValue() {
-        return(new Double(value));
+        return(Double.valueOf(value));
+    }
+
+
+    /**
+     * Get the value as a primitive double.
+     */
+    @Override
+    public double getDoubleValue() {
+        return(value);
     }
 
 
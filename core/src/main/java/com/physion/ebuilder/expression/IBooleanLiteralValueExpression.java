@@ -20,4 +20,9 @@ package com.physion.ebuilder.expression;
  */
 public interface IBooleanLiteralValueExpression
     extends ILiteralValueExpression {
+
+    /**
+     * Get the value as a primitive boolean.
+     */
+    public boolean getBooleanValue();
 }
@@ -20,4 +20,10 @@ package com.physion.ebuilder.expression;
  */
 public interface IFloat64LiteralValueExpression
     extends ILiteralValueExpression {
+
+    /**
+     * Get the value as a primitive double.
+     * Unlike getValue(), this does not allocate a Double object.
+     */
+    public double getDoubleValue();
 }
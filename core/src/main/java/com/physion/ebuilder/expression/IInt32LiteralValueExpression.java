@@ -20,4 +20,12 @@ package com.physion.ebuilder.expression;
  */
 public interface IInt32LiteralValueExpression
     extends ILiteralValueExpression {
+
+    /**
+     * Get the value as a primitive int.
+     * Unlike getValue(), this does not allocate an Integer object,
+     * so evaluators and translators that look at a lot of literals
+     * should call this instead.
+     */
+    public int getIntValue();
 }
@@ -25,4 +25,12 @@ public interface ITimeLiteralValueExpression
 
     //Retrieve the time value as a DateTime
     DateTime getTimeValue();
+
+    /**
+     * Get the time value as the number of milliseconds since
+     * 1970-01-01T00:00:00Z.  This does not allocate a DateTime,
+     * so code that only needs to compare instants should call this
+     * instead of getTimeValue().
+     */
+    long getEpochMillis();
 }
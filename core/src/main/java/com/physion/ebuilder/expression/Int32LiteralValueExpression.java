@@ -32,10 +32,21 @@ public class Int32LiteralValueExpression
 
     /**
      * Get the value as an Integer object.
+     * Integer.valueOf() hands back a cached Integer for small values,
+     * which is most of what users type in.
      */
     @Override
     public Object getValue() {
-        return(new Integer(value));
+        return(Integer.valueOf(value));
+    }
+
+
+    /**
+     * Get the value as a primitive int.
+     */
+    @Override
+    public int getIntValue() {
+        return(value);
     }
 
 
@@ -72,6 +72,10 @@ public class OperatorExpression
      * Please note, the returned list might be empty,
      * but it is never null.
      *
+     * Please note, the list of an OperatorExpression that is
+     * shared between trees, (e.g. an attribute path created
+     * by RowDataToExpressionTree), can't be changed.
+     *
      * This method is required by the IOperatorExpression
      * interface.
      */
@@ -116,6 +120,9 @@ public class OperatorExpression
 
     /**
      * Add an operand to our list of operands.
+     *
+     * @throws UnsupportedOperationException if our list of
+     * operands can't be changed.  See getOperandList().
      */
     public void addOperand(IExpression expression) {
 
@@ -39,9 +39,40 @@ public class TimeLiteralValueExpression
         return getTimeValue();
     }
 
+    /**
+     * Get the value as a DateTime.
+     *
+     * Joda DateTime objects are immutable, so we can hand back
+     * our own reference instead of making a copy every time
+     * we are asked.  (If the value is null, we behave the way
+     * we always did, which is to return the current time.)
+     *
+     * We used to return new DateTime(value).  That copy keeps the
+     * value's time zone and chronology, (it does NOT convert the
+     * value to the default time zone), so the DateTime we return
+     * now is equal to the one we used to return, in the same zone
+     * and chronology.  The only difference is that callers get the
+     * same DateTime every time, which is safe because it cannot
+     * be changed.
+     */
     @Override
     public DateTime getTimeValue() {
-        return(new DateTime(value));
+        if (value == null) {
+            return(new DateTime());
+        }
+        return(value);
+    }
+
+
+    /**
+     * Get the value as milliseconds since the epoch.
+     */
+    @Override
+    public long getEpochMillis() {
+        if (value == null) {
+            return(System.currentTimeMillis());
+        }
+        return(value.getMillis());
     }
 
 
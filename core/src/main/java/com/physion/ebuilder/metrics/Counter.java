@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A Counter is simply a number that goes up.  For example,
+ * the number of RowDataEvents that have been sent.
+ *
+ * Use Metrics.counter(name) to get one.  Do not create one yourself,
+ * or it will not be registered and nobody will ever see its value.
+ */
+public final class Counter {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+
+    public String getName() {
+        return(name);
+    }
+
+
+    /**
+     * Add one to this Counter.
+     */
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+
+    /**
+     * Add the passed in amount to this Counter.
+     */
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+
+    public long getCount() {
+        return(count.get());
+    }
+
+
+    /**
+     * Set this Counter back to zero.
+     */
+    public void reset() {
+        count.set(0);
+    }
+
+
+    @Override
+    public String toString() {
+        return(Long.toString(getCount()));
+    }
+}
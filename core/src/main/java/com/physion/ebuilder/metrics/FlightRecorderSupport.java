@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+
+/**
+ * This class is the only place the rest of the metrics code
+ * goes through to create JDK Flight Recorder events.
+ *
+ * The jdk.jfr classes are not available in every JVM we run in,
+ * (e.g. older Java 8 JVMs), so we check once whether they exist,
+ * and if they do not, every method in this class does nothing.
+ * The classes that actually extend jdk.jfr.Event, (TimerEvent and
+ * ValueEvent), are never loaded unless the check succeeded.
+ */
+final class FlightRecorderSupport {
+
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+
+    private FlightRecorderSupport() {
+    }
+
+
+    private static boolean isFlightRecorderAvailable() {
+
+        try {
+            Class.forName("jdk.jfr.Event");
+            return(true);
+        }
+        catch (Throwable t) {
+            return(false);
+        }
+    }
+
+
+    /**
+     * @return True if JFR events will be created.
+     */
+    static boolean isAvailable() {
+        return(AVAILABLE);
+    }
+
+
+    /**
+     * Begin a timed JFR event.
+     *
+     * @return An opaque object to pass to commit(), or null if
+     * JFR is not available or the event is not enabled in the
+     * current recording.
+     */
+    static Object begin(String name) {
+
+        if (!AVAILABLE)
+            return(null);
+        return(TimerEvent.beginEvent(name));
+    }
+
+
+    /**
+     * Commit a timed JFR event that was returned by begin().
+     * It is fine to pass null.
+     */
+    static void commit(Object event) {
+
+        if (event != null)
+            TimerEvent.commitEvent(event);
+    }
+
+
+    /**
+     * Record a single value as a JFR event.
+     */
+    static void value(String name, long value) {
+
+        if (AVAILABLE)
+            ValueEvent.commitEvent(name, value);
+    }
+}
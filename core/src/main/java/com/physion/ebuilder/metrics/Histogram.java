@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A Histogram records the distribution of a value.  For example,
+ * the number of rows in the tree every time the tree is copied,
+ * or the number of bytes every time a tree is serialized.
+ *
+ * We keep the count, sum, min and max of all the recorded values,
+ * plus a count of values in power-of-two buckets.  Bucket 0 holds
+ * values <= 0, bucket 1 holds 1, bucket 2 holds 2-3, bucket 3 holds
+ * 4-7, and so on.  That is coarse, but it costs nothing to record
+ * a value, and it is plenty to tell the difference between
+ * "a few" and "a few thousand".
+ *
+ * Use Metrics.histogram(name) to get one.
+ */
+public final class Histogram {
+
+    /**
+     * One bucket for values <= 0, and one for each possible
+     * bit length of a positive long.
+     */
+    private static final int NUM_BUCKETS = 64;
+
+    private final String name;
+
+    /**
+     * If true, every recorded value is also recorded as a
+     * JDK Flight Recorder event.  A Timer's Histogram does not
+     * do this, because the Timer records its own events.
+     */
+    private final boolean recordEvents;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+
+    Histogram(String name, boolean recordEvents) {
+        this.name = name;
+        this.recordEvents = recordEvents;
+    }
+
+
+    public String getName() {
+        return(name);
+    }
+
+
+    /**
+     * Record one value.
+     */
+    public void update(long value) {
+
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value < (current = min.get())) {
+            if (min.compareAndSet(current, value))
+                break;
+        }
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value))
+                break;
+        }
+
+        buckets.incrementAndGet(getBucketIndex(value));
+
+        if (recordEvents)
+            FlightRecorderSupport.value(name, value);
+    }
+
+
+    /**
+     * Get the index of the bucket the passed in value falls into.
+     */
+    static int getBucketIndex(long value) {
+
+        if (value <= 0)
+            return(0);
+        return(Math.min(NUM_BUCKETS-1, 64-Long.numberOfLeadingZeros(value)));
+    }
+
+
+    public long getCount() {
+        return(count.get());
+    }
+
+
+    public long getSum() {
+        return(sum.get());
+    }
+
+
+    /**
+     * @return The smallest value recorded, or 0 if nothing
+     * has been recorded.
+     */
+    public long getMin() {
+        return((getCount() == 0) ? 0 : min.get());
+    }
+
+
+    /**
+     * @return The largest value recorded, or 0 if nothing
+     * has been recorded.
+     */
+    public long getMax() {
+        return((getCount() == 0) ? 0 : max.get());
+    }
+
+
+    /**
+     * @return The average of the values recorded, or 0 if nothing
+     * has been recorded.
+     */
+    public double getMean() {
+
+        long n = getCount();
+        return((n == 0) ? 0.0 : ((double)getSum() / n));
+    }
+
+
+    /**
+     * Get an approximation of the passed in percentile.
+     * Because we only keep power-of-two buckets, the value returned
+     * is the upper bound of the bucket that contains the percentile,
+     * (but never more than the max value recorded).
+     *
+     * @param percentile A value between 0.0 and 1.0.  E.g. 0.99
+     */
+    public long getPercentile(double percentile) {
+
+        long n = getCount();
+        if (n == 0)
+            return(0);
+
+        long target = (long)Math.ceil(percentile * n);
+        long seen = 0;
+        for (int index = 0; index < NUM_BUCKETS; index++) {
+            seen += buckets.get(index);
+            if (seen >= target) {
+                long upperBound = (index == 0) ? 0 :
+                    (index >= 63) ? Long.MAX_VALUE : ((1L << index) - 1);
+                return(Math.min(upperBound, getMax()));
+            }
+        }
+        return(getMax());
+    }
+
+
+    /**
+     * Throw away all the recorded values.
+     */
+    public void reset() {
+
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+        for (int index = 0; index < NUM_BUCKETS; index++) {
+            buckets.set(index, 0);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return("count="+getCount()+" min="+getMin()+" mean="+
+               String.format("%.1f", getMean())+" p99="+
+               getPercentile(0.99)+" max="+getMax());
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * This is the registry of all the Counters, Timers and Histograms
+ * the query editor keeps.  It lets us see where time goes when
+ * someone says the editor is slow.
+ *
+ * Code that wants to measure something gets its metric once, usually
+ * into a static final member, and then updates it:
+ *
+ *      private static final Timer TRANSLATE_TIMER =
+ *          Metrics.timer("translator.rowDataToExpressionTree");
+ *
+ * Asking for the same name twice returns the same object.
+ *
+ * The first time this class is used, it registers a MetricsMXBean
+ * with the platform MBeanServer, so the values can be watched in
+ * production using jconsole or VisualVM.  Set the system property
+ * "com.physion.ebuilder.metrics.jmx" to "false" if you don't want that.
+ *
+ * Updating a metric is cheap, (a few atomic adds), so it is fine
+ * to do it in the hot paths.
+ */
+public final class Metrics {
+
+    /**
+     * The name under which our MetricsMXBean is registered.
+     */
+    public static final String OBJECT_NAME =
+        "com.physion.ebuilder:type=Metrics";
+
+    private static final ConcurrentMap<String,Counter> counters =
+        new ConcurrentHashMap<String,Counter>();
+    private static final ConcurrentMap<String,Timer> timers =
+        new ConcurrentHashMap<String,Timer>();
+    private static final ConcurrentMap<String,Histogram> histograms =
+        new ConcurrentHashMap<String,Histogram>();
+
+    static {
+        if (!"false".equals(System.getProperty(
+            "com.physion.ebuilder.metrics.jmx"))) {
+            registerMBean();
+        }
+    }
+
+
+    private Metrics() {
+    }
+
+
+    /**
+     * Get the Counter with the passed in name.
+     * Create it if it does not already exist.
+     */
+    public static Counter counter(String name) {
+
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new Counter(name));
+            counter = counters.get(name);
+        }
+        return(counter);
+    }
+
+
+    /**
+     * Get the Timer with the passed in name.
+     * Create it if it does not already exist.
+     */
+    public static Timer timer(String name) {
+
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timers.putIfAbsent(name, new Timer(name));
+            timer = timers.get(name);
+        }
+        return(timer);
+    }
+
+
+    /**
+     * Get the Histogram with the passed in name.
+     * Create it if it does not already exist.
+     */
+    public static Histogram histogram(String name) {
+
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new Histogram(name, true));
+            histogram = histograms.get(name);
+        }
+        return(histogram);
+    }
+
+
+    /**
+     * Set all the metrics back to zero.
+     */
+    public static void reset() {
+
+        for (Counter counter : counters.values())
+            counter.reset();
+        for (Timer timer : timers.values())
+            timer.reset();
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+
+    /**
+     * Get a human readable dump of all the metrics, sorted by name.
+     * This is handy for printing out at the end of a test run.
+     */
+    public static String getSummary() {
+
+        TreeMap<String,String> all = new TreeMap<String,String>();
+        for (Counter counter : counters.values())
+            all.put(counter.getName(), counter.toString());
+        for (Timer timer : timers.values())
+            all.put(timer.getName(), timer.toString());
+        for (Histogram histogram : histograms.values())
+            all.put(histogram.getName(), histogram.toString());
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,String> entry : all.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).
+                append('\n');
+        }
+        return(sb.toString());
+    }
+
+
+    /**
+     * Register our MetricsMXBean with the platform MBeanServer.
+     * If it is already registered, (e.g. this class was loaded by
+     * two different class loaders), we leave the existing one alone.
+     */
+    private static void registerMBean() {
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new MXBeanImpl(), objectName);
+            }
+        }
+        catch (Exception e) {
+            /**
+             * E.g. a SecurityManager won't let us.  The metrics
+             * still work, they just can't be watched with JMX.
+             */
+        }
+    }
+
+
+    /**
+     * The MetricsMXBean that gets registered with JMX.
+     * It just takes a snapshot of the current values every time
+     * it is asked.
+     */
+    private static final class MXBeanImpl implements MetricsMXBean {
+
+        @Override
+        public Map<String,Long> getCounters() {
+
+            TreeMap<String,Long> map = new TreeMap<String,Long>();
+            for (Counter counter : counters.values())
+                map.put(counter.getName(), counter.getCount());
+            return(map);
+        }
+
+
+        @Override
+        public Map<String,String> getTimers() {
+
+            TreeMap<String,String> map = new TreeMap<String,String>();
+            for (Timer timer : timers.values())
+                map.put(timer.getName(), timer.toString());
+            return(map);
+        }
+
+
+        @Override
+        public Map<String,String> getHistograms() {
+
+            TreeMap<String,String> map = new TreeMap<String,String>();
+            for (Histogram histogram : histograms.values())
+                map.put(histogram.getName(), histogram.toString());
+            return(map);
+        }
+
+
+        @Override
+        public boolean isFlightRecorderAvailable() {
+            return(FlightRecorderSupport.isAvailable());
+        }
+
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
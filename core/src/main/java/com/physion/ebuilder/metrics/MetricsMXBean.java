@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+import java.util.Map;
+
+
+/**
+ * The JMX interface to the Metrics registry.
+ * It is registered with the platform MBeanServer under the name
+ * Metrics.OBJECT_NAME, so you can look at it with jconsole,
+ * VisualVM, or any other JMX client.
+ *
+ * The maps are keyed by metric name.  The timer and histogram
+ * values are short human readable summaries.  See Timer.toString()
+ * and Histogram.toString().
+ */
+public interface MetricsMXBean {
+
+    public Map<String,Long> getCounters();
+
+    public Map<String,String> getTimers();
+
+    public Map<String,String> getHistograms();
+
+    /**
+     * @return True if Timer sections are also being recorded
+     * as JDK Flight Recorder events.
+     */
+    public boolean isFlightRecorderAvailable();
+
+    /**
+     * Set all the metrics back to zero.
+     */
+    public void reset();
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+
+/**
+ * A Timer records how long something takes.  Use it like this:
+ *
+ *      Timer.Context context = SOME_TIMER.start();
+ *      try {
+ *          ...
+ *      }
+ *      finally {
+ *          context.stop();
+ *      }
+ *
+ * The durations, in nanoseconds, are kept in a Histogram.
+ * If the JDK Flight Recorder is available, every timed section
+ * is also recorded as a com.physion.ebuilder.Timer event, so it
+ * shows up in a JFR recording alongside GC, allocation, etc.
+ *
+ * Use Metrics.timer(name) to get one.
+ */
+public final class Timer {
+
+    private final String name;
+    private final Histogram durations;
+
+
+    Timer(String name) {
+        this.name = name;
+        this.durations = new Histogram(name, false);
+    }
+
+
+    public String getName() {
+        return(name);
+    }
+
+
+    /**
+     * Start timing something.  Call stop() on the returned
+     * Context when the thing is done.
+     */
+    public Context start() {
+        return(new Context(this));
+    }
+
+
+    /**
+     * Record a duration that was measured some other way.
+     */
+    public void update(long durationNanos) {
+        durations.update(durationNanos);
+    }
+
+
+    /**
+     * Get the Histogram of the recorded durations in nanoseconds.
+     */
+    public Histogram getDurations() {
+        return(durations);
+    }
+
+
+    public long getCount() {
+        return(durations.getCount());
+    }
+
+
+    public void reset() {
+        durations.reset();
+    }
+
+
+    @Override
+    public String toString() {
+        return("count="+getCount()+
+               " totalMs="+(durations.getSum()/1000000)+
+               " meanUs="+String.format("%.1f", durations.getMean()/1000)+
+               " p99Us="+(durations.getPercentile(0.99)/1000)+
+               " maxUs="+(durations.getMax()/1000));
+    }
+
+
+    /**
+     * This is what Timer.start() returns.  It is one timed section.
+     */
+    public static final class Context {
+
+        private final Timer timer;
+        private final long startNanos;
+        private final Object flightRecorderEvent;
+
+
+        private Context(Timer timer) {
+
+            this.timer = timer;
+            this.flightRecorderEvent = FlightRecorderSupport.begin(
+                timer.getName());
+            this.startNanos = System.nanoTime();
+        }
+
+
+        /**
+         * Stop timing and record the duration.
+         *
+         * @return The duration in nanoseconds.
+         */
+        public long stop() {
+
+            long duration = System.nanoTime() - startNanos;
+            timer.update(duration);
+            FlightRecorderSupport.commit(flightRecorderEvent);
+            return(duration);
+        }
+    }
+}
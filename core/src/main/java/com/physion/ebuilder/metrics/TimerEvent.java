@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * The JDK Flight Recorder event that is recorded for every
+ * Timer section.  Only FlightRecorderSupport should use this class.
+ * See FlightRecorderSupport for why.
+ */
+@Name("com.physion.ebuilder.Timer")
+@Label("Query Editor Timer")
+@Category("Query Editor")
+@Description("A timed section of the query editor or its translators.")
+@StackTrace(false)
+final class TimerEvent extends Event {
+
+    @Label("Name")
+    String name;
+
+
+    static Object beginEvent(String name) {
+
+        TimerEvent event = new TimerEvent();
+        if (!event.isEnabled())
+            return(null);
+
+        event.name = name;
+        event.begin();
+        return(event);
+    }
+
+
+    static void commitEvent(Object object) {
+
+        TimerEvent event = (TimerEvent)object;
+        event.end();
+        event.commit();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * The JDK Flight Recorder event that is recorded for every
+ * value recorded in a Histogram.  Only FlightRecorderSupport
+ * should use this class.  See FlightRecorderSupport for why.
+ */
+@Name("com.physion.ebuilder.Value")
+@Label("Query Editor Value")
+@Category("Query Editor")
+@Description("A value recorded by the query editor, e.g. a tree size.")
+@StackTrace(false)
+final class ValueEvent extends Event {
+
+    @Label("Name")
+    String name;
+
+    @Label("Value")
+    long value;
+
+
+    static void commitEvent(String name, long value) {
+
+        ValueEvent event = new ValueEvent();
+        if (event.isEnabled()) {
+            event.name = name;
+            event.value = value;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * An AttributePath is an interned, immutable sequence of Attributes,
+ * (e.g. epochGroup.source.label), along with the Expression that
+ * RowDataToExpressionTree creates for it:
+ *
+ *      OperatorExpression(.)
+ *        OperatorExpression(.)
+ *          AttributeExpression(epochGroup)
+ *          AttributeExpression(source)
+ *        AttributeExpression(label)
+ *
+ * There is only one AttributePath for each distinct sequence of
+ * Attributes, so the Expression is only created once, and every
+ * row with the same path, in every tree we translate, shares it.
+ * The Expression of a path is built from the Expression of its
+ * parent path, (the path without its last Attribute), so the
+ * prefixes are shared too.
+ *
+ * Because the Expressions are shared, their operand lists can't be
+ * changed.  (OperatorExpression.addOperand() and changing the list
+ * returned by getOperandList() throw UnsupportedOperationException.)
+ * Nothing in the translators changes an Expression once it has been
+ * added to a tree.
+ *
+ * The Expression of a path that ends with a PARAMETERS_MAP attribute
+ * is just the "." path to the map.  (The parameter and as operators
+ * around it depend on the row's property name and type.)  A path
+ * that ends with a PER_USER_OR_CUSTOM_REFERENCE_OPERATOR attribute,
+ * (e.g. mykeywords), doesn't have an Expression of its own,
+ * (getExpression() returns null), but the path that leads up to
+ * it does.
+ *
+ * The table of paths is never emptied.  That is fine, because
+ * the number of distinct paths people build is small.
+ */
+final class AttributePath {
+
+    private static final ConcurrentHashMap<List<Attribute>,AttributePath>
+        paths = new ConcurrentHashMap<List<Attribute>,AttributePath>();
+
+    private final List<Attribute> attributes;
+    private final AttributePath parent;
+    private final IExpression expression;
+
+
+    private AttributePath(List<Attribute> attributes, AttributePath parent) {
+
+        this.attributes = attributes;
+        this.parent = parent;
+
+        Attribute last = attributes.get(attributes.size()-1);
+        if ((last.getType() == Type.PER_USER_OR_CUSTOM_REFERENCE_OPERATOR) ||
+            last.isSpecial()) {
+            expression = null;
+        }
+        else if (parent == null) {
+            expression = new AttributeExpression(last.getQueryName());
+        }
+        else if (parent.getExpression() == null) {
+            expression = null;
+        }
+        else {
+            expression = new OperatorExpression(Translator.OE_DOT,
+                Collections.unmodifiableList(Arrays.<IExpression>asList(
+                    parent.getExpression(),
+                    valueOf(attributes.subList(attributes.size()-1,
+                            attributes.size())).getExpression())));
+        }
+    }
+
+
+    /**
+     * Get the AttributePath for the passed in sequence of Attributes.
+     * Looking up a path that already exists does not copy the list.
+     *
+     * @param attributes A non-empty list of Attributes.
+     */
+    static AttributePath valueOf(List<Attribute> attributes) {
+
+        AttributePath path = paths.get(attributes);
+        if (path != null) {
+            return(path);
+        }
+
+        if (attributes.isEmpty()) {
+            throw(new IllegalArgumentException("attributes is empty."));
+        }
+
+        List<Attribute> copy = Collections.unmodifiableList(
+            new ArrayList<Attribute>(attributes));
+        AttributePath parent = (copy.size() > 1) ?
+            valueOf(copy.subList(0, copy.size()-1)) : null;
+        path = new AttributePath(copy, parent);
+
+        AttributePath existing = paths.putIfAbsent(copy, path);
+        return((existing != null) ? existing : path);
+    }
+
+
+    List<Attribute> getAttributes() {
+        return(attributes);
+    }
+
+
+    /**
+     * Get the path without its last Attribute, or null if
+     * this path has only one Attribute.
+     */
+    AttributePath getParent() {
+        return(parent);
+    }
+
+
+    Attribute getLastAttribute() {
+        return(attributes.get(attributes.size()-1));
+    }
+
+
+    int size() {
+        return(attributes.size());
+    }
+
+
+    /**
+     * Get the shared Expression for this path, or null if
+     * the path doesn't have one of its own.
+     */
+    IExpression getExpression() {
+        return(expression);
+    }
+
+
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder();
+        for (Attribute attribute : attributes) {
+            if (builder.length() > 0) {
+                builder.append('.');
+            }
+            builder.append(attribute.getQueryName());
+        }
+        return(builder.toString());
+    }
+}
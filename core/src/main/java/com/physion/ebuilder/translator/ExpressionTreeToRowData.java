@@ -4,10 +4,13 @@
  */
 package com.physion.ebuilder.translator;
 
+import com.physion.ebuilder.datamodel.ChildRowSource;
 import com.physion.ebuilder.datamodel.DataModel;
 import com.physion.ebuilder.datamodel.RowData;
 import com.physion.ebuilder.datatypes.*;
 import com.physion.ebuilder.expression.*;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.metrics.Timer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -29,6 +32,12 @@ import java.util.List;
 public class ExpressionTreeToRowData
     implements Translator {
 
+    /**
+     * How long each call to translate() takes.
+     */
+    private static final Timer TRANSLATE_TIMER =
+        Metrics.timer("translator.expressionTreeToRowData");
+
     /**
      * This method turns the passed in ExpressionTree into a
      * RowData object.
@@ -41,6 +50,49 @@ public class ExpressionTreeToRowData
      */
     public static RowData translate(ExpressionTree expressionTree) {
 
+        Timer.Context timerContext = TRANSLATE_TIMER.start();
+        try {
+            return(translateTree(expressionTree, false));
+        }
+        finally {
+            timerContext.stop();
+        }
+    }
+
+
+    /**
+     * This is the same as translate(), except that only the root
+     * row is created now.  The children of each row are created
+     * from the ExpressionTree the first time somebody asks for them.
+     * (See RowData.setChildRowSource().)  So, the time this takes
+     * does not depend on the size of the tree, and a huge tree
+     * is only translated as far down as somebody looks.
+     *
+     * Please note, because the rows are created later, an
+     * IllegalArgumentException for a malformed part of the
+     * ExpressionTree is thrown when that part's rows are created,
+     * not by this method.
+     */
+    public static RowData translateLazily(ExpressionTree expressionTree) {
+
+        Timer.Context timerContext = TRANSLATE_TIMER.start();
+        try {
+            return(translateTree(expressionTree, true));
+        }
+        finally {
+            timerContext.stop();
+        }
+    }
+
+
+    /**
+     * This does the real work for translate().
+     * The only reason it is a separate method is so translate()
+     * can time it.
+     */
+    private static RowData translateTree(ExpressionTree expressionTree,
+                                         boolean lazy) {
+
         /**
          * First create the root RowData object.
          * It simply contains the CUQ (Class Under Qualification)
@@ -91,16 +143,19 @@ public class ExpressionTreeToRowData
         }
 
         List<IExpression> operandList = oe.getOperandList();
+        List<IOperatorExpression> operands =
+            new ArrayList<IOperatorExpression>(operandList.size());
         for (IExpression ex : operandList) {
             if (!(ex instanceof IOperatorExpression)) {
                 String s = "Root IOperatorExpression("+oe.getOperatorName()+
                     ") had an operand that was not an IOperatorExpression().";
                 throw(new IllegalArgumentException(s));
             }
-
-            createAndAddChildRows(rootRow, (IOperatorExpression)ex, cuq);
+            operands.add((IOperatorExpression)ex);
         }
 
+        addChildRows(rootRow, operands, cuq, lazy);
+
         return(rootRow);
     }
 
@@ -128,7 +183,7 @@ public class ExpressionTreeToRowData
      * @param oe operator expression
      */
     private static List<RowData> createChildRows(IOperatorExpression oe,
-        ClassDescription classDescription) {
+        ClassDescription classDescription, boolean lazy) {
 
         /*
         System.out.println("\nEnter createChildRows()");
@@ -357,9 +412,7 @@ public class ExpressionTreeToRowData
                 ILiteralValueExpression lve;
                 lve = (ILiteralValueExpression)operandList.get(1);
                 Attribute attribute = rowData.getChildmostAttribute();
-                Object attributeValue = createAttributeValue(
-                    lve, attribute.getType());
-                rowData.setAttributeValue(attributeValue);
+                setAttributeValue(rowData, lve, attribute.getType());
             }
 
             //System.out.println("Calling rowData.setAttributeOperator");
@@ -378,7 +431,23 @@ public class ExpressionTreeToRowData
 
                 int olIndex = 0;
                 ClassDescription childClass = classDescription;
-                if (ol.size() > 1) {
+
+                /**
+                 * Only the any and all operators have an attribute
+                 * path as their first operand.  The and and or of a
+                 * "simple" compound row, (e.g. "Any of the following"),
+                 * with more than one child just have more children.
+                 */
+                IOperatorExpression collectionOE = oe;
+                if (collectionOperator == CollectionOperator.NONE) {
+                    collectionOE = (IOperatorExpression)
+                        oe.getOperandList().get(0);
+                }
+                boolean hasAttributePath =
+                    OE_ANY.equals(collectionOE.getOperatorName()) ||
+                    OE_ALL.equals(collectionOE.getOperatorName());
+
+                if (hasAttributePath && (ol.size() > 1)) {
                     /**
                      * Convert the first operand into a RowData
                      * attributePath.
@@ -501,12 +570,12 @@ public class ExpressionTreeToRowData
                  * Note that the olIndex has been set above
                  * somewhere to either 0 or 1.
                  */
+                List<IOperatorExpression> operands =
+                    new ArrayList<IOperatorExpression>();
                 for (; olIndex < ol.size(); olIndex++) {
-
-                    IOperatorExpression operand =
-                        (IOperatorExpression)ol.get(olIndex);
-                    createAndAddChildRows(rowData, operand, childClass);
+                    operands.add((IOperatorExpression)ol.get(olIndex));
                 }
+                addChildRows(rowData, operands, childClass, lazy);
             }
         }
         else {
@@ -580,9 +649,7 @@ public class ExpressionTreeToRowData
             ILiteralValueExpression lve;
             lve = (ILiteralValueExpression)operandList.get(1);
             Attribute attribute = rowData.getChildmostAttribute();
-            Object attributeValue = createAttributeValue(
-                lve, attribute.getType());
-            rowData.setAttributeValue(attributeValue);
+            setAttributeValue(rowData, lve, attribute.getType());
         }
 
         rowData.setAttributeOperator(attributeOperator);
@@ -594,15 +661,61 @@ public class ExpressionTreeToRowData
      * We also use this to get the "parent" class used to interpret
      * values in the oe's operand list.
      *
-     * @param oe The IOperatorExpression whose list of operands will
+     * @param operands The IOperatorExpressions that will
      * define the RowData children we create.
      * @param classDescription data model class description
+     * @param lazy If true, the child rows are not created now.
+     * They are created the first time somebody asks the rowData
+     * for its children.  (See translateLazily().)
      */
-    private static void createAndAddChildRows(RowData rowData,
-        IOperatorExpression oe, ClassDescription classDescription) {
+    private static void addChildRows(RowData rowData,
+        List<IOperatorExpression> operands, ClassDescription classDescription,
+        boolean lazy) {
+
+        if (operands.isEmpty()) {
+            return;
+        }
 
-        List<RowData> childRows = createChildRows(oe, classDescription);
-        rowData.addChildRows(childRows);
+        if (lazy) {
+            rowData.setChildRowSource(new PendingChildRows(operands,
+                                                           classDescription));
+        }
+        else {
+            for (IOperatorExpression operand : operands) {
+                rowData.addChildRows(createChildRows(operand, classDescription,
+                                                     false));
+            }
+        }
+    }
+
+
+    /**
+     * The child rows of a row that translateLazily() has not
+     * created yet.  I.e. the operands they will be created from.
+     */
+    private static class PendingChildRows
+        implements ChildRowSource {
+
+        private final List<IOperatorExpression> operands;
+        private final ClassDescription classDescription;
+
+
+        PendingChildRows(List<IOperatorExpression> operands,
+                         ClassDescription classDescription) {
+            this.operands = operands;
+            this.classDescription = classDescription;
+        }
+
+
+        public List<RowData> createChildRows(RowData parent) {
+
+            List<RowData> childRows = new ArrayList<RowData>();
+            for (IOperatorExpression operand : operands) {
+                childRows.addAll(ExpressionTreeToRowData.createChildRows(
+                    operand, classDescription, true));
+            }
+            return(childRows);
+        }
     }
 
 
@@ -1355,30 +1468,57 @@ public class ExpressionTreeToRowData
 
 
     /**
-     * Convert the passed in ILiteralValueExpression into an attributeValue
-     * that the RowData object expects.
+     * Set the passed in rowData's attributeValue to the value of
+     * the passed in ILiteralValueExpression.
      *
      * In the case of an IInt32LiteralValueExpression we also need
-     * the passed in Type to know what type of object to create.
+     * the passed in Type to know what type of value to set.
      * This is because the Expression structure does not have a
      * IInt16LiteralValueExpression class.  (All integer values are
      * the same.)
+     *
+     * Numeric values are copied using the primitive accessors and
+     * setters, so no Integer, Short, or Double objects are created.
      */
-    private static Object createAttributeValue(ILiteralValueExpression lve,
-                                               Type type) {
+    private static void setAttributeValue(RowData rowData,
+                                          ILiteralValueExpression lve,
+                                          Type type) {
+
+        if (lve instanceof IInt32LiteralValueExpression) {
+            /**
+             * Look at the DataModel to figure out whether this
+             * should be a short or an int.
+             */
+            int value = ((IInt32LiteralValueExpression)lve).getIntValue();
+            if (type == Type.INT_16) {
+                rowData.setAttributeValueInt16((short)value);
+            }
+            else {
+                rowData.setAttributeValueInt32(value);
+            }
+        }
+        else if (lve instanceof IFloat64LiteralValueExpression) {
+            rowData.setAttributeValueFloat64(
+                ((IFloat64LiteralValueExpression)lve).getDoubleValue());
+        }
+        else {
+            rowData.setAttributeValue(createAttributeValue(lve));
+        }
+    }
+
+
+    /**
+     * Convert the passed in non-numeric ILiteralValueExpression into
+     * an attributeValue that the RowData object expects.
+     */
+    private static Object createAttributeValue(ILiteralValueExpression lve) {
 
         /**
-         * Some values in the Expression tree are already the
+         * These values in the Expression tree are already the
          * correct object type for the RowData object.
-         *
-         * But, Expression IInt32LiteralValueExpression values
-         * need to compared to the DataModel to figure out
-         * whether the attributeValue should be an Integer or a
-         * Short object.  (INT_16 or INT_32)
          */
         if ((lve instanceof ITimeLiteralValueExpression) ||
-            (lve instanceof IStringLiteralValueExpression) ||
-            (lve instanceof IFloat64LiteralValueExpression)) {
+            (lve instanceof IStringLiteralValueExpression)) {
             return(lve.getValue());
         }
         else if (lve instanceof IBooleanLiteralValueExpression) {
@@ -1392,23 +1532,6 @@ public class ExpressionTreeToRowData
                 printStackTrace();
             return(null);
         }
-        else if (lve instanceof IInt32LiteralValueExpression) {
-            /**
-             * Look at the DataModel to figure out whether this
-             * should be a Short or an Integer.
-             */
-            if (type == Type.INT_16) {
-                int value = (Integer)lve.getValue();
-                return(new Short((short)value));
-            }
-            else {
-                /**
-                 * The value is already an Integer object.
-                 * (Or at least it should be!)
-                 */
-                return(lve.getValue());
-            }
-        }
         else {
             (new Exception("Unhandled ILiteralValueExpression subclass")).
                 printStackTrace();
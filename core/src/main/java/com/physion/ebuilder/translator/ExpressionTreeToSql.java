@@ -0,0 +1,682 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.expression.*;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.metrics.Timer;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class is used to translate an ExpressionTree into a SQL
+ * query, so that the entities that we mirror into a local SQL
+ * database can be filtered by the database, (using its indexes),
+ * instead of by reading whole tables into Java.
+ *
+ * The layout of the database is described by a SqlSchema.
+ * The parts of an ExpressionTree are translated like this:
+ *
+ *      and/or          AND/OR
+ *      not             (...) IS NOT TRUE
+ *      ==, !=, <, ...  =, <>, <, ...  (The literal is a "?" parameter.)
+ *      =~, =~~         REGEXP_LIKE(x, ?) and REGEXP_LIKE(x, ?, 'i')
+ *      !~, !~~         NOT REGEXP_LIKE(...)
+ *      isnull          IS NULL
+ *
+ *      a.b             A LEFT JOIN of a's table for each TO_ONE
+ *                      reference in the path.  Each distinct path is
+ *                      only joined once.
+ *
+ *      any(c, x)       EXISTS (SELECT 1 FROM <link table> JOIN <element
+ *                      table> WHERE owner = ... AND x)
+ *
+ *      all(c, x)       NOT EXISTS (... AND (x) IS NOT TRUE)
+ *
+ *      count(c)        (SELECT COUNT(*) FROM <link table> WHERE owner = ...)
+ *
+ *      parameter(m, "key") as ...
+ *                      A LEFT JOIN of the key/value table on the owner
+ *                      and the key, and the value column for the type.
+ *
+ * "not" and "all" use IS NOT TRUE instead of plain NOT so that
+ * a comparison with a NULL is false, just as it is when the
+ * evaluator, (or the Ovation database), does the comparison.
+ *
+ * Please note, REGEXP_LIKE is what H2 and Oracle call it.  For other
+ * databases, (e.g. SQLite, which needs a REGEXP function to be
+ * registered), override the regularExpression() method.
+ *
+ * The per-user operators, (e.g. mykeywords, properties), and the
+ * containing_experiments operators can't be translated, because the
+ * mirror database doesn't know who the user is.  translate() throws
+ * an IllegalArgumentException if the tree contains one.
+ *
+ * @see SqlSchema
+ * @see SqlQuery
+ */
+public class ExpressionTreeToSql
+    implements Translator {
+
+    /**
+     * How long each call to translate() takes.
+     */
+    private static final Timer TRANSLATE_TIMER =
+        Metrics.timer("translator.expressionTreeToSql");
+
+    private final SqlSchema schema;
+
+    /**
+     * Used to create the table aliases t0, t1, t2...
+     */
+    private int aliasCount;
+
+
+    protected ExpressionTreeToSql(SqlSchema schema) {
+        this.schema = schema;
+    }
+
+
+    /**
+     * Translate the passed in ExpressionTree into SQL, using the
+     * default SqlSchema naming conventions.
+     */
+    public static SqlQuery translate(ExpressionTree expressionTree) {
+        return(translate(expressionTree, new SqlSchema()));
+    }
+
+
+    /**
+     * Translate the passed in ExpressionTree into SQL.
+     *
+     * @throws IllegalArgumentException if the tree contains something
+     * that can't be translated into SQL.
+     */
+    public static SqlQuery translate(ExpressionTree expressionTree,
+                                     SqlSchema schema) {
+
+        Timer.Context timerContext = TRANSLATE_TIMER.start();
+        try {
+            return(new ExpressionTreeToSql(schema).translateTree(
+                expressionTree));
+        }
+        finally {
+            timerContext.stop();
+        }
+    }
+
+
+    /**
+     * This does the real work for translate().
+     */
+    protected SqlQuery translateTree(ExpressionTree expressionTree) {
+
+        if ((expressionTree == null) || (schema == null)) {
+            throw(new IllegalArgumentException(
+                "expressionTree and schema must not be null."));
+        }
+
+        String className = expressionTree.getClassUnderQualification();
+        ClassDescription classDescription =
+            DataModel.getClassDescription(className);
+        if (classDescription == null) {
+            throw(new IllegalArgumentException("Unknown Class Under "+
+                "Qualification: "+className));
+        }
+
+        Scope scope = new Scope(newAlias(), classDescription);
+        Fragment where = condition(expressionTree.getRootExpression(), scope);
+
+        Fragment from = new Fragment();
+        String tableName = schema.getTableName(classDescription);
+        from.append(tableName).append(" ").append(scope.alias);
+        for (Fragment join : scope.joins) {
+            from.append(" ").append(join);
+        }
+
+        return(new SqlQuery(tableName, scope.alias,
+                            from.sql.toString(), from.parameters,
+                            where.sql.toString(), where.parameters));
+    }
+
+
+    /**
+     * Translate an expression whose value is true or false.
+     */
+    private Fragment condition(IExpression expression, Scope scope) {
+
+        if (expression instanceof IBooleanLiteralValueExpression) {
+            return(new Fragment().append(((IBooleanLiteralValueExpression)
+                expression).getBooleanValue() ? "(1=1)" : "(1=0)"));
+        }
+
+        if (!(expression instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException("Expected a true/false "+
+                "expression, but got: "+expression));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_AND.equals(name) || OE_OR.equals(name)) {
+
+            if (operands.isEmpty()) {
+                return(new Fragment().append(OE_AND.equals(name) ?
+                                             "(1=1)" : "(1=0)"));
+            }
+            if (operands.size() == 1) {
+                return(condition(operands.get(0), scope));
+            }
+
+            String junction = OE_AND.equals(name) ? " AND " : " OR ";
+            Fragment fragment = new Fragment().append("(");
+            for (int index = 0; index < operands.size(); index++) {
+                if (index > 0) {
+                    fragment.append(junction);
+                }
+                fragment.append(condition(operands.get(index), scope));
+            }
+            return(fragment.append(")"));
+        }
+        else if (OE_NOT.equals(name)) {
+
+            checkOperandCount(oe, 1);
+            return(new Fragment().append("((").
+                   append(condition(operands.get(0), scope)).
+                   append(") IS NOT TRUE)"));
+        }
+        else if (OE_ANY.equals(name) || OE_ALL.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            return(quantifier(OE_ALL.equals(name), operands.get(0),
+                              operands.get(1), scope));
+        }
+        else if (OE_IS_NULL.equals(name)) {
+
+            checkOperandCount(oe, 1);
+            return(new Fragment().append(value(operands.get(0), scope)).
+                   append(" IS NULL"));
+        }
+        else if (isComparison(name)) {
+
+            checkOperandCount(oe, 2);
+            Fragment left = value(operands.get(0), scope);
+            Fragment right = value(operands.get(1), scope);
+
+            if (isRegularExpression(name)) {
+                Fragment fragment = regularExpression(left, right,
+                    name.endsWith("~~"));
+                if (name.startsWith("!")) {
+                    fragment = new Fragment().append("NOT ").append(fragment);
+                }
+                return(fragment);
+            }
+
+            String sqlOperator = name;
+            if (OE_EQUALS.equals(name)) {
+                sqlOperator = "=";
+            }
+            else if (OE_NOT_EQUALS.equals(name)) {
+                sqlOperator = "<>";
+            }
+            return(new Fragment().append(left).append(" "+sqlOperator+" ").
+                   append(right));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+"\" operator "+
+            "can't be translated into SQL."));
+    }
+
+
+    /**
+     * Create the SQL for a regular expression match.
+     * Override this if your database spells it differently.
+     */
+    protected Fragment regularExpression(Fragment value, Fragment pattern,
+                                         boolean caseInsensitive) {
+
+        Fragment fragment = new Fragment().append("REGEXP_LIKE(").
+            append(value).append(", ").append(pattern);
+        return(fragment.append(caseInsensitive ? ", 'i')" : ")"));
+    }
+
+
+    /**
+     * Translate an any() or all().
+     */
+    private Fragment quantifier(boolean all, IExpression collection,
+                                IExpression condition, Scope scope) {
+
+        Step step = resolve(collection, scope);
+        Attribute attribute = checkToMany(step, collection);
+
+        String linkAlias = newAlias();
+        Scope elementScope = new Scope(newAlias(),
+                                       attribute.getClassDescription());
+        Fragment elementCondition = condition(condition, elementScope);
+
+        Fragment fragment = new Fragment();
+        fragment.append(all ? "NOT EXISTS (SELECT 1 FROM " :
+                              "EXISTS (SELECT 1 FROM ");
+        fragment.append(schema.getLinkTableName(step.classDescription,
+                                                attribute));
+        fragment.append(" ").append(linkAlias);
+        fragment.append(" JOIN ").append(schema.getTableName(
+            elementScope.classDescription));
+        fragment.append(" ").append(elementScope.alias);
+        fragment.append(" ON ").append(elementScope.alias).append(".").
+            append(schema.getIdColumn(elementScope.classDescription));
+        fragment.append(" = ").append(linkAlias).append(".").
+            append(schema.getElementColumn());
+        for (Fragment join : elementScope.joins) {
+            fragment.append(" ").append(join);
+        }
+
+        fragment.append(" WHERE ").append(linkAlias).append(".").
+            append(schema.getOwnerColumn());
+        fragment.append(" = ").append(step.alias).append(".").
+            append(schema.getIdColumn(step.classDescription));
+
+        if (all) {
+            fragment.append(" AND (").append(elementCondition).
+                append(") IS NOT TRUE)");
+        }
+        else {
+            fragment.append(" AND ").append(elementCondition).append(")");
+        }
+        return(fragment);
+    }
+
+
+    /**
+     * Translate an expression whose value is a number, string,
+     * time, etc.  I.e. an operand of a comparison.
+     */
+    private Fragment value(IExpression expression, Scope scope) {
+
+        if (expression instanceof ILiteralValueExpression) {
+            return(new Fragment().parameter(literalValue(
+                (ILiteralValueExpression)expression)));
+        }
+
+        if ((expression instanceof IOperatorExpression) &&
+            OE_COUNT.equals(((IOperatorExpression)expression).
+                            getOperatorName())) {
+
+            IOperatorExpression oe = (IOperatorExpression)expression;
+            checkOperandCount(oe, 1);
+            IExpression collection = oe.getOperandList().get(0);
+            Step step = resolve(collection, scope);
+            Attribute attribute = checkToMany(step, collection);
+
+            String linkAlias = newAlias();
+            Fragment fragment = new Fragment().append("(SELECT COUNT(*) FROM ");
+            fragment.append(schema.getLinkTableName(step.classDescription,
+                                                    attribute));
+            fragment.append(" ").append(linkAlias).append(" WHERE ");
+            fragment.append(linkAlias).append(".").
+                append(schema.getOwnerColumn());
+            fragment.append(" = ").append(step.alias).append(".").
+                append(schema.getIdColumn(step.classDescription));
+            return(fragment.append(")"));
+        }
+
+        Step step = resolve(expression, scope);
+        return(new Fragment().append(column(step, expression)));
+    }
+
+
+    /**
+     * Get the column that holds the value of an attribute path.
+     */
+    private String column(Step step, IExpression expression) {
+
+        if (step.column != null) {
+            return(step.column);
+        }
+        if (step.attribute == null) {
+            return(step.alias+"."+schema.getIdColumn(step.classDescription));
+        }
+
+        if (step.attribute.isPrimitive()) {
+            return(step.alias+"."+schema.getColumnName(
+                step.classDescription, step.attribute));
+        }
+        if ((step.attribute.getType() == Type.REFERENCE) &&
+            (step.attribute.getCardinality() == Cardinality.TO_ONE)) {
+            return(step.alias+"."+schema.getReferenceColumnName(
+                step.classDescription, step.attribute));
+        }
+
+        throw(new IllegalArgumentException("The value of "+expression+
+            " is not something that can be compared in SQL."));
+    }
+
+
+    /**
+     * Follow an attribute path, adding joins to the passed in Scope
+     * as needed, and return the last step of the path.
+     */
+    private Step resolve(IExpression expression, Scope scope) {
+
+        if (expression instanceof IAttributeExpression) {
+
+            String name = ((IAttributeExpression)expression).
+                getAttributeName();
+            if (AE_THIS.equals(name)) {
+                return(new Step(scope.alias, scope.classDescription, null));
+            }
+            return(attribute(scope.alias, scope.classDescription, name));
+        }
+
+        if (!(expression instanceof IOperatorExpression)) {
+            throw(new IllegalArgumentException("Expected an attribute "+
+                "path, but got: "+expression));
+        }
+
+        IOperatorExpression oe = (IOperatorExpression)expression;
+        String name = oe.getOperatorName();
+        List<IExpression> operands = oe.getOperandList();
+
+        if (OE_DOT.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            if (!(operands.get(1) instanceof IAttributeExpression)) {
+                throw(new IllegalArgumentException("The right operand "+
+                    "of \".\" must be an AttributeExpression."));
+            }
+            String attributeName = ((IAttributeExpression)operands.get(1)).
+                getAttributeName();
+
+            Step step = resolve(operands.get(0), scope);
+            if (AE_THIS.equals(attributeName)) {
+                return(step);
+            }
+            if (step.column != null) {
+                if (AE_VALUE.equals(attributeName)) {
+                    return(step);
+                }
+                throw(new IllegalArgumentException("A parameter value "+
+                    "has no attribute \""+attributeName+"\"."));
+            }
+
+            String alias = join(step, scope, expression);
+            return(attribute(alias, step.attribute.getClassDescription(),
+                             attributeName));
+        }
+        else if (OE_AS.equals(name)) {
+
+            checkOperandCount(oe, 2);
+            if (!(operands.get(0) instanceof IOperatorExpression) ||
+                !OE_PARAMETER.equals(((IOperatorExpression)operands.get(0)).
+                                     getOperatorName()) ||
+                !(operands.get(1) instanceof IClassLiteralValueExpression)) {
+                throw(new IllegalArgumentException("Only "+
+                    "\"parameter(...) as <class>\" can be translated into "+
+                    "SQL."));
+            }
+
+            IOperatorExpression parameter =
+                (IOperatorExpression)operands.get(0);
+            checkOperandCount(parameter, 2);
+            String classLiteral = (String)((IClassLiteralValueExpression)
+                operands.get(1)).getValue();
+            return(parameter(parameter.getOperandList().get(0),
+                             parameter.getOperandList().get(1),
+                             classLiteral, scope));
+        }
+
+        throw(new IllegalArgumentException("The \""+name+"\" operator "+
+            "can't be translated into SQL."));
+    }
+
+
+    /**
+     * Translate parameter(map, key) as classLiteral.  We join the
+     * map's key/value table on the owner and the key, (once per
+     * distinct map and key), and the value is the column for the type.
+     */
+    private Step parameter(IExpression map, IExpression key,
+                           String classLiteral, Scope scope) {
+
+        Step step = resolve(map, scope);
+        if ((step.attribute == null) ||
+            (step.attribute.getType() != Type.PARAMETERS_MAP)) {
+            throw(new IllegalArgumentException("Only PARAMETERS_MAP "+
+                "attributes can be translated into SQL.  Not: "+map));
+        }
+        if (!(key instanceof IStringLiteralValueExpression)) {
+            throw(new IllegalArgumentException("The key of a parameter "+
+                "must be a string literal."));
+        }
+        String keyName = (String)((IStringLiteralValueExpression)key).
+            getValue();
+
+        String joinKey = step.alias+"."+step.attribute.getQueryName()+
+            "["+keyName+"]";
+        String alias = scope.joinAliases.get(joinKey);
+        if (alias == null) {
+            alias = newAlias();
+            Fragment join = new Fragment().append("LEFT JOIN ");
+            join.append(schema.getParametersTableName(step.classDescription,
+                                                      step.attribute));
+            join.append(" ").append(alias).append(" ON ").append(alias).
+                append(".").append(schema.getOwnerColumn());
+            join.append(" = ").append(step.alias).append(".").
+                append(schema.getIdColumn(step.classDescription));
+            join.append(" AND ").append(alias).append(".").
+                append(schema.getParameterNameColumn()).append(" = ");
+            join.parameter(keyName);
+            scope.addJoin(joinKey, alias, join);
+        }
+
+        Step valueStep = new Step(alias, step.classDescription, null);
+        valueStep.column = alias+"."+
+            schema.getParameterValueColumn(classLiteral);
+        return(valueStep);
+    }
+
+
+    /**
+     * Join the table of the class that a TO_ONE reference refers to.
+     * Each reference is only joined once per Scope.
+     *
+     * @return The alias of the joined table.
+     */
+    private String join(Step step, Scope scope, IExpression expression) {
+
+        if (step.attribute == null) {
+            return(step.alias);
+        }
+        if ((step.attribute.getType() != Type.REFERENCE) ||
+            (step.attribute.getCardinality() != Cardinality.TO_ONE)) {
+            throw(new IllegalArgumentException("Only TO_ONE references "+
+                "can be followed with \".\" in SQL: "+expression));
+        }
+
+        String joinKey = step.alias+"."+step.attribute.getQueryName();
+        String alias = scope.joinAliases.get(joinKey);
+        if (alias == null) {
+            alias = newAlias();
+            ClassDescription target = step.attribute.getClassDescription();
+            Fragment join = new Fragment().append("LEFT JOIN ");
+            join.append(schema.getTableName(target)).append(" ").
+                append(alias);
+            join.append(" ON ").append(alias).append(".").
+                append(schema.getIdColumn(target));
+            join.append(" = ").append(step.alias).append(".").
+                append(schema.getReferenceColumnName(step.classDescription,
+                                                     step.attribute));
+            scope.addJoin(joinKey, alias, join);
+        }
+        return(alias);
+    }
+
+
+    private static Step attribute(String alias,
+                                  ClassDescription classDescription,
+                                  String attributeName) {
+
+        Attribute attribute = classDescription.getAttribute(attributeName);
+        if (attribute == null) {
+            throw(new IllegalArgumentException("The class "+
+                classDescription.getName()+" has no attribute named \""+
+                attributeName+"\"."));
+        }
+        return(new Step(alias, classDescription, attribute));
+    }
+
+
+    private static Attribute checkToMany(Step step, IExpression collection) {
+
+        if ((step.attribute == null) ||
+            (step.attribute.getType() != Type.REFERENCE) ||
+            (step.attribute.getCardinality() != Cardinality.TO_MANY)) {
+            throw(new IllegalArgumentException("Only TO_MANY references "+
+                "can be used as collections in SQL: "+collection));
+        }
+        return(step.attribute);
+    }
+
+
+    /**
+     * Get the value to bind for a literal.
+     */
+    private static Object literalValue(ILiteralValueExpression literal) {
+
+        if (literal instanceof ITimeLiteralValueExpression) {
+            return(new Timestamp(((ITimeLiteralValueExpression)literal).
+                                 getEpochMillis()));
+        }
+        if (literal instanceof IClassLiteralValueExpression) {
+            throw(new IllegalArgumentException("A class literal can't "+
+                "be compared in SQL."));
+        }
+        return(literal.getValue());
+    }
+
+
+    private String newAlias() {
+        return("t"+(aliasCount++));
+    }
+
+
+    private static boolean isComparison(String name) {
+        return(OE_EQUALS.equals(name) || OE_NOT_EQUALS.equals(name) ||
+               OE_LESS_THAN.equals(name) || OE_GREATER_THAN.equals(name) ||
+               OE_LESS_THAN_EQUALS.equals(name) ||
+               OE_GREATER_THAN_EQUALS.equals(name) ||
+               isRegularExpression(name));
+    }
+
+
+    private static boolean isRegularExpression(String name) {
+        return(OE_MATCHES_CASE_SENSITIVE.equals(name) ||
+               OE_MATCHES_CASE_INSENSITIVE.equals(name) ||
+               OE_DOES_NOT_MATCH_CASE_SENSITIVE.equals(name) ||
+               OE_DOES_NOT_MATCH_CASE_INSENSITIVE.equals(name));
+    }
+
+
+    private static void checkOperandCount(IOperatorExpression expression,
+                                          int count) {
+
+        if (expression.getOperandList().size() != count) {
+            throw(new IllegalArgumentException("The \""+
+                expression.getOperatorName()+"\" operator must have "+
+                count+" operand(s).  It has "+
+                expression.getOperandList().size()+"."));
+        }
+    }
+
+
+    /**
+     * A piece of SQL and the values of its "?" placeholders.
+     */
+    protected static final class Fragment {
+
+        private final StringBuilder sql = new StringBuilder();
+        private final List<Object> parameters = new ArrayList<Object>();
+
+        public Fragment append(String string) {
+            sql.append(string);
+            return(this);
+        }
+
+        public Fragment append(Fragment fragment) {
+            sql.append(fragment.sql);
+            parameters.addAll(fragment.parameters);
+            return(this);
+        }
+
+        public Fragment parameter(Object value) {
+            sql.append('?');
+            parameters.add(value);
+            return(this);
+        }
+
+        public String toString() {
+            return(sql.toString());
+        }
+    }
+
+
+    /**
+     * The rows of one table that a condition is about, (the Class
+     * Under Qualification's table, or the element table inside an
+     * EXISTS), and the tables joined to it.
+     */
+    private static final class Scope {
+
+        private final String alias;
+        private final ClassDescription classDescription;
+        private final List<Fragment> joins = new ArrayList<Fragment>();
+        private final Map<String,String> joinAliases =
+            new HashMap<String,String>();
+
+        Scope(String alias, ClassDescription classDescription) {
+            this.alias = alias;
+            this.classDescription = classDescription;
+        }
+
+        void addJoin(String joinKey, String joinAlias, Fragment join) {
+            joinAliases.put(joinKey, joinAlias);
+            joins.add(join);
+        }
+    }
+
+
+    /**
+     * One step of an attribute path:  the attribute, and the
+     * alias and class of the table that has it.  If the attribute
+     * is null, the step is the row itself.  If column is not null,
+     * the step is a parameter value and that is its column.
+     */
+    private static final class Step {
+
+        private final String alias;
+        private final ClassDescription classDescription;
+        private final Attribute attribute;
+        private String column;
+
+        Step(String alias, ClassDescription classDescription,
+             Attribute attribute) {
+            this.alias = alias;
+            this.classDescription = classDescription;
+            this.attribute = attribute;
+        }
+    }
+}
@@ -10,9 +10,12 @@ import com.physion.ebuilder.datatypes.CollectionOperator;
 import com.physion.ebuilder.datatypes.Operator;
 import com.physion.ebuilder.datatypes.Type;
 import com.physion.ebuilder.expression.*;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.metrics.Timer;
 import org.joda.time.DateTime;
 
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -32,6 +35,12 @@ import java.util.List;
 public class RowDataToExpressionTree
     implements Translator {
 
+    /**
+     * How long each call to translate() takes.
+     */
+    private static final Timer TRANSLATE_TIMER =
+        Metrics.timer("translator.rowDataToExpressionTree");
+
     /**
      * Create an Expression from the passed in root RowData.
      * This method should only be called if the passed in
@@ -43,8 +52,55 @@ public class RowDataToExpressionTree
      * The method will throw an exception if the passed in
      * RowData is not in a format that can be turned
      * into an ExpressionTree object.
+     *
+     * Please note, the attribute paths in the returned tree,
+     * (e.g. the "." OperatorExpressions of epochGroup.source.label,
+     * and the AttributeExpressions in them), are shared with every
+     * other tree this method returns, (see AttributePath), so they
+     * can't be changed.  Calling addOperand() on one of them, or
+     * changing the list its getOperandList() returns, throws an
+     * UnsupportedOperationException.  The rest of the tree is
+     * created for the caller, and can be changed.  If you want
+     * to change a path, replace it with an Expression of your own.
      */
     public static ExpressionTree translate(RowData rootRow) {
+        return(translate(rootRow, null));
+    }
+
+
+    /**
+     * The same as translate(RowData), but also put the IExpression
+     * that was created for each row into the passed in map.  The
+     * IExpression of a row is the "top" node the row turned into.
+     * E.g. the not of not(any(...)) for a None row.  This lets the
+     * caller find the row that an expression came from, (e.g. to
+     * show how long each row took to evaluate).
+     *
+     * Like translate(RowData), the attribute paths in the returned
+     * tree are shared, and can't be changed.
+     *
+     * @param rowExpressions The map to fill in, or null.
+     */
+    public static ExpressionTree translate(RowData rootRow,
+        Map<RowData,IExpression> rowExpressions) {
+
+        Timer.Context timerContext = TRANSLATE_TIMER.start();
+        try {
+            return(translateTree(rootRow, rowExpressions));
+        }
+        finally {
+            timerContext.stop();
+        }
+    }
+
+
+    /**
+     * This does the real work for translate().
+     * The only reason it is a separate method is so translate()
+     * can time it.
+     */
+    private static ExpressionTree translateTree(RowData rootRow,
+        Map<RowData,IExpression> rowExpressions) {
 
         if (rootRow == null) {
             return(null);
@@ -90,7 +146,12 @@ public class RowDataToExpressionTree
          * that is a child of the rootRow.
          */
         for (RowData childRow : rootRow.getChildRows()) {
-            lastExpression.addOperand(createExpression(childRow));
+            lastExpression.addOperand(createExpression(childRow,
+                                                       rowExpressions));
+        }
+
+        if (rowExpressions != null) {
+            rowExpressions.put(rootRow, rootExpression);
         }
 
         ExpressionTree expressionTree = new ExpressionTree(
@@ -276,7 +337,8 @@ public class RowDataToExpressionTree
      *
      * Please note, this method calls itself recursively.
      */
-    private static OperatorExpression createExpression(RowData rowData) {
+    private static OperatorExpression createExpression(RowData rowData,
+        Map<RowData,IExpression> rowExpressions) {
 
         OperatorExpression expression;
         OperatorExpression lastOperator;
@@ -332,7 +394,8 @@ public class RowDataToExpressionTree
 
                 for (RowData childRow : rowData.getChildRows()) {
                     //System.out.println("Add an operand");
-                    lastOperator.addOperand(createExpression(childRow));
+                    lastOperator.addOperand(createExpression(childRow,
+                                                              rowExpressions));
                 }
         }
         else if (rowData.getCollectionOperator() != null) {
@@ -360,7 +423,8 @@ public class RowDataToExpressionTree
                 }
                 for (RowData childRow : rowData.getChildRows()) {
                     //System.out.println("Add an operand");
-                    lastOperator.addOperand(createExpression(childRow));
+                    lastOperator.addOperand(createExpression(childRow,
+                                                              rowExpressions));
                 }
             }
         }
@@ -379,6 +443,10 @@ public class RowDataToExpressionTree
             (new Exception(s)).printStackTrace();
         }
 
+        if (rowExpressions != null) {
+            rowExpressions.put(rowData, expression);
+        }
+
         return(expression);
     }
 
@@ -575,15 +643,15 @@ public class RowDataToExpressionTree
                  * Int16LiteralValueExpression.
                  */
                 return(new Int32LiteralValueExpression(
-                       ((Number)rowData.getAttributeValue()).intValue()));
+                       rowData.getAttributeValueAsInt()));
 
             case INT_32:
                 return(new Int32LiteralValueExpression(
-                       ((Number)rowData.getAttributeValue()).intValue()));
+                       rowData.getAttributeValueAsInt()));
 
             case FLOAT_64:
                 return(new Float64LiteralValueExpression(
-                       ((Number)rowData.getAttributeValue()).doubleValue()));
+                       rowData.getAttributeValueAsDouble()));
 
             case DATE_TIME:
                 return(new TimeLiteralValueExpression((DateTime)rowData.getAttributeValue()));
@@ -717,23 +785,8 @@ public class RowDataToExpressionTree
          * OperatorExpression(parameter) operator.
          */
 
-        Attribute lastAttribute = attributePath.get(attributePath.size()-1);
-        IExpression aeQueryName = new AttributeExpression(
-            lastAttribute.getQueryName());
-        IExpression parameterLeftOperand;
-        if (attributePath.size() > 1) {
-            List<Attribute> allButLastAttribute = attributePath.subList(0,
-                attributePath.size()-1);
-
-            IExpression ex = createExpressionPath(allButLastAttribute, rowData);
-            OperatorExpression oeDot = new OperatorExpression(OE_DOT);
-            oeDot.addOperand(ex);
-            oeDot.addOperand(aeQueryName);
-            parameterLeftOperand = oeDot;
-        }
-        else {
-            parameterLeftOperand = aeQueryName;
-        }
+        IExpression parameterLeftOperand =
+            AttributePath.valueOf(attributePath).getExpression();
 
         /**
          * Now add the left operand we created above.
@@ -838,6 +891,16 @@ public class RowDataToExpressionTree
             return(createCustomReferenceOperatorExpression(rowData));
         }
 
+        /**
+         * Most paths are just attributes joined with the "." operator.
+         * Every row with the same path shares the same Expression.
+         */
+        IExpression sharedExpression =
+            AttributePath.valueOf(attributePath).getExpression();
+        if (sharedExpression != null) {
+            return(sharedExpression);
+        }
+
         /**
          * If the attributePath is, (or has been whittled down to),
          * one attribute long, create the Expression for that one
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The result of translating an ExpressionTree into SQL.
+ * (See ExpressionTreeToSql.)
+ *
+ * The SQL contains a "?" placeholder for every literal value in the
+ * ExpressionTree, (and for every PARAMETERS_MAP key), so it can be
+ * passed to Connection.prepareStatement(), and the values are bound
+ * from getParameters() in order.  The database can then cache the
+ * plan, and the user's values can't be used for SQL injection.
+ */
+public class SqlQuery {
+
+    private final String tableName;
+    private final String alias;
+    private final String fromClause;
+    private final List<Object> fromParameters;
+    private final String whereClause;
+    private final List<Object> whereParameters;
+
+
+    SqlQuery(String tableName, String alias,
+             String fromClause, List<Object> fromParameters,
+             String whereClause, List<Object> whereParameters) {
+
+        this.tableName = tableName;
+        this.alias = alias;
+        this.fromClause = fromClause;
+        this.fromParameters = Collections.unmodifiableList(
+            new ArrayList<Object>(fromParameters));
+        this.whereClause = whereClause;
+        this.whereParameters = Collections.unmodifiableList(
+            new ArrayList<Object>(whereParameters));
+    }
+
+
+    /**
+     * Get the name of the table of the Class Under Qualification.
+     */
+    public String getTableName() {
+        return(tableName);
+    }
+
+
+    /**
+     * Get the alias the table of the Class Under Qualification
+     * has in the FROM and WHERE clauses.  E.g. "t0".
+     */
+    public String getAlias() {
+        return(alias);
+    }
+
+
+    /**
+     * Get the FROM clause, (without the word FROM).  This is the
+     * table of the Class Under Qualification, and a LEFT JOIN for
+     * each TO_ONE reference and PARAMETERS_MAP key the WHERE clause
+     * uses.
+     */
+    public String getFromClause() {
+        return(fromClause);
+    }
+
+
+    /**
+     * Get the values of the "?" placeholders in the FROM clause.
+     */
+    public List<Object> getFromParameters() {
+        return(fromParameters);
+    }
+
+
+    /**
+     * Get the WHERE clause, (without the word WHERE).
+     */
+    public String getWhereClause() {
+        return(whereClause);
+    }
+
+
+    /**
+     * Get the values of the "?" placeholders in the WHERE clause.
+     */
+    public List<Object> getWhereParameters() {
+        return(whereParameters);
+    }
+
+
+    /**
+     * Get a complete SELECT statement that returns the rows of
+     * the Class Under Qualification's table that match the query.
+     */
+    public String getSql() {
+        return("SELECT "+alias+".* FROM "+fromClause+" WHERE "+whereClause);
+    }
+
+
+    /**
+     * Get the values of all the "?" placeholders in getSql(), in order.
+     */
+    public List<Object> getParameters() {
+
+        List<Object> parameters = new ArrayList<Object>(fromParameters);
+        parameters.addAll(whereParameters);
+        return(parameters);
+    }
+
+
+    public String toString() {
+        return(getSql()+"  "+getParameters());
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator;
+
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.ClassDescription;
+
+
+/**
+ * A SqlSchema tells the ExpressionTreeToSql translator how the
+ * Ovation entities are laid out in a SQL database.  This default
+ * implementation uses the naming conventions below.  If your mirror
+ * database uses different names, subclass this and override the
+ * methods you need to.
+ *
+ *      Each class has a table with the same name as the class,
+ *      (e.g. Epoch), whose primary key column is called uuid.
+ *
+ *      A primitive attribute, (e.g. protocolID), is a column
+ *      with the same name as the attribute.
+ *
+ *      A TO_ONE reference, (e.g. epochGroup), is a column named
+ *      <attribute>_uuid, (e.g. epochGroup_uuid), that contains the
+ *      uuid of the referenced row.
+ *
+ *      A TO_MANY reference, (e.g. Epoch.responses), is a link table
+ *      named <Class>_<attribute>, (e.g. Epoch_responses), with the
+ *      columns owner_uuid and element_uuid.
+ *
+ *      A PARAMETERS_MAP, (e.g. Epoch.protocolParameters), is a
+ *      key/value table named <Class>_<attribute> with the columns
+ *      owner_uuid and name, and one value column for each type of
+ *      value:  boolean_value, string_value, int_value, float_value,
+ *      and date_value.
+ *
+ * For the database to use its indexes, the link and key/value tables
+ * should be indexed on (owner_uuid) and (owner_uuid, name).
+ *
+ * Please note, the <Class> in the link and key/value table names is
+ * the class the attribute is declared in, not a subclass.
+ */
+public class SqlSchema {
+
+    public String getTableName(ClassDescription classDescription) {
+        return(classDescription.getName());
+    }
+
+
+    public String getIdColumn(ClassDescription classDescription) {
+        return("uuid");
+    }
+
+
+    public String getColumnName(ClassDescription classDescription,
+                                Attribute attribute) {
+        return(attribute.getQueryName());
+    }
+
+
+    public String getReferenceColumnName(ClassDescription classDescription,
+                                         Attribute attribute) {
+        return(attribute.getQueryName()+"_uuid");
+    }
+
+
+    public String getLinkTableName(ClassDescription classDescription,
+                                   Attribute attribute) {
+        return(getTableName(getDeclaringClass(classDescription, attribute))+
+               "_"+attribute.getQueryName());
+    }
+
+
+    public String getParametersTableName(ClassDescription classDescription,
+                                         Attribute attribute) {
+        return(getLinkTableName(classDescription, attribute));
+    }
+
+
+    public String getOwnerColumn() {
+        return("owner_uuid");
+    }
+
+
+    public String getElementColumn() {
+        return("element_uuid");
+    }
+
+
+    public String getParameterNameColumn() {
+        return("name");
+    }
+
+
+    /**
+     * Get the column of a key/value table that holds the values
+     * of the passed in type.
+     *
+     * @param classLiteral One of the Translator.CLVE_* values.
+     * E.g. "ovation.IntegerValue".
+     */
+    public String getParameterValueColumn(String classLiteral) {
+
+        if (Translator.CLVE_BOOLEAN.equals(classLiteral)) {
+            return("boolean_value");
+        }
+        else if (Translator.CLVE_STRING.equals(classLiteral)) {
+            return("string_value");
+        }
+        else if (Translator.CLVE_INTEGER.equals(classLiteral)) {
+            return("int_value");
+        }
+        else if (Translator.CLVE_FLOAT.equals(classLiteral)) {
+            return("float_value");
+        }
+        else if (Translator.CLVE_DATE.equals(classLiteral)) {
+            return("date_value");
+        }
+        throw(new IllegalArgumentException("Unhandled class literal: "+
+            classLiteral));
+    }
+
+
+    /**
+     * Get the class in the passed in class's hierarchy
+     * that declares the passed in attribute.
+     */
+    protected static ClassDescription getDeclaringClass(
+        ClassDescription classDescription, Attribute attribute) {
+
+        ClassDescription declaringClass = classDescription;
+        while ((declaringClass.getParentClass() != null) &&
+               declaringClass.getParentClass().containsAttribute(attribute)) {
+            declaringClass = declaringClass.getParentClass();
+        }
+        return(declaringClass);
+    }
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel;
+
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import com.physion.ebuilder.translator.test.RandomRowDataGenerator;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Tests for RowDataJournal and the RowDataCodec it uses.
+ *
+ * This is in the datamodel package, instead of a test package, so
+ * it can use RowDataCodec, which is package private, to check the
+ * values that can't be set with RowData's public methods.
+ * (E.g. a Boolean attributeValue.)
+ */
+public class RowDataJournalTests extends TestCase {
+
+    private static final ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+
+    /**
+     * The size of a journal file's header:  magic number,
+     * format version, and generation.
+     */
+    private static final int HEADER_BYTES = 16;
+
+    private File directory;
+
+
+    @Override
+    protected void setUp()
+            throws Exception {
+        directory = Files.createTempDirectory("journal").toFile();
+    }
+
+
+    @Override
+    protected void tearDown()
+            throws Exception {
+        RowDataJournal.delete(directory);
+        directory.delete();
+    }
+
+
+    /**
+     * Make random changes to a tree while a RowDataJournal records
+     * them, and check that recover() puts the tree back the way it
+     * was, even if the last journal record was only partly written.
+     */
+    public void testRecovery()
+            throws Exception {
+
+        Random random = new Random(43);
+        RandomRowDataGenerator generator = new RandomRowDataGenerator(43);
+        CollectionOperator[] operators = {CollectionOperator.ANY,
+            CollectionOperator.ALL, CollectionOperator.NONE};
+
+        RowData rootRow = RowData.createRootRow();
+        RowDataJournal journal = new RowDataJournal(directory);
+        journal.setCheckpointInterval(50);
+        journal.start(rootRow);
+
+        for (int step = 0; step < 500; step++) {
+
+            List<RowData> rows = new ArrayList<RowData>();
+            addRows(rootRow, rows);
+            RowData rowData = rows.get(random.nextInt(rows.size()));
+
+            switch (random.nextInt(5)) {
+                case 0:
+                    for (RowData childRow : generator.generate(
+                         epochCD, 4).getChildRows()) {
+                        rootRow.addChildRow(new RowData(childRow));
+                    }
+                    break;
+                case 1:
+                    if (rowData != rootRow)
+                        rowData.removeFromParent();
+                    break;
+                case 2:
+                    if (rowData.getAttributeValue() instanceof String)
+                        rowData.setAttributeValue("value"+step);
+                    else if (rowData.getAttributeValue() instanceof Integer)
+                        rowData.setAttributeValue(Integer.valueOf(step));
+                    break;
+                case 3:
+                    if (rowData.isCompoundRow())
+                        rowData.setCollectionOperator(
+                            operators[random.nextInt(operators.length)]);
+                    break;
+                default:
+                    rootRow.createAttributeRow();
+                    break;
+            }
+        }
+
+        journal.close();
+        String expected = rootRow.toString(true, "");
+        assertEquals(expected, RowDataJournal.recover(directory).
+                     toString(true, ""));
+
+        /**
+         * Add half of a record to the end of the newest journal.
+         */
+        FileOutputStream out = new FileOutputStream(newestJournal(), true);
+        out.write(new byte[] {0, 0, 0, 20, 1, 2, 3});
+        out.close();
+        assertEquals(expected, RowDataJournal.recover(directory).
+                     toString(true, ""));
+    }
+
+
+    /**
+     * If the last record was only partly written, (wherever the
+     * write stopped), recovery replays the records before it.
+     */
+    public void testTruncatedRecord()
+            throws Exception {
+
+        List<String> states = recordThreeChanges();
+        File file = newestJournal();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int[] offsets = recordOffsets(bytes);
+        assertEquals(3, offsets.length);
+
+        for (int length = offsets[2]; length < bytes.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+            assertEquals("Journal cut to "+length+" bytes.", states.get(2),
+                RowDataJournal.recover(directory).toString(true, ""));
+        }
+
+        Files.write(file.toPath(), bytes);
+        assertEquals(states.get(3),
+            RowDataJournal.recover(directory).toString(true, ""));
+    }
+
+
+    /**
+     * If a record's payload or CRC is damaged, recovery stops at it.
+     * The records after it are not replayed, even though they are
+     * good, because they change a tree that is already wrong.
+     */
+    public void testCorruptRecord()
+            throws Exception {
+
+        List<String> states = recordThreeChanges();
+        File file = newestJournal();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int[] offsets = recordOffsets(bytes);
+
+        int payload = offsets[1]+4;
+        int crc = offsets[2]-4;
+        for (int offset : new int[] {payload, crc-1, crc, crc+3}) {
+            byte[] corrupt = bytes.clone();
+            corrupt[offset] ^= 0x10;
+            Files.write(file.toPath(), corrupt);
+            assertEquals("Byte "+offset+" changed.", states.get(1),
+                RowDataJournal.recover(directory).toString(true, ""));
+        }
+    }
+
+
+    /**
+     * Every kind of attributeValue RowDataCodec writes is read back
+     * as an equal value of the same class, both in a tree, (as in a
+     * checkpoint), and on its own, (as in a journal record).
+     */
+    public void testValueRoundTrip()
+            throws Exception {
+
+        Object[] values = {null, "abc", "",
+            Short.valueOf(Short.MIN_VALUE), Short.valueOf((short)7),
+            Integer.valueOf(Integer.MAX_VALUE), Integer.valueOf(-1),
+            Double.valueOf(12.5), Double.valueOf(-0.0),
+            Double.valueOf(Double.NaN),
+            Double.valueOf(Double.NEGATIVE_INFINITY),
+            Boolean.TRUE, Boolean.FALSE,
+            new DateTime(1262304000000L, DateTimeZone.UTC),
+            new DateTime(1262304000000L,
+                         DateTimeZone.forID("America/New_York")),
+            "abc"};
+        Type[] types = {Type.UTF_8_STRING, Type.UTF_8_STRING,
+            Type.UTF_8_STRING, Type.INT_16, Type.INT_16, Type.INT_32,
+            Type.INT_32, Type.FLOAT_64, Type.FLOAT_64, Type.FLOAT_64,
+            Type.FLOAT_64, Type.BOOLEAN, Type.BOOLEAN, Type.DATE_TIME,
+            Type.DATE_TIME, Type.UTF_8_STRING};
+
+        List<Attribute> attributePath = Arrays.asList(
+            epochCD.getAttribute("protocolParameters"));
+        RowData rootRow = RowData.createRootRow();
+        for (int index = 0; index < values.length; index++) {
+            RowData rowData = new RowData();
+            rootRow.addChildRow(rowData);
+            rowData.restoreValues(null, attributePath, Operator.EQUALS,
+                values[index], "key"+(index % 3), types[index],
+                null, null, false);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        new RowDataCodec().writeTree(out, rootRow);
+        RowDataCodec codec = new RowDataCodec();
+        for (RowData rowData : rootRow.getChildRows()) {
+            codec.writeValues(out, rowData);
+        }
+        out.close();
+
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        RowData treeRoot = new RowDataCodec().readTree(in, null, 0);
+        assertEquals(rootRow.toString(true, ""), treeRoot.toString(true, ""));
+
+        RowData recordRoot = RowData.createRootRow();
+        codec = new RowDataCodec();
+        for (int index = 0; index < values.length; index++) {
+            RowData rowData = new RowData();
+            recordRoot.restoreChildRow(index, rowData);
+            codec.readValues(in, rowData, false);
+        }
+        assertEquals(-1, in.read());
+
+        for (RowData root : new RowData[] {treeRoot, recordRoot}) {
+            for (int index = 0; index < values.length; index++) {
+                RowData rowData = root.getChildRows().get(index);
+                Object value = rowData.getAttributeValue();
+                assertEquals("Value "+index, values[index], value);
+                if (value != null) {
+                    assertSame(values[index].getClass(), value.getClass());
+                }
+                assertEquals(types[index], rowData.getPropType());
+                assertEquals("key"+(index % 3), rowData.getPropName());
+            }
+        }
+    }
+
+
+    /**
+     * Start a journal of an empty tree, and make three changes to
+     * it, each of which writes one record.
+     *
+     * @return The tree, (as a string), before the first change
+     * and after each change.
+     */
+    private List<String> recordThreeChanges()
+            throws Exception {
+
+        List<String> states = new ArrayList<String>();
+        RowData rootRow = RowData.createRootRow();
+        RowDataJournal journal = new RowDataJournal(directory);
+        journal.start(rootRow);
+        states.add(rootRow.toString(true, ""));
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("abc");
+        rootRow.addChildRow(rowData);
+        states.add(rootRow.toString(true, ""));
+
+        rowData.setAttributeValue("def");
+        states.add(rootRow.toString(true, ""));
+
+        rowData.setAttributeOperator(Operator.NOT_EQUALS);
+        states.add(rootRow.toString(true, ""));
+
+        journal.close();
+        return(states);
+    }
+
+
+    /**
+     * Get the offset of each record in the passed in journal file.
+     * A record is:  int length, payload, int CRC of the payload.
+     */
+    private static int[] recordOffsets(byte[] bytes)
+            throws Exception {
+
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes));
+        in.skipBytes(HEADER_BYTES);
+
+        List<Integer> offsets = new ArrayList<Integer>();
+        int offset = HEADER_BYTES;
+        while (offset < bytes.length) {
+            offsets.add(Integer.valueOf(offset));
+            int length = in.readInt();
+            in.skipBytes(length+4);
+            offset += length+8;
+        }
+        assertEquals(bytes.length, offset);
+
+        int[] result = new int[offsets.size()];
+        for (int index = 0; index < result.length; index++) {
+            result[index] = offsets.get(index).intValue();
+        }
+        return(result);
+    }
+
+
+    private File newestJournal() {
+
+        File newest = null;
+        long newestGeneration = -1;
+        for (File file : directory.listFiles()) {
+            String name = file.getName();
+            if (name.startsWith("journal-") && name.endsWith(".rdj")) {
+                long generation = Long.parseLong(name.substring(
+                    "journal-".length(), name.length()-".rdj".length()));
+                if (generation > newestGeneration) {
+                    newest = file;
+                    newestGeneration = generation;
+                }
+            }
+        }
+        return(newest);
+    }
+
+
+    private static void addRows(RowData rowData, List<RowData> rows) {
+
+        rows.add(rowData);
+        for (RowData childRow : rowData.getChildRows()) {
+            addRows(childRow, rows);
+        }
+    }
+}
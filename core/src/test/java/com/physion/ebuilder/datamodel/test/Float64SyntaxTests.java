@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.datamodel.test;
+
+import com.physion.ebuilder.datamodel.Float64Syntax;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests that Float64Syntax accepts the same strings as
+ * Double.valueOf(), which is what RowData uses to convert them.
+ */
+public class Float64SyntaxTests extends TestCase {
+
+    private static final String[] NUMBERS = {
+        "0", "12", "-1.5", "+1.5", "+0", "1.", ".5", "-.5",
+        "1e5", "1E5", "1e+5", "1e-5", "+1.5e-3", ".5e-3", "1.e5",
+        "2d", "2D", "2f", "2.5F", "1e5d",
+        "  12  ", "\t-3\n",
+        "Infinity", "-Infinity", "+Infinity", " Infinity ",
+        "1e400", "-1e400", "1e-400", "1e99999999999",
+        "179769313486231570000000000000000000000000000000000000000000"+
+        "000000000000000000000000000000000000000000000000000000000000"+
+        "000000000000000000000000000000000000000000000000000000000000"+
+        "000000000000000000000000000000000000000000000000000000000000"+
+        "000000000000000000000000000000000000000000000000000000000000"+
+        "0000000000",
+        "NaN", "-NaN", "+NaN", " NaN ",
+        "0x1p3", "0x1.8p1", "-0X1P-3", "0x1p3d"};
+
+    private static final String[] NOT_NUMBERS = {
+        "", " ", "+", "-", ".", "+.", "e5", "1e", "1e+", "1e5.5",
+        "1.5.", "1..5", "++1", "+-1", "1 2", "1-", "1d5", "1dd",
+        "Inf", "infinity", "Infinityx", "Infinity5", "NAN", "nan",
+        "0x", "0x1", "0x1.8", "0xg1p3", "1,5", "abc", "1e5 x"};
+
+
+    /**
+     * Each string is a number to Float64Syntax if, and only if,
+     * Double.valueOf() accepts it.
+     */
+    public void testSameAsDoubleValueOf() {
+
+        for (String text : NUMBERS) {
+            assertTrue(text, parses(text));
+            assertTrue(text, Float64Syntax.isNumber(text));
+        }
+        for (String text : NOT_NUMBERS) {
+            assertFalse(text, parses(text));
+            assertFalse(text, Float64Syntax.isNumber(text));
+            assertFalse(text, Float64Syntax.isLegalValue(text));
+        }
+    }
+
+
+    /**
+     * Whatever the state machine accepts on its own, without falling
+     * back to Double.valueOf(), really is a number.  And it accepts
+     * the common forms, so they are checked without creating any
+     * objects.
+     */
+    public void testStateMachine() {
+
+        for (String text : NUMBERS) {
+            if (runStateMachine(text)) {
+                assertTrue(text, parses(text));
+            }
+        }
+        for (String text : NOT_NUMBERS) {
+            assertFalse(text, runStateMachine(text));
+        }
+
+        for (String text : new String[] {"12", "-1.5", "+1.5", ".5e-3",
+             "1e+5", "2d", " 12 ", "-Infinity", "1e400"}) {
+            assertTrue(text, runStateMachine(text));
+        }
+        for (String text : new String[] {"NaN", "0x1p3"}) {
+            assertFalse(text, runStateMachine(text));
+        }
+    }
+
+
+    /**
+     * A number is a legal value, except NaN, which RowData uses to
+     * mean "not a number".  Out of range values are infinite, or
+     * zero, which are legal.
+     */
+    public void testLegalValue() {
+
+        for (String text : NUMBERS) {
+            boolean isNaN = Double.isNaN(Double.valueOf(text));
+            assertEquals(text, !isNaN, Float64Syntax.isLegalValue(text));
+        }
+
+        assertTrue(Float64Syntax.isLegalValue("1e400"));
+        assertEquals(Double.POSITIVE_INFINITY, Double.valueOf("1e400"));
+        assertTrue(Float64Syntax.isLegalValue("1e-400"));
+        assertEquals(0.0, Double.valueOf("1e-400").doubleValue());
+        assertFalse(Float64Syntax.isLegalValue("NaN"));
+        assertTrue(Float64Syntax.isLegalValue("0x1.8p1"));
+    }
+
+
+    private static boolean runStateMachine(String text) {
+
+        int state = Float64Syntax.START;
+        for (int index = 0; index < text.length(); index++) {
+            state = Float64Syntax.nextState(state, text.charAt(index));
+        }
+        return(Float64Syntax.isNumber(state));
+    }
+
+
+    private static boolean parses(String text) {
+
+        try {
+            Double.valueOf(text);
+            return(true);
+        }
+        catch (NumberFormatException e) {
+            return(false);
+        }
+    }
+}
@@ -0,0 +1,1301 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.evaluator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.*;
+import com.physion.ebuilder.evaluator.AttributeStatistics;
+import com.physion.ebuilder.evaluator.ColumnarEntityCache;
+import com.physion.ebuilder.evaluator.ExpressionTreeDiff;
+import com.physion.ebuilder.evaluator.FlatExpression;
+import com.physion.ebuilder.evaluator.IncrementalView;
+import com.physion.ebuilder.evaluator.MapEntityAccessor;
+import com.physion.ebuilder.evaluator.MultiQueryNetwork;
+import com.physion.ebuilder.evaluator.PredicateCompiler;
+import com.physion.ebuilder.evaluator.PreparedQuery;
+import com.physion.ebuilder.evaluator.QueryProfile;
+import com.physion.ebuilder.evaluator.SegmentPruner;
+import com.physion.ebuilder.evaluator.SegmentSynopsis;
+import com.physion.ebuilder.evaluator.TopKQuery;
+import com.physion.ebuilder.expression.AttributeExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.ILiteralValueExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+
+/**
+ * Tests for the classes in the com.physion.ebuilder.evaluator package.
+ *
+ * The queries are built the same way the GUI builds them, (as
+ * RowData trees that are translated into ExpressionTrees), and
+ * the entities are java.util.Map objects that are read using
+ * a MapEntityAccessor.
+ */
+public class EvaluatorTests extends TestCase {
+
+    private static ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+    private static ClassDescription epochGroupCD =
+            DataModel.getClassDescription("EpochGroup");
+    private static ClassDescription responseCD =
+            DataModel.getClassDescription("Response");
+
+
+    /**
+     * Identical queries are reported together, and queries that
+     * share attribute paths and comparisons share Nodes.
+     */
+    public void testSharedNodes()
+            throws Exception {
+
+        MultiQueryNetwork network = new MultiQueryNetwork(
+            new MapEntityAccessor());
+
+        network.addQuery("a", protocolQuery("abc", "Test 27"));
+        int nodeCount = network.getNodeCount();
+
+        network.addQuery("b", protocolQuery("abc", "Test 27"));
+        assertEquals(nodeCount, network.getNodeCount());
+
+        /**
+         * Only the new literal, comparison, and "and" are new.
+         * The protocolID and epochGroup.label paths are shared.
+         */
+        network.addQuery("c", protocolQuery("abc", "Test 28"));
+        assertEquals(nodeCount+3, network.getNodeCount());
+
+        Map<String,Object> epoch = epoch("abc", "Test 27");
+        assertEquals(Arrays.asList("a", "b"), sorted(network.match(epoch)));
+
+        epoch = epoch("abc", "Test 28");
+        assertEquals(Arrays.asList("c"), sorted(network.match(epoch)));
+
+        epoch = epoch("xyz", "Test 28");
+        assertEquals(Collections.emptyList(), network.match(epoch));
+    }
+
+
+    /**
+     * Lots of queries that are guarded by == comparisons on the
+     * same attribute.  Only the matching ones are reported.
+     */
+    public void testGuardIndex()
+            throws Exception {
+
+        MultiQueryNetwork network = new MultiQueryNetwork(
+            new MapEntityAccessor());
+
+        for (int index = 0; index < 1000; index++) {
+            network.addQuery("q"+index,
+                             protocolQuery("p"+index, "Test "+(index%2)));
+        }
+
+        assertEquals(Arrays.asList("q42"),
+                     network.match(epoch("p42", "Test 0")));
+        assertEquals(Collections.emptyList(),
+                     network.match(epoch("p42", "Test 1")));
+        assertEquals(Collections.emptyList(),
+                     network.match(epoch("none", "Test 0")));
+
+        assertTrue(network.removeQuery("q42"));
+        assertFalse(network.removeQuery("q42"));
+        assertEquals(Collections.emptyList(),
+                     network.match(epoch("p42", "Test 0")));
+        assertEquals(999, network.getQueryIds().size());
+    }
+
+
+    /**
+     * Any/All/None on a TO_MANY attribute, and a query on a
+     * class the entity is not an instance of.
+     */
+    public void testCollections()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.ANY);
+        rowData.setCollectionOperator2(CollectionOperator.ALL);
+        rootRow.addChildRow(rowData);
+
+        RowData rowData2 = new RowData();
+        rowData2.addAttribute(responseCD.getAttribute("samplingRate"));
+        rowData2.setAttributeOperator(Operator.GREATER_THAN);
+        rowData2.setAttributeValue(Double.valueOf(10.0));
+        rowData.addChildRow(rowData2);
+
+        rowData2 = new RowData();
+        rowData2.addAttribute(responseCD.getAttribute("uuid"));
+        rowData2.setAttributeOperator(Operator.MATCHES_CASE_INSENSITIVE);
+        rowData2.setAttributeValue("^ab");
+        rowData.addChildRow(rowData2);
+
+        MultiQueryNetwork network = new MultiQueryNetwork(
+            new MapEntityAccessor());
+        network.addQuery("any", RowDataToExpressionTree.translate(rootRow));
+
+        Map<String,Object> epoch = epoch("abc", "Test 27");
+        epoch.put("responses", Arrays.asList(
+            response("xyz", 20.0), response("ABC", 5.0)));
+        assertEquals(Collections.emptyList(), network.match(epoch));
+
+        epoch.put("responses", Arrays.asList(
+            response("xyz", 20.0), response("ABC", 11.0)));
+        assertEquals(Arrays.asList("any"), network.match(epoch));
+
+        epoch.put(MapEntityAccessor.CLASS_NAME_KEY, "Source");
+        assertEquals(Collections.emptyList(), network.match(epoch));
+    }
+
+
+    /**
+     * A query whose rows put an expensive, unselective regular
+     * expression in front of a selective == comparison.  The
+     * optimizer should swap them without changing what matches,
+     * and the statistics of protocolID should be about right.
+     */
+    public void testOptimizer()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+        rowData.addAttribute(epochGroupCD.getAttribute("label"));
+        rowData.setAttributeOperator(Operator.MATCHES_CASE_INSENSITIVE);
+        rowData.setAttributeValue("^test");
+        rootRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("p7");
+        rootRow.addChildRow(rowData);
+
+        MultiQueryNetwork network = new MultiQueryNetwork(
+            new MapEntityAccessor());
+        network.setSampleInterval(1);
+        network.addQuery("q", RowDataToExpressionTree.translate(rootRow));
+
+        int matched = 0;
+        for (int index = 0; index < 1000; index++) {
+            matched += network.match(epoch("p"+(index%50), "Test 1")).size();
+        }
+        assertEquals(20, matched);
+
+        assertEquals(1, network.optimize());
+        assertEquals(0, network.optimize());
+
+        matched = 0;
+        for (int index = 0; index < 1000; index++) {
+            matched += network.match(epoch("p"+(index%50), "Test 1")).size();
+        }
+        assertEquals(20, matched);
+
+        /**
+         * The user's order is untouched.
+         */
+        assertEquals("protocolID", rootRow.getChildRows().get(1).
+                     getAttributePath().get(0).getQueryName());
+
+        AttributeStatistics statistics =
+            network.getAttributeStatistics("Epoch", "protocolID");
+        assertEquals(2000, statistics.getCount());
+        assertTrue(Math.abs(statistics.getDistinctCount()-50) <= 5);
+        assertEquals(0.02, statistics.estimateSelectivity("==", "p7"), 0.005);
+    }
+
+
+    /**
+     * An IncrementalView of the query:
+     *
+     *      Epoch | All
+     *        Epoch | protocolID == "abc"
+     *        Epoch | responses Count >= 2
+     *        Epoch | Any responses All
+     *          Response | samplingRate > 10.0
+     *
+     * whose responses change one at a time.
+     */
+    public void testIncrementalView()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("abc");
+        rootRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.COUNT);
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValueInt32(2);
+        rootRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.ANY);
+        rowData.setCollectionOperator2(CollectionOperator.ALL);
+        rootRow.addChildRow(rowData);
+
+        RowData rowData2 = new RowData();
+        rowData2.addAttribute(responseCD.getAttribute("samplingRate"));
+        rowData2.setAttributeOperator(Operator.GREATER_THAN);
+        rowData2.setAttributeValue(Double.valueOf(10.0));
+        rowData.addChildRow(rowData2);
+
+        IncrementalView view = new IncrementalView(
+            RowDataToExpressionTree.translate(rootRow),
+            new MapEntityAccessor());
+
+        Map<String,Object> epoch = epoch("abc", "Test 27");
+        epoch.put("uuid", "e1");
+        epoch.put("responses", Arrays.asList(response("r1", 5.0)));
+        view.insert(epoch);
+        assertFalse(view.isMatch("e1"));
+        assertEquals(1, view.getElementCount("e1", "responses"));
+
+        /**
+         * The view does not read the responses after the insert,
+         * so this list must not be looked at.
+         */
+        epoch.put("responses", null);
+
+        view.insertElement("e1", "responses", response("r2", 5.0));
+        assertFalse(view.isMatch("e1"));
+
+        view.updateElement("e1", "responses", response("r2", 20.0));
+        assertTrue(view.isMatch("e1"));
+        assertEquals(2, view.getElementCount("e1", "responses"));
+
+        view.deleteElement("e1", "responses", "r1");
+        assertFalse(view.isMatch("e1"));
+
+        view.insertElement("e1", "responses", response("r3", 1.0));
+        assertTrue(view.isMatch("e1"));
+
+        Map<String,Object> epoch2 = epoch("xyz", "Test 27");
+        epoch2.put("uuid", "e1");
+        view.update(epoch2);
+        assertEquals(Collections.emptySet(), view.getMatches());
+        assertEquals(2, view.getElementCount("e1", "responses"));
+
+        view.update(epoch);
+        assertTrue(view.isMatch("e1"));
+        view.delete("e1");
+        assertEquals(Collections.emptySet(), view.getMatches());
+    }
+
+
+    /**
+     * A maintained count counts null elements, the same as a full
+     * evaluation does, and an any/all inside the condition of an
+     * any/all that is not maintained is not mistaken for one on
+     * the entity's own attribute.
+     */
+    public void testIncrementalViewNullsAndNesting()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.COUNT);
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValueInt32(2);
+        rootRow.addChildRow(rowData);
+
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+        IncrementalView view = new IncrementalView(expressionTree,
+                                                   new MapEntityAccessor());
+        FlatExpression.Interpreter interpreter = FlatExpression.encode(
+            expressionTree).interpreter(new MapEntityAccessor());
+
+        Map<String,Object> epoch = epoch("abc", "Test 27");
+        epoch.put("uuid", "e1");
+        epoch.put("responses", Arrays.asList(response("r1", 5.0), null));
+        assertTrue(interpreter.matches(epoch));
+        view.insert(epoch);
+        assertTrue(view.isMatch("e1"));
+        assertEquals(2, view.getElementCount("e1", "responses"));
+        view.deleteElement("e1", "responses", null);
+        assertFalse(view.isMatch("e1"));
+        view.insertElement("e1", "responses", null);
+        assertTrue(view.isMatch("e1"));
+
+        /**
+         * Epoch | any(epochGroup.epochs, any(responses, ...))
+         */
+        rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+        rowData.addAttribute(epochGroupCD.getAttribute("epochs"));
+        rowData.setCollectionOperator(CollectionOperator.ANY);
+        rootRow.addChildRow(rowData);
+
+        RowData rowData2 = new RowData();
+        rowData2.addAttribute(epochCD.getAttribute("responses"));
+        rowData2.setCollectionOperator(CollectionOperator.ANY);
+        rowData.addChildRow(rowData2);
+
+        RowData rowData3 = new RowData();
+        rowData3.addAttribute(responseCD.getAttribute("samplingRate"));
+        rowData3.setAttributeOperator(Operator.GREATER_THAN);
+        rowData3.setAttributeValue(Double.valueOf(10.0));
+        rowData2.addChildRow(rowData3);
+
+        expressionTree = RowDataToExpressionTree.translate(rootRow);
+        view = new IncrementalView(expressionTree, new MapEntityAccessor());
+        interpreter = FlatExpression.encode(expressionTree).interpreter(
+            new MapEntityAccessor());
+
+        Map<String,Object> sibling = epoch("abc", "Test 27");
+        sibling.put("uuid", "e2");
+        sibling.put("responses", Arrays.asList(response("r2", 20.0)));
+        epoch = epoch("abc", "Test 27");
+        epoch.put("uuid", "e1");
+        epoch.put("responses", Arrays.asList(response("r1", 5.0)));
+        epochGroup(epoch).put("epochs", Arrays.asList(sibling));
+
+        assertTrue(interpreter.matches(epoch));
+        view.insert(epoch);
+        assertTrue(view.isMatch("e1"));
+        assertEquals(-1, view.getElementCount("e1", "responses"));
+    }
+
+
+    /**
+     * Changing one value is one change, moving a row is no
+     * change, and adding a row is an addition.
+     */
+    public void testExpressionTreeDiff()
+            throws Exception {
+
+        ExpressionTreeDiff diff = new ExpressionTreeDiff(
+            protocolQuery("abc", "Test 27"), protocolQuery("abc", "Test 28"));
+        assertEquals(1, diff.getChanges().size());
+        ExpressionTreeDiff.Change change = diff.getChanges().get(0);
+        assertEquals(ExpressionTreeDiff.Kind.CHANGED, change.getKind());
+        assertEquals("Test 27", ((ILiteralValueExpression)
+                     change.getOldExpression()).getValue());
+        assertEquals("Test 28", ((ILiteralValueExpression)
+                     change.getNewExpression()).getValue());
+        assertEquals(change.getOldPath(), change.getNewPath());
+
+        /**
+         * The protocolID row, and the epochGroup.label path.
+         */
+        assertEquals(2, diff.getUnchanged().size());
+
+        RowData rootRow = protocolRows("abc", "Test 27");
+        RowData moved = protocolRows("abc", "Test 27");
+        RowData firstRow = moved.getChildRows().get(0);
+        moved.removeChildRow(firstRow);
+        moved.addChildRow(firstRow);
+        diff = new ExpressionTreeDiff(RowDataToExpressionTree.translate(rootRow),
+                                      RowDataToExpressionTree.translate(moved));
+        assertTrue(diff.isIdentical());
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.NOT_EQUALS);
+        rowData.setAttributeValue("xyz");
+        moved.addChildRow(rowData);
+        diff = new ExpressionTreeDiff(RowDataToExpressionTree.translate(rootRow),
+                                      RowDataToExpressionTree.translate(moved));
+        assertEquals(1, diff.getChanges().size());
+        change = diff.getChanges().get(0);
+        assertEquals(ExpressionTreeDiff.Kind.ADDED, change.getKind());
+        assertEquals(Arrays.asList(2), change.getNewPath());
+        assertEquals(2, diff.getUnchanged().size());
+    }
+
+
+    /**
+     * A Predicate compiled for plain Java classes matches the
+     * same Epochs the query matches.  (samplingRate is a
+     * primitive double getter.)
+     */
+    public void testPredicateCompiler()
+            throws Exception {
+
+        RowData rootRow = protocolRows("abc", "Test 27");
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.ANY);
+        rootRow.addChildRow(rowData);
+
+        RowData rowData2 = new RowData();
+        rowData2.addAttribute(responseCD.getAttribute("samplingRate"));
+        rowData2.setAttributeOperator(Operator.GREATER_THAN);
+        rowData2.setAttributeValue(Double.valueOf(10.0));
+        rowData.addChildRow(rowData2);
+
+        Predicate<TestEpoch> predicate = PredicateCompiler.compile(
+            RowDataToExpressionTree.translate(rootRow), TestEpoch.class);
+
+        TestEpoch match = new TestEpoch("abc", "Test 27", 5.0, 20.0);
+        List<TestEpoch> epochs = Arrays.asList(
+            match,
+            new TestEpoch("abc", "Test 27", 5.0, 10.0),
+            new TestEpoch("abc", "Test 28", 20.0),
+            new TestEpoch("xyz", "Test 27", 20.0),
+            new TestEpoch("abc", null, 20.0));
+        epochs.get(4).epochGroup = null;
+
+        List<TestEpoch> matches = new ArrayList<TestEpoch>();
+        for (TestEpoch epoch : epochs) {
+            if (predicate.test(epoch)) {
+                matches.add(epoch);
+            }
+        }
+        assertEquals(Arrays.asList(match), matches);
+
+        /**
+         * A junction with one operand, and a regular expression,
+         * which is compared against the right operand's pattern.
+         */
+        rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.MATCHES_CASE_INSENSITIVE);
+        rowData.setAttributeValue("A.C");
+        rootRow.addChildRow(rowData);
+
+        predicate = PredicateCompiler.compile(
+            RowDataToExpressionTree.translate(rootRow), TestEpoch.class);
+        assertTrue(predicate.test(new TestEpoch("abc", "Test 27")));
+        assertTrue(predicate.test(new TestEpoch("xAbCx", "Test 27")));
+        assertFalse(predicate.test(new TestEpoch("xyz", "Test 27")));
+        assertFalse(predicate.test(new TestEpoch(null, "Test 27")));
+    }
+
+
+    /**
+     * Queries that differ only in their literals share one compiled
+     * plan, and the plan matches the same Epochs each query does
+     * with the values bound to it.  A regular expression parameter
+     * is bound as a pattern.
+     */
+    public void testPreparedQuery()
+            throws Exception {
+
+        PreparedQuery.clearPlanCache();
+        Counter compiled = Metrics.counter(
+            "evaluator.preparedQuery.plansCompiled");
+        long before = compiled.getCount();
+
+        PreparedQuery first = PreparedQuery.prepare(
+            protocolQuery("abc", "Test 27"));
+        PreparedQuery second = PreparedQuery.prepare(
+            protocolQuery("xyz", "Test 28"));
+        assertEquals(1, compiled.getCount()-before);
+        assertEquals(first.getTemplate(), second.getTemplate());
+        assertEquals(first.getFingerprint(), second.getFingerprint());
+        assertEquals(Arrays.<Object>asList("xyz", "Test 28"),
+                     Arrays.asList(second.getParameterValues()));
+
+        MapEntityAccessor accessor = new MapEntityAccessor();
+        PreparedQuery.Bound bound = second.bind(accessor);
+        assertTrue(bound.matches(epoch("xyz", "Test 28")));
+        assertFalse(bound.matches(epoch("abc", "Test 27")));
+        bound.rebind("abc", "Test 27");
+        assertTrue(bound.matches(epoch("abc", "Test 27")));
+        assertFalse(bound.matches(epoch("xyz", "Test 28")));
+        assertEquals(1, compiled.getCount()-before);
+
+        try {
+            first.bind(accessor, "abc");
+            fail("Bound too few values.");
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        RowData rootRow = protocolRows("abc", "Test 27");
+        rootRow.getChildRows().get(1).setAttributeOperator(
+            Operator.MATCHES_CASE_INSENSITIVE);
+        PreparedQuery regex = PreparedQuery.prepare(
+            RowDataToExpressionTree.translate(rootRow));
+        assertFalse(regex.getTemplate().equals(first.getTemplate()));
+        bound = regex.bind(accessor, "abc", "^test 2[78]$");
+        assertTrue(bound.matches(epoch("abc", "Test 28")));
+        assertFalse(bound.matches(epoch("abc", "Test 29")));
+    }
+
+
+    /**
+     * A FlatExpression turns back into the tree it was encoded from,
+     * survives being turned into bytes, and its interpreter matches
+     * the same Epochs the MultiQueryNetwork does, including in an
+     * Any/All of a collection.
+     */
+    public void testFlatExpression()
+            throws Exception {
+
+        RowData rootRow = protocolRows("abc", "Test 27");
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.ALL);
+        rootRow.addChildRow(rowData);
+
+        RowData rowData2 = new RowData();
+        rowData2.addAttribute(responseCD.getAttribute("uuid"));
+        rowData2.setAttributeOperator(Operator.MATCHES_CASE_INSENSITIVE);
+        rowData2.setAttributeValue("^ab");
+        rowData.addChildRow(rowData2);
+
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+        FlatExpression flat = FlatExpression.encode(expressionTree);
+        assertEquals(expressionTree.toString(),
+                     flat.toExpressionTree().toString());
+
+        FlatExpression read = FlatExpression.fromByteArray(
+            flat.toByteArray());
+        assertEquals(flat, read);
+        assertEquals(flat.hashCode(), read.hashCode());
+
+        MultiQueryNetwork network = new MultiQueryNetwork(
+            new MapEntityAccessor());
+        network.addQuery("query", expressionTree);
+        FlatExpression.Interpreter interpreter =
+            read.interpreter(new MapEntityAccessor());
+
+        List<Map<String,Object>> epochs = new ArrayList<Map<String,Object>>();
+        epochs.add(epoch("abc", "Test 28"));
+        epochs.add(epoch("xyz", "Test 28"));
+        epochs.add(epoch("xyz", "Test 28"));
+        epochs.get(1).put("responses", Arrays.asList(
+            response("ABC", 1.0), response("abd", 2.0)));
+        epochs.get(2).put("responses", Arrays.asList(
+            response("ABC", 1.0), response("xyz", 2.0)));
+
+        List<Boolean> expected = Arrays.asList(true, true, false);
+        List<Boolean> matches = new ArrayList<Boolean>();
+        for (Map<String,Object> epoch : epochs) {
+            assertEquals(!network.match(epoch).isEmpty(),
+                         interpreter.matches(epoch));
+            matches.add(Boolean.valueOf(interpreter.matches(epoch)));
+        }
+        assertEquals(expected, matches);
+
+        try {
+            FlatExpression.fromByteArray(Arrays.copyOf(
+                flat.toByteArray(), 20));
+            fail("Read a truncated FlatExpression.");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+
+    /**
+     * A regular expression whose right operand is a CALL is not
+     * mistaken for a literal.  The CALL's second word is the pool
+     * index of its operator name, and here that index looks like
+     * an INT32 instruction of the pool's first constant, "Epoch".
+     */
+    public void testFlatExpressionCallOperand()
+            throws Exception {
+
+        List<IExpression> callOperands = new ArrayList<IExpression>();
+        callOperands.add(new AttributeExpression("this"));
+        List<IExpression> operands = new ArrayList<IExpression>();
+        operands.add(new AttributeExpression("protocolID"));
+        operands.add(new OperatorExpression("mykeywords", callOperands));
+        ExpressionTree expressionTree = new ExpressionTree("Epoch",
+            new OperatorExpression("=~", operands));
+
+        FlatExpression flat = FlatExpression.encode(expressionTree);
+        FlatExpression.Interpreter interpreter =
+            flat.interpreter(new MapEntityAccessor());
+        Map<String,Object> epoch = epoch("Epoch 1", "Test 27");
+        epoch.put("mykeywords", "^xyz");
+        assertFalse(flat.disassemble(), interpreter.matches(epoch));
+        epoch.put("protocolID", "xyz 1");
+        assertTrue(interpreter.matches(epoch));
+    }
+
+
+    /**
+     * The cache's column scans and select() find the same Epochs
+     * as evaluating their entities does, references are resolved
+     * across Tables, and update() replaces a row's values.
+     */
+    public void testColumnarEntityCache()
+            throws Exception {
+
+        DateTime start = new DateTime(2011, 1, 1, 0, 0, 0, 0);
+        List<Map<String,Object>> entities =
+            new ArrayList<Map<String,Object>>();
+        for (int index = 0; index < 2000; index++) {
+            Map<String,Object> epoch = epoch((index%3 == 0) ? "abc" : "xyz",
+                                             "Test "+(index%5));
+            Map<String,Object> epochGroup = epochGroup(epoch);
+            epochGroup.put("uuid", "group"+index);
+            epoch.put("uuid", "epoch"+index);
+            epoch.put("startTime", start.plusMinutes(index));
+            List<Map<String,Object>> responses = Arrays.asList(
+                response("response"+index, index));
+            epoch.put("responses", responses);
+            entities.add(epoch);
+            entities.add(epochGroup);
+            entities.addAll(responses);
+        }
+
+        ColumnarEntityCache cache = new ColumnarEntityCache(
+            new MapEntityAccessor());
+        for (Map<String,Object> entity : entities) {
+            cache.append(entity);
+        }
+
+        ColumnarEntityCache.Table epochs = cache.getTable("Epoch");
+        assertEquals(2000, epochs.getRowCount());
+        assertEquals(3, cache.getTables().size());
+        assertFalse(epochs.getColumnNames().contains("properties"));
+        assertEquals(667, epochs.scanEquals("protocolID", "abc").cardinality());
+        assertEquals(0, epochs.scanEquals("protocolID", "nope").cardinality());
+        assertEquals(10, epochs.scanRange("startTime", start.plusMinutes(5),
+            start.plusMinutes(14)).cardinality());
+        assertEquals(2000, epochs.scanNull("endTime").cardinality());
+        assertEquals(1, epochs.scanEquals("responses",
+                                          "response7").cardinality());
+        assertEquals(500, cache.getTable("Response").scanRange(
+            "samplingRate", 1500, null).cardinality());
+        assertEquals(start.plusMinutes(7).getMillis(), ((DateTime)
+            epochs.getValue(7, "startTime")).getMillis());
+        assertEquals("group7", epochs.getValue(7, "epochGroup"));
+
+        MapEntityAccessor accessor = new MapEntityAccessor();
+        FlatExpression query = FlatExpression.encode(
+            protocolQuery("abc", "Test 2"));
+        FlatExpression.Interpreter interpreter = query.interpreter(accessor);
+        BitSet expected = new BitSet();
+        for (int index = 0; index < 2000; index++) {
+            if (interpreter.matches(entities.get(index*3))) {
+                expected.set(index);
+            }
+        }
+        assertEquals(133, expected.cardinality());
+        assertEquals(expected, epochs.select(query));
+
+        assertEquals(0, cache.getWastedBytes());
+
+        Map<String,Object> epoch = entities.get(3*12);
+        epoch.put("protocolID", "xyz");
+        cache.update(epoch);
+        expected.clear(12);
+        assertEquals(expected, epochs.select(query));
+        assertEquals("xyz", cache.getAccessor().getAttribute(
+            cache.find("epoch12"), "protocolID"));
+
+        /**
+         * Each update leaves the row's old list of response ids,
+         * (a count and one id), behind.
+         */
+        assertEquals(8, cache.getWastedBytes());
+        epoch.put("responses", Arrays.asList(response("response12", 12),
+                                             response("response12b", 12)));
+        cache.update(epoch);
+        assertEquals(16, cache.getWastedBytes());
+        assertEquals(Arrays.asList("response12", "response12b"),
+                     epochs.getValue(12, "responses"));
+
+        try {
+            cache.append(epoch);
+            fail("Appended an entity that was already cached.");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+
+    /**
+     * Every string operator evaluated on the cache's dictionary codes
+     * finds the same Epochs as evaluating their entities does, also
+     * after values that sort between the old ones are appended.
+     */
+    public void testDictionaryComparisons()
+            throws Exception {
+
+        String[] protocolIDs = {"abc", "ABD", "abd", "b", null, "xyz", "Ab"};
+        List<Map<String,Object>> epochs = new ArrayList<Map<String,Object>>();
+        ColumnarEntityCache cache = new ColumnarEntityCache(
+            new MapEntityAccessor());
+        for (int index = 0; index < 200; index++) {
+            if (index == 100) {
+                protocolIDs = new String[] {"abcd", "aB", "abc", "c"};
+            }
+            Map<String,Object> epoch = epoch(
+                protocolIDs[index%protocolIDs.length], "Test "+(index%4));
+            epoch.put("uuid", "epoch"+index);
+            epochGroup(epoch).put("uuid", "group"+index);
+            epochs.add(epoch);
+            cache.append(epoch);
+            cache.append(epoch.get("epochGroup"));
+
+            if ((index == 99) || (index == 199)) {
+                for (Operator operator : Operator.OPERATORS_STRING) {
+                    assertSameMatches(cache, epochs, operator, "abc");
+                    assertSameMatches(cache, epochs, operator, "ab");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Check that Epoch | Any(protocolID operator value,
+     * epochGroup.label == "Test 1") matches the same epochs in the
+     * cache as it does when it is evaluated on the epochs.
+     */
+    private static void assertSameMatches(ColumnarEntityCache cache,
+                                          List<Map<String,Object>> epochs,
+                                          Operator operator, String value) {
+
+        RowData rootRow = protocolRows(value, "Test 1");
+        rootRow.setCollectionOperator(CollectionOperator.ANY);
+        rootRow.getChildRows().get(0).setAttributeOperator(operator);
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+
+        FlatExpression.Interpreter interpreter = FlatExpression.encode(
+            expressionTree).interpreter(new MapEntityAccessor());
+        BitSet expected = new BitSet();
+        for (int index = 0; index < epochs.size(); index++) {
+            if (interpreter.matches(epochs.get(index))) {
+                expected.set(index);
+            }
+        }
+        assertEquals(operator+" "+value, expected,
+                     cache.getTable("Epoch").select(expressionTree));
+    }
+
+
+    /**
+     * The newest matching Epochs are the same whether they are found
+     * with a heap, from Epochs that are already in order, or from a
+     * cache's ordered index, and the last two stop early.
+     */
+    public void testTopKQuery()
+            throws Exception {
+
+        DateTime start = new DateTime(2011, 1, 1, 0, 0, 0, 0);
+        List<Map<String,Object>> epochs = new ArrayList<Map<String,Object>>();
+        ColumnarEntityCache cache = new ColumnarEntityCache(
+            new MapEntityAccessor());
+        for (int index = 0; index < 1000; index++) {
+            Map<String,Object> epoch = epoch((index%4 == 0) ? "abc" : "xyz",
+                                             "Test 27");
+            epoch.put("uuid", "epoch"+index);
+            if (index%10 != 0) {
+                epoch.put("startTime", start.plusMinutes((index*37)%1000));
+            }
+            epochs.add(epoch);
+            cache.append(epoch);
+        }
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("abc");
+        rootRow.addChildRow(rowData);
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+        TopKQuery query = new TopKQuery(expressionTree, "startTime",
+                                        true, 10);
+
+        List<Object> newest = query.execute(epochs, new MapEntityAccessor());
+        assertEquals(10, newest.size());
+        List<String> expected = new ArrayList<String>();
+        for (int minutes = 999; expected.size() < 10; minutes--) {
+            int index = (minutes*973)%1000;
+            if ((index%4 == 0) && (index%10 != 0)) {
+                expected.add("epoch"+index);
+            }
+        }
+        List<String> uuids = new ArrayList<String>();
+        for (Object epoch : newest) {
+            uuids.add((String)((Map<?,?>)epoch).get("uuid"));
+        }
+        assertEquals(expected, uuids);
+
+        List<Map<String,Object>> ordered =
+            new ArrayList<Map<String,Object>>();
+        for (int row : cache.getTable("Epoch").getOrderedRows("startTime",
+                                                               true)) {
+            ordered.add(epochs.get(row));
+        }
+        Counter evaluated = Metrics.counter("evaluator.topK.entitiesEvaluated");
+        long before = evaluated.getCount();
+        assertEquals(newest, query.executeOrdered(ordered,
+                                                  new MapEntityAccessor()));
+        assertTrue(evaluated.getCount()-before < 100);
+
+        uuids.clear();
+        for (ColumnarEntityCache.Row row :
+             query.execute(cache.getTable("Epoch"))) {
+            uuids.add((String)cache.getAccessor().getAttribute(row, "uuid"));
+        }
+        assertEquals(expected, uuids);
+
+        try {
+            query.executeOrdered(epochs, new MapEntityAccessor());
+            fail("Executed on Epochs that were not in order.");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+
+    /**
+     * A NaN ordering value is treated the same as a null one, (it
+     * comes last in either direction), whether the Responses are
+     * read with a heap, in order, or from a cache's ordered index.
+     */
+    public void testTopKQueryNaN()
+            throws Exception {
+
+        List<Map<String,Object>> responses =
+            new ArrayList<Map<String,Object>>();
+        ColumnarEntityCache cache = new ColumnarEntityCache(
+            new MapEntityAccessor());
+        for (int index = 0; index < 200; index++) {
+            Map<String,Object> response = response("response"+index,
+                (index%5 == 0) ? Double.NaN : (index*37)%200);
+            if (index%7 == 0) {
+                response.remove("samplingRate");
+            }
+            response.put("samplingUnits", (index%2 == 0) ? "Hz" : "kHz");
+            responses.add(response);
+            cache.append(response);
+        }
+        ColumnarEntityCache.Table table = cache.getTable("Response");
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(responseCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        RowData rowData = new RowData();
+        rowData.addAttribute(responseCD.getAttribute("samplingUnits"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("Hz");
+        rootRow.addChildRow(rowData);
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+
+        for (boolean descending : new boolean[] {false, true}) {
+
+            List<Map<String,Object>> ordered =
+                new ArrayList<Map<String,Object>>();
+            for (int row : table.getOrderedRows("samplingRate",
+                                                descending)) {
+                ordered.add(responses.get(row));
+            }
+
+            /**
+             * 100 Responses match, and 32 of them have a NaN or null
+             * samplingRate, so the limits stop before, in, and after
+             * the NaNs and nulls.
+             */
+            for (int limit : new int[] {10, 68, 80, 150}) {
+                TopKQuery query = new TopKQuery(expressionTree,
+                    "samplingRate", descending, limit);
+
+                List<String> expected = new ArrayList<String>();
+                for (Object response : query.execute(responses,
+                     new MapEntityAccessor())) {
+                    expected.add((String)((Map<?,?>)response).get("uuid"));
+                }
+                assertEquals(Math.min(limit, 100), expected.size());
+
+                List<String> uuids = new ArrayList<String>();
+                for (Object response : query.executeOrdered(ordered,
+                     new MapEntityAccessor())) {
+                    uuids.add((String)((Map<?,?>)response).get("uuid"));
+                }
+                assertEquals(descending+" "+limit, expected, uuids);
+
+                uuids.clear();
+                for (ColumnarEntityCache.Row row : query.execute(table)) {
+                    uuids.add((String)cache.getAccessor().getAttribute(
+                        row, "uuid"));
+                }
+                assertEquals(descending+" "+limit, expected, uuids);
+            }
+        }
+    }
+
+
+    /**
+     * Every row's counts are recorded, and the label row is skipped
+     * whenever the protocolID row has already made the All false.
+     */
+    public void testQueryProfile()
+            throws Exception {
+
+        RowData rootRow = protocolRows("abc", "Test 27");
+        RowData protocolRow = rootRow.getChildRows().get(0);
+        RowData labelRow = rootRow.getChildRows().get(1);
+
+        QueryProfile profile = new QueryProfile(rootRow,
+                                                new MapEntityAccessor());
+        profile.setSampleInterval(1);
+        int matches = 0;
+        for (int index = 0; index < 10; index++) {
+            if (profile.matches(epoch((index < 4) ? "abc" : "xyz",
+                                      "Test "+(27+(index % 2))))) {
+                matches++;
+            }
+        }
+        assertEquals(2, matches);
+        assertEquals(10, profile.getEntitiesProfiled());
+
+        QueryProfile.RowStatistics root = profile.getRowStatistics(rootRow);
+        assertEquals(10, root.getInvocations());
+        assertEquals(2, root.getPasses());
+        assertEquals(8, root.getFails());
+
+        QueryProfile.RowStatistics protocol =
+            profile.getRowStatistics(protocolRow);
+        assertEquals(10, protocol.getInvocations());
+        assertEquals(4, protocol.getPasses());
+        assertEquals(0, protocol.getSkips());
+
+        QueryProfile.RowStatistics label = profile.getRowStatistics(labelRow);
+        assertEquals(4, label.getInvocations());
+        assertEquals(2, label.getPasses());
+        assertEquals(6, label.getSkips());
+        assertTrue(root.getNanos() >= protocol.getNanos());
+
+        assertEquals(2, profile.getHottestRows(5).size());
+        assertEquals(3, profile.getRowStatistics().size());
+
+        profile.clear();
+        profile.setSampleInterval(2);
+        for (int index = 0; index < 10; index++) {
+            profile.matches(epoch("abc", "Test 27"));
+        }
+        assertEquals(5, profile.getEntitiesProfiled());
+        assertEquals(5, profile.getRowStatistics(labelRow).getInvocations());
+    }
+
+
+    /**
+     * A January segment and a February segment.  A range on
+     * startTime, and an == on protocolID, skip the segment that
+     * can't match, and a synopsis that was written and read back
+     * prunes the same way.
+     */
+    public void testSegmentPruner()
+            throws Exception {
+
+        SegmentSynopsis january = new SegmentSynopsis(epochCD,
+            new MapEntityAccessor(), 100);
+        SegmentSynopsis february = new SegmentSynopsis(epochCD,
+            new MapEntityAccessor(), 100);
+        for (int day = 1; day <= 28; day++) {
+            Map<String,Object> epoch = epoch("abc"+day, "Test 27");
+            epoch.put("startTime", new DateTime(2011, 1, day, 9, 0, 0, 0,
+                                                DateTimeZone.UTC));
+            january.add(epoch);
+
+            epoch = epoch("xyz"+day, "Test 27");
+            epoch.put("startTime", new DateTime(2011, 2, day, 9, 0, 0, 0,
+                                                DateTimeZone.UTC));
+            february.add(epoch);
+        }
+
+        Map<String,SegmentSynopsis> segments =
+            new LinkedHashMap<String,SegmentSynopsis>();
+        segments.put("january", january);
+        segments.put("february", february);
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("startTime"));
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValue(new DateTime(2011, 2, 1, 0, 0, 0, 0,
+                                               DateTimeZone.UTC));
+        rootRow.addChildRow(rowData);
+        SegmentPruner pruner = new SegmentPruner(
+            RowDataToExpressionTree.translate(rootRow));
+        assertEquals(Arrays.asList("february"), pruner.select(segments));
+
+        /**
+         * None of them are on or after February 1st.
+         * That is true of every January Epoch.
+         */
+        rootRow.setCollectionOperator(CollectionOperator.NONE);
+        pruner = new SegmentPruner(RowDataToExpressionTree.translate(rootRow));
+        assertEquals(Arrays.asList("january"), pruner.select(segments));
+
+        pruner = new SegmentPruner(protocolQuery("abc7", "Test 27"));
+        assertEquals(Arrays.asList("january"), pruner.select(segments));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        january.write(new DataOutputStream(bytes));
+        SegmentSynopsis read = SegmentSynopsis.read(new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(january.getPaths(), read.getPaths());
+        assertTrue(pruner.mayMatch(read));
+        assertFalse(new SegmentPruner(protocolQuery("xyz7", "Test 27")).
+                    mayMatch(read));
+    }
+
+
+    /**
+     * Check that the numbered DataModel hierarchy gives the same
+     * answers as walking up the parent classes, and that changing
+     * the hierarchy makes isSubclassOf() stop using the numbers.
+     */
+    public void testSubclassIntervals() {
+
+        List<ClassDescription> classes = new ArrayList<ClassDescription>();
+        for (ClassDescription cuq : DataModel.getPossibleCUQs()) {
+            addClasses(cuq, classes);
+        }
+        assertTrue(classes.size() > 10);
+
+        for (ClassDescription cd : classes) {
+            for (ClassDescription other : classes) {
+                boolean expected = false;
+                for (ClassDescription ancestor = cd; ancestor != null;
+                     ancestor = ancestor.getParentClass()) {
+                    expected |= (ancestor == other);
+                }
+                assertEquals(cd+" isSubclassOf "+other, expected,
+                             cd.isSubclassOf(other));
+            }
+        }
+
+        for (ClassDescription cd : classes) {
+            assertTrue(cd+" is numbered", cd.isNumbered());
+        }
+
+        /**
+         * Numbering and changing a hierarchy of our own leaves the
+         * DataModel's numbers alone.
+         */
+        ClassDescription base = new ClassDescription("Base", null);
+        ClassDescription derived = new ClassDescription("Derived", base);
+        ClassDescription.numberHierarchy(Arrays.asList(base, derived));
+        assertTrue(derived.isNumbered());
+        assertTrue(derived.isSubclassOf(base));
+        assertFalse(base.isSubclassOf(derived));
+        assertFalse(derived.isSubclassOf(epochCD));
+        derived.setParentClass(null);
+        assertFalse(derived.isNumbered());
+        assertFalse(base.isNumbered());
+        assertFalse(derived.isSubclassOf(base));
+        assertTrue(derived.isSubclassOf(derived));
+
+        assertTrue(epochCD.isNumbered());
+        assertTrue(epochCD.getParentClass().isNumbered());
+        assertTrue(epochCD.isSubclassOf(epochCD.getParentClass()));
+        assertFalse(epochCD.getParentClass().isSubclassOf(epochCD));
+    }
+
+
+    /**
+     * Add the passed in class, its ancestors, and every class
+     * its attributes refer to, to the list.
+     */
+    private static void addClasses(ClassDescription classDescription,
+                                   List<ClassDescription> classes) {
+
+        for (ClassDescription cd = classDescription; cd != null;
+             cd = cd.getParentClass()) {
+            if (classes.contains(cd)) {
+                return;
+            }
+            classes.add(cd);
+            for (Attribute attribute : cd.getAllAttributes()) {
+                if (attribute.getClassDescription() != null) {
+                    addClasses(attribute.getClassDescription(), classes);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Create the query:
+     *
+     *      Epoch | All
+     *        Epoch | protocolID == protocolID
+     *        Epoch | epochGroup.label == label
+     */
+    private static ExpressionTree protocolQuery(String protocolID,
+                                                String label) {
+        return(RowDataToExpressionTree.translate(
+            protocolRows(protocolID, label)));
+    }
+
+
+    private static RowData protocolRows(String protocolID, String label) {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue(protocolID);
+        rootRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+        rowData.addAttribute(epochGroupCD.getAttribute("label"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue(label);
+        rootRow.addChildRow(rowData);
+
+        return(rootRow);
+    }
+
+
+    private static Map<String,Object> epoch(String protocolID,
+                                            String label) {
+
+        Map<String,Object> epochGroup = new HashMap<String,Object>();
+        epochGroup.put(MapEntityAccessor.CLASS_NAME_KEY, "EpochGroup");
+        epochGroup.put("label", label);
+
+        Map<String,Object> epoch = new HashMap<String,Object>();
+        epoch.put(MapEntityAccessor.CLASS_NAME_KEY, "Epoch");
+        epoch.put("protocolID", protocolID);
+        epoch.put("epochGroup", epochGroup);
+        return(epoch);
+    }
+
+
+    /**
+     * Get the EpochGroup map of an epoch created by epoch().
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> epochGroup(Map<String,Object> epoch) {
+        return((Map<String,Object>)epoch.get("epochGroup"));
+    }
+
+
+    private static Map<String,Object> response(String uuid,
+                                               double samplingRate) {
+
+        Map<String,Object> response = new HashMap<String,Object>();
+        response.put(MapEntityAccessor.CLASS_NAME_KEY, "Response");
+        response.put("uuid", uuid);
+        response.put("samplingRate", samplingRate);
+        return(response);
+    }
+
+
+    private static List<String> sorted(List<String> list) {
+
+        List<String> copy = new ArrayList<String>(list);
+        Collections.sort(copy);
+        return(copy);
+    }
+
+
+    public static class TestEpochGroup {
+
+        private final String label;
+
+        public TestEpochGroup(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return(label);
+        }
+    }
+
+
+    public static class TestResponse {
+
+        private final double samplingRate;
+
+        public TestResponse(double samplingRate) {
+            this.samplingRate = samplingRate;
+        }
+
+        public double getSamplingRate() {
+            return(samplingRate);
+        }
+    }
+
+
+    public static class TestEpoch {
+
+        public String protocolID;
+        public TestEpochGroup epochGroup;
+        private final List<TestResponse> responses =
+            new ArrayList<TestResponse>();
+
+        public TestEpoch(String protocolID, String label,
+                         double... samplingRates) {
+
+            this.protocolID = protocolID;
+            this.epochGroup = new TestEpochGroup(label);
+            for (double samplingRate : samplingRates) {
+                responses.add(new TestResponse(samplingRate));
+            }
+        }
+
+        public List<TestResponse> getResponses() {
+            return(responses);
+        }
+    }
+}
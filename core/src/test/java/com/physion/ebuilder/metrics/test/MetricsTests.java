@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.metrics.test;
+
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+import junit.framework.TestCase;
+
+
+/**
+ * Tests for the Metrics registry and its Histograms.
+ */
+public class MetricsTests extends TestCase {
+
+    /**
+     * Asking for the same name twice returns the same metric.
+     */
+    public void testRegistry() {
+
+        Counter counter = Metrics.counter("test.metrics.counter");
+        assertSame(counter, Metrics.counter("test.metrics.counter"));
+        Histogram histogram = Metrics.histogram("test.metrics.histogram");
+        assertSame(histogram, Metrics.histogram("test.metrics.histogram"));
+        assertNotSame(histogram, Metrics.histogram("test.metrics.other"));
+
+        long before = counter.getCount();
+        counter.increment();
+        counter.add(4);
+        assertEquals(before+5, counter.getCount());
+        assertTrue(Metrics.getSummary().contains("test.metrics.counter"));
+    }
+
+
+    /**
+     * Record the sizes of some saved states, (as
+     * ExpressionBuilder.possiblySaveState() does), and check that
+     * each one is counted in the power-of-two bucket it belongs in.
+     * A bucket's upper bound is one less than a power of two, so
+     * 63 and 64 rows fall on either side of a bucket boundary.
+     */
+    public void testHistogramBuckets() {
+
+        Histogram histogram = Metrics.histogram("test.metrics.savedRows");
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        for (int index = 0; index < 50; index++) {
+            histogram.update(63);
+        }
+        for (int index = 0; index < 49; index++) {
+            histogram.update(64);
+        }
+        histogram.update(100000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(63, histogram.getMin());
+        assertEquals(100000, histogram.getMax());
+        assertEquals((50*63+49*64+100000)/100.0, histogram.getMean());
+
+        assertEquals(63, histogram.getPercentile(0.5));
+        assertEquals(127, histogram.getPercentile(0.51));
+        assertEquals(127, histogram.getPercentile(0.99));
+        assertEquals(100000, histogram.getPercentile(1.0));
+
+        histogram.reset();
+        histogram.update(0);
+        histogram.update(1);
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(1, histogram.getPercentile(1.0));
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.*;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Builds random, legal RowData trees from the DataModel, so the
+ * translators can be tested on trees far bigger than anybody
+ * would build by hand.  The same seed always builds the same tree.
+ *
+ * A tree is built by adding rows, one at a time, to a randomly
+ * chosen compound row that is already in the tree, (at first,
+ * just the root row).  A new row is either:
+ *
+ *      A compound row.  Either a "simple" Any/All/None of the
+ *      following row, or a TO_MANY reference with Any/All/None.
+ *      A compound row always gets one attribute row right away,
+ *      so it is never empty.
+ *
+ *      An attribute row that ends with a primitive attribute,
+ *      a PARAMETERS_MAP key, a TO_MANY Count, or a TO_ONE
+ *      reference is null/is not null.  The path to the last
+ *      attribute may go through TO_ONE references.
+ *
+ * Which kind of attribute row is chosen is controlled by the
+ * type weights.  The type of a row is the Type of the last
+ * attribute, except that a Count or is null row counts as
+ * Type.REFERENCE.  Setting a weight to 0 turns that kind of
+ * row off.
+ */
+public class RandomRowDataGenerator {
+
+    private final Random random;
+
+    private int maxDepth = 4;
+    private int maxPathLength = 3;
+    private double compoundFraction = 0.1;
+
+    private final Map<Type,Double> typeWeights =
+        new EnumMap<Type,Double>(Type.class);
+
+
+    public RandomRowDataGenerator(long seed) {
+
+        random = new Random(seed);
+        for (Type type : new Type[] {Type.BOOLEAN, Type.UTF_8_STRING,
+                                     Type.INT_16, Type.INT_32,
+                                     Type.FLOAT_64, Type.DATE_TIME,
+                                     Type.PARAMETERS_MAP, Type.REFERENCE}) {
+            typeWeights.put(type, 1.0);
+        }
+    }
+
+
+    /**
+     * Set the maximum number of nested compound rows.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+
+    /**
+     * Set the maximum number of attributes in a row's path.
+     */
+    public void setMaxPathLength(int maxPathLength) {
+        this.maxPathLength = maxPathLength;
+    }
+
+
+    /**
+     * Set the fraction of the rows that are compound rows.
+     */
+    public void setCompoundFraction(double compoundFraction) {
+        this.compoundFraction = compoundFraction;
+    }
+
+
+    /**
+     * Set how often rows of the passed in type are chosen,
+     * relative to the other types.
+     */
+    public void setTypeWeight(Type type, double weight) {
+        typeWeights.put(type, weight);
+    }
+
+
+    /**
+     * Build a tree with the passed in number of rows,
+     * (not counting the root row).
+     */
+    public RowData generate(ClassDescription classUnderQualification,
+                            int rowCount) {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(classUnderQualification);
+        rootRow.setCollectionOperator(randomCompoundOperator());
+
+        List<RowData> parents = new ArrayList<RowData>();
+        List<ClassDescription> parentClasses =
+            new ArrayList<ClassDescription>();
+        List<Integer> parentDepths = new ArrayList<Integer>();
+        parents.add(rootRow);
+        parentClasses.add(classUnderQualification);
+        parentDepths.add(0);
+
+        int count = 0;
+        while (count < rowCount) {
+
+            int index = random.nextInt(parents.size());
+            RowData parent = parents.get(index);
+            ClassDescription classDescription = parentClasses.get(index);
+            int depth = parentDepths.get(index);
+
+            if ((rowCount-count >= 2) && (depth < maxDepth) &&
+                (random.nextDouble() < compoundFraction)) {
+
+                RowData compoundRow = new RowData();
+                ClassDescription childClass = classDescription;
+                List<Attribute> toMany = getAttributes(classDescription,
+                    Type.REFERENCE, Cardinality.TO_MANY);
+                if (!toMany.isEmpty() && random.nextBoolean()) {
+                    Attribute attribute = pick(toMany);
+                    compoundRow.addAttribute(attribute);
+                    childClass = attribute.getClassDescription();
+                }
+                compoundRow.setCollectionOperator(randomCompoundOperator());
+                parent.addChildRow(compoundRow);
+                compoundRow.addChildRow(attributeRow(childClass));
+                count += 2;
+
+                parents.add(compoundRow);
+                parentClasses.add(childClass);
+                parentDepths.add(depth+1);
+            }
+            else {
+                parent.addChildRow(attributeRow(classDescription));
+                count++;
+            }
+        }
+
+        return(rootRow);
+    }
+
+
+    /**
+     * Create an attribute row whose path starts at the passed in class.
+     */
+    private RowData attributeRow(ClassDescription classDescription) {
+
+        RowData rowData = new RowData();
+        Type type = randomType();
+
+        /**
+         * Follow TO_ONE references for a while.
+         */
+        ClassDescription cd = classDescription;
+        int pathLength = 1;
+        while ((pathLength < maxPathLength) && random.nextBoolean()) {
+            List<Attribute> toOne = getAttributes(cd, Type.REFERENCE,
+                                                  Cardinality.TO_ONE);
+            if (toOne.isEmpty()) {
+                break;
+            }
+            Attribute attribute = pick(toOne);
+            rowData.addAttribute(attribute);
+            cd = attribute.getClassDescription();
+            pathLength++;
+        }
+
+        /**
+         * If the class at the end of the path doesn't have an
+         * attribute of the type we want, use a string attribute,
+         * (every class has a uuid), of the class we started at.
+         */
+        if (getLastAttributes(cd, type).isEmpty()) {
+            type = Type.UTF_8_STRING;
+            rowData = new RowData();
+            cd = classDescription;
+        }
+        Attribute attribute = pick(getLastAttributes(cd, type));
+        rowData.addAttribute(attribute);
+
+        switch (type) {
+
+            case BOOLEAN:
+                rowData.setAttributeOperator(
+                    pick(Operator.OPERATORS_BOOLEAN));
+                break;
+
+            case UTF_8_STRING:
+                rowData.setAttributeOperator(pick(Operator.OPERATORS_STRING));
+                rowData.setAttributeValue(randomString());
+                break;
+
+            case INT_16:
+                rowData.setAttributeOperator(
+                    pick(Operator.OPERATORS_ARITHMATIC));
+                rowData.setAttributeValueInt16((short)random.nextInt(1000));
+                break;
+
+            case INT_32:
+                rowData.setAttributeOperator(
+                    pick(Operator.OPERATORS_ARITHMATIC));
+                rowData.setAttributeValueInt32(random.nextInt(100000));
+                break;
+
+            case FLOAT_64:
+                rowData.setAttributeOperator(
+                    pick(Operator.OPERATORS_ARITHMATIC));
+                rowData.setAttributeValueFloat64(random.nextInt(10000)/8.0);
+                break;
+
+            case DATE_TIME:
+                rowData.setAttributeOperator(
+                    pick(Operator.OPERATORS_ARITHMATIC));
+                rowData.setAttributeValue(randomTime());
+                break;
+
+            case PARAMETERS_MAP:
+                rowData.setPropName("key"+random.nextInt(20));
+                if (random.nextBoolean()) {
+                    rowData.setPropType(Type.INT_32);
+                    rowData.setAttributeOperator(
+                        pick(Operator.OPERATORS_ARITHMATIC));
+                    rowData.setAttributeValue(
+                        Integer.valueOf(random.nextInt(100)));
+                }
+                else {
+                    rowData.setPropType(Type.UTF_8_STRING);
+                    rowData.setAttributeOperator(
+                        pick(Operator.OPERATORS_STRING));
+                    rowData.setAttributeValue(randomString());
+                }
+                break;
+
+            default:
+                if (attribute.getCardinality() == Cardinality.TO_MANY) {
+                    rowData.setCollectionOperator(CollectionOperator.COUNT);
+                    rowData.setAttributeOperator(
+                        pick(Operator.OPERATORS_ARITHMATIC));
+                    rowData.setAttributeValue(
+                        Integer.valueOf(random.nextInt(10)));
+                }
+                else {
+                    rowData.addAttribute(random.nextBoolean() ?
+                        Attribute.IS_NULL : Attribute.IS_NOT_NULL);
+                }
+                break;
+        }
+
+        return(rowData);
+    }
+
+
+    /**
+     * Get the attributes a row of the passed in type can end with.
+     */
+    private static List<Attribute> getLastAttributes(
+        ClassDescription classDescription, Type type) {
+
+        if (type == Type.REFERENCE) {
+            return(getAttributes(classDescription, type, null));
+        }
+        return(getAttributes(classDescription, type, Cardinality.N_A));
+    }
+
+
+    /**
+     * Get the attributes of the passed in class that have the passed
+     * in type and cardinality.  null matches any cardinality.
+     */
+    private static List<Attribute> getAttributes(
+        ClassDescription classDescription, Type type,
+        Cardinality cardinality) {
+
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        for (Attribute attribute : classDescription.getAllAttributes()) {
+            if ((attribute.getType() == type) &&
+                ((cardinality == null) ||
+                 (attribute.getCardinality() == cardinality))) {
+                attributes.add(attribute);
+            }
+        }
+        return(attributes);
+    }
+
+
+    private Type randomType() {
+
+        double total = 0.0;
+        for (double weight : typeWeights.values()) {
+            total += weight;
+        }
+
+        double r = random.nextDouble()*total;
+        for (Map.Entry<Type,Double> entry : typeWeights.entrySet()) {
+            r -= entry.getValue();
+            if ((r < 0.0) && (entry.getValue() > 0.0)) {
+                return(entry.getKey());
+            }
+        }
+        return(Type.UTF_8_STRING);
+    }
+
+
+    private CollectionOperator randomCompoundOperator() {
+        return(pick(new CollectionOperator[] {CollectionOperator.ANY,
+                                              CollectionOperator.ALL,
+                                              CollectionOperator.NONE}));
+    }
+
+
+    private String randomString() {
+
+        StringBuilder builder = new StringBuilder();
+        int length = 1+random.nextInt(8);
+        for (int index = 0; index < length; index++) {
+            builder.append((char)('a'+random.nextInt(26)));
+        }
+        return(builder.toString());
+    }
+
+
+    private DateTime randomTime() {
+        return(new DateTime(2000+random.nextInt(12), 1+random.nextInt(12),
+                            1+random.nextInt(28), random.nextInt(24), 0, 0, 0,
+                            DateTimeZone.UTC));
+    }
+
+
+    private <T> T pick(List<T> list) {
+        return(list.get(random.nextInt(list.size())));
+    }
+
+
+    private <T> T pick(T[] array) {
+        return(array[random.nextInt(array.length)]);
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder.translator.test;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.evaluator.FlatExpression;
+import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.translator.ExpressionTreeToRowData;
+import com.physion.ebuilder.translator.ExpressionTreeToSql;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Tests the translators on random trees, (see RandomRowDataGenerator),
+ * from 10 to 100,000 rows.
+ *
+ * testRoundTrip() checks that many small random trees translate
+ * to ExpressionTrees, (and FlatExpressions), and back without changing.
+ *
+ * testLazyTranslation() checks that translateLazily() makes the
+ * same tree as translate(), a level at a time.  testRowIterator()
+ * checks that RowData.getRowIterator() walks the rows in the same
+ * order as getRows(), and only creates the lazy rows it reaches.
+ *
+ * testScaling() checks that the time, and the memory allocated,
+ * grow (about) linearly with the size of the tree.  The time is
+ * checked loosely, so a slow or busy machine doesn't fail the test,
+ * but anything quadratic will.  The memory allocated does not
+ * depend on how busy the machine is, so it is checked tightly.
+ */
+public class ScalingTests extends TestCase {
+
+    private static final ClassDescription epochCD =
+            DataModel.getClassDescription("Epoch");
+
+    private static final int[] SIZES = {10, 100, 1000, 10000, 100000};
+
+    /**
+     * The time it takes to translate a tree grows as its size to
+     * this power, at most.  We compare a 1,000 row tree with a
+     * 100,000 row tree, so a linear translator is 1.0, a quadratic
+     * one is 2.0, and this allows a row to take up to 10 times as
+     * long in the big tree, which a timer on a busy machine should
+     * not exceed.
+     */
+    private static final double MAX_TIME_GROWTH_EXPONENT = 1.5;
+
+    /**
+     * The memory allocated translating a tree grows as its size to
+     * this power, at most.  This allows a row to allocate about 1.6
+     * times as much in the big tree.  (It measures about 1.2 times
+     * as much.)  So, unlike
+     * the time, this catches a row's allocation growing with the
+     * size of the tree, e.g. by copying a list of its siblings.
+     */
+    private static final double MAX_ALLOCATION_GROWTH_EXPONENT = 1.1;
+
+
+    public void testRoundTrip()
+            throws Exception {
+
+        for (int seed = 0; seed < 200; seed++) {
+
+            RandomRowDataGenerator generator = new RandomRowDataGenerator(seed);
+            RowData rootRow = generator.generate(epochCD, 1+(seed % 40));
+            assertTrue("Illegal rows for seed "+seed+":\n"+rootRow,
+                       rootRow.getIllegalRows().isEmpty());
+
+            ExpressionTree expressionTree =
+                RowDataToExpressionTree.translate(rootRow);
+            RowData translated = ExpressionTreeToRowData.translate(
+                expressionTree);
+            assertEquals("Seed "+seed, rootRow.toString(true, ""),
+                         translated.toString(true, ""));
+            assertEquals("Seed "+seed, expressionTree.toString(),
+                RowDataToExpressionTree.translate(translated).toString());
+
+            ExpressionTreeToSql.translate(expressionTree);
+
+            assertEquals("Seed "+seed, expressionTree.toString(),
+                FlatExpression.encode(expressionTree).toExpressionTree().
+                toString());
+        }
+    }
+
+
+    /**
+     * Check that translateLazily() only creates the root row, and
+     * that once every row has been created, the tree is the same
+     * as the one translate() creates.
+     */
+    public void testLazyTranslation()
+            throws Exception {
+
+        RowData rootRow = new RandomRowDataGenerator(40).generate(epochCD,
+                                                                  10000);
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+
+        RowData lazyRow = ExpressionTreeToRowData.translateLazily(
+            expressionTree);
+        assertTrue(lazyRow.hasPendingChildRows());
+
+        assertEquals(rootRow.getChildRows().size(),
+                     lazyRow.getChildRows().size());
+        assertFalse(lazyRow.hasPendingChildRows());
+
+        assertEquals(ExpressionTreeToRowData.translate(expressionTree).
+                     toString(true, ""), lazyRow.toString(true, ""));
+        assertEquals(expressionTree.toString(),
+            RowDataToExpressionTree.translate(lazyRow).toString());
+    }
+
+
+    /**
+     * Check that getRowIterator() returns the same rows, in the same
+     * order, as getRows(), and that iterating over the first rows of
+     * a lazily translated tree does not create the rows after them.
+     */
+    public void testRowIterator()
+            throws Exception {
+
+        RowData rootRow = new RandomRowDataGenerator(41).generate(epochCD,
+                                                                  2000);
+        List<RowData> rows = rootRow.getRows();
+        Iterator<RowData> iterator = rootRow.getRowIterator();
+        for (RowData rowData : rows) {
+            assertTrue(iterator.hasNext());
+            assertSame(rowData, iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+        RowData lazyRow = ExpressionTreeToRowData.translateLazily(
+            expressionTree);
+        iterator = lazyRow.getRowIterator();
+        for (int index = 0; index < 100; index++) {
+            iterator.next();
+        }
+
+        assertTrue(countPendingChildRows(lazyRow) > 0);
+
+        int count = 100;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(rows.size(), count);
+        assertEquals(0, countPendingChildRows(lazyRow));
+        assertEquals(rootRow.toString(true, ""), lazyRow.toString(true, ""));
+    }
+
+
+    public void testScaling()
+            throws Exception {
+
+        double[] nanosPerRow = new double[SIZES.length];
+        double[] bytesPerRow = new double[SIZES.length];
+
+        for (int index = 0; index < SIZES.length; index++) {
+
+            int size = SIZES[index];
+            RowData rootRow = new RandomRowDataGenerator(size).generate(
+                epochCD, size);
+
+            /**
+             * Run the small trees enough times that the JIT has
+             * compiled the translators before we measure.
+             */
+            int runs = Math.max(3, 200000/size);
+            long bestNanos = Long.MAX_VALUE;
+            long bestBytes = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+
+                long bytes = allocatedBytes();
+                long nanos = System.nanoTime();
+
+                ExpressionTree expressionTree =
+                    RowDataToExpressionTree.translate(rootRow);
+                ExpressionTreeToRowData.translate(expressionTree);
+                ExpressionTreeToSql.translate(expressionTree);
+
+                bestNanos = Math.min(bestNanos, System.nanoTime()-nanos);
+                bestBytes = Math.min(bestBytes, allocatedBytes()-bytes);
+            }
+
+            nanosPerRow[index] = ((double)bestNanos)/size;
+            bytesPerRow[index] = ((double)bestBytes)/size;
+        }
+
+        int last = SIZES.length-1;
+        double growth = growthExponent(nanosPerRow[2], nanosPerRow[last],
+                                       SIZES[2], SIZES[last]);
+        assertTrue("Time grew as size^"+growth+", from "+
+                   (long)nanosPerRow[2]+" ns/row to "+
+                   (long)nanosPerRow[last]+" ns/row.",
+                   growth <= MAX_TIME_GROWTH_EXPONENT);
+        if (bytesPerRow[2] > 0) {
+            growth = growthExponent(bytesPerRow[2], bytesPerRow[last],
+                                    SIZES[2], SIZES[last]);
+            assertTrue("Allocation grew as size^"+growth+", from "+
+                       (long)bytesPerRow[2]+" bytes/row to "+
+                       (long)bytesPerRow[last]+" bytes/row.",
+                       growth <= MAX_ALLOCATION_GROWTH_EXPONENT);
+        }
+    }
+
+
+    /**
+     * Count the children of the passed in row whose own children
+     * have not been created yet.
+     */
+    private static int countPendingChildRows(RowData rowData) {
+
+        int count = 0;
+        for (RowData childRow : rowData.getChildRows()) {
+            if (childRow.hasPendingChildRows()) {
+                count++;
+            }
+        }
+        return(count);
+    }
+
+
+    /**
+     * Get the power of the size the total cost grows as, from the
+     * cost per row of a small tree and of a big tree.
+     */
+    private static double growthExponent(double smallCostPerRow,
+                                         double bigCostPerRow,
+                                         int smallSize, int bigSize) {
+
+        if (smallCostPerRow <= 0) {
+            return(1.0);
+        }
+        return(1.0+(Math.log(bigCostPerRow/smallCostPerRow)/
+                    Math.log(((double)bigSize)/smallSize)));
+    }
+
+
+    /**
+     * Get the number of bytes this thread has allocated, or 0 if
+     * the JVM can't tell us.
+     */
+    private static long allocatedBytes() {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean)bean;
+            if (sunBean.isThreadAllocatedMemorySupported() &&
+                sunBean.isThreadAllocatedMemoryEnabled()) {
+                return(sunBean.getThreadAllocatedBytes(
+                    Thread.currentThread().getId()));
+            }
+        }
+        return(0L);
+    }
+}
@@ -6,19 +6,37 @@ package com.physion.ebuilder.translator.test;
 
 import com.physion.ebuilder.datamodel.DataModel;
 import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datamodel.RowDataEvent;
+import com.physion.ebuilder.datamodel.RowDataListener;
 import com.physion.ebuilder.datatypes.*;
+import com.physion.ebuilder.expression.AttributeExpression;
 import com.physion.ebuilder.expression.ExpressionTree;
+import com.physion.ebuilder.expression.IExpression;
+import com.physion.ebuilder.expression.IOperatorExpression;
+import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.expression.TimeLiteralValueExpression;
 import com.physion.ebuilder.translator.ExpressionTreeToRowData;
+import com.physion.ebuilder.translator.ExpressionTreeToSql;
 import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import com.physion.ebuilder.translator.SqlQuery;
 import junit.framework.TestCase;
 import org.approvaltests.Approvals;
 import org.approvaltests.UseReporter;
 import org.approvaltests.reporters.JunitReporter;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.GJChronology;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 
 /**
  * Tests for the Translator subclasses and for serialization.
@@ -1595,6 +1613,200 @@ public class TranslatorTests extends TestCase {
     }
 
 
+    /**
+     * There is only one Attribute object for each set of values,
+     * and a deserialized Attribute, (on its own, or in a RowData
+     * tree), is replaced by that object.  The displayName does not
+     * make an Attribute different.
+     */
+    public void testAttributeInterning()
+            throws Exception {
+
+        Attribute protocolID = epochCD.getAttribute("protocolID");
+        String displayName = protocolID.getDisplayName();
+        assertSame(protocolID, Attribute.valueOf("protocolID",
+                                                 Type.UTF_8_STRING));
+        assertSame(protocolID, Attribute.valueOf("protocolID", "Protocol",
+                                                 Type.UTF_8_STRING));
+        assertEquals(displayName, protocolID.getDisplayName());
+
+        Attribute owner = epochCD.getAttribute("owner");
+        assertSame(owner, Attribute.valueOf("owner", Type.REFERENCE,
+            owner.getClassDescription(), Cardinality.TO_ONE));
+        assertEquals("Owner", owner.getDisplayName());
+        assertNotSame(owner, Attribute.valueOf("owner", Type.REFERENCE,
+            owner.getClassDescription(), Cardinality.TO_MANY));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(protocolID);
+        out.writeObject(owner);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        assertSame(protocolID, in.readObject());
+        assertSame(owner, in.readObject());
+        in.close();
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+        rowData.addAttribute(epochGroupCD.getAttribute("label"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("Test 27");
+        rootRow.addChildRow(rowData);
+
+        rootRow.writeRowData("temp.rowData");
+        RowData copy = RowData.readRowData("temp.rowData");
+        List<Attribute> attributePath =
+            copy.getChildRows().get(0).getAttributePath();
+        assertSame(epochCD.getAttribute("epochGroup"), attributePath.get(0));
+        assertSame(epochGroupCD.getAttribute("label"), attributePath.get(1));
+    }
+
+
+    /**
+     * Values set with the primitive setters are read back the same
+     * with getAttributeValue() and the primitive getters, (any number
+     * of times), and after the row is serialized and read back in.
+     */
+    public void testPrimitiveAttributeValues()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(responseCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData int16Row = new RowData();
+        int16Row.addAttribute(responseCD.getAttribute("sampleBytes"));
+        int16Row.setAttributeOperator(Operator.EQUALS);
+        int16Row.setAttributeValueInt16((short)-2);
+        rootRow.addChildRow(int16Row);
+
+        RowData int32Row = new RowData();
+        int32Row.addAttribute(responseCD.getAttribute(
+            "externalDeviceParameters"));
+        int32Row.setPropName("someKey");
+        int32Row.setPropType(Type.INT_32);
+        int32Row.setAttributeOperator(Operator.EQUALS);
+        int32Row.setAttributeValueInt32(100000);
+        rootRow.addChildRow(int32Row);
+
+        RowData float64Row = new RowData();
+        float64Row.addAttribute(responseCD.getAttribute("samplingRate"));
+        float64Row.setAttributeOperator(Operator.GREATER_THAN);
+        float64Row.setAttributeValueFloat64(12.5);
+        rootRow.addChildRow(float64Row);
+
+        Object[] values = {Short.valueOf((short)-2), Integer.valueOf(100000),
+                           Double.valueOf(12.5)};
+        String before = rootRow.toString(true, "");
+        for (int pass = 0; pass < 2; pass++) {
+            for (int index = 0; index < values.length; index++) {
+                RowData rowData = rootRow.getChildRows().get(index);
+                assertEquals(values[index], rowData.getAttributeValue());
+                assertEquals(values[index], rowData.getAttributeValue());
+                assertTrue(rowData.isAttributeValueNumber());
+                assertEquals(((Number)values[index]).doubleValue(),
+                             rowData.getAttributeValueAsDouble());
+            }
+            assertEquals(-2, rootRow.getChildRows().get(0).
+                         getAttributeValueAsInt());
+            assertEquals(before, rootRow.toString(true, ""));
+
+            rootRow.writeRowData("temp.rowData");
+            rootRow = RowData.readRowData("temp.rowData");
+        }
+    }
+
+
+    /**
+     * A row that is not the root can be serialized on its own.
+     * Its parent, (which is written out because the child refers to
+     * it), is read back in while the child is still being read, and
+     * starts listening to the child again.  So a change to the child
+     * that was read in is reported by its root.
+     */
+    public void testChildRowSerialization()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        for (String protocolID : new String[] {"abc", "xyz"}) {
+            RowData rowData = new RowData();
+            rowData.addAttribute(epochCD.getAttribute("protocolID"));
+            rowData.setAttributeOperator(Operator.EQUALS);
+            rowData.setAttributeValue(protocolID);
+            rootRow.addChildRow(rowData);
+        }
+        RowData childRow = rootRow.getChildRows().get(1);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(childRow);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        RowData childCopy = (RowData)in.readObject();
+        in.close();
+
+        RowData rootCopy = childCopy.getRootRow();
+        assertNotSame(childCopy, rootCopy);
+        assertTrue(rootCopy.isRootRow());
+        assertSame(childCopy, rootCopy.getChildRows().get(1));
+        assertEquals(rootRow.toString(true, ""), rootCopy.toString(true, ""));
+
+        final List<RowData> changed = new ArrayList<RowData>();
+        rootCopy.addRowDataListener(new RowDataListener() {
+            @Override
+            public void rowDataChanged(RowDataEvent event) {
+                if (event.getTiming() == RowDataEvent.TIMING_AFTER) {
+                    changed.add(event.getOriginalRowData());
+                }
+            }
+        });
+
+        RowData siblingCopy = rootCopy.getChildRows().get(0);
+        childCopy.setAttributeValue("def");
+        siblingCopy.setAttributeValue("ghi");
+        assertEquals(Arrays.asList(childCopy, siblingCopy), changed);
+    }
+
+
+    /**
+     * getTimeValue() returns a DateTime equal to the one it was
+     * created with, in that DateTime's own time zone and chronology,
+     * not the default time zone.  That is what the copy it used to
+     * return, new DateTime(value), was too.
+     */
+    public void testTimeValueKeepsZone() {
+
+        DateTimeZone defaultZone = DateTimeZone.getDefault();
+        try {
+            DateTimeZone.setDefault(DateTimeZone.forID("America/New_York"));
+            DateTime value = new DateTime(1979, 12, 1, 9, 0, 0, 0,
+                GJChronology.getInstance(DateTimeZone.forID("Asia/Tokyo")));
+            TimeLiteralValueExpression expression =
+                new TimeLiteralValueExpression(value);
+
+            DateTime timeValue = expression.getTimeValue();
+            assertEquals(new DateTime(value), timeValue);
+            assertEquals(value, timeValue);
+            assertEquals(value.getZone(), timeValue.getZone());
+            assertEquals(value.getChronology(), timeValue.getChronology());
+            assertEquals(9, timeValue.getHourOfDay());
+            assertEquals(value.getMillis(), expression.getEpochMillis());
+            assertSame(timeValue, expression.getValue());
+        }
+        finally {
+            DateTimeZone.setDefault(defaultZone);
+        }
+    }
+
+
     /*
     @UseReporter(JunitReporter.class)
     public void test1234()
@@ -1729,4 +1941,185 @@ public class TranslatorTests extends TestCase {
 
         return(s);
     }
+
+
+    /**
+     * Rows with the same attribute path share the Expression for
+     * the path, and so do rows in different trees.
+     */
+    public void testSharedAttributePaths()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        for (String label : new String[] {"Test 27", "Test 28"}) {
+            RowData rowData = new RowData();
+            rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+            rowData.addAttribute(epochGroupCD.getAttribute("label"));
+            rowData.setAttributeOperator(Operator.EQUALS);
+            rowData.setAttributeValue(label);
+            rootRow.addChildRow(rowData);
+        }
+
+        ExpressionTree expressionTree =
+            RowDataToExpressionTree.translate(rootRow);
+        List<IExpression> rows = ((IOperatorExpression)
+            expressionTree.getRootExpression()).getOperandList();
+        IExpression path = ((IOperatorExpression)rows.get(0)).
+            getOperandList().get(0);
+        assertSame(path, ((IOperatorExpression)rows.get(1)).
+                   getOperandList().get(0));
+
+        rows = ((IOperatorExpression)RowDataToExpressionTree.translate(
+            rootRow).getRootExpression()).getOperandList();
+        assertSame(path, ((IOperatorExpression)rows.get(0)).
+                   getOperandList().get(0));
+
+        /**
+         * The shared path can't be changed, but the rest of
+         * the tree can.
+         */
+        try {
+            ((OperatorExpression)path).addOperand(
+                new AttributeExpression("label"));
+            fail("A shared path was changed.");
+        }
+        catch (UnsupportedOperationException e) {
+        }
+        try {
+            ((IOperatorExpression)path).getOperandList().clear();
+            fail("A shared path was changed.");
+        }
+        catch (UnsupportedOperationException e) {
+        }
+        assertEquals(2, ((IOperatorExpression)path).getOperandList().size());
+
+        ((OperatorExpression)expressionTree.getRootExpression()).addOperand(
+            new AttributeExpression("protocolID"));
+        assertEquals(3, ((IOperatorExpression)
+            expressionTree.getRootExpression()).getOperandList().size());
+    }
+
+
+    /**
+     * A nested "simple" compound row with more than one child
+     * translates back to the same row.  (Its first child used to
+     * be read as an attribute path.)
+     *
+     *      All of the following
+     *        Any/All/None of the following
+     *          protocolID == "abc"
+     *          epochGroup.label == "Test 27"
+     */
+    public void testNestedCompoundRows()
+            throws Exception {
+
+        for (CollectionOperator collectionOperator :
+             new CollectionOperator[] {CollectionOperator.ANY,
+                 CollectionOperator.ALL, CollectionOperator.NONE}) {
+
+            RowData rootRow = new RowData();
+            rootRow.setClassUnderQualification(epochCD);
+            rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+            RowData compoundRow = new RowData();
+            compoundRow.setCollectionOperator(collectionOperator);
+            rootRow.addChildRow(compoundRow);
+
+            RowData rowData = new RowData();
+            rowData.addAttribute(epochCD.getAttribute("protocolID"));
+            rowData.setAttributeOperator(Operator.EQUALS);
+            rowData.setAttributeValue("abc");
+            compoundRow.addChildRow(rowData);
+
+            rowData = new RowData();
+            rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+            rowData.addAttribute(epochGroupCD.getAttribute("label"));
+            rowData.setAttributeOperator(Operator.EQUALS);
+            rowData.setAttributeValue("Test 27");
+            compoundRow.addChildRow(rowData);
+
+            ExpressionTree expressionTree =
+                RowDataToExpressionTree.translate(rootRow);
+            RowData translated = ExpressionTreeToRowData.translate(
+                expressionTree);
+            assertEquals(collectionOperator.toString(),
+                         rootRow.toString(true, ""),
+                         translated.toString(true, ""));
+            assertEquals(2, translated.getChild(1).getChildRows().size());
+        }
+    }
+
+
+    /**
+     * Translate a query with a reference path, a PARAMETERS_MAP value,
+     * and an Any of a TO_MANY reference into SQL.
+     *
+     *      Epoch | All
+     *        Epoch | epochGroup.label == "Test 27"
+     *        Epoch | protocolParameters.someKey(int) >= "5"
+     *        Epoch | Responses Any have All
+     *          Response | samplingRate > "10.0"
+     *        Epoch | Responses Count == "2"
+     */
+    public void testSqlTranslation()
+            throws Exception {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("epochGroup"));
+        rowData.addAttribute(epochGroupCD.getAttribute("label"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue("Test 27");
+        rootRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolParameters"));
+        rowData.setPropName("someKey");
+        rowData.setPropType(Type.INT_32);
+        rowData.setAttributeOperator(Operator.GREATER_THAN_EQUALS);
+        rowData.setAttributeValue(new Integer(5));
+        rootRow.addChildRow(rowData);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.ANY);
+        rowData.setCollectionOperator2(CollectionOperator.ALL);
+        rootRow.addChildRow(rowData);
+
+        RowData rowData2 = new RowData();
+        rowData2.addAttribute(responseCD.getAttribute("samplingRate"));
+        rowData2.setAttributeOperator(Operator.GREATER_THAN);
+        rowData2.setAttributeValue(new Double(10.0));
+        rowData.addChildRow(rowData2);
+
+        rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("responses"));
+        rowData.setCollectionOperator(CollectionOperator.COUNT);
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue(new Integer(2));
+        rootRow.addChildRow(rowData);
+
+        SqlQuery query = ExpressionTreeToSql.translate(
+            RowDataToExpressionTree.translate(rootRow));
+
+        assertEquals("SELECT t0.* FROM Epoch t0 "+
+            "LEFT JOIN EpochGroup t1 ON t1.uuid = t0.epochGroup_uuid "+
+            "LEFT JOIN Epoch_protocolParameters t2 ON "+
+            "t2.owner_uuid = t0.uuid AND t2.name = ? "+
+            "WHERE (t1.label = ? AND t2.int_value >= ? AND "+
+            "EXISTS (SELECT 1 FROM Epoch_responses t3 JOIN Response t4 "+
+            "ON t4.uuid = t3.element_uuid WHERE t3.owner_uuid = t0.uuid AND "+
+            "t4.samplingRate > ?) AND "+
+            "(SELECT COUNT(*) FROM Epoch_responses t5 WHERE "+
+            "t5.owner_uuid = t0.uuid) = ?)", query.getSql());
+        assertEquals(Arrays.<Object>asList("someKey", "Test 27",
+            Integer.valueOf(5), Double.valueOf(10.0), Integer.valueOf(2)),
+            query.getParameters());
+    }
 }
@@ -9,8 +9,11 @@ import com.physion.ebuilder.datamodel.DataModel;
 import com.physion.ebuilder.datamodel.RowData;
 import com.physion.ebuilder.datamodel.RowDataEvent;
 import com.physion.ebuilder.datamodel.RowDataListener;
+import com.physion.ebuilder.evaluator.QueryProfile;
 import com.physion.ebuilder.expression.ExpressionTree;
 import com.physion.ebuilder.expression.OperatorExpression;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
 import com.physion.ebuilder.translator.ExpressionTreeToRowData;
 import com.physion.ebuilder.translator.RowDataToExpressionTree;
 import org.slf4j.Logger;
@@ -20,7 +23,12 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -46,6 +54,13 @@ import java.util.ArrayList;
  *      ExpressionTree expressionTree = someMethodToCreateExpressionTree();
  *      returnValue = ExpressionBuilder.editExpression(expressionTree);
  *
+ * If you have profiled the expression, (see QueryProfile), you
+ * can pass the profile too, and each row shows how it did as
+ * its tool tip, with the slowest rows marked:
+ *
+ *      returnValue = ExpressionBuilder.editExpression(expressionTree,
+ *                                                     queryProfile);
+ *
  * The returned returnValue.status value tells the caller whether the
  * user pressed the Ok button or canceled out of the window.
  * If returnValue.status is RETURN_STATUS_CANCEL, then
@@ -93,11 +108,30 @@ public class ExpressionBuilder
      */
     private static final String SAVE_FILE_NAME_EXP_TREE = "saved.ExpTree";
 
+    /**
+     * The number of rows in every copy of the tree that
+     * possiblySaveState() makes.  Every saved state is a deep copy,
+     * so this tells us what the undo list is costing us.
+     *
+     * A state is saved BEFORE the change, while the ExpressionPanel
+     * is still showing the tree that is being copied, so we take
+     * the number from the panel instead of walking the whole tree
+     * again on every edit.
+     */
+    private static final Histogram SAVED_STATE_ROWS =
+        Metrics.histogram("builder.savedStateRows");
+
 	/**
      * Number of pixels used as a spacer.
      */
     private int INSET = 6;
 
+    /**
+     * The number of the slowest rows in a QueryProfile that are
+     * marked as hot.  (See editExpression(ExpressionTree,QueryProfile).)
+     */
+    private static final int HOT_ROW_COUNT = 3;
+
     /**
      * Maximum number of expression tree "states" that are
      * saved.  I.e. the user can "undo" up to this many
@@ -152,6 +186,21 @@ public class ExpressionBuilder
      * Do NOT pass null.
      */
     ExpressionBuilder(RowData originalRootRow) {
+        this(originalRootRow, null);
+    }
+
+
+    /**
+     * Create an ExpressionBuilder dialog with its expression
+     * tree initialized to a copy of the passed in expression,
+     * that shows how each row did in the passed in profile.
+     *
+     * @param profile The profile of the expression, or null.
+     * Its rows are matched to the rows of originalRootRow by
+     * their position in the tree, so it should be a profile of
+     * the same expression.
+     */
+    ExpressionBuilder(RowData originalRootRow, QueryProfile profile) {
 
         super((Frame)null);
         setTitle("Ovation Query Editor");
@@ -175,6 +224,22 @@ public class ExpressionBuilder
         expressionPanelScrolling = new ExpressionPanelScrolling(rootRow);
         getContentPane().add(expressionPanelScrolling);
 
+        /**
+         * The Ok button stays disabled while the rows of a big
+         * tree are loading, so check it again when they are done.
+         */
+        expressionPanelScrolling.addLoadingRowsListener(
+            new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent event) {
+                    enableButtons();
+                }
+            });
+
+        if (profile != null) {
+            showProfile(rootRow, profile);
+        }
+
         /**
          * Layout the buttons at the bottom of the panel
          * with Prev and Next grouped on the left and
@@ -308,11 +373,28 @@ public class ExpressionBuilder
      */
     public void actionPerformed(ActionEvent e) {
 
+        /**
+         * The RowPanels wait for the user to stop typing before
+         * they change the tree, so make sure the tree has whatever
+         * the user just typed before we use it.
+         */
+        if (e.getSource() != cancelButton) {
+            expressionPanelScrolling.commitPendingEdits();
+        }
+
         if (e.getSource() == cancelButton) {
             returnStatus = RETURN_STATUS_CANCEL;
             setVisible(false);
         }
         else if (e.getSource() == okButton) {
+            /**
+             * What the user just typed might have made the tree
+             * illegal, (e.g. "1.2.3" in a float field).
+             */
+            if (!getRootRow().getIllegalRows().isEmpty()) {
+                enableButtons();
+                return;
+            }
             returnStatus = RETURN_STATUS_OK;
             //expressionPanelScrolling.print();  // Just for testing purposes.
             setVisible(false);
@@ -436,7 +518,8 @@ public class ExpressionBuilder
      * should look at.  Please see ExpressionBuilder.ReturnValue
      * for more information.
      */
-    private static ReturnValue editExpression(RowData rootRow) {
+    private static ReturnValue editExpression(RowData rootRow,
+                                              QueryProfile profile) {
 
         /**
          * Create a returnValue that is already initialized
@@ -455,7 +538,7 @@ public class ExpressionBuilder
             return(returnValue);
         }
 
-        ExpressionBuilder dialog = new ExpressionBuilder(rootRow);
+        ExpressionBuilder dialog = new ExpressionBuilder(rootRow, profile);
 
         /**
          * Make the dialog visible in the center of the
@@ -518,6 +601,23 @@ public class ExpressionBuilder
      * for more information.
      */
     public static ReturnValue editExpression(ExpressionTree expressionTree) {
+        return(editExpression(expressionTree, null));
+    }
+
+
+    /**
+     * The same as editExpression(ExpressionTree), but each row
+     * shows how it did in the passed in QueryProfile, (how many
+     * times it was evaluated, was true, was skipped, and how long
+     * it took), as its tool tip.  The rows that took the most
+     * time are marked with a stripe down their left side, so the
+     * user can see which rows to make cheaper, or move.
+     *
+     * @param profile A profile of the passed in expressionTree,
+     * or null.
+     */
+    public static ReturnValue editExpression(ExpressionTree expressionTree,
+                                             QueryProfile profile) {
 
         /**
          * If the caller did not hand us an ExpressionTree, create
@@ -548,15 +648,84 @@ public class ExpressionBuilder
         /**
          * Convert the passed in expressionTree into a RowData tree
          * that the GUI will display and edit.
+         *
+         * Each row's children are only created when something asks
+         * for them, so the window can show the first rows of a huge
+         * tree without translating all of it first.  The
+         * ExpressionPanel creates the rest of the rows while the
+         * window is showing.  (See ExpressionPanel.isLoadingRows().)
+         * Please note, this means an error in a part of the
+         * expressionTree that has not been translated yet is not
+         * caught here.  Trees that RowDataToExpressionTree created
+         * do not have errors.
          */
         RowData rootRow = null;
         try {
-            rootRow = ExpressionTreeToRowData.translate(expressionTree);
+            rootRow = ExpressionTreeToRowData.translateLazily(
+                expressionTree);
         }
         catch (Exception e) {
             e.printStackTrace();
         }
-        return(editExpression(rootRow));
+        return(editExpression(rootRow, profile));
+    }
+
+
+    /**
+     * Show how each row did in the passed in profile.
+     * The profile's rows and our rows are walked in parallel, so
+     * a row of ours is matched with the profile's row in the same
+     * position.  If the trees stop matching, (i.e. the profile is
+     * of a different expression), the rows below that are not
+     * matched.
+     *
+     * Please note, this walks, (and so creates), every row of the
+     * tree before the window is shown, even if the tree was
+     * translated lazily.  That is only done if the caller hands
+     * us a profile.
+     */
+    private void showProfile(RowData rootRow, QueryProfile profile) {
+
+        Map<RowData,RowData> ourRows = new IdentityHashMap<RowData,RowData>();
+        matchRows(rootRow, profile.getRootRow(), ourRows);
+
+        Map<RowData,String> rowProfiles =
+            new IdentityHashMap<RowData,String>();
+        for (Map.Entry<RowData,RowData> entry : ourRows.entrySet()) {
+            rowProfiles.put(entry.getValue(), profile.getRowStatistics(
+                entry.getKey()).toString());
+        }
+
+        List<RowData> hotRows = new ArrayList<RowData>();
+        for (QueryProfile.RowStatistics statistics :
+             profile.getHottestRows(HOT_ROW_COUNT)) {
+            RowData rowData = ourRows.get(statistics.getRowData());
+            if (rowData != null) {
+                hotRows.add(rowData);
+            }
+        }
+
+        expressionPanelScrolling.setRowProfiles(rowProfiles, hotRows);
+    }
+
+
+    /**
+     * Put each of the profile's rows, and the row of ours in the same
+     * position, into ourRows.
+     */
+    private static void matchRows(RowData rowData, RowData profileRow,
+                                  Map<RowData,RowData> ourRows) {
+
+        ourRows.put(profileRow, rowData);
+
+        List<RowData> childRows = rowData.getChildRows();
+        List<RowData> profileChildRows = profileRow.getChildRows();
+        if (childRows.size() == profileChildRows.size()) {
+            for (int index = 0; index < childRows.size(); index++) {
+                matchRows(childRows.get(index), profileChildRows.get(index),
+                          ourRows);
+            }
+        }
     }
 
 
@@ -697,7 +866,9 @@ public class ExpressionBuilder
                  * expression BEFORE the user's latest change.
                  */
                 //System.out.println("Replace tree in stateList.");
-                stateList.set(stateIndex, new RowData(getRootRow()));
+                RowData copy = new RowData(getRootRow());
+                SAVED_STATE_ROWS.update(expressionPanelScrolling.getRowCount());
+                stateList.set(stateIndex, copy);
             }
 
             //System.out.println("Exit possiblySaveState.");
@@ -711,7 +882,9 @@ public class ExpressionBuilder
          * we had saved.
          */
         //System.out.println("Add state to statelist.");
-        stateList.add(new RowData(getRootRow()));
+        RowData copy = new RowData(getRootRow());
+        SAVED_STATE_ROWS.update(expressionPanelScrolling.getRowCount());
+        stateList.add(copy);
         if (stateList.size() > MAX_NUM_STATES_SAVED) {
             stateList.remove(0);
         }
@@ -770,8 +943,19 @@ public class ExpressionBuilder
 
         /**
          * If any rows are illegal, disable the Ok button.
+         *
+         * While the ExpressionPanel is still loading the rows of a
+         * big tree, some of them might not have been created yet,
+         * (see ExpressionTreeToRowData.translateLazily()), and
+         * walking the tree to find the illegal ones would create
+         * them all before the first paint.  So, leave the Ok button
+         * disabled until the rows are loaded.  We are called again
+         * when they are.
          */
-        okButton.setEnabled(getRootRow().getIllegalRows().size() == 0);
+        if (expressionPanelScrolling.isLoadingRows())
+            okButton.setEnabled(false);
+        else
+            okButton.setEnabled(getRootRow().getIllegalRows().size() == 0);
 
         if ((stateIndex > 0) || (stateIndex == stateList.size()-1) &&
             (stateList.size() > 0))
@@ -817,6 +1001,23 @@ public class ExpressionBuilder
 
     private static Logger classLogger = LoggerFactory.getLogger(ExpressionBuilder.class.getCanonicalName());
 
+    /**
+     * Set how many milliseconds the user has to stop typing in a
+     * value or property name text field before what they typed
+     * is copied into the expression tree.  (It is also copied when
+     * the text field loses the focus.)  The default is 300.
+     *
+     * Copying the text changes the tree, and every row above the
+     * edited row handles the change, so copying it on every
+     * keystroke is slow in a big tree.  Pass 0 to do that anyway.
+     *
+     * @param milliseconds The delay in milliseconds.
+     */
+    public static void setValueCommitDelay(int milliseconds) {
+        RowPanel.setCommitDelay(milliseconds);
+    }
+
+
     /**
      * Set the look and feel to something specific.
      * Currently, this is really only to test out some
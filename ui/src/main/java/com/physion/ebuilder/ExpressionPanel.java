@@ -8,7 +8,15 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -19,6 +27,10 @@ import javax.swing.SwingConstants;
 import com.physion.ebuilder.datamodel.RowData;
 import com.physion.ebuilder.datamodel.RowDataEvent;
 import com.physion.ebuilder.datamodel.RowDataListener;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Histogram;
+import com.physion.ebuilder.metrics.Metrics;
+import com.physion.ebuilder.metrics.Timer;
 
 
 /**
@@ -38,6 +50,48 @@ public class ExpressionPanel
 	 */
 	private static final long serialVersionUID = 1L;
 
+    /**
+     * Metrics about createRowPanels().  How long it takes,
+     * how many rows it displays, and how many of the RowPanels
+     * had to be created instead of reused.
+     */
+    private static final Timer CREATE_ROW_PANELS_TIMER =
+        Metrics.timer("ui.createRowPanels");
+    private static final Histogram ROW_PANELS_DISPLAYED =
+        Metrics.histogram("ui.rowPanelsDisplayed");
+    private static final Counter ROW_PANELS_CREATED =
+        Metrics.counter("ui.rowPanelsCreated");
+
+    /**
+     * When we start showing a tree, only the first FIRST_ROWS rows
+     * get RowPanels right away.  That is more rows than fit on any
+     * screen.  The rest of the rows get their RowPanels ROWS_PER_STEP
+     * at a time, (see loadMoreRows()), from rowLoader, which runs on
+     * the event dispatch thread between other events.  So the first
+     * paint of a huge tree does not wait for every RowPanel, and if
+     * the tree was created with
+     * ExpressionTreeToRowData.translateLazily(), it does not wait
+     * for every RowData to be created either.
+     */
+    static final int FIRST_ROWS = 100;
+    static final int ROWS_PER_STEP = 500;
+
+    /**
+     * The number of milliseconds rowLoader waits between steps.
+     * This gives the event dispatch thread time to paint and handle
+     * the user's input between steps.  Please note, a Swing Timer
+     * with a delay of zero keeps its thread busy the whole time,
+     * so do not make this zero.
+     */
+    private static final int ROW_LOADER_DELAY = 10;
+
+    /**
+     * The name of the bound property that tells listeners whether
+     * we are still creating RowPanels for the rows below the first
+     * FIRST_ROWS rows.  (See isLoadingRows().)
+     */
+    public static final String LOADING_ROWS_PROPERTY = "loadingRows";
+
     /**
      * This is the "root" RowData for the tree.  I.e. this is
      * the very first row at the top of this ExpressionPanel
@@ -45,6 +99,24 @@ public class ExpressionPanel
      */
 	private RowData rootRow;
 
+    /**
+     * The text describing how each row did the last time the
+     * query was profiled, and the rows that took the most time.
+     * (See setRowProfiles().)  These are empty unless the
+     * ExpressionBuilder was given a QueryProfile.
+     */
+    private Map<RowData,String> rowProfiles = Collections.emptyMap();
+    private Set<RowData> hotRows = Collections.emptySet();
+
+    /**
+     * The rows that do not have RowPanels yet, or null if every row
+     * has one.  The Iterator is positioned just after the row in
+     * our last RowPanel.  rowLoader is the Swing Timer that calls
+     * loadMoreRows() until there are no pendingRows.
+     */
+    private Iterator<RowData> pendingRows;
+    private javax.swing.Timer rowLoader;
+
 
     /**
      * Create an ExpressionPanel that will display and edit the passed
@@ -67,6 +139,14 @@ public class ExpressionPanel
 
         this.rootRow = rootRow;
         rootRow.addRowDataListener(this);
+
+        /**
+         * None of the RowPanels we have are showing a row in the
+         * new tree, so get rid of them now.  That also tells
+         * createRowPanels() that this is a new tree, so it only
+         * creates the first rows' RowPanels right away.
+         */
+        removeAll();
         createRowPanels();
     }
 
@@ -81,45 +161,136 @@ public class ExpressionPanel
     }
 
 
+    /**
+     * Get the number of rows this ExpressionPanel is showing,
+     * including the root row.  Because the RowPanels are created
+     * again every time the number of rows changes, this is the
+     * number of rows in the tree, without counting them again,
+     * once isLoadingRows() returns false.  While it returns true,
+     * this is the number of rows that have RowPanels so far.
+     */
+    int getRowCount() {
+        return(getComponentCount());
+    }
+
+
+    /**
+     * Returns true if some of the rows below the first FIRST_ROWS
+     * rows do not have RowPanels yet.  They will get them soon.
+     * A PropertyChangeEvent for LOADING_ROWS_PROPERTY is fired
+     * when this changes.
+     *
+     * Until this returns false, rows near the bottom of the tree
+     * might not have been created yet, so the caller cannot tell
+     * whether the whole tree is legal without walking it, (see
+     * RowData.getIllegalRows()), which is what we are trying to
+     * avoid doing up front.
+     */
+    public boolean isLoadingRows() {
+        return(pendingRows != null);
+    }
+
+
+    /**
+     * Set the text describing how each row did the last time the
+     * query was profiled, (see QueryProfile), and which rows took
+     * the most time.  The RowPanels show the text as their tool
+     * tips and mark the hot rows.  Rows that are not in the map,
+     * (e.g. rows the user has added since), show nothing.
+     */
+    void setRowProfiles(Map<RowData,String> rowProfiles,
+                        Collection<RowData> hotRows) {
+
+        this.rowProfiles = new IdentityHashMap<RowData,String>(rowProfiles);
+        this.hotRows = Collections.newSetFromMap(
+            new IdentityHashMap<RowData,Boolean>());
+        this.hotRows.addAll(hotRows);
+
+        for (Component component : getComponents()) {
+            RowData rowData = ((RowPanel)component).getRowData();
+            ((RowPanel)component).setProfile(this.rowProfiles.get(rowData),
+                this.hotRows.contains(rowData));
+        }
+    }
+
+
     /**
      * Create all the RowPanels this ExpressionPanel contains.
      * Please note, we try to reuse any already existing RowPanels
      * that we can.
+     *
+     * If we are showing a new tree, or have not finished creating
+     * the RowPanels for the tree we are showing, (see
+     * isLoadingRows()), only the first rows get RowPanels now,
+     * and the rest get them later.  Otherwise, every row gets
+     * its RowPanel now, the way it always has.
      */
     public void createRowPanels() {
 
+        Timer.Context timerContext = CREATE_ROW_PANELS_TIMER.start();
+        try {
+            createRowPanelsProtected();
+        }
+        finally {
+            timerContext.stop();
+        }
+    }
+
+
+    /**
+     * This does the real work for createRowPanels().
+     * The only reason it is a separate method is so
+     * createRowPanels() can time it.
+     */
+    private void createRowPanelsProtected() {
+
+        /**
+         * Decide how many rows get RowPanels now.  If we have no
+         * RowPanels, this is a new tree, so only the first
+         * FIRST_ROWS rows do.  If we were still loading the rows
+         * when the tree changed, keep at least as many as we
+         * already had, so the rows the user is looking at do not
+         * go away.
+         */
+        int rowLimit;
+        if ((getComponentCount() == 0) || isLoadingRows())
+            rowLimit = Math.max(FIRST_ROWS, getComponentCount());
+        else
+            rowLimit = Integer.MAX_VALUE;
+
+        /**
+         * Remember which RowPanel is displaying each RowData
+         * so we can reuse as many of them as we can without
+         * searching all our components for each row.
+         */
+        Map<RowData,RowPanel> existingRowPanels =
+            new IdentityHashMap<RowData,RowPanel>();
+        for (Component component : getComponents()) {
+            existingRowPanels.put(((RowPanel)component).getRowData(),
+                                  (RowPanel)component);
+        }
+
         /**
-         * Go through the list of RowData objects that we want
-         * to display and see how many RowPanels this
-         * ExpressionPanel already contains that are displaying
-         * these RowData objects.
-         * We will reuse as many of these RowPanels that we can
-         * by creating an array "rowPanels" that contains as
-         * many of the already existing RowPanels that we can
-         * reuse.
+         * Go through the RowData objects that we want to display,
+         * in order, and create an array "rowPanels" that contains
+         * as many of the already existing RowPanels that we can
+         * reuse.  The Iterator only creates the rows it reaches,
+         * (if the tree was created lazily), so stop at rowLimit
+         * and leave the rest of the rows to loadMoreRows().
          */
+        Iterator<RowData> rows = rootRow.getRowIterator();
         ArrayList<RowPanel> rowPanels = new ArrayList<RowPanel>();
-        for (RowData rowData : rootRow.getRows()) {
+        while (rows.hasNext() && (rowPanels.size() < rowLimit)) {
 
-            /**
-             * Get the RowPanel that is currently displaying the
-             * rowData we want to display.
-             */
-            RowPanel rowPanel = getRowPanel(rowData);
+            RowData rowData = rows.next();
+            RowPanel rowPanel = existingRowPanels.get(rowData);
             if (rowPanel == null) {
                 /**
                  * This ExpressionPanel does NOT already have
                  * a RowPanel displaying this rowData, so create
                  * a new RowPanel for this rowData.
                  */
-                rowPanel = new RowPanel(rowData);
-            }
-            else {
-                /**
-                 * This ExpressionPanel already has a RowPanel
-                 * that is displaying this rowData so we can
-                 * just reuse it.
-                 */
+                rowPanel = createRowPanel(rowData);
             }
 
             rowPanels.add(rowPanel);
@@ -137,9 +308,11 @@ public class ExpressionPanel
          */
 
         removeAll();
+        if (!rows.hasNext())
+            ROW_PANELS_DISPLAYED.update(rowPanels.size());
 
         GridLayout layout = (GridLayout)getLayout();
-        layout.setRows(rootRow.getDescendentCount()+1);
+        layout.setRows(rowPanels.size());
 
         //int zebraCount = 0;
         for (RowPanel rowPanel : rowPanels) {
@@ -170,6 +343,92 @@ public class ExpressionPanel
          */
         if (Util.getScrollPane(this) != null)
             Util.getScrollPane(this).validate();
+
+        setPendingRows(rows.hasNext() ? rows : null);
+    }
+
+
+    /**
+     * Create a new RowPanel to display the passed in rowData,
+     * showing its profile, if we have one.
+     */
+    private RowPanel createRowPanel(RowData rowData) {
+
+        RowPanel rowPanel = new RowPanel(rowData);
+        ROW_PANELS_CREATED.increment();
+        if (rowProfiles.containsKey(rowData)) {
+            rowPanel.setProfile(rowProfiles.get(rowData),
+                                hotRows.contains(rowData));
+        }
+        return(rowPanel);
+    }
+
+
+    /**
+     * Give the next ROWS_PER_STEP rows that do not have RowPanels
+     * yet their RowPanels.  rowLoader calls this until every row
+     * has one.  It does nothing if every row already has one.
+     *
+     * This is package private so tests can load the rows without
+     * waiting for rowLoader.
+     */
+    void loadMoreRows() {
+
+        if (pendingRows == null)
+            return;
+
+        Timer.Context timerContext = CREATE_ROW_PANELS_TIMER.start();
+        try {
+            for (int count = 0;
+                 (count < ROWS_PER_STEP) && pendingRows.hasNext();
+                 count++) {
+                add(createRowPanel(pendingRows.next()));
+            }
+
+            ((GridLayout)getLayout()).setRows(getComponentCount());
+            revalidate();
+            repaint();
+
+            if (!pendingRows.hasNext()) {
+                ROW_PANELS_DISPLAYED.update(getComponentCount());
+                setPendingRows(null);
+            }
+        }
+        finally {
+            timerContext.stop();
+        }
+    }
+
+
+    /**
+     * Set the rows that still need RowPanels, and start or stop
+     * rowLoader to match.  Pass null if every row has a RowPanel.
+     * This fires a PropertyChangeEvent for LOADING_ROWS_PROPERTY
+     * if that changes isLoadingRows().
+     */
+    private void setPendingRows(Iterator<RowData> rows) {
+
+        boolean wasLoading = isLoadingRows();
+        pendingRows = rows;
+
+        if (rows != null) {
+            if (rowLoader == null) {
+                rowLoader = new javax.swing.Timer(ROW_LOADER_DELAY,
+                    new ActionListener() {
+                        @Override
+                        public void actionPerformed(ActionEvent e) {
+                            loadMoreRows();
+                        }
+                    });
+            }
+            rowLoader.start();
+        }
+        else if (rowLoader != null) {
+            rowLoader.stop();
+        }
+
+        firePropertyChange(LOADING_ROWS_PROPERTY, wasLoading,
+                           isLoadingRows());
     }
 
 
@@ -188,20 +447,50 @@ public class ExpressionPanel
     */
 
 
+    /**
+     * Commit any text the user has typed into a RowPanel's text
+     * field that has not been copied into its RowData yet.
+     * See RowPanel.commitPendingEdit().
+     */
+    public void commitPendingEdits() {
+
+        for (Component component : getComponents()) {
+            ((RowPanel)component).commitPendingEdit();
+        }
+    }
+
+
     /**
      * This method returns the RowPanel that is displaying/editing
      * the passed in rowData.  Returns null if no RowPanel in this
      * ExpressionPanel is handling the passed in rowData.
+     * (E.g. because isLoadingRows() and the rowData has not been
+     * given its RowPanel yet.)
      */
     private RowPanel getRowPanel(RowData rowData) {
 
-        for (Component component : getComponents()) {
-            if (((RowPanel)component).getRowData() == rowData) {
-                return((RowPanel)component);
+        int index = getRowPanelIndex(rowData);
+        return((index < 0) ? null : (RowPanel)getComponent(index));
+    }
+
+
+    /**
+     * Get the index of the RowPanel that is displaying/editing the
+     * passed in rowData.  The RowPanels are in the same order as
+     * RowData.getRows() returns the rows, so this is the same as
+     * rootRow.getIndex(rowData), except that it returns -1 for
+     * rows that do not have RowPanels yet.  And it does not need
+     * to walk, (and so create), the whole tree.
+     */
+    private int getRowPanelIndex(RowData rowData) {
+
+        for (int index = 0; index < getComponentCount(); index++) {
+            if (((RowPanel)getComponent(index)).getRowData() == rowData) {
+                return(index);
             }
         }
 
-        return(null);
+        return(-1);
     }
 
 
@@ -233,7 +522,7 @@ public class ExpressionPanel
              * (Seems to be the best place to set the focus
              * to after deleting the row that had the focus.)
              */
-            deletedRowIndex = rootRow.getIndex(event.getChildRowData());
+            deletedRowIndex = getRowPanelIndex(event.getChildRowData());
         }
 
         if ((event.getTiming() == RowDataEvent.TIMING_AFTER) &&
@@ -250,6 +539,17 @@ public class ExpressionPanel
              */
             createRowPanels();
         }
+        else if ((event.getTiming() == RowDataEvent.TIMING_AFTER) &&
+                 isLoadingRows()) {
+            /**
+             * Other changes can replace a row's children too, (e.g.
+             * changing a row's attribute path), and pendingRows must
+             * not walk a tree that has changed under it.  So, while
+             * we are still loading, start it again from the rows we
+             * have.  This reuses all our RowPanels.
+             */
+            createRowPanels();
+        }
 
         /**
          * Set the focus appropriately.  For example, if we created
@@ -280,9 +580,12 @@ public class ExpressionPanel
                  * and set the focus to it.
                  */
                 RowPanel rowPanel = getRowPanel(rowData);
-                rowPanel.setFocusToFirstFocusableComponent();
+                if (rowPanel != null)
+                    rowPanel.setFocusToFirstFocusableComponent();
             }
-            else if (event.getChangeType() == RowDataEvent.TYPE_CHILD_DELETE) {
+            else if ((event.getChangeType() ==
+                      RowDataEvent.TYPE_CHILD_DELETE) &&
+                     (deletedRowIndex >= 0)) {
 
                 /**
                  * Set the focus to the row below the row that was just
@@ -294,9 +597,10 @@ public class ExpressionPanel
                 /**
                  * If the user deleted the bottom row, then we need
                  * to set the focus to the new bottom row.
+                 * (Or the bottom row that has a RowPanel so far.)
                  */
-                if (indexOfRowToGetFocus > rootRow.getDescendentCount())
-                    indexOfRowToGetFocus = rootRow.getDescendentCount();
+                if (indexOfRowToGetFocus > getComponentCount()-1)
+                    indexOfRowToGetFocus = getComponentCount()-1;
 
                 /**
                  * At this point we know which row we want to set the
@@ -310,8 +614,8 @@ public class ExpressionPanel
                     rowPanel.setFocusToCreateAttributeRowButton();
                 }
                 else {
-                    RowPanel rowPanel = getRowPanel(rootRow.getChild(
-                        indexOfRowToGetFocus));
+                    RowPanel rowPanel =
+                        (RowPanel)getComponent(indexOfRowToGetFocus);
                     rowPanel.setFocusToDeleteButton();
                 }
             }
@@ -7,6 +7,9 @@ package com.physion.ebuilder;
 import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
+import java.beans.PropertyChangeListener;
+import java.util.Collection;
+import java.util.Map;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
@@ -76,6 +79,49 @@ public class ExpressionPanelScrolling
     }
 
 
+    /**
+     * See ExpressionPanel.getRowCount().
+     */
+    int getRowCount() {
+        return(expressionPanel.getRowCount());
+    }
+
+
+    /**
+     * See ExpressionPanel.isLoadingRows().
+     */
+    public boolean isLoadingRows() {
+        return(expressionPanel.isLoadingRows());
+    }
+
+
+    /**
+     * Add a listener that is told when isLoadingRows() changes.
+     * See ExpressionPanel.LOADING_ROWS_PROPERTY.
+     */
+    void addLoadingRowsListener(PropertyChangeListener listener) {
+        expressionPanel.addPropertyChangeListener(
+            ExpressionPanel.LOADING_ROWS_PROPERTY, listener);
+    }
+
+
+    /**
+     * See ExpressionPanel.setRowProfiles().
+     */
+    void setRowProfiles(Map<RowData,String> rowProfiles,
+                        Collection<RowData> hotRows) {
+        expressionPanel.setRowProfiles(rowProfiles, hotRows);
+    }
+
+
+    /**
+     * See ExpressionPanel.commitPendingEdits().
+     */
+    public void commitPendingEdits() {
+        expressionPanel.commitPendingEdits();
+    }
+
+
     /**
      * Print out the current tree we contain.
      * This is just for testing/demo purposes.
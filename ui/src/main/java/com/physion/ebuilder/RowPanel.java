@@ -5,10 +5,13 @@
 package com.physion.ebuilder;
 
 import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.Float64Syntax;
 import com.physion.ebuilder.datamodel.RowData;
 import com.physion.ebuilder.datamodel.RowDataEvent;
 import com.physion.ebuilder.datamodel.RowDataListener;
 import com.physion.ebuilder.datatypes.*;
+import com.physion.ebuilder.metrics.Counter;
+import com.physion.ebuilder.metrics.Metrics;
 import org.jdesktop.swingx.DateTimePicker;
 import org.jdesktop.swingx.JXDatePicker;
 import org.joda.time.DateTime;
@@ -20,10 +23,14 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.DateFormat;
@@ -36,9 +43,25 @@ import java.util.TimeZone;
  * This class creates all the widgets that are used to display and
  * edit one row.
  *
- * We create all the widgets we will need in our constructor, and
+ * We create the cheap widgets we will need in our constructor, and
  * thereafter we simply add or remove them from the JPanel based on
- * the RowData value for that row.
+ * the RowData value for that row.  The expensive widgets, (the
+ * DateTimePicker and the JSpinners), are only created the first time
+ * a row actually needs to display one of them.  Most rows never do.
+ *
+ * The comboBoxes use SharedComboBoxModel, so the lists of Attributes
+ * and Operators they display are shared by all the rows instead of
+ * every row having its own copy.
+ *
+ * What the user types into a text field is not copied into the
+ * RowData on every keystroke.  Doing that fires a pair of events
+ * that every ancestor row, and the ExpressionBuilder, handle.
+ * Instead, the text is committed once the user has stopped typing
+ * for a moment, (see setCommitDelay()), or the text field loses
+ * the focus.  Until then, we only check the syntax of the text,
+ * (e.g. that a float value looks like a number), so the row still
+ * changes color as soon as the user types something illegal.
+ * See textFieldChanged().
  *
  * Please note that I haved added the line:
  *
@@ -47,15 +70,11 @@ import java.util.TimeZone;
  * in order to stop IDEs complaining about the fact that I have
  * not specified a type for the items that are in a JComboBox or
  * its ComboBoxModel.
- *
- * TODO:  Possibly change code so the assorted "special" comboBoxes and
- * spinners are created lazily.  Not sure if that would actually save
- * much time.
  */
 class RowPanel
     extends JPanel
     implements ActionListener, DocumentListener, ChangeListener,
-        RowDataListener {
+        FocusListener, RowDataListener {
 
 	/**
 	 * We never serialize this class, so this declaration is
@@ -87,6 +106,28 @@ class RowPanel
     private static final int INSET = 7;
     private static final Insets LEFT_INSETS = new Insets(0,INSET,0,0);
 
+    /**
+     * The default number of milliseconds the user has to stop
+     * typing before what they typed is committed to the RowData.
+     */
+    static final int DEFAULT_COMMIT_DELAY = 300;
+
+    /**
+     * How many text field edits were committed to a RowData,
+     * and how many keystrokes, (document changes), there were.
+     * The difference is the number of RowData changes, (and
+     * event cascades), we avoided.
+     */
+    private static final Counter EDITS_COMMITTED =
+        Metrics.counter("ui.textEditsCommitted");
+    private static final Counter TEXT_CHANGES =
+        Metrics.counter("ui.textChanges");
+
+    /**
+     * See setCommitDelay().
+     */
+    private static volatile int commitDelay = DEFAULT_COMMIT_DELAY;
+
     /**
      * We set the background color of a RowPanel to this color.
      * When it contains an illegal value, we make the panel "opaque"
@@ -107,6 +148,14 @@ class RowPanel
         //new Color(204, 143, 204);  // med purple
         //new Color(186, 222, 222);  // light blue
 
+    /**
+     * The color of the stripe down the left side of a row that
+     * a QueryProfile says is one of the slowest rows in the query.
+     * (See setProfile().)
+     */
+    private static final Color HOT_ROW_COLOR = new Color(224, 96, 64);
+    private static final int HOT_ROW_STRIPE_WIDTH = 4;
+
     private InvisibleButton deleteRowButton;
     private InvisibleButton createCompoundRowButton;
     private InvisibleButton createAttributeRowButton;
@@ -141,6 +190,8 @@ class RowPanel
      * Short values passed to the constructor, the values
      * that a JSpinner returns are of type "Number".  I.e.
      * we are not going to get back Short values from it.
+     *
+     * This is created lazily.  Use getValueSpinnerInt16().
      */
     private JSpinner valueSpinnerInt16;
 
@@ -148,12 +199,16 @@ class RowPanel
      * This spinner is used to enter the value of a "primitive"
      * attribute that is an INT_32.  It is also used for other
      * integer values in a row.
+     *
+     * This is created lazily.  Use getValueSpinnerInt32().
      */
     private JSpinner valueSpinnerInt32;
 
     /**
      * This spinner is used to enter a Count value.
      * It only holds numbers >= 0.
+     *
+     * This is created lazily.  Use getCountSpinnerInt32().
      */
     private JSpinner countSpinnerInt32;
 
@@ -201,6 +256,8 @@ class RowPanel
     /**
      * This is the widget that is displayed to let a user select
      * a date and time.
+     *
+     * This is created lazily.  Use getDateTimePicker().
      */
     private DateTimePicker dateTimePicker;
 
@@ -265,6 +322,51 @@ class RowPanel
      */
     private boolean someWidgetFillingEmptySpace;
 
+    /**
+     * The components this RowPanel contains, (in order), and the
+     * constraints they were added with.  Only the first
+     * appliedLayoutSize LayoutSlots are used.  See finishLayout().
+     */
+    private ArrayList<LayoutSlot> appliedLayout = new ArrayList<LayoutSlot>();
+    private int appliedLayoutSize;
+
+    /**
+     * The components the layout code wants this RowPanel to contain.
+     * The layout code fills this in using place().  The LayoutSlot
+     * objects in both lists are reused every time we lay out the row.
+     */
+    private ArrayList<LayoutSlot> newLayout = new ArrayList<LayoutSlot>();
+    private int newLayoutSize;
+
+    /**
+     * The layout code sets the values in this, (see nextConstraints()),
+     * instead of creating new GridBagConstraints for every component
+     * every time the row is laid out.  GridBagLayout copies the
+     * constraints a component is added with, so reusing it is safe.
+     */
+    private final GridBagConstraints constraints = new GridBagConstraints();
+    private static final Insets NO_INSETS = new Insets(0,0,0,0);
+
+    /**
+     * The Document of the text field whose text has changed, but
+     * has not been committed to the rowData yet.  null if there
+     * is no such text.  See textFieldChanged().
+     */
+    private Document pendingDocument;
+
+    /**
+     * This fires when the user has stopped typing for commitDelay
+     * milliseconds.  It is created the first time the user types
+     * into one of our text fields.
+     */
+    private javax.swing.Timer commitTimer;
+
+    /**
+     * This is reused to read the text of a Document without
+     * copying it.  See isLegalText().
+     */
+    private final Segment segment = new Segment();
+
 
     /**
      * Create whatever components this renderer will need.
@@ -313,33 +415,9 @@ class RowPanel
         valueTextField = new JTextField();
         valueTextField.setColumns(MIN_TEXT_COLUMNS);
         valueTextField.getDocument().addDocumentListener(this);
+        valueTextField.addFocusListener(this);
         Util.setupAutoScrolling(valueTextField);
 
-        valueSpinnerInt16 = new JSpinner(new SpinnerNumberModel(
-            0, Short.MIN_VALUE, Short.MAX_VALUE, 1));
-        valueSpinnerInt16.addChangeListener(this);
-        ((JSpinner.NumberEditor)valueSpinnerInt16.getEditor()).getTextField().
-            setColumns(MIN_SPINNER_COLUMNS);
-        Util.setupAutoScrolling(valueSpinnerInt16);
-
-        valueSpinnerInt32 = new JSpinner(new SpinnerNumberModel(
-            0, Integer.MIN_VALUE, Integer.MAX_VALUE, 1));
-        valueSpinnerInt32.addChangeListener(this);
-        ((JSpinner.NumberEditor)valueSpinnerInt32.getEditor()).getTextField().
-            setColumns(MIN_SPINNER_COLUMNS);
-        Util.setupAutoScrolling(valueSpinnerInt32);
-
-        /**
-         * This spinner is used when we are setting the Count for
-         * an attribute that has a to-many relationship.
-         */
-        countSpinnerInt32 = new JSpinner(new SpinnerNumberModel(
-            0, 0, Integer.MAX_VALUE, 1));
-        countSpinnerInt32.addChangeListener(this);
-        ((JSpinner.NumberEditor)countSpinnerInt32.getEditor()).getTextField().
-            setColumns(MIN_SPINNER_COLUMNS);
-        Util.setupAutoScrolling(countSpinnerInt32);
-
         /**
          * This text field is used to display/edit the name of
          * a "keyed" property.
@@ -347,25 +425,10 @@ class RowPanel
         propNameTextField = new JTextField();
         propNameTextField.setColumns(MIN_TEXT_COLUMNS);
         propNameTextField.getDocument().addDocumentListener(this);
+        propNameTextField.addFocusListener(this);
         Util.setupAutoScrolling(propNameTextField);
 
-        dateTimePicker = new DateTimePicker();
-        dateTimePicker.setTimeZone(TimeZone.getTimeZone("UTC"));
-        dateTimePicker.setFormats(
-                new DateFormat[]{DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM),
-                        DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)}
-        );
-        dateTimePicker.setTimeFormat(DateFormat.getTimeInstance(DateFormat.MEDIUM));
-        dateTimePicker.addActionListener(this);
-        dateTimePicker.addPropertyChangeListener(new PropertyChangeListener() {
-            @Override
-            public void propertyChange(PropertyChangeEvent propertyChangeEvent) {
-                if("date".equals(propertyChangeEvent.getPropertyName())) {
-                    dateTimeChanged();
-                }
-            }
-        });
-        Util.setupAutoScrolling(dateTimePicker);
+        segment.setPartialReturn(true);
 
         /**
          * Create the comboBox used to choose the type of a "keyed"
@@ -377,7 +440,7 @@ class RowPanel
          * The model, (i.e. the selectable items), for this comboBox
          * never changes, so we can set the value of the model now.
          */
-        propTypeComboBox = createComboBox(new DefaultComboBoxModel(
+        propTypeComboBox = createComboBox(SharedComboBoxModel.forItems(
             DataModel.PROP_TYPES));
 
         /**
@@ -393,15 +456,15 @@ class RowPanel
          * Create the first collection operator comboBox.
          * It can contain Any, All, None, Count.
          */
-        collectionOperatorComboBox = createComboBox(new DefaultComboBoxModel(
-            CollectionOperator.values()));
+        collectionOperatorComboBox = createComboBox(
+            SharedComboBoxModel.forCollectionOperators());
 
         /**
          * Create the second collection operator comboBox.
          * It can only contain Any, All, None, but not Count.
          */
-        collectionOperator2ComboBox = createComboBox(new DefaultComboBoxModel(
-            CollectionOperator.getCompoundCollectionOperators()));
+        collectionOperator2ComboBox = createComboBox(
+            SharedComboBoxModel.forCompoundCollectionOperators());
 
         buttonPanel = new JPanel(new GridBagLayout());
         buttonPanel.setOpaque(false);
@@ -451,6 +514,99 @@ class RowPanel
     }
 
 
+    /**
+     * Get the spinner used to enter an INT_16 value.
+     * Create it if it does not already exist.
+     */
+    private JSpinner getValueSpinnerInt16() {
+
+        if (valueSpinnerInt16 == null) {
+            valueSpinnerInt16 = createSpinner(new SpinnerNumberModel(
+                0, Short.MIN_VALUE, Short.MAX_VALUE, 1));
+        }
+        return(valueSpinnerInt16);
+    }
+
+
+    /**
+     * Get the spinner used to enter an INT_32 value.
+     * Create it if it does not already exist.
+     */
+    private JSpinner getValueSpinnerInt32() {
+
+        if (valueSpinnerInt32 == null) {
+            valueSpinnerInt32 = createSpinner(new SpinnerNumberModel(
+                0, Integer.MIN_VALUE, Integer.MAX_VALUE, 1));
+        }
+        return(valueSpinnerInt32);
+    }
+
+
+    /**
+     * Get the spinner used when we are setting the Count for
+     * an attribute that has a to-many relationship.
+     * Create it if it does not already exist.
+     */
+    private JSpinner getCountSpinnerInt32() {
+
+        if (countSpinnerInt32 == null) {
+            countSpinnerInt32 = createSpinner(new SpinnerNumberModel(
+                0, 0, Integer.MAX_VALUE, 1));
+        }
+        return(countSpinnerInt32);
+    }
+
+
+    /**
+     * Create a JSpinner that uses the passed in model and
+     * that notifies this RowPanel when its value changes.
+     */
+    private JSpinner createSpinner(SpinnerNumberModel model) {
+
+        JSpinner spinner = new JSpinner(model);
+        spinner.addChangeListener(this);
+        ((JSpinner.NumberEditor)spinner.getEditor()).getTextField().
+            setColumns(MIN_SPINNER_COLUMNS);
+        Util.setupAutoScrolling(spinner);
+        return(spinner);
+    }
+
+
+    /**
+     * Get the widget used to select a date and time.
+     * Create it if it does not already exist.
+     *
+     * This is by far the most expensive widget a row can
+     * contain, and only rows that end in a DATE_TIME value
+     * ever display it, so we wait until we need it.
+     */
+    private DateTimePicker getDateTimePicker() {
+
+        if (dateTimePicker != null) {
+            return(dateTimePicker);
+        }
+
+        dateTimePicker = new DateTimePicker();
+        dateTimePicker.setTimeZone(TimeZone.getTimeZone("UTC"));
+        dateTimePicker.setFormats(
+                new DateFormat[]{DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM),
+                        DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)}
+        );
+        dateTimePicker.setTimeFormat(DateFormat.getTimeInstance(DateFormat.MEDIUM));
+        dateTimePicker.addActionListener(this);
+        dateTimePicker.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent propertyChangeEvent) {
+                if("date".equals(propertyChangeEvent.getPropertyName())) {
+                    dateTimeChanged();
+                }
+            }
+        });
+        Util.setupAutoScrolling(dateTimePicker);
+        return(dateTimePicker);
+    }
+
+
     /**
      * Create a JComboBox that uses the passed in model.
      * Pass null if you just want a default model that you
@@ -528,13 +684,11 @@ class RowPanel
             getFocusOwner();
 
         /**
-         * Now remove ALL the components that are in this RowPanel.
-         */
-        removeAll();
-
-        /**
-         * Add back in the components that are needed to
+         * Describe the components that are needed to
          * display and edit our current rowData value.
+         * Nothing is added to, or removed from, this RowPanel
+         * until finishLayout() compares this description with
+         * the components we already contain.
          *
          * Start our "gridx" counter that is incremented every time
          * we add another widget to this row.  This counter is always
@@ -545,6 +699,7 @@ class RowPanel
          * widget.
          */
         gridx = 0;
+        newLayoutSize = 0;
 
         /**
          * If a row is filled with widgets that do
@@ -558,9 +713,9 @@ class RowPanel
          */
         someWidgetFillingEmptySpace = false;
 
-        gc = new GridBagConstraints();
+        gc = nextConstraints();
         gc.gridx = gridx++;
-        add(indentWidget, gc);
+        place(indentWidget, gc);
         if (rowData != null) {
             indentWidget.setText(rowData.getIndentString());
         } else {
@@ -597,6 +752,11 @@ class RowPanel
          */
         layoutButtons();
 
+        /**
+         * Now actually change the components this RowPanel contains.
+         */
+        finishLayout();
+
         /**
          * Set the color of the row based on whether it
          * currently contains legal values.
@@ -624,6 +784,141 @@ class RowPanel
     }
 
 
+    /**
+     * Get the GridBagConstraints the layout code should use for the
+     * next component it places.  All the values the layout code
+     * sets are reset to the GridBagConstraints defaults.
+     */
+    private GridBagConstraints nextConstraints() {
+
+        constraints.gridx = GridBagConstraints.RELATIVE;
+        constraints.weightx = 0;
+        constraints.fill = GridBagConstraints.NONE;
+        constraints.anchor = GridBagConstraints.CENTER;
+        constraints.insets = NO_INSETS;
+        return(constraints);
+    }
+
+
+    /**
+     * Say that the passed in component is the next (from left to
+     * right) component in this row, and it should be laid out
+     * using the passed in constraints.  This does not add the
+     * component.  finishLayout() does that, if it needs to.
+     */
+    private void place(Component component, GridBagConstraints gc) {
+
+        LayoutSlot slot;
+        if (newLayoutSize < newLayout.size()) {
+            slot = newLayout.get(newLayoutSize);
+        }
+        else {
+            slot = new LayoutSlot();
+            newLayout.add(slot);
+        }
+        newLayoutSize++;
+
+        slot.set(component, gc);
+    }
+
+
+    /**
+     * Make the components this RowPanel contains be the ones the
+     * layout code placed.
+     *
+     * The components at the start of the row that are the same,
+     * with the same constraints, as last time are left alone.
+     * Only the components after the first difference are removed
+     * and added.  For example, if the user selects a different
+     * attribute in the third comboBox of a long attribute path,
+     * the indent, the first two comboBoxes, and their listeners,
+     * models, and sizes are untouched.
+     */
+    private void finishLayout() {
+
+        int first = 0;
+        while ((first < newLayoutSize) && (first < appliedLayoutSize) &&
+               newLayout.get(first).isSameAs(appliedLayout.get(first))) {
+            first++;
+        }
+
+        if ((first == newLayoutSize) && (first == appliedLayoutSize)) {
+            /**
+             * Nothing changed.
+             */
+            return;
+        }
+
+        for (int index = appliedLayoutSize-1; index >= first; index--) {
+            remove(index);
+        }
+
+        for (int index = first; index < newLayoutSize; index++) {
+            LayoutSlot slot = newLayout.get(index);
+            add(slot.component, slot.copyTo(nextConstraints()));
+        }
+
+        /**
+         * What we placed is now what we contain.  Swap the lists
+         * so we can reuse the LayoutSlots next time.
+         */
+        ArrayList<LayoutSlot> temp = appliedLayout;
+        appliedLayout = newLayout;
+        newLayout = temp;
+        appliedLayoutSize = newLayoutSize;
+
+        revalidate();
+    }
+
+
+    /**
+     * One component in this row, and the values of the
+     * GridBagConstraints the layout code uses.
+     */
+    private static class LayoutSlot {
+
+        private Component component;
+        private int gridx;
+        private double weightx;
+        private int fill;
+        private int anchor;
+        private Insets insets;
+
+
+        void set(Component component, GridBagConstraints gc) {
+
+            this.component = component;
+            gridx = gc.gridx;
+            weightx = gc.weightx;
+            fill = gc.fill;
+            anchor = gc.anchor;
+            insets = gc.insets;
+        }
+
+
+        GridBagConstraints copyTo(GridBagConstraints gc) {
+
+            gc.gridx = gridx;
+            gc.weightx = weightx;
+            gc.fill = fill;
+            gc.anchor = anchor;
+            gc.insets = insets;
+            return(gc);
+        }
+
+
+        boolean isSameAs(LayoutSlot other) {
+
+            return((component == other.component) &&
+                   (gridx == other.gridx) &&
+                   (weightx == other.weightx) &&
+                   (fill == other.fill) &&
+                   (anchor == other.anchor) &&
+                   insets.equals(other.insets));
+        }
+    }
+
+
     /**
      * Set the model for the passed in comboBox to be the attributes
      * of the passed in classDescription.
@@ -632,6 +927,10 @@ class RowPanel
      * Attribute.SELECT_ATTRIBUTE attribute, and we will append
      * the special Attribute.IS_NULL and Attribute.IS_NOT_NULL.
      *
+     * The list of Attributes is shared with every other comboBox
+     * that displays the same ClassDescription.
+     * See SharedComboBoxModel.
+     *
      * @param comboBox The JComboBox whose model and selectedItem
      * we will set.
      *
@@ -653,43 +952,9 @@ class RowPanel
                                   boolean appendNulls,
                                   Object selectedItem) {
 
-        ArrayList<Attribute> attributes;
-        if ((classDescription != null) &&
-            (classDescription.getAllAttributes() != null)) {
-            attributes = classDescription.getAllAttributes();
-        }
-        else {
-            attributes = new ArrayList<Attribute>();
-        }
-
-        ArrayList<Attribute> copy = new ArrayList<Attribute>();
-
-        /**
-         * First, prepend the special "Select Attribute" attribute.
-         */
-        copy.add(Attribute.SELECT_ATTRIBUTE);
-
-        /**
-         * Go through the list of attributes adding them to our
-         * copy of the ArrayList.
-         */
-        for (Attribute attribute : attributes) {
-            copy.add(attribute);
-        }
-
-        if (appendNulls) {
-            copy.add(Attribute.IS_NULL);
-            copy.add(Attribute.IS_NOT_NULL);
-        }
-
-        /**
-         * All the work with the list of Attributes is
-         * finished, so create a DefaultComboBoxModel out of the list
-         * Attributes and install it in the comboBox.
-         */
-        Attribute[] values;
-        values = copy.toArray(new Attribute[0]);
-        setComboBoxModel(comboBox, values, selectedItem);
+        setComboBoxModel(comboBox,
+            SharedComboBoxModel.forAttributes(classDescription, appendNulls),
+            selectedItem);
     }
 
 
@@ -699,17 +964,25 @@ class RowPanel
      * set the selected item.
      */
     @SuppressWarnings("unchecked")
-	private void setComboBoxModel(JComboBox comboBox, Object[] items,
+	private void setComboBoxModel(JComboBox comboBox,
+                                  SharedComboBoxModel model,
                                   Object selectedItem) {
 
-        DefaultComboBoxModel model = new DefaultComboBoxModel(items);
-        comboBox.setModel(model);
-        if (selectedItem != null) {
+        boolean modelChanged = setModelIfChanged(comboBox, model);
+        if ((selectedItem != null) &&
+            !selectedItem.equals(comboBox.getSelectedItem())) {
             comboBox.setSelectedItem(selectedItem);
         }
+        else if (!modelChanged) {
+            /**
+             * Same list, same selection, so we already
+             * checked the selection last time.
+             */
+            return;
+        }
 
-        if (((DefaultComboBoxModel)(comboBox.getModel())).
-            getIndexOf(selectedItem) < 0) {
+        model = (SharedComboBoxModel)comboBox.getModel();
+        if (model.getIndexOf(selectedItem) < 0) {
 
             String s = "Desired selectedItem not found in "+
                 "list.\nselectedItem = "+selectedItem;
@@ -717,7 +990,8 @@ class RowPanel
                 s += " ("+((Attribute)selectedItem).toStringDebug()+")";
             }
             s += "\nItems in list:";
-            for (Object item : items) {
+            for (int index = 0; index < model.getSize(); index++) {
+                Object item = model.getElementAt(index);
                 s += "\n  "+item;
                 if (item instanceof Attribute) {
                     s += " ("+((Attribute)item).toStringDebug()+")";
@@ -769,7 +1043,8 @@ class RowPanel
     /**
      * This method is called when the user clicks on a +,++,- button
      * on the right side of a row, or when the user sets a time/date
-     * value using the dateTimePicker.
+     * value using the dateTimePicker.  It is also called when the
+     * commitTimer fires.
      */
     @SuppressWarnings("unchecked")
 	@Override
@@ -778,7 +1053,20 @@ class RowPanel
         //System.out.println("Enter actionPerformed on: "+
         //                   e.getSource().getClass());
 
-        if (e.getSource() == createCompoundRowButton) {
+        /**
+         * Whatever the user does next should see what they
+         * typed into a text field, so commit it first.
+         */
+        if (!inProcess) {
+            commitPendingEdit();
+        }
+
+        if (e.getSource() == commitTimer) {
+            /**
+             * Nothing else to do.  The commit happened above.
+             */
+        }
+        else if (e.getSource() == createCompoundRowButton) {
             rowData.createCompoundRow();
         }
         else if (e.getSource() == createAttributeRowButton) {
@@ -814,9 +1102,9 @@ class RowPanel
             return;
         }
 
-        Date date = dateTimePicker.getDate();
+        Date date = getDateTimePicker().getDate();
 
-        rowData.setAttributeValue(new DateTime(date, DateTimeZone.forTimeZone(dateTimePicker.getTimeZone())));
+        rowData.setAttributeValue(new DateTime(date, DateTimeZone.forTimeZone(getDateTimePicker().getTimeZone())));
         //System.out.println("New rowData date: " + rowData.getAttributeValue());
     }
 
@@ -1143,13 +1431,13 @@ class RowPanel
          * the extra space in the row, tell the GridBagLayout
          * manager that the buttonPanel will do it.
          */
-        GridBagConstraints gc = new GridBagConstraints();
+        GridBagConstraints gc = nextConstraints();
         gc.gridx = gridx++;
         gc.anchor = GridBagConstraints.EAST;
         if (someWidgetFillingEmptySpace == false) {
             gc.weightx = 1;
         }
-        add(buttonPanel, gc);
+        place(buttonPanel, gc);
     }
 
 
@@ -1169,22 +1457,22 @@ class RowPanel
 
         GridBagConstraints gc;
 
-        gc = new GridBagConstraints();
+        gc = nextConstraints();
         gc.gridx = gridx++;
         gc.insets = LEFT_INSETS;
-        add(getComboBox(0), gc);
+        place(getComboBox(0), gc);
 
-        gc = new GridBagConstraints();
+        gc = nextConstraints();
         gc.gridx = gridx++;
         gc.insets = LEFT_INSETS;
-        add(collectionOperator2ComboBox, gc);
+        place(collectionOperator2ComboBox, gc);
 
-        gc = new GridBagConstraints();
+        gc = nextConstraints();
         gc.gridx = gridx++;
         gc.weightx = 1;
         someWidgetFillingEmptySpace = true;
         gc.anchor = GridBagConstraints.WEST;
-        add(ofTheFollowingLabel, gc);
+        place(ofTheFollowingLabel, gc);
 
         /**
          * Get the list of possible classes that can be used
@@ -1197,7 +1485,7 @@ class RowPanel
             DataModel.getPossibleCUQs().
             toArray(new ClassDescription[0]);
 
-        setComboBoxModel(getComboBox(0), values,
+        setComboBoxModel(getComboBox(0), SharedComboBoxModel.forItems(values),
                          rowData.getClassUnderQualification());
 
         /**
@@ -1220,17 +1508,17 @@ class RowPanel
         GridBagConstraints gc;
 
 
-        gc = new GridBagConstraints();
+        gc = nextConstraints();
         gc.gridx = gridx++;
         gc.insets = LEFT_INSETS;
-        add(collectionOperator2ComboBox, gc);
+        place(collectionOperator2ComboBox, gc);
 
-        gc = new GridBagConstraints();
+        gc = nextConstraints();
         gc.gridx = gridx++;
         gc.weightx = 1;
         someWidgetFillingEmptySpace = true;
         gc.anchor = GridBagConstraints.WEST;
-        add(ofTheFollowingLabel, gc);
+        place(ofTheFollowingLabel, gc);
 
         /**
          * This is a "simple" Compound Row.  I.e. it only has
@@ -1238,7 +1526,7 @@ class RowPanel
          * Set the comboBox model.
          */
         setComboBoxModel(collectionOperator2ComboBox,
-                         CollectionOperator.getCompoundCollectionOperators(),
+                         SharedComboBoxModel.forCompoundCollectionOperators(),
                          rowData.getCollectionOperator());
     }
 
@@ -1292,8 +1580,8 @@ class RowPanel
         int index;
         for (index = 0; index < rowData.getAttributeCount(); index++) {
 
-            if (Attribute.IS_NULL.equals(rowData.getAttribute(index)) ||
-                Attribute.IS_NOT_NULL.equals(rowData.getAttribute(index))) {
+            if ((rowData.getAttribute(index) == Attribute.IS_NULL) ||
+                (rowData.getAttribute(index) == Attribute.IS_NOT_NULL)) {
 
                 if ((index > 0) &&
                     (rowData.getAttribute(index-1).getType() ==
@@ -1311,10 +1599,10 @@ class RowPanel
             }
 
             //System.out.println("Adding comboBox at gridx "+gridx);
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.insets = LEFT_INSETS;
-            add(getComboBox(index), gc);
+            place(getComboBox(index), gc);
 
             if (index == 0) {
                 /**
@@ -1363,8 +1651,8 @@ class RowPanel
          * of that special Attribute.
          */
         Attribute childmostAttribute = rowData.getChildmostAttribute();
-        if (Attribute.IS_NULL.equals(childmostAttribute) ||
-            Attribute.IS_NOT_NULL.equals(childmostAttribute)) {
+        if ((childmostAttribute == Attribute.IS_NULL) ||
+            (childmostAttribute == Attribute.IS_NOT_NULL)) {
 
             int indexToLeft = rowData.getAttributeCount()-2;
             if (indexToLeft >= 0) {
@@ -1395,10 +1683,10 @@ class RowPanel
              * place the comboBox that will hold operators such
              * as ==, !=, >, is true.
              */
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.insets = LEFT_INSETS;
-            add(operatorComboBox, gc);
+            place(operatorComboBox, gc);
 
             /**
              * Set the comboBox model to hold operators appropriate
@@ -1420,27 +1708,27 @@ class RowPanel
                  * We only display the dateTimePicker if the
                  * operator is not "is null" or "is not null".
                  */
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(dateTimePicker, gc);
+                place(getDateTimePicker(), gc);
             }
             else if (childmostAttribute.getType() == Type.INT_16) {
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.weightx = 0.1;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(valueSpinnerInt16, gc);
+                place(getValueSpinnerInt16(), gc);
             }
             else if (childmostAttribute.getType() == Type.INT_32) {
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.weightx = 0.1;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(valueSpinnerInt32, gc);
+                place(getValueSpinnerInt32(), gc);
             }
             else if ((childmostAttribute.getType() == Type.UTF_8_STRING) ||
                      (childmostAttribute.getType() == Type.FLOAT_64)) {
@@ -1448,13 +1736,13 @@ class RowPanel
                  * Place a text field into which the user can enter an
                  * attribute value using a string.
                  */
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.weightx = 1;
                 someWidgetFillingEmptySpace = true;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(valueTextField, gc);
+                place(valueTextField, gc);
             }
             else if (childmostAttribute.getType() == Type.BOOLEAN) {
                 /**
@@ -1480,7 +1768,7 @@ class RowPanel
                 if ((rowData.getAttributeOperator() != Operator.IS_NULL) &&
                     (rowData.getAttributeOperator() != Operator.IS_NOT_NULL)) {
                     if(rowData.getAttributeValue() instanceof DateTime) {
-                        dateTimePicker.setDate(
+                        getDateTimePicker().setDate(
                                 ((DateTime) rowData.getAttributeValue()));
                     }
                 }
@@ -1497,7 +1785,7 @@ class RowPanel
                     attributeValue = new Integer(Short.parseShort(
                         attributeValue.toString()));
                 }
-                valueSpinnerInt16.setValue(attributeValue);
+                getValueSpinnerInt16().setValue(attributeValue);
             }
             else if (childmostAttribute.getType() == Type.INT_32) {
                 operatorComboBox.setSelectedItem(
@@ -1510,7 +1798,7 @@ class RowPanel
                 else {
                     attributeValue = new Integer(attributeValue.toString());
                 }
-                valueSpinnerInt32.setValue(attributeValue);
+                getValueSpinnerInt32().setValue(attributeValue);
             }
             else {
                 operatorComboBox.setSelectedItem(
@@ -1554,23 +1842,23 @@ class RowPanel
              * the "keyed" property name.  "animalID" in the example
              * in the comments above.
              */
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.weightx = 1;
             gc.fill = GridBagConstraints.BOTH;
             someWidgetFillingEmptySpace = true;
             gc.insets = LEFT_INSETS;
-            add(propNameTextField, gc);
+            place(propNameTextField, gc);
 
             /**
              * Add the propTypeComboBox where the user can select the
              * the type of the "keyed" property.  "string" or "int" in
              * the example in the comments above.
              */
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.insets = LEFT_INSETS;
-            add(propTypeComboBox, gc);
+            place(propTypeComboBox, gc);
 
             /**
              * Add the attributeOperatorComboBox where the user can
@@ -1580,10 +1868,10 @@ class RowPanel
              * Later, other code will set the model of this comboBox
              * depending on the selected value in the propTypeComboBox.
              */
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.insets = LEFT_INSETS;
-            add(operatorComboBox, gc);
+            place(operatorComboBox, gc);
 
             /**
              * Set the model of the operatorComboBox depending on the
@@ -1601,20 +1889,20 @@ class RowPanel
                 if ((rowData.getAttributeOperator() != Operator.IS_NULL) &&
                     (rowData.getAttributeOperator() != Operator.IS_NOT_NULL)) {
 
-                    gc = new GridBagConstraints();
+                    gc = nextConstraints();
                     gc.gridx = gridx++;
                     gc.fill = GridBagConstraints.BOTH;
                     gc.insets = LEFT_INSETS;
-                    add(dateTimePicker, gc);
+                    place(getDateTimePicker(), gc);
                 }
             }
             else if (rowData.getPropType() == Type.INT_32) {
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.weightx = 0.1;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(valueSpinnerInt32, gc);
+                place(getValueSpinnerInt32(), gc);
             }
             else if (rowData.getPropType() != Type.BOOLEAN) {
 
@@ -1623,12 +1911,12 @@ class RowPanel
                  * the value of the "keyed" property.  "x123" in the
                  * example in the comments above.
                  */
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.weightx = 1;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(valueTextField, gc);
+                place(valueTextField, gc);
             }
 
             /**
@@ -1644,21 +1932,19 @@ class RowPanel
              */
             if (rowData.getPropType() == Type.INT_16) {
                 short value = 0;
-                if ((rowData.getAttributeValue() != null) &&
-                    (rowData.getAttributeValue() instanceof Number)) {
-                    value = ((Number)rowData.getAttributeValue()).shortValue();
+                if (rowData.isAttributeValueNumber()) {
+                    value = (short)rowData.getAttributeValueAsInt();
                 }
 
-                valueSpinnerInt16.setValue(value);
+                getValueSpinnerInt16().setValue(value);
             }
             else if (rowData.getPropType() == Type.INT_32) {
                 int value = 0;
-                if ((rowData.getAttributeValue() != null) &&
-                    (rowData.getAttributeValue() instanceof Number)) {
-                    value = ((Number)rowData.getAttributeValue()).intValue();
+                if (rowData.isAttributeValueNumber()) {
+                    value = rowData.getAttributeValueAsInt();
                 }
 
-                valueSpinnerInt32.setValue(value);
+                getValueSpinnerInt32().setValue(value);
             }
             else if ((rowData.getPropType() == Type.FLOAT_64) ||
                      (rowData.getPropType() == Type.UTF_8_STRING)) {
@@ -1680,7 +1966,7 @@ class RowPanel
                     (rowData.getAttributeOperator() != Operator.IS_NOT_NULL)) {
 
                     if (rowData.getAttributeValue() instanceof DateTime) {
-                        dateTimePicker.setDate((DateTime)rowData.getAttributeValue());
+                        getDateTimePicker().setDate((DateTime)rowData.getAttributeValue());
                     } else {
                         System.err.println("attributeValue not an instance " +
                                                    "of a Date.  This should never happen.");
@@ -1702,10 +1988,10 @@ class RowPanel
              * Add comboBox for the Collection Operator which
              * will display the value Any, All, None, or Count.
              */
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.insets = LEFT_INSETS;
-            add(collectionOperatorComboBox, gc);
+            place(collectionOperatorComboBox, gc);
 
             if (rowData.getCollectionOperator() == CollectionOperator.COUNT) {
 
@@ -1719,19 +2005,19 @@ class RowPanel
                  * Add comboBox for the Attribute Operator which
                  * will display a value like ==,!=, <, etc.
                  */
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.insets = LEFT_INSETS;
-                add(operatorComboBox, gc);
+                place(operatorComboBox, gc);
 
                 /**
                  * Add count spinner.
                  */
-                gc = new GridBagConstraints();
+                gc = nextConstraints();
                 gc.gridx = gridx++;
                 gc.fill = GridBagConstraints.BOTH;
                 gc.insets = LEFT_INSETS;
-                add(countSpinnerInt32, gc);
+                place(getCountSpinnerInt32(), gc);
             }
             else {
                 /**
@@ -1747,18 +2033,18 @@ class RowPanel
                     /**
                      * Add the "have" label.
                      */
-                    gc = new GridBagConstraints();
+                    gc = nextConstraints();
                     gc.gridx = gridx++;
                     gc.insets = LEFT_INSETS;
-                    add(haveLabel, gc);
+                    place(haveLabel, gc);
 
                     /**
                      * Add comboBox for the second Collection Operator.
                      */
-                    gc = new GridBagConstraints();
+                    gc = nextConstraints();
                     gc.gridx = gridx++;
                     gc.insets = LEFT_INSETS;
-                    add(collectionOperator2ComboBox, gc);
+                    place(collectionOperator2ComboBox, gc);
                 }
                 else {
                     /**
@@ -1783,12 +2069,12 @@ class RowPanel
          */
         if (rowData.isCompoundRow()) {
 
-            gc = new GridBagConstraints();
+            gc = nextConstraints();
             gc.gridx = gridx++;
             gc.weightx = 1;
             someWidgetFillingEmptySpace = true;
             gc.anchor = GridBagConstraints.WEST;
-            add(ofTheFollowingLabel, gc);
+            place(ofTheFollowingLabel, gc);
         }
 
         /**
@@ -1839,8 +2125,8 @@ class RowPanel
                  * Set the operator that is used for the Count.
                  * E.g. ==, >, <=
                  */
-                operatorComboBox.setModel(new DefaultComboBoxModel(
-                    Operator.OPERATORS_ARITHMATIC));
+                setModelIfChanged(operatorComboBox,
+                                  SharedComboBoxModel.forCountOperators());
                 operatorComboBox.setSelectedItem(
                     rowData.getAttributeOperator());
 
@@ -1853,7 +2139,7 @@ class RowPanel
                     (attributeValue instanceof Integer)) {
                     intValue = ((Integer)attributeValue).intValue();
                 }
-                countSpinnerInt32.setValue(intValue);
+                getCountSpinnerInt32().setValue(intValue);
             }
             else {
                 /**
@@ -1870,37 +2156,45 @@ class RowPanel
     }
 
 
+    /**
+     * Set the passed in comboBox's model to the passed in model,
+     * unless the comboBox's model already has the same list of
+     * items.  Setting a comboBox's model makes it throw away
+     * its sizes and renderers and recompute them, so we don't
+     * do that when we don't have to.
+     *
+     * @return true if the model was set.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean setModelIfChanged(JComboBox comboBox,
+                                             SharedComboBoxModel model) {
+
+        ComboBoxModel current = comboBox.getModel();
+        if ((current instanceof SharedComboBoxModel) &&
+            ((SharedComboBoxModel)current).hasSameItemsAs(model)) {
+            return(false);
+        }
+
+        comboBox.setModel(model);
+        return(true);
+    }
+
+
     /**
      * Set the operatorComboBox's model based on the passed
      * in type.  For example, if the type is Type.BOOLEAN,
      * then the operators are: "is true", "is false".
      * If the type is Type.UTF_8_STRING, then the operators
      * are: ==, !=, >, <, ~~=, etc.
+     *
+     * The list of Operators is shared with every other row
+     * that uses the same Type.  See SharedComboBoxModel.
      */
 	@SuppressWarnings("unchecked")
 	private void setOperatorComboBoxModel(Type type) {
 
-        switch(type) {
-
-            case BOOLEAN:
-                operatorComboBox.setModel(
-                    new DefaultComboBoxModel(Operator.OPERATORS_BOOLEAN));
-            break;
-
-            case UTF_8_STRING:
-                operatorComboBox.setModel(new DefaultComboBoxModel(
-                    Operator.OPERATORS_STRING));
-            break;
-
-            case DATE_TIME:
-                operatorComboBox.setModel(new DefaultComboBoxModel(
-                    Operator.OPERATORS_DATE_TIME));
-            break;
-
-            default:  // INT_16, INT_32, FLOAT_64
-                operatorComboBox.setModel(new DefaultComboBoxModel(
-                    Operator.OPERATORS_ARITHMATIC));
-        }
+        setModelIfChanged(operatorComboBox,
+                          SharedComboBoxModel.forOperators(type));
     }
 
 
@@ -1998,14 +2292,65 @@ class RowPanel
             return;
         }
 
+        commitPendingEdit();
+
         Object value = ((JSpinner)event.getSource()).getValue();
         rowData.setAttributeValue(value);
     }
 
 
+    /**
+     * We are required to implement this method because we are
+     * a FocusListener.
+     */
+    @Override
+    public void focusGained(FocusEvent event) {
+    }
+
+
+    /**
+     * This is called when one of our text fields loses the focus.
+     * Don't wait for the commitTimer.  The user has moved on.
+     */
+    @Override
+    public void focusLost(FocusEvent event) {
+
+        if (!inProcess) {
+            commitPendingEdit();
+        }
+    }
+
+
+    /**
+     * Set how many milliseconds the user has to stop typing
+     * in a text field before what they typed is copied into
+     * the RowData.  A delay of 0, (or less), copies it on every
+     * keystroke, which is what we used to do.  This affects all
+     * RowPanels, including ones that already exist.
+     */
+    static void setCommitDelay(int milliseconds) {
+        commitDelay = milliseconds;
+    }
+
+
+    static int getCommitDelay() {
+        return(commitDelay);
+    }
+
+
     /**
      * This is called when the text field changes.  E.g. as the user
      * types into it.
+     *
+     * We don't change the rowData here.  We just remember which
+     * text field changed, and (re)start the commitTimer.  The text
+     * is committed when the timer fires, when the text field loses
+     * the focus, or when the user does something else in this row.
+     * (See commitPendingEdit().)
+     *
+     * So the user still sees right away whether what they are
+     * typing is legal, we check its syntax here, without creating
+     * any objects, and set the row's color.
      */
     private void textFieldChanged(Document document) {
 
@@ -2017,6 +2362,69 @@ class RowPanel
             return;
         }
 
+        TEXT_CHANGES.increment();
+
+        if ((pendingDocument != null) && (pendingDocument != document)) {
+            commitPendingEdit();
+        }
+        pendingDocument = document;
+
+        int delay = commitDelay;
+        if (delay <= 0) {
+            commitPendingEdit();
+            return;
+        }
+
+        boolean legal;
+        if (document == valueTextField.getDocument()) {
+            legal = isLegalText(document, valueIsFloat64());
+        }
+        else {
+            legal = isLegalText(document, false) &&
+                containsNonBlankText(document);
+        }
+
+        /**
+         * If the text is legal, the row is the color the rowData
+         * says it should be until we commit.  (The rowData might be
+         * illegal for some other reason.)
+         */
+        boolean opaque = !legal || !rowData.containsLegalValue();
+        if (opaque != isOpaque()) {
+            setOpaque(opaque);
+            repaint();
+        }
+
+        if (commitTimer == null) {
+            commitTimer = new javax.swing.Timer(delay, this);
+            commitTimer.setRepeats(false);
+        }
+        commitTimer.setInitialDelay(delay);
+        commitTimer.restart();
+    }
+
+
+    /**
+     * Copy the text the user has typed, but we have not yet copied
+     * into the rowData, into the rowData.  This does nothing if
+     * there is no such text.
+     *
+     * The ExpressionBuilder calls this, (through the ExpressionPanel),
+     * before it uses the tree, so that nothing the user typed is lost.
+     */
+    void commitPendingEdit() {
+
+        if (pendingDocument == null) {
+            return;
+        }
+
+        Document document = pendingDocument;
+        pendingDocument = null;
+        if (commitTimer != null) {
+            commitTimer.stop();
+        }
+
+        EDITS_COMMITTED.increment();
         if (document == valueTextField.getDocument()) {
             rowData.setAttributeValueUsingString(valueTextField.getText());
         } else if (document == propNameTextField.getDocument()) {
@@ -2025,6 +2433,133 @@ class RowPanel
     }
 
 
+    /**
+     * Show how this row did the last time the query was profiled.
+     * (See ExpressionBuilder.editExpression(ExpressionTree,QueryProfile).)
+     * The text is shown as the row's tool tip, and a hot row,
+     * i.e. one of the rows that took the most time, gets a
+     * stripe down its left side.
+     *
+     * @param text The tool tip text, or null to show nothing.
+     */
+    void setProfile(String text, boolean hot) {
+
+        setToolTipText(text);
+        indentWidget.setToolTipText(text);
+
+        if (hot) {
+            /**
+             * Take the stripe out of the left inset so the row
+             * does not move to the right.
+             */
+            setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createMatteBorder(0, HOT_ROW_STRIPE_WIDTH,
+                                                0, 0, HOT_ROW_COLOR),
+                BorderFactory.createEmptyBorder(
+                    4, 10-HOT_ROW_STRIPE_WIDTH, 4, 10)));
+        }
+        else {
+            setBorder(BorderFactory.createEmptyBorder(4,10,4,10));
+        }
+    }
+
+
+    /**
+     * Returns true if the valueTextField is holding a FLOAT_64 value.
+     * Otherwise it is holding a string, and any text is legal.
+     */
+    private boolean valueIsFloat64() {
+
+        Attribute attribute = rowData.getChildmostAttribute();
+        if (attribute == null) {
+            return(false);
+        }
+
+        Type type = attribute.getType();
+        if ((type == Type.PARAMETERS_MAP) ||
+            (type == Type.PER_USER_PARAMETERS_MAP)) {
+            type = rowData.getPropType();
+        }
+        return(type == Type.FLOAT_64);
+    }
+
+
+    /**
+     * Check whether the text in the passed in document is legal.
+     * If float64 is true, the text must be a number that will be
+     * a legal value once it is committed, (see Float64Syntax).
+     * Otherwise any text is legal.
+     *
+     * This reads the document's characters in place, using our
+     * segment, so it does not create any objects, unless the text
+     * is something unusual like "0x1p3".
+     */
+    private boolean isLegalText(Document document, boolean float64) {
+
+        if (!float64) {
+            return(true);
+        }
+
+        int state = Float64Syntax.START;
+        int offset = 0;
+        int length = document.getLength();
+        try {
+            while (offset < length) {
+                document.getText(offset, length-offset, segment);
+                int end = segment.offset+segment.count;
+                for (int index = segment.offset; index < end; index++) {
+                    state = Float64Syntax.nextState(state,
+                                                    segment.array[index]);
+                }
+                offset += segment.count;
+            }
+            if (Float64Syntax.isNumber(state)) {
+                return(true);
+            }
+
+            /**
+             * It might still be something the state machine doesn't
+             * know about, like a hexadecimal number.  This is rare,
+             * so copying the text here is fine.
+             */
+            return(Float64Syntax.isLegalValue(document.getText(0, length)));
+        }
+        catch (BadLocationException e) {
+            /**
+             * Can't happen, but if it does, let the commit decide.
+             */
+            return(true);
+        }
+    }
+
+
+    /**
+     * Returns true if the passed in document contains something
+     * other than whitespace.  (A property name can't be blank.)
+     */
+    private boolean containsNonBlankText(Document document) {
+
+        int offset = 0;
+        int length = document.getLength();
+        try {
+            while (offset < length) {
+                document.getText(offset, length-offset, segment);
+                int end = segment.offset+segment.count;
+                for (int index = segment.offset; index < end; index++) {
+                    if (segment.array[index] > ' ') {
+                        return(true);
+                    }
+                }
+                offset += segment.count;
+            }
+        }
+        catch (BadLocationException e) {
+            return(true);
+        }
+        return(false);
+    }
+
+
     /**
      * This is a quick and dirty way to put a line between rows.
      * Perhaps a more proper, but more complicated, solution is
@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder;
+
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * This is a ComboBoxModel whose list of items is shared with
+ * every other SharedComboBoxModel that was created for the same
+ * ClassDescription, Type, or fixed list of choices.
+ *
+ * Before this class existed, every RowPanel created a brand new
+ * DefaultComboBoxModel, (which copies the passed in array into its
+ * own Vector), every time one of its comboBoxes needed a new list
+ * of choices.  With hundreds of rows in a tree, that meant thousands
+ * of identical copies of the same lists of Attributes and Operators.
+ *
+ * Now the list of items for a given ClassDescription or Type is
+ * built once, the first time it is asked for, and is never modified
+ * after that.  The only per-comboBox state a SharedComboBoxModel holds
+ * is the selected item.  (A comboBox's selected item is stored in its
+ * model, so we cannot share the model object itself between
+ * comboBoxes.  But the model object is now tiny.)
+ *
+ * Please note, the cached lists are built from the ClassDescription's
+ * attributes at the time they are first requested.  That is fine
+ * because the DataModel is set up once at startup and never changes
+ * after that.  If that ever changes, call clearCache().
+ *
+ * All the methods in this class are expected to be called from the
+ * Swing event dispatch thread, the same as the rest of the GUI code.
+ */
+class SharedComboBoxModel
+    extends AbstractListModel
+    implements ComboBoxModel {
+
+	/**
+	 * We never serialize this class, so this declaration is
+	 * just to stop the compiler warning.
+	 */
+	private static final long serialVersionUID = 1L;
+
+    /**
+     * Cache of the lists of Attributes for a ClassDescription
+     * that do NOT have the special IS_NULL and IS_NOT_NULL
+     * Attributes appended to them.
+     *
+     * ClassDescription overrides equals() but not hashCode(),
+     * and two different ClassDescriptions can have the same
+     * name, so we key these maps on object identity.
+     */
+    private static final Map<ClassDescription,Object[]> attributeItems =
+        new IdentityHashMap<ClassDescription,Object[]>();
+
+    /**
+     * Cache of the lists of Attributes for a ClassDescription
+     * that DO have the special IS_NULL and IS_NOT_NULL
+     * Attributes appended to them.
+     */
+    private static final Map<ClassDescription,Object[]>
+        attributeItemsWithNulls =
+        new IdentityHashMap<ClassDescription,Object[]>();
+
+    /**
+     * Cache of the lists of Operators that are legal for a Type.
+     */
+    private static final Map<Type,Object[]> operatorItems =
+        new EnumMap<Type,Object[]>(Type.class);
+
+    /**
+     * Lists of choices that never change.
+     * We make our own copies of the arrays so nobody can change
+     * them out from under us.
+     */
+    private static final Object[] COLLECTION_OPERATOR_ITEMS =
+        CollectionOperator.values().clone();
+    private static final Object[] COMPOUND_COLLECTION_OPERATOR_ITEMS =
+        CollectionOperator.getCompoundCollectionOperators().clone();
+    private static final Object[] COUNT_OPERATOR_ITEMS =
+        Operator.OPERATORS_ARITHMATIC.clone();
+
+    /**
+     * The shared list of items.  We never modify this array.
+     */
+    private final Object[] items;
+
+    /**
+     * The currently selected item.  This is the only state
+     * that is not shared between models.
+     */
+    private Object selectedItem;
+
+
+    /**
+     * Create a model that uses the passed in array of items.
+     * The array is NOT copied, so the caller must promise to
+     * never change the values in the array.
+     *
+     * The first item, if there is one, is selected.  This is
+     * the same behavior as DefaultComboBoxModel.
+     */
+    private SharedComboBoxModel(Object[] items) {
+
+        this.items = items;
+        if (items.length > 0) {
+            selectedItem = items[0];
+        }
+    }
+
+
+    /**
+     * Create a model whose items are the special
+     * Attribute.SELECT_ATTRIBUTE followed by all the
+     * Attributes of the passed in ClassDescription, (including
+     * the Attributes of its superclasses).
+     *
+     * @param appendNulls If true, the special Attribute.IS_NULL
+     * and Attribute.IS_NOT_NULL are appended to the end of
+     * the list.
+     */
+    static SharedComboBoxModel forAttributes(ClassDescription classDescription,
+                                             boolean appendNulls) {
+
+        Map<ClassDescription,Object[]> cache = appendNulls ?
+            attributeItemsWithNulls : attributeItems;
+
+        Object[] values = cache.get(classDescription);
+        if (values == null) {
+            values = createAttributeItems(classDescription, appendNulls);
+            cache.put(classDescription, values);
+        }
+
+        return(new SharedComboBoxModel(values));
+    }
+
+
+    /**
+     * Create a model whose items are the Operators that can
+     * be used with an Attribute of the passed in Type.
+     * For example, if the type is Type.BOOLEAN, then the operators
+     * are: "is true", "is false".  If the type is Type.UTF_8_STRING,
+     * then the operators are: ==, !=, >, <, ~~=, etc.
+     */
+    static SharedComboBoxModel forOperators(Type type) {
+
+        Object[] values = operatorItems.get(type);
+        if (values == null) {
+            switch(type) {
+
+                case BOOLEAN:
+                    values = Operator.OPERATORS_BOOLEAN.clone();
+                break;
+
+                case UTF_8_STRING:
+                    values = Operator.OPERATORS_STRING.clone();
+                break;
+
+                case DATE_TIME:
+                    values = Operator.OPERATORS_DATE_TIME.clone();
+                break;
+
+                default:  // INT_16, INT_32, FLOAT_64
+                    values = Operator.OPERATORS_ARITHMATIC.clone();
+            }
+            operatorItems.put(type, values);
+        }
+
+        return(new SharedComboBoxModel(values));
+    }
+
+
+    /**
+     * Create a model whose items are the Operators that can
+     * be used with a Count.  E.g. ==, >, <=
+     */
+    static SharedComboBoxModel forCountOperators() {
+        return(new SharedComboBoxModel(COUNT_OPERATOR_ITEMS));
+    }
+
+
+    /**
+     * Create a model whose items are all the CollectionOperators.
+     * I.e. Any, All, None, Count.
+     */
+    static SharedComboBoxModel forCollectionOperators() {
+        return(new SharedComboBoxModel(COLLECTION_OPERATOR_ITEMS));
+    }
+
+
+    /**
+     * Create a model whose items are the CollectionOperators that
+     * can be used for a compound row.  I.e. Any, All, None.
+     */
+    static SharedComboBoxModel forCompoundCollectionOperators() {
+        return(new SharedComboBoxModel(COMPOUND_COLLECTION_OPERATOR_ITEMS));
+    }
+
+
+    /**
+     * Create a model that uses the passed in array of items.
+     * The array is NOT copied, so only pass in an array that
+     * will never be changed.
+     */
+    static SharedComboBoxModel forItems(Object[] items) {
+        return(new SharedComboBoxModel(items));
+    }
+
+
+    /**
+     * Throw away all the cached lists of items.
+     * You would only need to call this if the DataModel changed.
+     */
+    static void clearCache() {
+        attributeItems.clear();
+        attributeItemsWithNulls.clear();
+        operatorItems.clear();
+    }
+
+
+    /**
+     * Build the list of Attributes that forAttributes() returns.
+     */
+    private static Object[] createAttributeItems(
+        ClassDescription classDescription, boolean appendNulls) {
+
+        ArrayList<Attribute> attributes = null;
+        if (classDescription != null) {
+            attributes = classDescription.getAllAttributes();
+        }
+
+        ArrayList<Object> values = new ArrayList<Object>();
+
+        /**
+         * First, prepend the special "Select Attribute" attribute.
+         */
+        values.add(Attribute.SELECT_ATTRIBUTE);
+
+        if (attributes != null) {
+            values.addAll(attributes);
+        }
+
+        if (appendNulls) {
+            values.add(Attribute.IS_NULL);
+            values.add(Attribute.IS_NOT_NULL);
+        }
+
+        return(values.toArray());
+    }
+
+
+    /**
+     * Returns true if the passed in model shares our list of items.
+     * I.e. it was created for the same ClassDescription, Type, or
+     * fixed list of choices.
+     */
+    boolean hasSameItemsAs(SharedComboBoxModel other) {
+        return((other != null) && (items == other.items));
+    }
+
+
+    /**
+     * Returns the index of the first item in the list that
+     * equals() the passed in object, or -1 if there is no such item.
+     * This is the same as DefaultComboBoxModel.getIndexOf().
+     */
+    int getIndexOf(Object object) {
+
+        for (int index = 0; index < items.length; index++) {
+            if ((object == null) ? (items[index] == null) :
+                object.equals(items[index])) {
+                return(index);
+            }
+        }
+        return(-1);
+    }
+
+
+    @Override
+    public int getSize() {
+        return(items.length);
+    }
+
+
+    @Override
+    public Object getElementAt(int index) {
+
+        if ((index >= 0) && (index < items.length)) {
+            return(items[index]);
+        }
+        return(null);
+    }
+
+
+    @Override
+    public Object getSelectedItem() {
+        return(selectedItem);
+    }
+
+
+    /**
+     * Set the selected item.  This fires a contentsChanged event,
+     * (which is what the JComboBox listens to), if the selection
+     * actually changed.  This is the same as DefaultComboBoxModel.
+     */
+    @Override
+    public void setSelectedItem(Object object) {
+
+        if (((selectedItem != null) && !selectedItem.equals(object)) ||
+            ((selectedItem == null) && (object != null))) {
+
+            selectedItem = object;
+            fireContentsChanged(this, -1, -1);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.translator.ExpressionTreeToRowData;
+import com.physion.ebuilder.translator.RowDataToExpressionTree;
+import junit.framework.TestCase;
+
+import javax.swing.SwingUtilities;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Tests that an ExpressionPanel showing a big tree only gives the
+ * first rows RowPanels right away, and gives the rest of the rows
+ * RowPanels a step at a time.  (See ExpressionPanel.isLoadingRows().)
+ *
+ * Each test runs on the event dispatch thread, as the GUI does,
+ * so the ExpressionPanel's Swing Timer cannot load rows behind the
+ * test's back.  The test calls loadMoreRows() itself instead.
+ *
+ * This is in the com.physion.ebuilder package, instead of a test
+ * package, because ExpressionPanel's constructor is package private.
+ */
+public class ExpressionPanelLoadingTests extends TestCase {
+
+    private static final ClassDescription epochCD =
+        DataModel.getClassDescription("Epoch");
+
+    /**
+     * Enough rows to need a few steps of loadMoreRows().
+     */
+    private static final int CHILD_ROWS = 700;
+
+
+    /**
+     * A lazily translated tree gets FIRST_ROWS RowPanels right away,
+     * and every row has one after loadMoreRows() is done.
+     */
+    public void testIncrementalLoading()
+        throws Exception {
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+
+                RowData rootRow = ExpressionTreeToRowData.translateLazily(
+                    RowDataToExpressionTree.translate(createTree()));
+                ExpressionPanel panel = new ExpressionPanel(rootRow);
+                List<Object> events = recordLoadingEvents(panel);
+
+                assertTrue(panel.isLoadingRows());
+                assertEquals(ExpressionPanel.FIRST_ROWS, panel.getRowCount());
+
+                int steps = loadAllRows(panel);
+                assertEquals((CHILD_ROWS+1-ExpressionPanel.FIRST_ROWS+
+                              ExpressionPanel.ROWS_PER_STEP-1)/
+                             ExpressionPanel.ROWS_PER_STEP, steps);
+                assertEquals(CHILD_ROWS+1, panel.getRowCount());
+                assertEquals(1, events.size());
+                assertEquals(Boolean.FALSE, events.get(0));
+                assertRowsInOrder(panel);
+            }
+        });
+    }
+
+
+    /**
+     * Changing the tree while its rows are loading keeps the
+     * RowPanels we have, and the rows still get loaded in order.
+     * Once they are all loaded, a change gives every row its
+     * RowPanel right away, the way it always has.
+     */
+    public void testChangeWhileLoading()
+        throws Exception {
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+
+                RowData rootRow = createTree();
+                ExpressionPanel panel = new ExpressionPanel(rootRow);
+                assertTrue(panel.isLoadingRows());
+                panel.loadMoreRows();
+                int rowCount = panel.getRowCount();
+                RowPanel firstRowPanel = (RowPanel)panel.getComponent(1);
+
+                rootRow.addChildRow(createChildRow("added"));
+                assertTrue(panel.isLoadingRows());
+                assertEquals(rowCount, panel.getRowCount());
+                assertSame(firstRowPanel, panel.getComponent(1));
+
+                loadAllRows(panel);
+                assertEquals(CHILD_ROWS+2, panel.getRowCount());
+                assertRowsInOrder(panel);
+
+                rootRow.removeChildRow(rootRow.getChildRows().get(0));
+                assertFalse(panel.isLoadingRows());
+                assertEquals(CHILD_ROWS+1, panel.getRowCount());
+                assertRowsInOrder(panel);
+            }
+        });
+    }
+
+
+    /**
+     * A tree with fewer than FIRST_ROWS rows is never loading.
+     */
+    public void testSmallTree()
+        throws Exception {
+
+        runOnEventDispatchThread(new Runnable() {
+            @Override
+            public void run() {
+
+                RowData rootRow = new RowData();
+                rootRow.setClassUnderQualification(epochCD);
+                rootRow.setCollectionOperator(CollectionOperator.ALL);
+                rootRow.addChildRow(createChildRow("abc"));
+
+                ExpressionPanel panel = new ExpressionPanel(rootRow);
+                assertFalse(panel.isLoadingRows());
+                assertEquals(2, panel.getRowCount());
+            }
+        });
+    }
+
+
+    /**
+     * Create a root row with CHILD_ROWS children.
+     */
+    private static RowData createTree() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        for (int index = 0; index < CHILD_ROWS; index++) {
+            rootRow.addChildRow(createChildRow("protocol"+index));
+        }
+        return(rootRow);
+    }
+
+
+    private static RowData createChildRow(String protocolID) {
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(epochCD.getAttribute("protocolID"));
+        rowData.setAttributeOperator(Operator.EQUALS);
+        rowData.setAttributeValue(protocolID);
+        return(rowData);
+    }
+
+
+    /**
+     * Call loadMoreRows() until the panel is done loading, and
+     * return the number of calls it took.
+     */
+    private static int loadAllRows(ExpressionPanel panel) {
+
+        int steps = 0;
+        while (panel.isLoadingRows()) {
+            panel.loadMoreRows();
+            steps++;
+        }
+        return(steps);
+    }
+
+
+    /**
+     * Check that the panel's RowPanels show the tree's rows in order.
+     */
+    private static void assertRowsInOrder(ExpressionPanel panel) {
+
+        List<RowData> rows = panel.getRootRow().getRows();
+        assertEquals(rows.size(), panel.getComponentCount());
+        for (int index = 0; index < rows.size(); index++) {
+            assertSame(rows.get(index),
+                       ((RowPanel)panel.getComponent(index)).getRowData());
+        }
+    }
+
+
+    /**
+     * Record the new value of every LOADING_ROWS_PROPERTY event
+     * the passed in panel fires.
+     */
+    private static List<Object> recordLoadingEvents(ExpressionPanel panel) {
+
+        final List<Object> events = new ArrayList<Object>();
+        panel.addPropertyChangeListener(ExpressionPanel.LOADING_ROWS_PROPERTY,
+            new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent event) {
+                    events.add(event.getNewValue());
+                }
+            });
+        return(events);
+    }
+
+
+    /**
+     * Run the passed in test on the event dispatch thread, and
+     * rethrow anything it throws.
+     */
+    private static void runOnEventDispatchThread(final Runnable test)
+        throws Exception {
+
+        final Throwable[] thrown = new Throwable[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    test.run();
+                }
+                catch (Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+
+        if (thrown[0] instanceof Error) {
+            throw((Error)thrown[0]);
+        }
+        if (thrown[0] != null) {
+            throw((Exception)thrown[0]);
+        }
+    }
+}
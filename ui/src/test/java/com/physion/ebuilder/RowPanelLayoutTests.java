@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datamodel.RowData;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.Cardinality;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import junit.framework.TestCase;
+
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import java.awt.Component;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Tests that a RowPanel that lays itself out again in place, (see
+ * RowPanel.finishLayout()), after the user changes an attribute,
+ * an operator, or the Class Under Qualification, ends up with the
+ * same components, in the same order, with the same constraints
+ * and values, as a RowPanel freshly created for the same row.
+ *
+ * finishLayout() only removes and adds the components after the
+ * first one that changed, by index, so a mistake there shows up
+ * as a component that is missing, duplicated, or laid out with
+ * the constraints it had before the change.
+ *
+ * This is in the com.physion.ebuilder package, instead of a test
+ * package, because InvisibleButton's draw flag is package private.
+ */
+public class RowPanelLayoutTests extends TestCase {
+
+    private static final ClassDescription epochCD =
+        DataModel.getClassDescription("Epoch");
+
+
+    /**
+     * Change the attribute path of a row, making it longer and
+     * shorter, and change its type, its operator, and its
+     * collection operator.
+     */
+    public void testAttributeRowChanges() {
+
+        RowData rowData = createRow(epochCD.getAttribute("protocolID"),
+                                    Operator.EQUALS, "abc");
+        RowPanel rowPanel = new RowPanel(rowData);
+        assertSameLayout(rowPanel);
+
+        Attribute epochGroup = epochCD.getAttribute("epochGroup");
+        select(rowPanel, epochCD.getAttribute("protocolID"), epochGroup);
+        assertSameLayout(rowPanel);
+
+        ClassDescription epochGroupCD = epochGroup.getClassDescription();
+        Attribute stringAttribute = findAttribute(epochGroupCD,
+            Type.UTF_8_STRING, Cardinality.N_A);
+        select(rowPanel, Attribute.SELECT_ATTRIBUTE, stringAttribute);
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, rowData.getAttributeOperator(), Operator.NOT_EQUALS);
+        assertEquals(Operator.NOT_EQUALS, rowData.getAttributeOperator());
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, stringAttribute, Attribute.IS_NULL);
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, epochGroup,
+               epochCD.getAttribute("excludeFromAnalysis"));
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, epochCD.getAttribute("excludeFromAnalysis"),
+               epochCD.getAttribute("startTime"));
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, epochCD.getAttribute("startTime"),
+               epochCD.getAttribute("responses"));
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, rowData.getCollectionOperator(),
+               CollectionOperator.COUNT);
+        assertEquals(CollectionOperator.COUNT, rowData.getCollectionOperator());
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, CollectionOperator.COUNT, CollectionOperator.ALL);
+        assertSameLayout(rowPanel);
+
+        select(rowPanel, epochCD.getAttribute("responses"),
+               epochCD.getAttribute("protocolID"));
+        assertSameLayout(rowPanel);
+    }
+
+
+    /**
+     * Change the Class Under Qualification, and the collection
+     * operator, of the root row.
+     */
+    public void testRootRowChanges() {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+        RowPanel rowPanel = new RowPanel(rootRow);
+        assertSameLayout(rowPanel);
+
+        for (ClassDescription classDescription : DataModel.getPossibleCUQs()) {
+            select(rowPanel, rootRow.getClassUnderQualification(),
+                   classDescription);
+            assertSame(classDescription, rootRow.getClassUnderQualification());
+            assertSameLayout(rowPanel);
+        }
+
+        select(rowPanel, rootRow.getCollectionOperator(),
+               CollectionOperator.NONE);
+        assertEquals(CollectionOperator.NONE, rootRow.getCollectionOperator());
+        assertSameLayout(rowPanel);
+    }
+
+
+    /**
+     * Create an attribute row, with an Epoch root row as its parent.
+     */
+    private static RowData createRow(Attribute attribute, Operator operator,
+                                     Object value) {
+
+        RowData rootRow = new RowData();
+        rootRow.setClassUnderQualification(epochCD);
+        rootRow.setCollectionOperator(CollectionOperator.ALL);
+
+        RowData rowData = new RowData();
+        rowData.addAttribute(attribute);
+        rowData.setAttributeOperator(operator);
+        rowData.setAttributeValue(value);
+        rootRow.addChildRow(rowData);
+        return(rowData);
+    }
+
+
+    /**
+     * Find the first Attribute of the passed in classDescription
+     * that has the passed in type and cardinality.
+     */
+    private static Attribute findAttribute(ClassDescription classDescription,
+                                           Type type,
+                                           Cardinality cardinality) {
+
+        for (Attribute attribute : classDescription.getAllAttributes()) {
+            if ((attribute.getType() == type) &&
+                (attribute.getCardinality() == cardinality)) {
+                return(attribute);
+            }
+        }
+        fail("No "+type+" attribute in "+classDescription.getName());
+        return(null);
+    }
+
+
+    /**
+     * Do what the user does when they select newItem in the first
+     * comboBox of the passed in rowPanel that is showing oldItem.
+     */
+    private static void select(RowPanel rowPanel, Object oldItem,
+                               Object newItem) {
+
+        for (Component component : rowPanel.getComponents()) {
+            if ((component instanceof JComboBox) &&
+                (((JComboBox)component).getSelectedItem() == oldItem)) {
+                ((JComboBox)component).setSelectedItem(newItem);
+                return;
+            }
+        }
+        fail("No comboBox is showing "+oldItem+" in:\n"+describe(rowPanel));
+    }
+
+
+    /**
+     * Check that the passed in rowPanel looks the same as a new
+     * RowPanel created for its RowData.
+     */
+    private static void assertSameLayout(RowPanel rowPanel) {
+
+        RowPanel freshRowPanel = new RowPanel(rowPanel.getRowData());
+        assertEquals(describe(freshRowPanel), describe(rowPanel));
+    }
+
+
+    /**
+     * Describe the components the passed in rowPanel contains, in
+     * order, with the constraints they were added with and the
+     * values they show.
+     */
+    private static String describe(RowPanel rowPanel) {
+
+        GridBagLayout layout = (GridBagLayout)rowPanel.getLayout();
+        StringBuilder description = new StringBuilder();
+        for (Component component : rowPanel.getComponents()) {
+
+            GridBagConstraints gc = layout.getConstraints(component);
+            description.append(component.getClass().getSimpleName()).
+                append(" gridx=").append(gc.gridx).
+                append(" gridy=").append(gc.gridy).
+                append(" gridwidth=").append(gc.gridwidth).
+                append(" weightx=").append(gc.weightx).
+                append(" fill=").append(gc.fill).
+                append(" anchor=").append(gc.anchor).
+                append(" insets=").append(gc.insets).
+                append(" visible=").append(component.isVisible());
+
+            if (component instanceof JComboBox) {
+                JComboBox comboBox = (JComboBox)component;
+                description.append(" selected=").
+                    append(comboBox.getSelectedItem()).append(" items=");
+                for (int index = 0; index < comboBox.getItemCount();
+                     index++) {
+                    description.append(comboBox.getItemAt(index)).
+                        append(",");
+                }
+            }
+            else if (component instanceof JLabel) {
+                description.append(" text=").
+                    append(((JLabel)component).getText());
+            }
+            else if (component instanceof JTextField) {
+                description.append(" text=").
+                    append(((JTextField)component).getText());
+            }
+            else if (component instanceof JPanel) {
+                for (Component button : ((JPanel)component).getComponents()) {
+                    if (button instanceof InvisibleButton) {
+                        description.append(" ").
+                            append(((InvisibleButton)button).getText()).
+                            append("=").append(((InvisibleButton)button).draw);
+                    }
+                }
+            }
+            description.append("\n");
+        }
+        description.append("opaque=").append(rowPanel.isOpaque());
+        return(description.toString());
+    }
+}
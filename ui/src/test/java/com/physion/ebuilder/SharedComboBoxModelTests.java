@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2011. Physion Consulting LLC
+ * All rights reserved.
+ */
+package com.physion.ebuilder;
+
+import com.physion.ebuilder.datamodel.DataModel;
+import com.physion.ebuilder.datatypes.Attribute;
+import com.physion.ebuilder.datatypes.ClassDescription;
+import com.physion.ebuilder.datatypes.CollectionOperator;
+import com.physion.ebuilder.datatypes.Operator;
+import com.physion.ebuilder.datatypes.Type;
+import junit.framework.TestCase;
+
+import javax.swing.ComboBoxModel;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Tests that a SharedComboBoxModel shows the same items, and
+ * behaves the same way, as the DefaultComboBoxModel that RowPanel
+ * used to create for every comboBox.
+ *
+ * This is in the com.physion.ebuilder package, instead of a test
+ * package, because SharedComboBoxModel is package private.
+ */
+public class SharedComboBoxModelTests extends TestCase {
+
+    @Override
+    protected void setUp() {
+        SharedComboBoxModel.clearCache();
+    }
+
+
+    /**
+     * For every ClassDescription the GUI can reach, the list of
+     * Attributes is the same as the one RowPanel used to build:
+     * SELECT_ATTRIBUTE, the Attributes, then, if asked for,
+     * IS_NULL and IS_NOT_NULL.
+     */
+    public void testAttributeItems() {
+
+        List<ClassDescription> classDescriptions = getClassDescriptions();
+        assertFalse(classDescriptions.isEmpty());
+
+        for (ClassDescription classDescription : classDescriptions) {
+            for (boolean appendNulls : new boolean[] {false, true}) {
+
+                SharedComboBoxModel model = SharedComboBoxModel.
+                    forAttributes(classDescription, appendNulls);
+                assertSameModel(classDescription.getName(),
+                    oldAttributeModel(classDescription, appendNulls),
+                    model);
+
+                SharedComboBoxModel again = SharedComboBoxModel.
+                    forAttributes(classDescription, appendNulls);
+                assertNotSame(model, again);
+                assertTrue(model.hasSameItemsAs(again));
+            }
+        }
+
+        assertSameModel("null", oldAttributeModel(null, true),
+            SharedComboBoxModel.forAttributes(null, true));
+    }
+
+
+    /**
+     * The Operators for each Type, and the other fixed lists of
+     * choices, are the same as RowPanel used to show.
+     */
+    public void testOperatorItems() {
+
+        for (Type type : Type.values()) {
+            Operator[] operators;
+            switch (type) {
+                case BOOLEAN:
+                    operators = Operator.OPERATORS_BOOLEAN;
+                break;
+                case UTF_8_STRING:
+                    operators = Operator.OPERATORS_STRING;
+                break;
+                case DATE_TIME:
+                    operators = Operator.OPERATORS_DATE_TIME;
+                break;
+                default:
+                    operators = Operator.OPERATORS_ARITHMATIC;
+            }
+            assertSameModel(type.toString(),
+                new DefaultComboBoxModel(operators),
+                SharedComboBoxModel.forOperators(type));
+        }
+
+        assertSameModel("count",
+            new DefaultComboBoxModel(Operator.OPERATORS_ARITHMATIC),
+            SharedComboBoxModel.forCountOperators());
+        assertSameModel("collection",
+            new DefaultComboBoxModel(CollectionOperator.values()),
+            SharedComboBoxModel.forCollectionOperators());
+        assertSameModel("compound",
+            new DefaultComboBoxModel(
+                CollectionOperator.getCompoundCollectionOperators()),
+            SharedComboBoxModel.forCompoundCollectionOperators());
+        assertSameModel("propType",
+            new DefaultComboBoxModel(DataModel.PROP_TYPES),
+            SharedComboBoxModel.forItems(DataModel.PROP_TYPES));
+        assertSameModel("empty", new DefaultComboBoxModel(new Object[0]),
+            SharedComboBoxModel.forItems(new Object[0]));
+    }
+
+
+    /**
+     * Selecting an item fires the same events as DefaultComboBoxModel,
+     * and two models that share their items keep their own selections.
+     */
+    public void testSelection() {
+
+        ClassDescription epochCD = DataModel.getClassDescription("Epoch");
+        SharedComboBoxModel first = SharedComboBoxModel.forAttributes(
+            epochCD, true);
+        SharedComboBoxModel second = SharedComboBoxModel.forAttributes(
+            epochCD, true);
+        DefaultComboBoxModel old = oldAttributeModel(epochCD, true);
+
+        int[] firstEvents = countEvents(first);
+        int[] oldEvents = countEvents(old);
+        Object[] selections = {epochCD.getAttribute("protocolID"),
+            epochCD.getAttribute("protocolID"), Attribute.IS_NULL,
+            null, null, Attribute.SELECT_ATTRIBUTE};
+        for (Object selection : selections) {
+            first.setSelectedItem(selection);
+            old.setSelectedItem(selection);
+            assertSame(old.getSelectedItem(), first.getSelectedItem());
+            assertEquals(oldEvents[0], firstEvents[0]);
+        }
+        assertEquals(4, firstEvents[0]);
+
+        first.setSelectedItem(Attribute.IS_NOT_NULL);
+        assertSame(Attribute.IS_NOT_NULL, first.getSelectedItem());
+        assertSame(Attribute.SELECT_ATTRIBUTE, second.getSelectedItem());
+    }
+
+
+    /**
+     * Check that the passed in models have the same items, in the
+     * same order, the same initially selected item, and find the
+     * same index for each item.
+     */
+    private static void assertSameModel(String message,
+                                        DefaultComboBoxModel expected,
+                                        SharedComboBoxModel actual) {
+
+        assertEquals(message, expected.getSize(), actual.getSize());
+        for (int index = 0; index < expected.getSize(); index++) {
+            Object item = expected.getElementAt(index);
+            assertSame(message, item, actual.getElementAt(index));
+            assertEquals(message, expected.getIndexOf(item),
+                         actual.getIndexOf(item));
+        }
+        assertNull(actual.getElementAt(-1));
+        assertNull(actual.getElementAt(actual.getSize()));
+        assertSame(message, expected.getSelectedItem(),
+                   actual.getSelectedItem());
+        assertEquals(message, -1, actual.getIndexOf("not an item"));
+    }
+
+
+    /**
+     * Build a model the way RowPanel.setAttributeComboBoxModel()
+     * did before SharedComboBoxModel existed.
+     */
+    private static DefaultComboBoxModel oldAttributeModel(
+        ClassDescription classDescription, boolean appendNulls) {
+
+        ArrayList<Attribute> attributes;
+        if ((classDescription != null) &&
+            (classDescription.getAllAttributes() != null)) {
+            attributes = classDescription.getAllAttributes();
+        }
+        else {
+            attributes = new ArrayList<Attribute>();
+        }
+
+        ArrayList<Attribute> copy = new ArrayList<Attribute>();
+        copy.add(Attribute.SELECT_ATTRIBUTE);
+        for (Attribute attribute : attributes) {
+            copy.add(attribute);
+        }
+        if (appendNulls) {
+            copy.add(Attribute.IS_NULL);
+            copy.add(Attribute.IS_NOT_NULL);
+        }
+        return(new DefaultComboBoxModel(copy.toArray(new Attribute[0])));
+    }
+
+
+    /**
+     * Get every ClassDescription that can be reached from the
+     * possible Classes Under Qualification.
+     */
+    private static List<ClassDescription> getClassDescriptions() {
+
+        Map<ClassDescription,Boolean> seen =
+            new IdentityHashMap<ClassDescription,Boolean>();
+        List<ClassDescription> result = new ArrayList<ClassDescription>();
+        List<ClassDescription> toVisit =
+            new ArrayList<ClassDescription>(DataModel.getPossibleCUQs());
+
+        while (!toVisit.isEmpty()) {
+            ClassDescription classDescription =
+                toVisit.remove(toVisit.size()-1);
+            if ((classDescription == null) ||
+                (seen.put(classDescription, Boolean.TRUE) != null)) {
+                continue;
+            }
+            result.add(classDescription);
+            for (Attribute attribute :
+                 classDescription.getAllAttributes()) {
+                toVisit.add(attribute.getClassDescription());
+            }
+        }
+        return(result);
+    }
+
+
+    /**
+     * Count the contentsChanged events the passed in model fires.
+     * The count is in the first element of the returned array.
+     */
+    private static int[] countEvents(ComboBoxModel model) {
+
+        final int[] count = new int[1];
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                count[0]++;
+            }
+        });
+        return(count);
+    }
+}